@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.content.pm.ApplicationInfo;
+import android.util.ArrayMap;
+import android.util.SparseIntArray;
+
+import androidx.annotation.VisibleForTesting;
+
+/**
+ * Remembers the last result of each {@link AppCounter} so summaries can be shown instantly.
+ *
+ * <p>Counts are persisted across process restarts. A count is up to date until a package is
+ * added, removed or changed, a managed profile is added or removed, or a permission grant
+ * changes. After that the last count is still served while {@link AppCounter} recounts in the
+ * background. A recount reuses the decision of every app whose uid did not change since the
+ * last count, so only the changed apps are evaluated again.
+ */
+public class AppCountCache {
+
+    @VisibleForTesting
+    static final String PREFS_NAME = "app_count_cache";
+
+    private static AppCountCache sInstance;
+
+    private final Context mContext;
+    private final SharedPreferences mPrefs;
+    // The counts taken in this process, with the decision for every app they evaluated.
+    private final ArrayMap<String, Count> mCounts = new ArrayMap<>();
+    // Incremented on every change. The generation of the latest change of each uid, and of the
+    // latest change which affects every app, tell which decisions are still valid.
+    private int mGeneration;
+    private final SparseIntArray mUidChangedAt = new SparseIntArray();
+    private int mAllChangedAt;
+
+    private final BroadcastReceiver mPackageReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            final int uid = intent.getIntExtra(Intent.EXTRA_UID, -1);
+            if (uid < 0) {
+                invalidate();
+            } else {
+                invalidateUid(uid);
+            }
+        }
+    };
+
+    private final BroadcastReceiver mProfileReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            invalidate();
+        }
+    };
+
+    public static synchronized AppCountCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new AppCountCache(context.getApplicationContext());
+            sInstance.startListening();
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    AppCountCache(Context context) {
+        mContext = context;
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    private void startListening() {
+        final IntentFilter packageFilter = new IntentFilter();
+        packageFilter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        packageFilter.addDataScheme("package");
+        mContext.registerReceiverForAllUsers(mPackageReceiver, packageFilter, null, null);
+
+        final IntentFilter profileFilter = new IntentFilter();
+        profileFilter.addAction(Intent.ACTION_MANAGED_PROFILE_ADDED);
+        profileFilter.addAction(Intent.ACTION_MANAGED_PROFILE_REMOVED);
+        mContext.registerReceiver(mProfileReceiver, profileFilter);
+
+        mContext.getPackageManager().addOnPermissionsChangeListener(this::invalidateUid);
+    }
+
+    /** Returns the last known count for {@code key}, or {@code null} if never counted. */
+    public synchronized Integer getCount(String key) {
+        final Count count = mCounts.get(key);
+        if (count != null) {
+            return count.mCount;
+        }
+        return mPrefs.contains(key) ? mPrefs.getInt(key, 0) : null;
+    }
+
+    /** Returns whether the count for {@code key} was taken after the latest change. */
+    public synchronized boolean isValid(String key) {
+        final Count count = mCounts.get(key);
+        return count != null && count.mGeneration == mGeneration;
+    }
+
+    /** Returns a token to pass to {@link #putCount} once a recount finishes. */
+    public synchronized int getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Returns whether the last count for {@code key} included {@code info}, or {@code null} if
+     * it must be evaluated again because the app is new or its uid changed since.
+     */
+    public synchronized Boolean getIncluded(String key, ApplicationInfo info) {
+        final Count count = mCounts.get(key);
+        if (count == null || mAllChangedAt > count.mGeneration
+                || mUidChangedAt.get(info.uid, 0) > count.mGeneration) {
+            return null;
+        }
+        return count.mIncluded.get(getAppKey(info));
+    }
+
+    /**
+     * Stores a count which was started at {@code generation}, with the decision taken for each
+     * app, keyed by {@link #getAppKey}. It is dropped if a later count was already stored.
+     */
+    public synchronized void putCount(String key, int count, ArrayMap<String, Boolean> included,
+            int generation) {
+        final Count last = mCounts.get(key);
+        if (last != null && last.mGeneration > generation) {
+            return;
+        }
+        mCounts.put(key, new Count(count, included, generation));
+        mPrefs.edit().putInt(key, count).apply();
+    }
+
+    /** Marks every count, and the decision for every app, as out of date. */
+    public synchronized void invalidate() {
+        mAllChangedAt = ++mGeneration;
+    }
+
+    /** Marks every count, and the decisions for the apps of {@code uid}, as out of date. */
+    public synchronized void invalidateUid(int uid) {
+        mUidChangedAt.put(uid, ++mGeneration);
+    }
+
+    static String getAppKey(ApplicationInfo info) {
+        return info.uid + ":" + info.packageName;
+    }
+
+    private static class Count {
+        final int mCount;
+        final ArrayMap<String, Boolean> mIncluded;
+        final int mGeneration;
+
+        Count(int count, ArrayMap<String, Boolean> included, int generation) {
+            mCount = count;
+            mIncluded = included;
+            mGeneration = generation;
+        }
+    }
+}
@@ -21,6 +21,7 @@ import android.content.pm.UserInfo;
 import android.os.AsyncTask;
 import android.os.UserHandle;
 import android.os.UserManager;
+import android.util.ArrayMap;
 
 import java.util.List;
 
@@ -28,14 +29,55 @@ public abstract class AppCounter extends AsyncTask<Void, Void, Integer> {
 
     protected final PackageManager mPm;
     protected final UserManager mUm;
+    private final Context mContext;
+
+    private AppCountCache mCountCache;
+    private int mCacheGeneration;
+    private Integer mReportedCount;
 
     public AppCounter(Context context, PackageManager packageManager) {
+        mContext = context;
         mPm = packageManager;
         mUm = (UserManager) context.getSystemService(Context.USER_SERVICE);
     }
 
+    /**
+     * Reports the last known count right away if there is one, and recounts in the background
+     * when packages or permissions changed since that count was taken. The recounted value is
+     * only reported if it differs from the one already reported.
+     */
+    public void executeCached() {
+        final String key = getCacheKey();
+        if (key == null) {
+            execute();
+            return;
+        }
+        mCountCache = AppCountCache.getInstance(mContext);
+        final Integer cachedCount = mCountCache.getCount(key);
+        if (cachedCount != null) {
+            mReportedCount = cachedCount;
+            onCountComplete(cachedCount);
+            if (mCountCache.isValid(key)) {
+                return;
+            }
+        }
+        mCacheGeneration = mCountCache.getGeneration();
+        execute();
+    }
+
     @Override
     protected Integer doInBackground(Void... params) {
+        if (mCountCache == null) {
+            return countApps(null /* key */, null /* included */);
+        }
+        final String key = getCacheKey();
+        final ArrayMap<String, Boolean> included = new ArrayMap<>();
+        final int count = countApps(key, included);
+        mCountCache.putCount(key, count, included, mCacheGeneration);
+        return count;
+    }
+
+    private int countApps(String key, ArrayMap<String, Boolean> included) {
         int count = 0;
         for (UserInfo user : mUm.getProfiles(UserHandle.myUserId())) {
             final List<ApplicationInfo> list =
@@ -44,7 +86,7 @@ public abstract class AppCounter extends AsyncTask<Void, Void, Integer> {
                             | (user.isAdmin() ? PackageManager.MATCH_ANY_USER : 0),
                             user.id);
             for (ApplicationInfo info : list) {
-                if (includeInCount(info)) {
+                if (isIncluded(key, info, included)) {
                     count++;
                 }
             }
@@ -52,15 +94,38 @@ public abstract class AppCounter extends AsyncTask<Void, Void, Integer> {
         return count;
     }
 
+    private boolean isIncluded(String key, ApplicationInfo info,
+            ArrayMap<String, Boolean> included) {
+        if (included == null) {
+            return includeInCount(info);
+        }
+        Boolean isIncluded = mCountCache.getIncluded(key, info);
+        if (isIncluded == null) {
+            isIncluded = includeInCount(info);
+        }
+        included.put(AppCountCache.getAppKey(info), isIncluded);
+        return isIncluded;
+    }
+
     @Override
     protected void onPostExecute(Integer count) {
-        onCountComplete(count);
+        if (mReportedCount == null || mReportedCount != count.intValue()) {
+            onCountComplete(count);
+        }
     }
 
     void executeInForeground() {
         onPostExecute(doInBackground());
     }
 
+    /**
+     * Returns the key under which {@link #executeCached()} remembers this counter's result, or
+     * {@code null} if the result should not be cached.
+     */
+    protected String getCacheKey() {
+        return null;
+    }
+
     protected abstract void onCountComplete(int num);
     protected abstract boolean includeInCount(ApplicationInfo info);
 }
@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import android.app.AppGlobals;
+import android.app.AppOpsManager;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.IPackageManager;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.os.RemoteException;
+import android.util.ArrayMap;
+import android.util.ArraySet;
+import android.util.Log;
+
+import androidx.annotation.VisibleForTesting;
+
+import com.android.internal.util.ArrayUtils;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Process wide snapshot of the permission and app op state used by the special app access
+ * bridges. Every query is answered from memory after its first binder call, so opening several
+ * special access screens in a row only pays for one sweep of each kind.
+ *
+ * <p>The snapshot is dropped whenever a package is added, removed or changed, a runtime
+ * permission is granted or revoked, or the mode of one of the queried app ops changes.
+ */
+public class AppOpsPermissionSnapshot {
+
+    private static final String TAG = "AppOpsPermSnapshot";
+
+    private static AppOpsPermissionSnapshot sInstance;
+
+    private final Context mContext;
+    private final IPackageManager mIPackageManager;
+    private final AppOpsManager mAppOpsManager;
+
+    private final ArrayMap<String, String[]> mAppOpPermissionPackages = new ArrayMap<>();
+    private final ArrayMap<String, List<PackageInfo>> mPackagesHoldingPermissions =
+            new ArrayMap<>();
+    private final ArrayMap<String, List<AppOpsManager.PackageOps>> mPackagesForOps =
+            new ArrayMap<>();
+    private final ArrayMap<String, ArrayMap<String, AppOpsManager.PackageOps>>
+            mPackageOpsByPackage = new ArrayMap<>();
+    private final ArrayMap<String, PackageInfo> mPackageInfos = new ArrayMap<>();
+    private final ArrayMap<String, Boolean> mPackageAvailable = new ArrayMap<>();
+    private final ArrayMap<String, Integer> mOpModes = new ArrayMap<>();
+    private final ArraySet<String> mWatchedOps = new ArraySet<>();
+
+    private boolean mListening;
+
+    private final BroadcastReceiver mPackageReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            invalidate();
+        }
+    };
+
+    private final PackageManager.OnPermissionsChangedListener mPermissionsChangedListener =
+            uid -> invalidate();
+
+    private final AppOpsManager.OnOpChangedListener mOpChangedListener =
+            (op, packageName) -> invalidate();
+
+    public static synchronized AppOpsPermissionSnapshot getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new AppOpsPermissionSnapshot(context.getApplicationContext(),
+                    AppGlobals.getPackageManager());
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    AppOpsPermissionSnapshot(Context context, IPackageManager packageManager) {
+        mContext = context;
+        mIPackageManager = packageManager;
+        mAppOpsManager = context.getSystemService(AppOpsManager.class);
+    }
+
+    /** Drops every cached answer; the next query goes back to the system services. */
+    public synchronized void invalidate() {
+        mAppOpPermissionPackages.clear();
+        mPackagesHoldingPermissions.clear();
+        mPackagesForOps.clear();
+        mPackageOpsByPackage.clear();
+        mPackageInfos.clear();
+        mPackageAvailable.clear();
+        mOpModes.clear();
+    }
+
+    /** Cached {@link IPackageManager#getAppOpPermissionPackages(String)}. */
+    public synchronized String[] getAppOpPermissionPackages(String permission)
+            throws RemoteException {
+        startListeningLocked();
+        String[] packages = mAppOpPermissionPackages.get(permission);
+        if (packages == null) {
+            packages = mIPackageManager.getAppOpPermissionPackages(permission);
+            if (packages == null) {
+                packages = new String[0];
+            }
+            mAppOpPermissionPackages.put(permission, packages);
+        }
+        return packages;
+    }
+
+    /** Returns whether {@code packageName} requests the app op {@code permission}. */
+    public boolean hasRequestedAppOpPermission(String permission, String packageName)
+            throws RemoteException {
+        return ArrayUtils.contains(getAppOpPermissionPackages(permission), packageName);
+    }
+
+    /** Cached {@link IPackageManager#isPackageAvailable(String, int)}. */
+    public synchronized boolean isPackageAvailable(String packageName, int userId)
+            throws RemoteException {
+        startListeningLocked();
+        final String key = userId + ":" + packageName;
+        Boolean available = mPackageAvailable.get(key);
+        if (available == null) {
+            available = mIPackageManager.isPackageAvailable(packageName, userId);
+            mPackageAvailable.put(key, available);
+        }
+        return available;
+    }
+
+    /** Cached {@link IPackageManager#getPackagesHoldingPermissions(String[], long, int)}. */
+    @SuppressWarnings("unchecked")
+    public synchronized List<PackageInfo> getPackagesHoldingPermissions(String[] permissions,
+            int userId) throws RemoteException {
+        startListeningLocked();
+        final String key = userId + ":" + Arrays.toString(permissions);
+        List<PackageInfo> packageInfos = mPackagesHoldingPermissions.get(key);
+        if (packageInfos == null) {
+            packageInfos = mIPackageManager.getPackagesHoldingPermissions(permissions, 0, userId)
+                    .getList();
+            if (packageInfos == null) {
+                packageInfos = Collections.emptyList();
+            }
+            mPackagesHoldingPermissions.put(key, packageInfos);
+        }
+        return packageInfos;
+    }
+
+    /** Cached {@link AppOpsManager#getPackagesForOps(int[])}. */
+    public synchronized List<AppOpsManager.PackageOps> getPackagesForOps(int[] ops) {
+        startListeningLocked();
+        watchOpsLocked(ops);
+        final String key = Arrays.toString(ops);
+        List<AppOpsManager.PackageOps> packageOps = mPackagesForOps.get(key);
+        if (packageOps == null) {
+            packageOps = mAppOpsManager.getPackagesForOps(ops);
+            if (packageOps == null) {
+                packageOps = Collections.emptyList();
+            }
+            mPackagesForOps.put(key, packageOps);
+        }
+        return packageOps;
+    }
+
+    /**
+     * Returns the ops of {@code packageName} and {@code uid} among
+     * {@link #getPackagesForOps(int[])}, or {@code null} if it has none of them.
+     */
+    public synchronized AppOpsManager.PackageOps getPackageOps(int[] ops, int uid,
+            String packageName) {
+        final String key = Arrays.toString(ops);
+        ArrayMap<String, AppOpsManager.PackageOps> packageOpsByPackage =
+                mPackageOpsByPackage.get(key);
+        if (packageOpsByPackage == null) {
+            final List<AppOpsManager.PackageOps> packageOps = getPackagesForOps(ops);
+            packageOpsByPackage = new ArrayMap<>(packageOps.size());
+            for (int i = 0, size = packageOps.size(); i < size; i++) {
+                final AppOpsManager.PackageOps packageOp = packageOps.get(i);
+                packageOpsByPackage.put(packageOp.getUid() + ":" + packageOp.getPackageName(),
+                        packageOp);
+            }
+            mPackageOpsByPackage.put(key, packageOpsByPackage);
+        }
+        return packageOpsByPackage.get(uid + ":" + packageName);
+    }
+
+    /**
+     * Cached {@link IPackageManager#getPackageInfo(String, long, int)} with the requested
+     * permissions, matching the package in any user.
+     */
+    public synchronized PackageInfo getPackageInfoWithPermissions(String packageName,
+            int userId) throws RemoteException {
+        startListeningLocked();
+        final String key = userId + ":" + packageName;
+        if (mPackageInfos.containsKey(key)) {
+            return mPackageInfos.get(key);
+        }
+        final PackageInfo packageInfo = mIPackageManager.getPackageInfo(packageName,
+                PackageManager.GET_PERMISSIONS | PackageManager.MATCH_ANY_USER, userId);
+        mPackageInfos.put(key, packageInfo);
+        return packageInfo;
+    }
+
+    /** Cached {@link AppOpsManager#unsafeCheckOpNoThrow(String, int, String)}. */
+    public synchronized int checkOpNoThrow(String op, int uid, String packageName) {
+        startListeningLocked();
+        watchOpsLocked(new int[] {AppOpsManager.strOpToOp(op)});
+        final String key = op + ":" + uid + ":" + packageName;
+        Integer mode = mOpModes.get(key);
+        if (mode == null) {
+            mode = mAppOpsManager.unsafeCheckOpNoThrow(op, uid, packageName);
+            mOpModes.put(key, mode);
+        }
+        return mode;
+    }
+
+    private void startListeningLocked() {
+        if (mListening) {
+            return;
+        }
+        mListening = true;
+        final IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addDataScheme("package");
+        mContext.registerReceiverForAllUsers(mPackageReceiver, filter, null, null);
+        mContext.getPackageManager().addOnPermissionsChangeListener(mPermissionsChangedListener);
+    }
+
+    private void watchOpsLocked(int[] ops) {
+        for (int op : ops) {
+            final String opStr = AppOpsManager.opToPublicName(op);
+            if (mWatchedOps.add(opStr)) {
+                try {
+                    mAppOpsManager.startWatchingMode(opStr, null, mOpChangedListener);
+                } catch (IllegalArgumentException e) {
+                    Log.w(TAG, "Can't watch app op " + opStr, e);
+                }
+            }
+        }
+    }
+}
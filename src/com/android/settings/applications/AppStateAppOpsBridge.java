@@ -15,13 +15,11 @@
  */
 package com.android.settings.applications;
 
-import android.app.AppGlobals;
 import android.app.AppOpsManager;
 import android.app.AppOpsManager.PackageOps;
 import android.content.Context;
 import android.content.pm.IPackageManager;
 import android.content.pm.PackageInfo;
-import android.content.pm.PackageManager;
 import android.os.RemoteException;
 import android.os.UserHandle;
 import android.os.UserManager;
@@ -48,45 +46,58 @@ public abstract class AppStateAppOpsBridge extends AppStateBaseBridge {
 
     private static final String TAG = "AppStateAppOpsBridge";
 
-    private final IPackageManager mIPackageManager;
     private final UserManager mUserManager;
     private final List<UserHandle> mProfiles;
-    private final AppOpsManager mAppOpsManager;
     private final Context mContext;
     private final int[] mAppOpsOpCodes;
     private final String[] mPermissions;
+    private final AppOpsPermissionSnapshot mSnapshot;
 
     public AppStateAppOpsBridge(Context context, ApplicationsState appState, Callback callback,
             int appOpsOpCode, String[] permissions) {
-        this(context, appState, callback, appOpsOpCode, permissions,
-                AppGlobals.getPackageManager());
+        this(context, appState, callback, new int[]{appOpsOpCode}, permissions);
     }
 
     AppStateAppOpsBridge(Context context, ApplicationsState appState, Callback callback,
             int[] appOpsOpCodes, String[] permissions) {
         this(context, appState, callback, appOpsOpCodes, permissions,
-                AppGlobals.getPackageManager());
+                AppOpsPermissionSnapshot.getInstance(context));
     }
 
     @VisibleForTesting
     AppStateAppOpsBridge(Context context, ApplicationsState appState, Callback callback,
             int appOpsOpCode, String[] permissions, IPackageManager packageManager) {
         this(context, appState, callback, new int[]{appOpsOpCode}, permissions,
-                packageManager);
+                new AppOpsPermissionSnapshot(context, packageManager));
     }
 
     AppStateAppOpsBridge(Context context, ApplicationsState appState, Callback callback,
-            int[] appOpsOpCodes, String[] permissions, IPackageManager packageManager) {
+            int[] appOpsOpCodes, String[] permissions, AppOpsPermissionSnapshot snapshot) {
         super(appState, callback);
         mContext = context;
-        mIPackageManager = packageManager;
+        mSnapshot = snapshot;
         mUserManager = UserManager.get(context);
         mProfiles = mUserManager.getUserProfiles();
-        mAppOpsManager = (AppOpsManager) context.getSystemService(Context.APP_OPS_SERVICE);
         mAppOpsOpCodes = appOpsOpCodes;
         mPermissions = permissions;
     }
 
+    /** Returns the shared permission and app op snapshot backing the bulk loads. */
+    protected AppOpsPermissionSnapshot getSnapshot() {
+        return mSnapshot;
+    }
+
+    /**
+     * Sets the mode of {@code op} of {@code permissionState} from the snapshot, unless it was
+     * among the bulk loaded package ops.
+     */
+    protected void loadMissingAppOpMode(PermissionState permissionState, String op, int uid) {
+        if (!permissionState.appOpModeLoaded) {
+            permissionState.appOpMode = mSnapshot.checkOpNoThrow(op, uid,
+                    permissionState.packageName);
+        }
+    }
+
     private boolean isThisUserAProfileOfCurrentUser(final int userId) {
         final int profilesMax = mProfiles.size();
         for (int i = 0; i < profilesMax; i++) {
@@ -112,8 +123,7 @@ public abstract class AppStateAppOpsBridge extends AppStateBaseBridge {
         PermissionState permissionState = new PermissionState(pkg, new UserHandle(UserHandle
                 .getUserId(uid)));
         try {
-            permissionState.packageInfo = mIPackageManager.getPackageInfo(pkg,
-                    PackageManager.GET_PERMISSIONS | PackageManager.MATCH_ANY_USER,
+            permissionState.packageInfo = mSnapshot.getPackageInfoWithPermissions(pkg,
                     permissionState.userHandle.getIdentifier());
             if (permissionState.packageInfo != null) {
                 // Check static permission state (whatever that is declared in package manifest)
@@ -133,9 +143,10 @@ public abstract class AppStateAppOpsBridge extends AppStateBaseBridge {
                 }
             }
             // Check app op state.
-            List<PackageOps> ops = mAppOpsManager.getOpsForPackage(uid, pkg, mAppOpsOpCodes);
-            if (ops != null && ops.size() > 0 && ops.get(0).getOps().size() > 0) {
-                permissionState.appOpMode = ops.get(0).getOps().get(0).getMode();
+            final PackageOps packageOps = mSnapshot.getPackageOps(mAppOpsOpCodes, uid, pkg);
+            if (packageOps != null && packageOps.getOps().size() > 0) {
+                permissionState.appOpMode = packageOps.getOps().get(0).getMode();
+                permissionState.appOpModeLoaded = true;
             }
         } catch (RemoteException e) {
             Log.w(TAG, "PackageManager is dead. Can't get package info " + pkg, e);
@@ -174,10 +185,7 @@ public abstract class AppStateAppOpsBridge extends AppStateBaseBridge {
         try {
             Set<String> packagesSet = new HashSet<>();
             for (String permission : mPermissions) {
-                String[] pkgs = mIPackageManager.getAppOpPermissionPackages(permission);
-                if (pkgs != null) {
-                    packagesSet.addAll(Arrays.asList(pkgs));
-                }
+                packagesSet.addAll(Arrays.asList(mSnapshot.getAppOpPermissionPackages(permission)));
             }
 
             if (packagesSet.isEmpty()) {
@@ -193,7 +201,7 @@ public abstract class AppStateAppOpsBridge extends AppStateBaseBridge {
                 final int profileId = profile.getIdentifier();
                 entries.put(profileId, entriesForProfile);
                 for (final String packageName : packagesSet) {
-                    final boolean isAvailable = mIPackageManager.isPackageAvailable(packageName,
+                    final boolean isAvailable = mSnapshot.isPackageAvailable(packageName,
                             profileId);
                     if (!shouldIgnorePackage(packageName) && isAvailable) {
                         final PermissionState newEntry = new PermissionState(packageName, profile);
@@ -227,11 +235,9 @@ public abstract class AppStateAppOpsBridge extends AppStateBaseBridge {
                 if (entriesForProfile == null) {
                     continue;
                 }
-                @SuppressWarnings("unchecked") final List<PackageInfo> packageInfos =
-                        mIPackageManager
-                                .getPackagesHoldingPermissions(mPermissions, 0,
-                                        profileId).getList();
-                final int packageInfoCount = packageInfos != null ? packageInfos.size() : 0;
+                final List<PackageInfo> packageInfos =
+                        mSnapshot.getPackagesHoldingPermissions(mPermissions, profileId);
+                final int packageInfoCount = packageInfos.size();
                 for (int i = 0; i < packageInfoCount; i++) {
                     final PackageInfo packageInfo = packageInfos.get(i);
                     final PermissionState pe = entriesForProfile.get(packageInfo.packageName);
@@ -258,9 +264,9 @@ public abstract class AppStateAppOpsBridge extends AppStateBaseBridge {
         }
 
         // Find out which packages have been granted permission from AppOps.
-        final List<AppOpsManager.PackageOps> packageOps = mAppOpsManager.getPackagesForOps(
+        final List<AppOpsManager.PackageOps> packageOps = mSnapshot.getPackagesForOps(
                 mAppOpsOpCodes);
-        final int packageOpsCount = packageOps != null ? packageOps.size() : 0;
+        final int packageOpsCount = packageOps.size();
         for (int i = 0; i < packageOpsCount; i++) {
             final AppOpsManager.PackageOps packageOp = packageOps.get(i);
             final int userId = UserHandle.getUserId(packageOp.getUid());
@@ -286,6 +292,7 @@ public abstract class AppStateAppOpsBridge extends AppStateBaseBridge {
                 continue;
             }
             pe.appOpMode = packageOp.getOps().get(0).getMode();
+            pe.appOpModeLoaded = true;
         }
     }
 
@@ -338,6 +345,8 @@ public abstract class AppStateAppOpsBridge extends AppStateBaseBridge {
         public boolean staticPermissionGranted;
         public boolean permissionDeclared;
         public int appOpMode;
+        // Whether appOpMode was read from the bulk loaded package ops.
+        boolean appOpModeLoaded;
 
         public PermissionState(String packageName, UserHandle userHandle) {
             this.packageName = packageName;
@@ -16,15 +16,11 @@
 package com.android.settings.applications;
 
 import android.Manifest;
-import android.app.AppGlobals;
 import android.app.AppOpsManager;
 import android.content.Context;
-import android.content.pm.IPackageManager;
-import android.content.pm.PackageManager;
 import android.os.RemoteException;
 import android.util.Log;
 
-import com.android.internal.util.ArrayUtils;
 import com.android.settingslib.applications.ApplicationsState;
 import com.android.settingslib.applications.ApplicationsState.AppEntry;
 import com.android.settingslib.applications.ApplicationsState.AppFilter;
@@ -40,14 +36,12 @@ public class AppStateInstallAppsBridge extends AppStateBaseBridge {
 
     private static final String TAG = AppStateInstallAppsBridge.class.getSimpleName();
 
-    private final IPackageManager mIpm;
-    private final AppOpsManager mAppOpsManager;
+    private final AppOpsPermissionSnapshot mSnapshot;
 
     public AppStateInstallAppsBridge(Context context, ApplicationsState appState,
             Callback callback) {
         super(appState, callback);
-        mIpm = AppGlobals.getPackageManager();
-        mAppOpsManager = (AppOpsManager) context.getSystemService(Context.APP_OPS_SERVICE);
+        mSnapshot = AppOpsPermissionSnapshot.getInstance(context);
     }
 
     @Override
@@ -57,44 +51,26 @@ public class AppStateInstallAppsBridge extends AppStateBaseBridge {
 
     @Override
     protected void loadAllExtraInfo() {
-        // TODO: consider making this a batch operation with a single binder call
+        // The requesting packages and app op modes come from the shared snapshot, so a full
+        // reload only costs binder calls for entries that changed since the last sweep.
         final List<AppEntry> allApps = mAppSession.getAllApps();
         for (int i = 0; i < allApps.size(); i++) {
             AppEntry currentEntry = allApps.get(i);
-            updateExtraInfo(currentEntry, currentEntry.info.packageName, currentEntry.info.uid);
+            currentEntry.extraInfo = createInstallAppsStateFor(
+                    currentEntry.info.packageName, currentEntry.info.uid);
         }
     }
 
-    private boolean hasRequestedAppOpPermission(String permission, String packageName) {
+    public InstallAppsState createInstallAppsStateFor(String packageName, int uid) {
+        final InstallAppsState appState = new InstallAppsState();
         try {
-            String[] packages = mIpm.getAppOpPermissionPackages(permission);
-            return ArrayUtils.contains(packages, packageName);
+            appState.permissionRequested = mSnapshot.hasRequestedAppOpPermission(
+                    Manifest.permission.REQUEST_INSTALL_PACKAGES, packageName);
         } catch (RemoteException exc) {
             Log.e(TAG, "PackageManager dead. Cannot get permission info");
-            return false;
-        }
-    }
-
-    private boolean hasPermission(String permission, int uid) {
-        try {
-            int result = mIpm.checkUidPermission(permission, uid);
-            return result == PackageManager.PERMISSION_GRANTED;
-        } catch (RemoteException e) {
-            Log.e(TAG, "PackageManager dead. Cannot get permission info");
-            return false;
         }
-    }
-
-    private int getAppOpMode(int appOpCode, int uid, String packageName) {
-        return mAppOpsManager.checkOpNoThrow(appOpCode, uid, packageName);
-    }
-
-    public InstallAppsState createInstallAppsStateFor(String packageName, int uid) {
-        final InstallAppsState appState = new InstallAppsState();
-        appState.permissionRequested = hasRequestedAppOpPermission(
-                Manifest.permission.REQUEST_INSTALL_PACKAGES, packageName);
-        appState.appOpMode = getAppOpMode(AppOpsManager.OP_REQUEST_INSTALL_PACKAGES, uid,
-                packageName);
+        appState.appOpMode = mSnapshot.checkOpNoThrow(AppOpsManager.OPSTR_REQUEST_INSTALL_PACKAGES,
+                uid, packageName);
         return appState;
     }
 
@@ -35,12 +35,9 @@ public class AppStateManageExternalStorageBridge extends AppStateAppOpsBridge {
             Manifest.permission.MANAGE_EXTERNAL_STORAGE
     };
 
-    private final AppOpsManager mAppOpsManager;
-
     public AppStateManageExternalStorageBridge(Context context, ApplicationsState appState,
             Callback callback) {
         super(context, appState, callback, AppOpsManager.strOpToOp(APP_OP_STR), PERMISSIONS);
-        mAppOpsManager = (AppOpsManager) context.getSystemService(Context.APP_OPS_SERVICE);
     }
 
     @Override
@@ -54,8 +51,7 @@ public class AppStateManageExternalStorageBridge extends AppStateAppOpsBridge {
         List<ApplicationsState.AppEntry> apps = mAppSession.getAllApps();
         for (ApplicationsState.AppEntry app : apps) {
             if (app.extraInfo instanceof PermissionState) {
-                ((PermissionState) app.extraInfo).appOpMode =  mAppOpsManager.unsafeCheckOpNoThrow(
-                        APP_OP_STR, app.info.uid, app.info.packageName);
+                loadMissingAppOpMode((PermissionState) app.extraInfo, APP_OP_STR, app.info.uid);
             }
         }
     }
@@ -63,7 +59,7 @@ public class AppStateManageExternalStorageBridge extends AppStateAppOpsBridge {
     @Override
     public PermissionState getPermissionInfo(String pkg, int uid) {
         PermissionState ps = super.getPermissionInfo(pkg, uid);
-        ps.appOpMode = mAppOpsManager.unsafeCheckOpNoThrow(APP_OP_STR, uid, pkg);
+        loadMissingAppOpMode(ps, APP_OP_STR, uid);
         return ps;
     }
 
@@ -33,15 +33,11 @@ import java.util.List;
  */
 public class AppStateMediaManagementAppsBridge extends AppStateAppOpsBridge {
 
-    private final AppOpsManager mAppOpsManager;
-
     public AppStateMediaManagementAppsBridge(Context context, ApplicationsState appState,
             Callback callback) {
         super(context, appState, callback,
                 AppOpsManager.strOpToOp(AppOpsManager.OPSTR_MANAGE_MEDIA),
                 new String[]{Manifest.permission.MANAGE_MEDIA});
-
-        mAppOpsManager = context.getSystemService(AppOpsManager.class);
     }
 
     @Override
@@ -57,7 +53,8 @@ public class AppStateMediaManagementAppsBridge extends AppStateAppOpsBridge {
         for (int i = 0; i < appCount; i++) {
             final AppEntry appEntry = allApps.get(i);
             if (appEntry.extraInfo instanceof PermissionState) {
-                updateExtraInfo(appEntry, appEntry.info.packageName, appEntry.info.uid);
+                loadMissingAppOpMode((PermissionState) appEntry.extraInfo,
+                        AppOpsManager.OPSTR_MANAGE_MEDIA, appEntry.info.uid);
             }
         }
     }
@@ -68,8 +65,7 @@ public class AppStateMediaManagementAppsBridge extends AppStateAppOpsBridge {
      */
     public PermissionState createPermissionState(String packageName, int uid) {
         final PermissionState permissionState = getPermissionInfo(packageName, uid);
-        permissionState.appOpMode = mAppOpsManager.unsafeCheckOpNoThrow(
-                AppOpsManager.OPSTR_MANAGE_MEDIA, uid, packageName);
+        loadMissingAppOpMode(permissionState, AppOpsManager.OPSTR_MANAGE_MEDIA, uid);
         return permissionState;
     }
 
@@ -18,6 +18,7 @@ package com.android.settings.applications;
 import android.app.usage.IUsageStatsManager;
 import android.app.usage.UsageEvents;
 import android.content.Context;
+import android.content.pm.ApplicationInfo;
 import android.os.RemoteException;
 import android.os.UserHandle;
 import android.os.UserManager;
@@ -83,6 +84,11 @@ public class AppStateNotificationBridge extends AppStateBaseBridge {
         }
 
         final Map<String, NotificationsSentState> map = getAggregatedUsageEvents();
+        final List<ApplicationInfo> infos = new ArrayList<>(apps.size());
+        for (AppEntry entry : apps) {
+            infos.add(entry.info);
+        }
+        mBackend.prefetchAppStates(mContext, infos);
         for (AppEntry entry : apps) {
             NotificationsSentState stats =
                     map.get(getKey(UserHandle.getUserId(entry.info.uid), entry.info.packageName));
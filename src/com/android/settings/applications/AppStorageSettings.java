@@ -124,6 +124,12 @@ public class AppStorageSettings extends AppInfoWithHeader
 
     @VisibleForTesting
     AppStorageSizesController mSizeController;
+    // Whether the shown sizes are cached ones, which may be out of date and must not enable the
+    // clear buttons.
+    @VisibleForTesting
+    boolean mShowingCachedStats;
+    // Whether the sizes are still being loaded, until then cached ones may be shown.
+    private boolean mLoadingStats;
 
     private ClearCacheObserver mClearCacheObserver;
     private ClearUserDataObserver mClearDataObserver;
@@ -200,6 +206,7 @@ public class AppStorageSettings extends AppInfoWithHeader
         }
         mMetricsFeatureProvider.action(getContext(),
                 SettingsEnums.ACTION_SETTINGS_CLEAR_APP_CACHE);
+        AppStorageStatsCache.getInstance(getContext()).invalidateAsync(mPackageName, mUserId);
         mPm.deleteApplicationCacheFiles(mPackageName, mClearCacheObserver);
     }
 
@@ -363,6 +370,7 @@ public class AppStorageSettings extends AppInfoWithHeader
         // Invoke uninstall or clear user data based on sysPackage
         String packageName = mAppEntry.info.packageName;
         Log.i(TAG, "Clearing user data for package : " + packageName);
+        AppStorageStatsCache.getInstance(getContext()).invalidateAsync(packageName, mUserId);
         if (mClearDataObserver == null) {
             mClearDataObserver = new ClearUserDataObserver();
         }
@@ -522,12 +530,14 @@ public class AppStorageSettings extends AppInfoWithHeader
     @Override
     public Loader<AppStorageStats> onCreateLoader(int id, Bundle args) {
         Context context = getContext();
-        return new FetchPackageStorageAsyncLoader(
-                context, new StorageStatsSource(context), mInfo, UserHandle.of(mUserId));
+        return new FetchPackageStorageAsyncLoader(context, new StorageStatsSource(context),
+                mInfo, UserHandle.of(mUserId), AppStorageStatsCache.getInstance(context));
     }
 
     @Override
     public void onLoadFinished(Loader<AppStorageStats> loader, AppStorageStats result) {
+        mLoadingStats = false;
+        mShowingCachedStats = false;
         mSizeController.setResult(result);
         updateUiWithSize(result);
     }
@@ -548,9 +558,25 @@ public class AppStorageSettings extends AppInfoWithHeader
             return;
         }
 
+        mLoadingStats = true;
+        // Show the last known sizes right away, the loader refines them once it completes.
+        if (mSizeController.getLastResult() == null) {
+            AppStorageStatsCache.getInstance(getContext()).getAsync(mInfo.volumeUuid,
+                    mPackageName, mUserId, this::onCachedStatsLoaded);
+        }
         getLoaderManager().restartLoader(1, Bundle.EMPTY, this);
     }
 
+    private void onCachedStatsLoaded(AppStorageStats cachedStats) {
+        if (cachedStats == null || !mLoadingStats || getView() == null
+                || mSizeController.getLastResult() != null) {
+            return;
+        }
+        mShowingCachedStats = true;
+        mSizeController.setResult(cachedStats);
+        updateUiWithSize(cachedStats);
+    }
+
     @VisibleForTesting
     void updateUiWithSize(AppStorageStats result) {
         if (mCacheCleared) {
@@ -562,7 +588,7 @@ public class AppStorageSettings extends AppInfoWithHeader
 
         mSizeController.updateUi(getContext());
 
-        if (result == null) {
+        if (result == null || mShowingCachedStats) {
             mButtonsPref.setButton1Enabled(false).setButton2Enabled(false);
         } else {
             long cacheSize = result.getCacheBytes();
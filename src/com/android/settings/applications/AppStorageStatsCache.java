@@ -0,0 +1,273 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.Uri;
+import android.os.UserHandle;
+import android.util.ArrayMap;
+
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import com.android.settings.utils.PersistedMapFile;
+import com.android.settingslib.applications.StorageStatsSource.AppStorageStats;
+import com.android.settingslib.utils.ThreadUtils;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Persisted cache of per package storage stats, so app storage screens and the storage dashboard
+ * can show the last known sizes before {@code StorageStatsManager} answers.
+ *
+ * <p>An entry is dropped when its package is updated or removed and when its cache or data is
+ * cleared from Settings. Entries older than {@link #STALE_AFTER_MILLIS} are still returned by
+ * {@link #get} for immediate display, but not by {@link #getFresh}. Cached stats may be out of
+ * date, so they are only shown, never used to decide what the user can act on.
+ *
+ * <p>The cache is read from a file, so it is only accessed from worker threads. The UI thread uses
+ * {@link #getAsync} and {@link #invalidateAsync}.
+ */
+public class AppStorageStatsCache {
+
+    private static final String TAG = "AppStorageStatsCache";
+    private static final String FILE_NAME = "app_storage_stats";
+    private static final int FILE_VERSION = 1;
+    // Far more than the packages of every user on every volume.
+    private static final int MAX_ENTRIES = 100_000;
+
+    // Only covers going back and forth between storage screens, app sizes change all the time.
+    @VisibleForTesting
+    static final long STALE_AFTER_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private static AppStorageStatsCache sInstance;
+
+    private final Context mContext;
+    private final PersistedMapFile<CachedStats> mFile;
+    private ArrayMap<String, CachedStats> mStats = new ArrayMap<>();
+    private boolean mLoaded;
+
+    private final BroadcastReceiver mPackageReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            final Uri data = intent.getData();
+            if (data == null) {
+                return;
+            }
+            final int uid = intent.getIntExtra(Intent.EXTRA_UID, -1);
+            final String packageName = data.getSchemeSpecificPart();
+            if (uid < 0) {
+                ThreadUtils.postOnBackgroundThread(() -> invalidatePackage(packageName));
+            } else {
+                invalidateAsync(packageName, UserHandle.getUserId(uid));
+            }
+        }
+    };
+
+    public static synchronized AppStorageStatsCache getInstance(Context context) {
+        if (sInstance == null) {
+            final Context appContext = context.getApplicationContext();
+            sInstance = new AppStorageStatsCache(appContext,
+                    new File(appContext.getCacheDir(), FILE_NAME));
+            sInstance.startListening();
+            ThreadUtils.postOnBackgroundThread(sInstance::preload);
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    AppStorageStatsCache(Context context, File file) {
+        mContext = context;
+        mFile = new PersistedMapFile<>(TAG, file, FILE_VERSION, MAX_ENTRIES,
+                new CachedStatsCodec());
+    }
+
+    private void startListening() {
+        final IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addDataScheme("package");
+        mContext.registerReceiverForAllUsers(mPackageReceiver, filter, null, null);
+    }
+
+    private synchronized void preload() {
+        ensureLoadedLocked();
+    }
+
+    /**
+     * Reads the last known stats for the package regardless of their age in the background, and
+     * delivers them, or null, on the main thread.
+     */
+    public void getAsync(String volumeUuid, String packageName, int userId,
+            Consumer<AppStorageStats> callback) {
+        ThreadUtils.postOnBackgroundThread(() -> {
+            final AppStorageStats stats = get(volumeUuid, packageName, userId);
+            ThreadUtils.postOnMainThread(() -> callback.accept(stats));
+        });
+    }
+
+    /** Returns the last known stats for the package regardless of their age, or null. */
+    @WorkerThread
+    public synchronized AppStorageStats get(String volumeUuid, String packageName, int userId) {
+        ensureLoadedLocked();
+        return mStats.get(getKey(volumeUuid, packageName, userId));
+    }
+
+    /** Returns the stats for the package if they are recent enough to skip a query, or null. */
+    @WorkerThread
+    public synchronized AppStorageStats getFresh(String volumeUuid, String packageName,
+            int userId) {
+        ensureLoadedLocked();
+        final CachedStats stats = mStats.get(getKey(volumeUuid, packageName, userId));
+        if (stats == null
+                || System.currentTimeMillis() - stats.mTimestamp > STALE_AFTER_MILLIS) {
+            return null;
+        }
+        return stats;
+    }
+
+    /** Records stats that were just returned by {@code StorageStatsManager}. */
+    @WorkerThread
+    public synchronized void put(String volumeUuid, String packageName, int userId,
+            AppStorageStats stats) {
+        if (stats == null) {
+            return;
+        }
+        ensureLoadedLocked();
+        mStats.put(getKey(volumeUuid, packageName, userId), new CachedStats(stats.getCodeBytes(),
+                stats.getDataBytes(), stats.getCacheBytes(), System.currentTimeMillis()));
+        scheduleWriteLocked();
+    }
+
+    /** Drops the stats of a package for one user in the background. */
+    public void invalidateAsync(String packageName, int userId) {
+        ThreadUtils.postOnBackgroundThread(() -> invalidate(packageName, userId));
+    }
+
+    /** Drops the stats of a package for one user, e.g. after its cache or data was cleared. */
+    @WorkerThread
+    public synchronized void invalidate(String packageName, int userId) {
+        ensureLoadedLocked();
+        final String suffix = "/" + userId + "/" + packageName;
+        boolean changed = false;
+        for (int i = mStats.size() - 1; i >= 0; i--) {
+            if (mStats.keyAt(i).endsWith(suffix)) {
+                mStats.removeAt(i);
+                changed = true;
+            }
+        }
+        if (changed) {
+            scheduleWriteLocked();
+        }
+    }
+
+    /** Drops the stats of a package for every user. */
+    @WorkerThread
+    public synchronized void invalidatePackage(String packageName) {
+        ensureLoadedLocked();
+        final String suffix = "/" + packageName;
+        boolean changed = false;
+        for (int i = mStats.size() - 1; i >= 0; i--) {
+            if (mStats.keyAt(i).endsWith(suffix)) {
+                mStats.removeAt(i);
+                changed = true;
+            }
+        }
+        if (changed) {
+            scheduleWriteLocked();
+        }
+    }
+
+    private static String getKey(String volumeUuid, String packageName, int userId) {
+        return Objects.toString(volumeUuid, "") + "/" + userId + "/" + packageName;
+    }
+
+    private void ensureLoadedLocked() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+        mStats = mFile.read();
+    }
+
+    private void scheduleWriteLocked() {
+        mFile.scheduleWrite(this::copyStats);
+    }
+
+    private synchronized ArrayMap<String, CachedStats> copyStats() {
+        return new ArrayMap<>(mStats);
+    }
+
+    private static class CachedStats implements AppStorageStats {
+        private final long mCodeBytes;
+        private final long mDataBytes;
+        private final long mCacheBytes;
+        private final long mTimestamp;
+
+        CachedStats(long codeBytes, long dataBytes, long cacheBytes, long timestamp) {
+            mCodeBytes = codeBytes;
+            mDataBytes = dataBytes;
+            mCacheBytes = cacheBytes;
+            mTimestamp = timestamp;
+        }
+
+        @Override
+        public long getCodeBytes() {
+            return mCodeBytes;
+        }
+
+        @Override
+        public long getDataBytes() {
+            return mDataBytes;
+        }
+
+        @Override
+        public long getCacheBytes() {
+            return mCacheBytes;
+        }
+
+        @Override
+        public long getTotalBytes() {
+            return mCodeBytes + mDataBytes;
+        }
+    }
+
+    private static class CachedStatsCodec implements PersistedMapFile.Codec<CachedStats> {
+        @Override
+        public CachedStats read(DataInputStream in) throws IOException {
+            return new CachedStats(in.readLong(), in.readLong(), in.readLong(), in.readLong());
+        }
+
+        @Override
+        public void write(DataOutputStream out, CachedStats stats) throws IOException {
+            out.writeLong(stats.mCodeBytes);
+            out.writeLong(stats.mDataBytes);
+            out.writeLong(stats.mCacheBytes);
+            out.writeLong(stats.mTimestamp);
+        }
+    }
+}
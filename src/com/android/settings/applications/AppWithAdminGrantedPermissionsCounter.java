@@ -22,6 +22,7 @@ import android.content.pm.PackageManager;
 import android.os.Build;
 import android.os.RemoteException;
 import android.os.UserHandle;
+import android.text.TextUtils;
 
 /**
  * Counts installed apps across all users that have been granted one or more specific permissions by
@@ -42,6 +43,11 @@ public abstract class AppWithAdminGrantedPermissionsCounter extends AppCounter {
         mDevicePolicyManager = devicePolicyManager;
     }
 
+    @Override
+    protected String getCacheKey() {
+        return "admin_granted_" + TextUtils.join(",", mPermissions);
+    }
+
     @Override
     protected boolean includeInCount(ApplicationInfo info) {
         return includeInCount(mPermissions, mDevicePolicyManager, mPm, mPackageManagerService,
@@ -85,7 +85,7 @@ public class ApplicationFeatureProviderImpl implements ApplicationFeatureProvide
         final CurrentUserAndManagedProfilePolicyInstalledAppCounter counter =
                 new CurrentUserAndManagedProfilePolicyInstalledAppCounter(mContext, mPm, callback);
         if (async) {
-            counter.execute();
+            counter.executeCached();
         } else {
             counter.executeInForeground();
         }
@@ -105,7 +105,7 @@ public class ApplicationFeatureProviderImpl implements ApplicationFeatureProvide
                 new CurrentUserAndManagedProfileAppWithAdminGrantedPermissionsCounter(mContext,
                         permissions, mPm, mPms, mDpm, callback);
         if (async) {
-            counter.execute();
+            counter.executeCached();
         } else {
             counter.executeInForeground();
         }
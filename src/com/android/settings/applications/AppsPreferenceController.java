@@ -152,7 +152,7 @@ public class AppsPreferenceController extends BasePreferenceController implement
                     mAllAppsInfoPref.setSummary(mContext.getString(R.string.apps_summary, num));
                 }
             }
-        }.execute();
+        }.executeCached();
     }
 
     @VisibleForTesting
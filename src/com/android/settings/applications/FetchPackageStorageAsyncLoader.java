@@ -38,13 +38,25 @@ public class FetchPackageStorageAsyncLoader extends AsyncLoaderCompat<AppStorage
     private final StorageStatsSource mSource;
     private final ApplicationInfo mInfo;
     private final UserHandle mUser;
+    private final AppStorageStatsCache mCache;
 
     public FetchPackageStorageAsyncLoader(Context context, @NonNull StorageStatsSource source,
             @NonNull ApplicationInfo info, @NonNull UserHandle user) {
+        this(context, source, info, user, null /* cache */);
+    }
+
+    /**
+     * Creates a loader that also records the fetched stats in {@code cache}, so the next screen
+     * showing this package can display them before its own query completes.
+     */
+    public FetchPackageStorageAsyncLoader(Context context, @NonNull StorageStatsSource source,
+            @NonNull ApplicationInfo info, @NonNull UserHandle user,
+            AppStorageStatsCache cache) {
         super(context);
         mSource = Preconditions.checkNotNull(source);
         mInfo = info;
         mUser = user;
+        mCache = cache;
     }
 
     @Override
@@ -52,6 +64,9 @@ public class FetchPackageStorageAsyncLoader extends AsyncLoaderCompat<AppStorage
         AppStorageStats result = null;
         try {
             result = mSource.getStatsForPackage(mInfo.volumeUuid, mInfo.packageName, mUser);
+            if (mCache != null) {
+                mCache.put(mInfo.volumeUuid, mInfo.packageName, mUser.getIdentifier(), result);
+            }
         } catch (NameNotFoundException | IOException e) {
             Log.w(TAG, "Package may have been removed during query, failing gracefully", e);
         }
@@ -38,6 +38,11 @@ public abstract class InstalledAppCounter extends AppCounter {
         mInstallReason = installReason;
     }
 
+    @Override
+    protected String getCacheKey() {
+        return "installed_apps_" + mInstallReason;
+    }
+
     @Override
     protected boolean includeInCount(ApplicationInfo info) {
         return includeInCount(mInstallReason, mPm, info);
@@ -46,6 +46,11 @@ import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public class ProcStatsData {
 
@@ -55,6 +60,16 @@ public class ProcStatsData {
 
     private static ProcessStats sStatsXfer;
 
+    // Below this many processes the target package evaluation is cheaper than handing it off.
+    private static final int MIN_PROCS_PER_WORKER = 16;
+    private static final int WORKER_COUNT =
+            Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    private static final long KEEP_ALIVE_SECONDS = 10;
+    private static final ThreadPoolExecutor sEvaluateExecutor = createEvaluateExecutor();
+
+    // How long stats pulled for a duration are reused before they are read again.
+    private static final long STATS_MAX_AGE_MILLIS = 60 * 1000;
+
     private PackageManager mPm;
     private Context mContext;
     private long memTotalTime;
@@ -73,6 +88,11 @@ public class ProcStatsData {
 
     private ArrayList<ProcStatsPackageEntry> pkgEntries;
 
+    // Stats recently pulled for each duration, so switching back and forth between the
+    // 3h/6h/12h/1d views does not re-read and re-parse them from the service.
+    private final LongSparseArray<ProcessStats> mStatsByDuration = new LongSparseArray<>();
+    private final LongSparseArray<Long> mStatsLoadedAt = new LongSparseArray<>();
+
     public ProcStatsData(Context context, boolean useXfer) {
         mContext = context;
         mPm = context.getPackageManager();
@@ -85,6 +105,15 @@ public class ProcStatsData {
         }
     }
 
+    private static ThreadPoolExecutor createEvaluateExecutor() {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                WORKER_COUNT, WORKER_COUNT, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                runnable -> new Thread(runnable, "ProcStats Evaluate"));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
     public void setTotalTime(int totalTime) {
         memTotalTime = totalTime;
     }
@@ -125,10 +154,25 @@ public class ProcStatsData {
     public void setDuration(long duration) {
         if (duration != mDuration) {
             mDuration = duration;
-            refreshStats(true);
+            final ProcessStats cached = getRecentStats(duration);
+            if (cached != null) {
+                mStats = cached;
+            }
+            refreshStats(cached == null);
         }
     }
 
+    private ProcessStats getRecentStats(long duration) {
+        final Long loadedAt = mStatsLoadedAt.get(duration);
+        if (loadedAt == null
+                || SystemClock.elapsedRealtime() - loadedAt > STATS_MAX_AGE_MILLIS) {
+            mStatsByDuration.remove(duration);
+            mStatsLoadedAt.remove(duration);
+            return null;
+        }
+        return mStatsByDuration.get(duration);
+    }
+
     public long getDuration() {
         return mDuration;
     }
@@ -172,11 +216,12 @@ public class ProcStatsData {
 
     private void createPkgMap(ArrayList<ProcStatsEntry> procEntries, ProcessDataCollection bgTotals,
             ProcessDataCollection runTotals) {
+        evaluateTargetPackages(procEntries, bgTotals, runTotals);
+
         // Combine processes into packages.
         ArrayMap<String, ProcStatsPackageEntry> pkgMap = new ArrayMap<>();
         for (int i = procEntries.size() - 1; i >= 0; i--) {
             ProcStatsEntry proc = procEntries.get(i);
-            proc.evaluateTargetPackage(mPm, mStats, bgTotals, runTotals, sEntryCompare, mUseUss);
             ProcStatsPackageEntry pkg = pkgMap.get(proc.mBestTargetPackage);
             if (pkg == null) {
                 pkg = new ProcStatsPackageEntry(proc.mBestTargetPackage, memTotalTime);
@@ -187,6 +232,70 @@ public class ProcStatsData {
         }
     }
 
+    /**
+     * Resolves {@link ProcStatsEntry#mBestTargetPackage} for every process. Processes shared
+     * by several packages need package manager lookups and extra stats computation, so the
+     * work is split into chunks that are evaluated on separate cores.
+     */
+    private void evaluateTargetPackages(ArrayList<ProcStatsEntry> procEntries,
+            ProcessDataCollection bgTotals, ProcessDataCollection runTotals) {
+        final int count = procEntries.size();
+        final int workers = Math.min(WORKER_COUNT, count / MIN_PROCS_PER_WORKER);
+        if (workers <= 1) {
+            evaluateTargetPackages(procEntries, 0, count, bgTotals, runTotals);
+            return;
+        }
+
+        final int chunk = (count + workers) / (workers + 1);
+        final List<Future<?>> futures = new ArrayList<>(workers);
+        final int[] starts = new int[workers];
+        for (int i = 0; i < workers; i++) {
+            final int start = i * chunk;
+            final int end = Math.min(count, start + chunk);
+            starts[i] = start;
+            // The collections are used as scratch space, so each worker needs its own copy.
+            final ProcessDataCollection workerBgTotals = new ProcessDataCollection(
+                    ProcessStats.ALL_SCREEN_ADJ, mMemStates, mStates);
+            final ProcessDataCollection workerRunTotals = new ProcessDataCollection(
+                    ProcessStats.ALL_SCREEN_ADJ, mMemStates, ProcessStats.NON_CACHED_PROC_STATES);
+            futures.add(sEvaluateExecutor.submit(() -> evaluateTargetPackages(
+                    procEntries, start, end, workerBgTotals, workerRunTotals)));
+        }
+        // The calling thread takes the last chunk itself.
+        evaluateTargetPackages(procEntries, Math.min(count, workers * chunk), count,
+                bgTotals, runTotals);
+
+        // Every process needs a target package, so wait for the chunks even when interrupted,
+        // and evaluate a chunk here if its worker failed.
+        boolean interrupted = false;
+        for (int i = 0; i < workers; i++) {
+            while (true) {
+                try {
+                    futures.get(i).get();
+                    break;
+                } catch (ExecutionException e) {
+                    Log.w(TAG, "Failed to evaluate target packages, retrying sequentially", e);
+                    evaluateTargetPackages(procEntries, starts[i],
+                            Math.min(count, starts[i] + chunk), bgTotals, runTotals);
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void evaluateTargetPackages(ArrayList<ProcStatsEntry> procEntries, int start,
+            int end, ProcessDataCollection bgTotals, ProcessDataCollection runTotals) {
+        for (int i = start; i < end; i++) {
+            procEntries.get(i).evaluateTargetPackage(mPm, mStats, bgTotals, runTotals,
+                    sEntryCompare, mUseUss);
+        }
+    }
+
     private void distributeZRam(double zramWeight) {
         // Distribute kernel's Z-Ram across processes, based on how much they have been running.
         // The idea is that the memory used by the kernel for this is not really the kernel's
@@ -194,25 +303,25 @@ public class ProcStatsData {
         // much a process runs for as a sign of the proportion of Z-Ram it is responsible for.
 
         long zramMem = (long) (zramWeight / memTotalTime);
+        final int pkgCount = pkgEntries.size();
+        final long[] pkgRunTimes = new long[pkgCount];
+        final long[] pkgMaxRunTimes = new long[pkgCount];
         long totalTime = 0;
-        for (int i = pkgEntries.size() - 1; i >= 0; i--) {
+        for (int i = pkgCount - 1; i >= 0; i--) {
             ProcStatsPackageEntry entry = pkgEntries.get(i);
             for (int j = entry.mEntries.size() - 1; j >= 0; j--) {
                 ProcStatsEntry proc = entry.mEntries.get(j);
-                totalTime += proc.mRunDuration;
+                pkgRunTimes[i] += proc.mRunDuration;
+                if (proc.mRunDuration > pkgMaxRunTimes[i]) {
+                    pkgMaxRunTimes[i] = proc.mRunDuration;
+                }
             }
+            totalTime += pkgRunTimes[i];
         }
-        for (int i = pkgEntries.size() - 1; i >= 0 && totalTime > 0; i--) {
+        for (int i = pkgCount - 1; i >= 0 && totalTime > 0; i--) {
             ProcStatsPackageEntry entry = pkgEntries.get(i);
-            long pkgRunTime = 0;
-            long maxRunTime = 0;
-            for (int j = entry.mEntries.size() - 1; j >= 0; j--) {
-                ProcStatsEntry proc = entry.mEntries.get(j);
-                pkgRunTime += proc.mRunDuration;
-                if (proc.mRunDuration > maxRunTime) {
-                    maxRunTime = proc.mRunDuration;
-                }
-            }
+            long pkgRunTime = pkgRunTimes[i];
+            long maxRunTime = pkgMaxRunTimes[i];
             long pkgZRam = (zramMem*pkgRunTime)/totalTime;
             if (pkgZRam > 0) {
                 zramMem -= pkgZRam;
@@ -269,7 +378,12 @@ public class ProcStatsData {
         final ArrayList<ProcStatsEntry> procEntries = new ArrayList<>();
         if (DEBUG) Log.d(TAG, "-------------------- PULLING PROCESSES");
 
+        // Processes and services are collected in the same walk over the package states.
+        // A service may live in a process that is only added later in the walk, so services
+        // are attached once all processes are known.
         final ProcessMap<ProcStatsEntry> entriesMap = new ProcessMap<ProcStatsEntry>();
+        final ArrayList<ServiceState> services = new ArrayList<>();
+        final ArrayList<ProcessStats.PackageState> servicePackages = new ArrayList<>();
         for (int ipkg = 0, N = mStats.mPackages.getMap().size(); ipkg < N; ipkg++) {
             final SparseArray<LongSparseArray<ProcessStats.PackageState>> pkgUids = mStats.mPackages
                     .getMap().valueAt(ipkg);
@@ -304,6 +418,13 @@ public class ProcStatsData {
                             ent.addPackage(st.mPackageName);
                         }
                     }
+                    for (int is = 0, NS = st.mServices.size(); is < NS; is++) {
+                        final ServiceState ss = st.mServices.valueAt(is);
+                        if (ss.getProcessName() != null) {
+                            services.add(ss);
+                            servicePackages.add(st);
+                        }
+                    }
                 }
             }
         }
@@ -311,30 +432,18 @@ public class ProcStatsData {
         if (DEBUG) Log.d(TAG, "-------------------- MAPPING SERVICES");
 
         // Add in service info.
-        for (int ip = 0, N = mStats.mPackages.getMap().size(); ip < N; ip++) {
-            SparseArray<LongSparseArray<ProcessStats.PackageState>> uids = mStats.mPackages.getMap()
-                    .valueAt(ip);
-            for (int iu = 0; iu < uids.size(); iu++) {
-                LongSparseArray<ProcessStats.PackageState> vpkgs = uids.valueAt(iu);
-                for (int iv = 0; iv < vpkgs.size(); iv++) {
-                    ProcessStats.PackageState ps = vpkgs.valueAt(iv);
-                    for (int is = 0, NS = ps.mServices.size(); is < NS; is++) {
-                        ServiceState ss = ps.mServices.valueAt(is);
-                        if (ss.getProcessName() != null) {
-                            ProcStatsEntry ent = entriesMap.get(ss.getProcessName(),
-                                    uids.keyAt(iu));
-                            if (ent != null) {
-                                if (DEBUG) Log.d(TAG, "Adding service " + ps.mPackageName
-                                            + "/" + ss.getName() + "/" + uids.keyAt(iu)
-                                            + " to proc " + ss.getProcessName());
-                                ent.addService(ss);
-                            } else {
-                                Log.w(TAG, "No process " + ss.getProcessName() + "/"
-                                        + uids.keyAt(iu) + " for service " + ss.getName());
-                            }
-                        }
-                    }
-                }
+        for (int is = 0, NS = services.size(); is < NS; is++) {
+            final ServiceState ss = services.get(is);
+            final ProcessStats.PackageState ps = servicePackages.get(is);
+            ProcStatsEntry ent = entriesMap.get(ss.getProcessName(), ps.mUid);
+            if (ent != null) {
+                if (DEBUG) Log.d(TAG, "Adding service " + ps.mPackageName
+                            + "/" + ss.getName() + "/" + ps.mUid
+                            + " to proc " + ss.getProcessName());
+                ent.addService(ss);
+            } else {
+                Log.w(TAG, "No process " + ss.getProcessName() + "/"
+                        + ps.mUid + " for service " + ss.getName());
             }
         }
 
@@ -353,6 +462,9 @@ public class ProcStatsData {
             }
             if (mStats.mReadError != null) {
                 Log.w(TAG, "Failure reading process stats: " + mStats.mReadError);
+            } else {
+                mStatsByDuration.put(mDuration, mStats);
+                mStatsLoadedAt.put(mDuration, SystemClock.elapsedRealtime());
             }
         } catch (RemoteException e) {
             Log.e(TAG, "RemoteException:", e);
@@ -130,6 +130,7 @@ public class UsageAccessDetails extends AppInfoWithHeader implements OnPreferenc
                 mUsageState.packageInfo.requestedPermissions)) {
             mAppOpsManager.setMode(OP_LOADER_USAGE_STATS, uid, mPackageName, newAppOpMode);
         }
+        AppOpsPermissionSnapshot.getInstance(getContext()).invalidate();
     }
 
     @VisibleForTesting
@@ -30,6 +30,7 @@ import androidx.preference.Preference.OnPreferenceChangeListener;
 import com.android.settings.R;
 import com.android.settings.Settings;
 import com.android.settings.applications.AppInfoWithHeader;
+import com.android.settings.applications.AppOpsPermissionSnapshot;
 import com.android.settings.applications.AppStateAlarmsAndRemindersBridge;
 import com.android.settingslib.RestrictedSwitchPreference;
 import com.android.settingslib.applications.ApplicationsState.AppEntry;
@@ -108,6 +109,7 @@ public class AlarmsAndRemindersDetails extends AppInfoWithHeader
         final int uid = mPackageInfo.applicationInfo.uid;
         mAppOpsManager.setUidMode(AppOpsManager.OPSTR_SCHEDULE_EXACT_ALARM, uid,
                 newState ? AppOpsManager.MODE_ALLOWED : AppOpsManager.MODE_ERRORED);
+        AppOpsPermissionSnapshot.getInstance(getContext()).invalidate();
     }
 
     private void logPermissionChange(boolean newState, String packageName) {
@@ -30,6 +30,7 @@ import androidx.preference.Preference;
 import com.android.settings.R;
 import com.android.settings.SettingsPreferenceFragment;
 import com.android.settings.applications.AppStorageSettings;
+import com.android.settings.applications.AppStorageStatsCache;
 import com.android.settings.applications.FetchPackageStorageAsyncLoader;
 import com.android.settingslib.applications.ApplicationsState;
 import com.android.settingslib.applications.StorageStatsSource;
@@ -59,9 +60,25 @@ public class AppStoragePreferenceController extends AppInfoPreferenceControllerB
 
     @Override
     public void onResume() {
+        if (mLastResult == null) {
+            final ApplicationsState.AppEntry entry = mParent.getAppEntry();
+            if (entry != null && entry.info != null) {
+                // Show the last known size until the loader comes back with a fresh one.
+                AppStorageStatsCache.getInstance(mContext).getAsync(entry.info.volumeUuid,
+                        entry.info.packageName, UserHandle.myUserId(), this::onCachedStatsLoaded);
+            }
+        }
         mParent.getLoaderManager().restartLoader(mParent.LOADER_STORAGE, Bundle.EMPTY, this);
     }
 
+    private void onCachedStatsLoaded(StorageStatsSource.AppStorageStats cachedStats) {
+        if (cachedStats == null || mLastResult != null || mPreference == null) {
+            return;
+        }
+        mLastResult = cachedStats;
+        updateState(mPreference);
+    }
+
     @Override
     public void onPause() {
         mParent.getLoaderManager().destroyLoader(mParent.LOADER_STORAGE);
@@ -89,7 +106,8 @@ public class AppStoragePreferenceController extends AppInfoPreferenceControllerB
     @Override
     public Loader<StorageStatsSource.AppStorageStats> onCreateLoader(int id, Bundle args) {
         return new FetchPackageStorageAsyncLoader(mContext, new StorageStatsSource(mContext),
-                mParent.getAppEntry().info, UserHandle.of(UserHandle.myUserId()));
+                mParent.getAppEntry().info, UserHandle.of(UserHandle.myUserId()),
+                AppStorageStatsCache.getInstance(mContext));
     }
 
     @Override
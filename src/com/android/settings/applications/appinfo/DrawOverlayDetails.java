@@ -33,6 +33,7 @@ import androidx.preference.SwitchPreference;
 import com.android.settings.R;
 import com.android.settings.Utils;
 import com.android.settings.applications.AppInfoWithHeader;
+import com.android.settings.applications.AppOpsPermissionSnapshot;
 import com.android.settings.applications.AppStateAppOpsBridge.PermissionState;
 import com.android.settings.applications.AppStateOverlayBridge;
 import com.android.settings.applications.AppStateOverlayBridge.OverlayState;
@@ -114,6 +115,7 @@ public class DrawOverlayDetails extends AppInfoWithHeader implements OnPreferenc
         mAppOpsManager.setMode(AppOpsManager.OP_SYSTEM_ALERT_WINDOW,
                 mPackageInfo.applicationInfo.uid, mPackageName, newState
                         ? AppOpsManager.MODE_ALLOWED : AppOpsManager.MODE_ERRORED);
+        AppOpsPermissionSnapshot.getInstance(getContext()).invalidate();
     }
 
     @VisibleForTesting
@@ -31,6 +31,7 @@ import androidx.preference.SwitchPreference;
 
 import com.android.settings.R;
 import com.android.settings.applications.AppInfoWithHeader;
+import com.android.settings.applications.AppOpsPermissionSnapshot;
 import com.android.settings.applications.AppStateAppOpsBridge.PermissionState;
 import com.android.settings.applications.AppStateManageExternalStorageBridge;
 import com.android.settings.overlay.FeatureFactory;
@@ -112,6 +113,7 @@ public class ManageExternalStorageDetails extends AppInfoWithHeader implements
         mAppOpsManager.setUidMode(AppOpsManager.OP_MANAGE_EXTERNAL_STORAGE,
                 mPackageInfo.applicationInfo.uid, newState
                         ? AppOpsManager.MODE_ALLOWED : AppOpsManager.MODE_ERRORED);
+        AppOpsPermissionSnapshot.getInstance(getContext()).invalidate();
     }
 
     private void logSpecialPermissionChange(boolean newState, String packageName) {
@@ -27,6 +27,7 @@ import androidx.preference.SwitchPreference;
 
 import com.android.settings.R;
 import com.android.settings.applications.AppInfoWithHeader;
+import com.android.settings.applications.AppOpsPermissionSnapshot;
 import com.android.settings.applications.AppStateAppOpsBridge.PermissionState;
 import com.android.settings.applications.AppStateMediaManagementAppsBridge;
 import com.android.settingslib.applications.ApplicationsState.AppEntry;
@@ -77,6 +78,7 @@ public class MediaManagementAppsDetails extends AppInfoWithHeader implements
     private void setCanManageMedia(boolean newState) {
         mAppOpsManager.setUidMode(AppOpsManager.OP_MANAGE_MEDIA, mPackageInfo.applicationInfo.uid,
                 newState ? AppOpsManager.MODE_ALLOWED : AppOpsManager.MODE_ERRORED);
+        AppOpsPermissionSnapshot.getInstance(getContext()).invalidate();
     }
 
     private void logPermissionChange(boolean newState, String packageName) {
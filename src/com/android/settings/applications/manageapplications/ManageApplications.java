@@ -117,6 +117,7 @@ import com.android.settings.core.InstrumentedFragment;
 import com.android.settings.core.SubSettingLauncher;
 import com.android.settings.dashboard.profileselector.ProfileSelectFragment;
 import com.android.settings.fuelgauge.HighPowerDetail;
+import com.android.settings.notification.CachingNotificationBackend;
 import com.android.settings.notification.ConfigureNotificationSettings;
 import com.android.settings.notification.NotificationBackend;
 import com.android.settings.notification.app.AppNotificationSettings;
@@ -317,7 +318,7 @@ public class ManageApplications extends InstrumentedFragment
             mListType = LIST_TYPE_NOTIFICATION;
             mUsageStatsManager = IUsageStatsManager.Stub.asInterface(
                     ServiceManager.getService(Context.USAGE_STATS_SERVICE));
-            mNotificationBackend = new NotificationBackend();
+            mNotificationBackend = new CachingNotificationBackend(getContext());
             mSortOrder = R.id.sort_order_recent_notification;
         } else {
             mListType = LIST_TYPE_MAIN;
@@ -35,6 +35,7 @@ import androidx.preference.Preference;
 
 import com.android.settings.R;
 import com.android.settings.Utils;
+import com.android.settings.applications.AppStorageStatsCache;
 import com.android.settings.dashboard.DashboardFragment;
 import com.android.settings.dashboard.profileselector.ProfileSelectFragment;
 import com.android.settings.deviceinfo.storage.SecondaryUserController;
@@ -263,7 +264,8 @@ public class StorageCategoryFragment extends DashboardFragment
         return new StorageAsyncLoader(context, mUserManager,
                 mSelectedStorageEntry.getFsUuid(),
                 new StorageStatsSource(context),
-                context.getPackageManager());
+                context.getPackageManager(),
+                AppStorageStatsCache.getInstance(context));
     }
 
     @Override
@@ -42,6 +42,7 @@ import androidx.preference.Preference;
 
 import com.android.settings.R;
 import com.android.settings.Utils;
+import com.android.settings.applications.AppStorageStatsCache;
 import com.android.settings.dashboard.DashboardFragment;
 import com.android.settings.deviceinfo.storage.AutomaticStorageManagementSwitchPreferenceController;
 import com.android.settings.deviceinfo.storage.DiskInitFragment;
@@ -49,6 +50,7 @@ import com.android.settings.deviceinfo.storage.SecondaryUserController;
 import com.android.settings.deviceinfo.storage.StorageAsyncLoader;
 import com.android.settings.deviceinfo.storage.StorageEntry;
 import com.android.settings.deviceinfo.storage.StorageItemPreferenceController;
+import com.android.settings.deviceinfo.storage.StorageResultCache;
 import com.android.settings.deviceinfo.storage.StorageSelectionPreferenceController;
 import com.android.settings.deviceinfo.storage.StorageUsageProgressBarPreferenceController;
 import com.android.settings.deviceinfo.storage.StorageUtils;
@@ -63,6 +65,7 @@ import com.android.settingslib.core.instrumentation.MetricsFeatureProvider;
 import com.android.settingslib.deviceinfo.PrivateStorageInfo;
 import com.android.settingslib.deviceinfo.StorageManagerVolumeProvider;
 import com.android.settingslib.search.SearchIndexable;
+import com.android.settingslib.utils.ThreadUtils;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -101,6 +104,15 @@ public class StorageDashboardFragment extends DashboardFragment
     private StorageEntry mSelectedStorageEntry;
     private PrivateStorageInfo mStorageInfo;
     private SparseArray<StorageAsyncLoader.StorageResult> mAppsResult;
+    // The categories loaded so far, until mAppsResult is loaded.
+    private SparseArray<StorageAsyncLoader.StorageResult> mPartialAppsResult;
+    // Whether mAppsResult and mStorageInfo come from the persisted snapshot of the last
+    // breakdown, which is only shown until they are loaded again.
+    private boolean mAppsResultIsSnapshot;
+    private boolean mStorageInfoIsSnapshot;
+    // Tells the snapshot read of the latest refreshUi() from the ones of earlier calls.
+    private int mSnapshotGeneration;
+    private StorageResultCache mStorageResultCache;
 
     private StorageItemPreferenceController mPreferenceController;
     private VolumeOptionMenuController mOptionMenuController;
@@ -241,9 +253,13 @@ public class StorageDashboardFragment extends DashboardFragment
             return;
         }
         if (mSelectedStorageEntry.isPrivate()) {
+            final boolean isQuotaSupported = isQuotaSupported();
             mStorageInfo = null;
             mAppsResult = null;
-            maybeSetLoading(isQuotaSupported());
+            mPartialAppsResult = null;
+            mAppsResultIsSnapshot = false;
+            mStorageInfoIsSnapshot = false;
+            maybeSetLoading(isQuotaSupported);
 
             // To prevent flicker, sets null volume to hide category preferences.
             // onReceivedSizes will setVolume with the volume of selected storage.
@@ -251,6 +267,9 @@ public class StorageDashboardFragment extends DashboardFragment
 
             // Stats data is only available on private volumes.
             getLoaderManager().restartLoader(STORAGE_JOB_ID, Bundle.EMPTY, this);
+            if (isQuotaSupported) {
+                loadSnapshot();
+            }
             getLoaderManager()
                  .restartLoader(VOLUME_SIZE_JOB_ID, Bundle.EMPTY, new VolumeSizeCallbacks());
             getLoaderManager().restartLoader(ICON_JOB_ID, Bundle.EMPTY, new IconLoaderCallbacks());
@@ -292,6 +311,7 @@ public class StorageDashboardFragment extends DashboardFragment
         mUserManager = context.getSystemService(UserManager.class);
         mIsWorkProfile = false;
         mUserId = UserHandle.myUserId();
+        mStorageResultCache = StorageResultCache.getInstance(context);
 
         super.onAttach(context);
         use(AutomaticStorageManagementSwitchPreferenceController.class).setFragmentManager(
@@ -357,7 +377,7 @@ public class StorageDashboardFragment extends DashboardFragment
     }
 
     private void onReceivedSizes() {
-        if (mStorageInfo == null || mAppsResult == null) {
+        if (mStorageInfo == null || (mAppsResult == null && mPartialAppsResult == null)) {
             return;
         }
 
@@ -377,6 +397,11 @@ public class StorageDashboardFragment extends DashboardFragment
             }
         }
 
+        if (mAppsResult == null) {
+            // Shows the categories loaded so far, the others are filled in as they complete.
+            mPreferenceController.onPartialLoad(mPartialAppsResult, mUserId);
+            return;
+        }
         mPreferenceController.onLoadFinished(mAppsResult, mUserId);
         updateSecondaryUserControllers(mSecondaryUsers, mAppsResult);
         setSecondaryUsersVisible(true);
@@ -460,16 +485,27 @@ public class StorageDashboardFragment extends DashboardFragment
     public Loader<SparseArray<StorageAsyncLoader.StorageResult>> onCreateLoader(int id,
             Bundle args) {
         final Context context = getContext();
-        return new StorageAsyncLoader(context, mUserManager,
+        final StorageAsyncLoader loader = new StorageAsyncLoader(context, mUserManager,
                 mSelectedStorageEntry.getFsUuid(),
                 new StorageStatsSource(context),
-                context.getPackageManager());
+                context.getPackageManager(),
+                AppStorageStatsCache.getInstance(context));
+        loader.setPartialResultHandler(partialResult -> {
+            if (mAppsResult == null && isAdded() && getView() != null) {
+                mPartialAppsResult = partialResult;
+                onReceivedSizes();
+            }
+        });
+        return loader;
     }
 
     @Override
     public void onLoadFinished(Loader<SparseArray<StorageAsyncLoader.StorageResult>> loader,
             SparseArray<StorageAsyncLoader.StorageResult> data) {
         mAppsResult = data;
+        mPartialAppsResult = null;
+        mAppsResultIsSnapshot = false;
+        maybeSaveSnapshot();
         onReceivedSizes();
     }
 
@@ -526,6 +562,52 @@ public class StorageDashboardFragment extends DashboardFragment
         }
     }
 
+    /**
+     * Reads the last breakdown of the selected volume off the UI thread, and shows it until the
+     * breakdown is loaded again.
+     */
+    private void loadSnapshot() {
+        final int generation = ++mSnapshotGeneration;
+        final String fsUuid = mSelectedStorageEntry.getFsUuid();
+        final StorageResultCache storageResultCache = mStorageResultCache;
+        ThreadUtils.postOnBackgroundThread(() -> {
+            final StorageResultCache.Snapshot snapshot = storageResultCache.get(fsUuid);
+            if (snapshot != null) {
+                ThreadUtils.postOnMainThread(() -> onSnapshotLoaded(generation, snapshot));
+            }
+        });
+    }
+
+    private void onSnapshotLoaded(int generation, StorageResultCache.Snapshot snapshot) {
+        if (generation != mSnapshotGeneration || !isAdded() || getView() == null) {
+            return;
+        }
+        // The snapshot is only a first frame, loaded categories are never replaced with it.
+        if (mAppsResult != null || mPartialAppsResult != null) {
+            return;
+        }
+        mAppsResult = snapshot.results;
+        mAppsResultIsSnapshot = true;
+        if (mStorageInfo == null) {
+            mStorageInfo = snapshot.storageInfo;
+            mStorageInfoIsSnapshot = true;
+        }
+        onReceivedSizes();
+    }
+
+    private void maybeSaveSnapshot() {
+        if (mStorageInfo == null || mAppsResult == null || mAppsResultIsSnapshot
+                || mStorageInfoIsSnapshot) {
+            return;
+        }
+        final String fsUuid = mSelectedStorageEntry.getFsUuid();
+        final PrivateStorageInfo storageInfo = mStorageInfo;
+        final SparseArray<StorageAsyncLoader.StorageResult> appsResult = mAppsResult;
+        final StorageResultCache storageResultCache = mStorageResultCache;
+        ThreadUtils.postOnBackgroundThread(
+                () -> storageResultCache.put(fsUuid, storageInfo, appsResult));
+    }
+
     private boolean isQuotaSupported() {
         return mSelectedStorageEntry.isMounted()
                 && getActivity().getSystemService(StorageStatsManager.class)
@@ -601,6 +683,8 @@ public class StorageDashboardFragment extends DashboardFragment
             }
 
             mStorageInfo = privateStorageInfo;
+            mStorageInfoIsSnapshot = false;
+            maybeSaveSnapshot();
             onReceivedSizes();
         }
     }
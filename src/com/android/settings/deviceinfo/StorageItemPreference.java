@@ -34,6 +34,8 @@ public class StorageItemPreference extends Preference {
     private ProgressBar mProgressBar;
     private static final int PROGRESS_MAX = 100;
     private int mProgressPercent = UNINITIALIZED;
+    // Whether to animate the next progress change, e.g. from a cached size to the loaded one.
+    private boolean mAnimateProgress;
     private long mStorageSize;
 
     public StorageItemPreference(Context context) {
@@ -48,6 +50,7 @@ public class StorageItemPreference extends Preference {
     public void setStorageSize(long size, long total) {
         mStorageSize = size;
         setSummary(StorageUtils.getStorageSizeLabel(getContext(), size));
+        mAnimateProgress = mProgressPercent != UNINITIALIZED;
 
         if (total == 0) {
             mProgressPercent = 0;
@@ -66,7 +69,8 @@ public class StorageItemPreference extends Preference {
             return;
 
         mProgressBar.setMax(PROGRESS_MAX);
-        mProgressBar.setProgress(mProgressPercent);
+        mProgressBar.setProgress(mProgressPercent, mAnimateProgress);
+        mAnimateProgress = false;
     }
 
     @Override
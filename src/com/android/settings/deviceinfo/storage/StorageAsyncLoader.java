@@ -28,23 +28,38 @@ import android.content.pm.PackageManager;
 import android.content.pm.PackageManager.NameNotFoundException;
 import android.content.pm.UserInfo;
 import android.database.Cursor;
-import android.net.Uri;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.os.UserHandle;
 import android.os.UserManager;
 import android.provider.MediaStore;
 import android.provider.MediaStore.Files.FileColumns;
 import android.provider.MediaStore.MediaColumns;
-import android.util.ArraySet;
+import android.util.ArrayMap;
 import android.util.Log;
 import android.util.SparseArray;
+import android.util.SparseBooleanArray;
+import android.util.SparseIntArray;
+import android.util.SparseLongArray;
 
+import androidx.annotation.VisibleForTesting;
+
+import com.android.settings.applications.AppStorageStatsCache;
 import com.android.settingslib.applications.StorageStatsSource;
 import com.android.settingslib.utils.AsyncLoaderCompat;
+import com.android.settingslib.utils.ThreadUtils;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * StorageAsyncLoader is a Loader which loads categorized app information and external stats for all
@@ -55,18 +70,66 @@ public class StorageAsyncLoader
     private UserManager mUserManager;
     private static final String TAG = "StorageAsyncLoader";
 
+    // Categories of a StorageResult which are loaded separately.
+    public static final int CATEGORY_APPS = 1;
+    public static final int CATEGORY_IMAGES = 1 << 1;
+    public static final int CATEGORY_VIDEOS = 1 << 2;
+    public static final int CATEGORY_AUDIO = 1 << 3;
+    public static final int CATEGORY_DOCUMENTS_AND_OTHER = 1 << 4;
+    public static final int CATEGORY_TRASH = 1 << 5;
+    public static final int ALL_CATEGORIES = CATEGORY_APPS | CATEGORY_IMAGES | CATEGORY_VIDEOS
+            | CATEGORY_AUDIO | CATEGORY_DOCUMENTS_AND_OTHER | CATEGORY_TRASH;
+    // Categories which are loaded together by one MediaStore query.
+    private static final int FILE_CATEGORIES = CATEGORY_IMAGES | CATEGORY_VIDEOS
+            | CATEGORY_AUDIO | CATEGORY_DOCUMENTS_AND_OTHER | CATEGORY_TRASH;
+    // Files without a mime type, like directories, are only counted when they are trashed.
+    // MediaProvider only accepts plain columns in projections and group by clauses, so this is
+    // filtered with a selection rather than grouped on.
+    @VisibleForTesting
+    static final String FILES_SELECTION = MediaColumns.MIME_TYPE + " IS NOT NULL OR "
+            + MediaColumns.IS_TRASHED + "=1";
+
+    private static final int THREAD_COUNT = 4;
+    private static final long KEEP_ALIVE_SECONDS = 10;
+    // Shared by all loaders, so the binder calls and MediaStore queries of all users and
+    // categories run concurrently but bounded.
+    private static final ThreadPoolExecutor sExecutor = createExecutor();
+
     private String mUuid;
     private StorageStatsSource mStatsManager;
     private PackageManager mPackageManager;
-    private ArraySet<String> mSeenPackages;
+    private AppStorageStatsCache mStatsCache;
+    private PartialResultHandler mPartialResultHandler;
+    private final SparseArray<Context> mPerUserContexts = new SparseArray<>();
+    // Indexes of the package names of all users, so their code bytes are keyed by int.
+    private final ArrayMap<String, Integer> mPackageIndexes = new ArrayMap<>();
 
     public StorageAsyncLoader(Context context, UserManager userManager,
             String uuid, StorageStatsSource source, PackageManager pm) {
+        this(context, userManager, uuid, source, pm, null /* statsCache */);
+    }
+
+    /**
+     * Creates a loader that reuses recent per package stats from {@code statsCache} instead of
+     * querying them again, and records the ones it had to query.
+     */
+    public StorageAsyncLoader(Context context, UserManager userManager,
+            String uuid, StorageStatsSource source, PackageManager pm,
+            AppStorageStatsCache statsCache) {
         super(context);
         mUserManager = userManager;
         mUuid = uuid;
         mStatsManager = source;
         mPackageManager = pm;
+        mStatsCache = statsCache;
+    }
+
+    /**
+     * Sets a handler which gets the results loaded so far on the main thread, each time a
+     * category of a user is loaded.
+     */
+    public void setPartialResultHandler(PartialResultHandler handler) {
+        mPartialResultHandler = handler;
     }
 
     @Override
@@ -75,7 +138,7 @@ public class StorageAsyncLoader
     }
 
     private SparseArray<StorageResult> getStorageResultsForUsers() {
-        mSeenPackages = new ArraySet<>();
+        final long startTime = SystemClock.elapsedRealtime();
         final SparseArray<StorageResult> results = new SparseArray<>();
         final List<UserInfo> infos = mUserManager.getUsers();
 
@@ -83,37 +146,157 @@ public class StorageAsyncLoader
         Collections.sort(infos,
                 (userInfo, otherUser) -> Integer.compare(userInfo.id, otherUser.id));
 
+        final CompletionService<CategoryResult> completionService =
+                new ExecutorCompletionService<>(sExecutor);
+        final List<Future<CategoryResult>> futures = new ArrayList<>();
         for (UserInfo info : infos) {
-            final StorageResult result = getAppsAndGamesSize(info.id);
-
-            result.imagesSize = getFilesSize(info.id, MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
-                    null /* queryArgs */);
-            result.videosSize = getFilesSize(info.id, MediaStore.Video.Media.EXTERNAL_CONTENT_URI,
-                    null /* queryArgs */);
-            result.audioSize = getFilesSize(info.id, MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
-                    null /* queryArgs */);
-
-            final Bundle documentsAndOtherQueryArgs = new Bundle();
-            documentsAndOtherQueryArgs.putString(ContentResolver.QUERY_ARG_SQL_SELECTION,
-                    FileColumns.MEDIA_TYPE + "!=" + FileColumns.MEDIA_TYPE_IMAGE
-                    + " AND " + FileColumns.MEDIA_TYPE + "!=" + FileColumns.MEDIA_TYPE_VIDEO
-                    + " AND " + FileColumns.MEDIA_TYPE + "!=" + FileColumns.MEDIA_TYPE_AUDIO
-                    + " AND " + FileColumns.MIME_TYPE + " IS NOT NULL");
-            result.documentsAndOtherSize = getFilesSize(info.id,
-                    MediaStore.Files.getContentUri(MediaStore.VOLUME_EXTERNAL),
-                    documentsAndOtherQueryArgs);
-
-            final Bundle trashQueryArgs = new Bundle();
-            trashQueryArgs.putInt(MediaStore.QUERY_ARG_MATCH_TRASHED, MediaStore.MATCH_ONLY);
-            result.trashSize = getFilesSize(info.id,
-                    MediaStore.Files.getContentUri(MediaStore.VOLUME_EXTERNAL), trashQueryArgs);
-
-            results.put(info.id, result);
+            final int userId = info.id;
+            final StorageResult result = new StorageResult();
+            result.loadedCategories = 0;
+            results.put(userId, result);
+            futures.add(completionService.submit(() -> getAppsAndGamesSize(userId)));
+            futures.add(completionService.submit(() -> getFilesSizes(userId)));
+        }
+
+        // Merges the categories in the order they complete, only on this thread.
+        try {
+            for (int i = 0, size = futures.size(); i < size; i++) {
+                final CategoryResult categoryResult = completionService.take().get();
+                categoryResult.mergeInto(results.get(categoryResult.mUserId));
+                if (isLoadInBackgroundCanceled()) {
+                    cancelAll(futures);
+                    return results;
+                }
+                if (mPartialResultHandler != null && i < size - 1) {
+                    postPartialResult(results);
+                }
+            }
+        } catch (InterruptedException e) {
+            Log.w(TAG, "Interrupted while loading storage results");
+            cancelAll(futures);
+            Thread.currentThread().interrupt();
+            return results;
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Failed to load storage results", e);
+            cancelAll(futures);
+            throw new IllegalStateException(e.getCause());
+        }
+
+        // Code bytes may share between different profiles. To know all the duplicate code size
+        // and we can get a reasonable system size in StorageItemPreferenceController.
+        final SparseBooleanArray seenPackages = new SparseBooleanArray();
+        for (int i = 0, size = results.size(); i < size; i++) {
+            final StorageResult result = results.valueAt(i);
+            if (result.mCodeBytes == null) {
+                continue;
+            }
+            for (int j = 0, count = result.mCodeBytes.size(); j < count; j++) {
+                final int packageIndex = result.mCodeBytes.keyAt(j);
+                if (seenPackages.get(packageIndex)) {
+                    result.duplicateCodeSize += result.mCodeBytes.valueAt(j);
+                } else {
+                    seenPackages.put(packageIndex, true);
+                }
+            }
+            result.mCodeBytes = null;
         }
+        Log.d(TAG, String.format("getStorageResultsForUsers() users=%d in %d/ms",
+                results.size(), (SystemClock.elapsedRealtime() - startTime)));
         return results;
     }
 
-    private long getFilesSize(int userId, Uri uri, Bundle queryArgs) {
+    private void postPartialResult(SparseArray<StorageResult> results) {
+        final SparseArray<StorageResult> partialResults = new SparseArray<>(results.size());
+        for (int i = 0, size = results.size(); i < size; i++) {
+            partialResults.put(results.keyAt(i), results.valueAt(i).copy());
+        }
+        final PartialResultHandler handler = mPartialResultHandler;
+        ThreadUtils.postOnMainThread(() -> {
+            // Like LoaderManager, only deliver to a started loader.
+            if (isStarted() && !isAbandoned()) {
+                handler.handlePartialResult(partialResults);
+            }
+        });
+    }
+
+    private static void cancelAll(List<Future<CategoryResult>> futures) {
+        for (Future<CategoryResult> future : futures) {
+            future.cancel(true /* mayInterruptIfRunning */);
+        }
+    }
+
+    private static ThreadPoolExecutor createExecutor() {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                THREAD_COUNT, THREAD_COUNT, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                runnable -> {
+                    final Thread thread = new Thread(runnable, "Storage Category Loader");
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Gets the file sizes of all categories of a user in one MediaStore query, grouped by media
+     * type and trash state.
+     */
+    private CategoryResult getFilesSizes(int userId) {
+        final CategoryResult result = new CategoryResult(userId, FILE_CATEGORIES);
+        final Context perUserContext = getPerUserContext(userId);
+        if (perUserContext == null) {
+            return result;
+        }
+
+        final Bundle queryArgs = new Bundle();
+        queryArgs.putInt(MediaStore.QUERY_ARG_MATCH_TRASHED, MediaStore.MATCH_INCLUDE);
+        queryArgs.putString(ContentResolver.QUERY_ARG_SQL_SELECTION, FILES_SELECTION);
+        queryArgs.putString(ContentResolver.QUERY_ARG_SQL_GROUP_BY,
+                FileColumns.MEDIA_TYPE + ", " + MediaColumns.IS_TRASHED);
+        try (Cursor cursor = perUserContext.getContentResolver().query(
+                MediaStore.Files.getContentUri(MediaStore.VOLUME_EXTERNAL),
+                new String[] {
+                        FileColumns.MEDIA_TYPE,
+                        MediaColumns.IS_TRASHED,
+                        "sum(" + MediaColumns.SIZE + ")"},
+                queryArgs,
+                null /* cancellationSignal */)) {
+            if (cursor == null) {
+                return result;
+            }
+            while (cursor.moveToNext()) {
+                final long size = cursor.getLong(2);
+                if (cursor.getInt(1) != 0) {
+                    result.mTrashSize += size;
+                    continue;
+                }
+                switch (cursor.getInt(0)) {
+                    case FileColumns.MEDIA_TYPE_IMAGE:
+                        result.mImagesSize += size;
+                        break;
+                    case FileColumns.MEDIA_TYPE_VIDEO:
+                        result.mVideosSize += size;
+                        break;
+                    case FileColumns.MEDIA_TYPE_AUDIO:
+                        result.mAudioSize += size;
+                        break;
+                    default:
+                        result.mDocumentsAndOtherSize += size;
+                        break;
+                }
+            }
+        }
+        return result;
+    }
+
+    private Context getPerUserContext(int userId) {
+        synchronized (mPerUserContexts) {
+            final Context cachedContext = mPerUserContexts.get(userId);
+            if (cachedContext != null) {
+                return cachedContext;
+            }
+        }
         final Context perUserContext;
         try {
             perUserContext = getContext().createPackageContextAsUser(
@@ -122,41 +305,71 @@ public class StorageAsyncLoader
                 UserHandle.of(userId));
         } catch (NameNotFoundException e) {
             Log.e(TAG, "Not able to get Context for user ID " + userId);
-            return 0L;
+            return null;
+        }
+        synchronized (mPerUserContexts) {
+            mPerUserContexts.put(userId, perUserContext);
         }
+        return perUserContext;
+    }
 
-        try (Cursor cursor = perUserContext.getContentResolver().query(
-                uri,
-                new String[] {"sum(" + MediaColumns.SIZE + ")"},
-                queryArgs,
-                null /* cancellationSignal */)) {
-            if (cursor == null) {
-                return 0L;
+    private int getPackageIndex(String packageName) {
+        synchronized (mPackageIndexes) {
+            final Integer index = mPackageIndexes.get(packageName);
+            if (index != null) {
+                return index;
             }
-            return cursor.moveToFirst() ? cursor.getLong(0) : 0L;
+            final int newIndex = mPackageIndexes.size();
+            mPackageIndexes.put(packageName, newIndex);
+            return newIndex;
         }
     }
 
-    private StorageResult getAppsAndGamesSize(int userId) {
+    private CategoryResult getAppsAndGamesSize(int userId) {
         Log.d(TAG, "Loading apps");
         final List<ApplicationInfo> applicationInfos =
                 mPackageManager.getInstalledApplicationsAsUser(0, userId);
-        final StorageResult result = new StorageResult();
+        final CategoryResult result = new CategoryResult(userId, CATEGORY_APPS);
+        result.mCodeBytes = new SparseLongArray(applicationInfos.size());
+        // Packages sharing a uid share its cache quota, so it is queried once per uid.
+        final SparseLongArray cacheQuotas = new SparseLongArray(applicationInfos.size());
+        final SparseIntArray packagesPerUid = new SparseIntArray(applicationInfos.size());
+        for (int i = 0, size = applicationInfos.size(); i < size; i++) {
+            final int uid = applicationInfos.get(i).uid;
+            packagesPerUid.put(uid, packagesPerUid.get(uid) + 1);
+        }
         final UserHandle myUser = UserHandle.of(userId);
         for (int i = 0, size = applicationInfos.size(); i < size; i++) {
             final ApplicationInfo app = applicationInfos.get(i);
 
-            StorageStatsSource.AppStorageStats stats;
-            try {
-                stats = mStatsManager.getStatsForPackage(mUuid, app.packageName, myUser);
-            } catch (NameNotFoundException | IOException e) {
-                // This may happen if the package was removed during our calculation.
-                Log.w(TAG, "App unexpectedly not found", e);
-                continue;
+            StorageStatsSource.AppStorageStats stats = mStatsCache != null
+                    ? mStatsCache.getFresh(mUuid, app.packageName, userId) : null;
+            if (stats == null) {
+                try {
+                    // The stats of a uid are those of its only package. Packages sharing a uid are
+                    // queried one by one, since their code is told apart across profiles.
+                    stats = packagesPerUid.get(app.uid) == 1
+                            ? mStatsManager.getStatsForUid(mUuid, app.uid)
+                            : mStatsManager.getStatsForPackage(mUuid, app.packageName, myUser);
+                } catch (NameNotFoundException | IOException e) {
+                    // This may happen if the package was removed during our calculation.
+                    Log.w(TAG, "App unexpectedly not found", e);
+                    continue;
+                }
+                if (mStatsCache != null) {
+                    mStatsCache.put(mUuid, app.packageName, userId, stats);
+                }
             }
 
             final long dataSize = stats.getDataBytes();
-            final long cacheQuota = mStatsManager.getCacheQuotaBytes(mUuid, app.uid);
+            final int quotaIndex = cacheQuotas.indexOfKey(app.uid);
+            final long cacheQuota;
+            if (quotaIndex >= 0) {
+                cacheQuota = cacheQuotas.valueAt(quotaIndex);
+            } else {
+                cacheQuota = mStatsManager.getCacheQuotaBytes(mUuid, app.uid);
+                cacheQuotas.put(app.uid, cacheQuota);
+            }
             final long cacheBytes = stats.getCacheBytes();
             long blamedSize = dataSize + stats.getCodeBytes();
             // Technically, we could overages as freeable on the storage settings screen.
@@ -167,37 +380,32 @@ public class StorageAsyncLoader
                 blamedSize = blamedSize - cacheBytes + cacheQuota;
             }
 
-            // Code bytes may share between different profiles. To know all the duplicate code size
-            // and we can get a reasonable system size in StorageItemPreferenceController.
-            if (mSeenPackages.contains(app.packageName)) {
-                result.duplicateCodeSize += stats.getCodeBytes();
-            } else {
-                mSeenPackages.add(app.packageName);
-            }
+            // Duplicate code size across profiles is worked out once all users are loaded.
+            result.mCodeBytes.put(getPackageIndex(app.packageName), stats.getCodeBytes());
 
             switch (app.category) {
                 case CATEGORY_GAME:
-                    result.gamesSize += blamedSize;
+                    result.mGamesSize += blamedSize;
                     break;
                 case CATEGORY_AUDIO:
                 case CATEGORY_VIDEO:
                 case CATEGORY_IMAGE:
-                    result.allAppsExceptGamesSize += blamedSize;
+                    result.mAllAppsExceptGamesSize += blamedSize;
                     break;
                 default:
                     // The deprecated game flag does not set the category.
                     if ((app.flags & ApplicationInfo.FLAG_IS_GAME) != 0) {
-                        result.gamesSize += blamedSize;
+                        result.mGamesSize += blamedSize;
                         break;
                     }
-                    result.allAppsExceptGamesSize += blamedSize;
+                    result.mAllAppsExceptGamesSize += blamedSize;
                     break;
             }
         }
 
         Log.d(TAG, "Loading external stats");
         try {
-            result.externalStats = mStatsManager.getExternalStorageStats(mUuid,
+            result.mExternalStats = mStatsManager.getExternalStorageStats(mUuid,
                     UserHandle.of(userId));
         } catch (IOException e) {
             Log.w(TAG, e);
@@ -226,6 +434,72 @@ public class StorageAsyncLoader
         public long cacheSize;
         public long duplicateCodeSize;
         public StorageStatsSource.ExternalStorageStats externalStats;
+
+        // The categories loaded so far, only partial results miss some of them.
+        public int loadedCategories = ALL_CATEGORIES;
+
+        // Code bytes by package index, only kept while loading.
+        private SparseLongArray mCodeBytes;
+
+        /** Whether the sizes of {@code category} are loaded. */
+        public boolean isLoaded(int category) {
+            return (loadedCategories & category) == category;
+        }
+
+        StorageResult copy() {
+            final StorageResult result = new StorageResult();
+            result.gamesSize = gamesSize;
+            result.allAppsExceptGamesSize = allAppsExceptGamesSize;
+            result.audioSize = audioSize;
+            result.imagesSize = imagesSize;
+            result.videosSize = videosSize;
+            result.documentsAndOtherSize = documentsAndOtherSize;
+            result.trashSize = trashSize;
+            result.cacheSize = cacheSize;
+            result.duplicateCodeSize = duplicateCodeSize;
+            result.externalStats = externalStats;
+            result.loadedCategories = loadedCategories;
+            return result;
+        }
+    }
+
+    /** The sizes of some categories of a user, loaded on {@link #sExecutor}. */
+    private static final class CategoryResult {
+        final int mUserId;
+        final int mCategories;
+        // For CATEGORY_APPS.
+        long mGamesSize;
+        long mAllAppsExceptGamesSize;
+        SparseLongArray mCodeBytes;
+        StorageStatsSource.ExternalStorageStats mExternalStats;
+        // For FILE_CATEGORIES.
+        long mImagesSize;
+        long mVideosSize;
+        long mAudioSize;
+        long mDocumentsAndOtherSize;
+        long mTrashSize;
+
+        CategoryResult(int userId, int categories) {
+            mUserId = userId;
+            mCategories = categories;
+        }
+
+        void mergeInto(StorageResult result) {
+            if ((mCategories & CATEGORY_APPS) != 0) {
+                result.gamesSize = mGamesSize;
+                result.allAppsExceptGamesSize = mAllAppsExceptGamesSize;
+                result.externalStats = mExternalStats;
+                result.mCodeBytes = mCodeBytes;
+            }
+            if ((mCategories & FILE_CATEGORIES) != 0) {
+                result.imagesSize = mImagesSize;
+                result.videosSize = mVideosSize;
+                result.audioSize = mAudioSize;
+                result.documentsAndOtherSize = mDocumentsAndOtherSize;
+                result.trashSize = mTrashSize;
+            }
+            result.loadedCategories |= mCategories;
+        }
     }
 
     /**
@@ -236,4 +510,17 @@ public class StorageAsyncLoader
         /** Overrides this method to get storage result once it's available. */
         void handleResult(SparseArray<StorageResult> result);
     }
+
+    /**
+     * PartialResultHandler gets the results of {@link StorageAsyncLoader} loaded so far, before
+     * all categories of all users are loaded. It's called on the main thread, only while the
+     * loader is started.
+     */
+    public interface PartialResultHandler {
+        /**
+         * Overrides this method to get the partial storage result, the categories which are not
+         * loaded yet are not set in {@link StorageResult#loadedCategories}.
+         */
+        void handlePartialResult(SparseArray<StorageResult> result);
+    }
 }
@@ -53,6 +53,7 @@ import com.android.settingslib.core.AbstractPreferenceController;
 import com.android.settingslib.core.instrumentation.MetricsFeatureProvider;
 import com.android.settingslib.deviceinfo.StorageMeasurement;
 import com.android.settingslib.deviceinfo.StorageVolumeProvider;
+import com.android.settingslib.utils.ThreadUtils;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -397,6 +398,46 @@ public class StorageItemPreferenceController extends AbstractPreferenceControlle
         setPrivateStorageCategoryPreferencesVisibility(true);
     }
 
+    /**
+     * Fragments use it to show the categories loaded so far, before the storage result is
+     * complete. The system size is only known once all categories of all users are loaded.
+     */
+    public void onPartialLoad(SparseArray<StorageAsyncLoader.StorageResult> result, int userId) {
+        final StorageAsyncLoader.StorageResult data = result.get(userId);
+        if (data == null) {
+            return;
+        }
+
+        setStorageSizeIfLoaded(mImagesPreference, data, StorageAsyncLoader.CATEGORY_IMAGES,
+                data.imagesSize);
+        setStorageSizeIfLoaded(mVideosPreference, data, StorageAsyncLoader.CATEGORY_VIDEOS,
+                data.videosSize);
+        setStorageSizeIfLoaded(mAudioPreference, data, StorageAsyncLoader.CATEGORY_AUDIO,
+                data.audioSize);
+        setStorageSizeIfLoaded(mAppsPreference, data, StorageAsyncLoader.CATEGORY_APPS,
+                data.allAppsExceptGamesSize);
+        setStorageSizeIfLoaded(mGamesPreference, data, StorageAsyncLoader.CATEGORY_APPS,
+                data.gamesSize);
+        setStorageSizeIfLoaded(mDocumentsAndOtherPreference, data,
+                StorageAsyncLoader.CATEGORY_DOCUMENTS_AND_OTHER, data.documentsAndOtherSize);
+        setStorageSizeIfLoaded(mTrashPreference, data, StorageAsyncLoader.CATEGORY_TRASH,
+                data.trashSize);
+        if (mSystemPreference != null) {
+            mSystemPreference.setSummary(R.string.memory_calculating_size);
+        }
+
+        setPrivateStorageCategoryPreferencesVisibility(true);
+    }
+
+    private void setStorageSizeIfLoaded(StorageItemPreference preference,
+            StorageAsyncLoader.StorageResult data, int category, long size) {
+        if (data.isLoaded(category)) {
+            preference.setStorageSize(size, mTotalSize);
+        } else {
+            preference.setSummary(R.string.memory_calculating_size);
+        }
+    }
+
     public void setUsedSize(long usedSizeBytes) {
         mUsedBytes = usedSizeBytes;
     }
@@ -480,6 +521,13 @@ public class StorageItemPreferenceController extends AbstractPreferenceControlle
         }
         mTrashPreference.setStorageSize(0, mTotalSize);
         updatePrivateStorageCategoryPreferencesOrder();
+        if (mVolume != null) {
+            // Keeps the emptied trash from showing up again with the last storage breakdown.
+            final String fsUuid = mVolume.getFsUuid();
+            final int userId = mUserId;
+            ThreadUtils.postOnBackgroundThread(() ->
+                    StorageResultCache.getInstance(mContext).clearTrashSize(fsUuid, userId));
+        }
     }
 
     private static long totalValues(StorageMeasurement.MeasurementDetails details, int userId,
@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.deviceinfo.storage;
+
+import android.content.Context;
+import android.util.ArrayMap;
+import android.util.SparseArray;
+
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import com.android.settings.utils.PersistedMapFile;
+import com.android.settingslib.applications.StorageStatsSource;
+import com.android.settingslib.deviceinfo.PrivateStorageInfo;
+import com.android.settingslib.utils.ThreadUtils;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Objects;
+
+/**
+ * Persisted snapshot of the last storage breakdown of each volume, so the storage dashboard can
+ * show it as a first frame while the breakdown is loaded again in the background.
+ *
+ * <p>A snapshot keeps the volume sizes and the {@link StorageAsyncLoader.StorageResult} of every
+ * user. It is read from a file, so it should only be accessed from a worker thread.
+ */
+public class StorageResultCache {
+
+    private static final String TAG = "StorageResultCache";
+    private static final String FILE_NAME = "storage_results";
+    private static final int FILE_VERSION = 1;
+    // Far more than the volumes, and the users of a volume, of any device.
+    private static final int MAX_VOLUMES = 1000;
+    private static final int MAX_USERS = 1000;
+
+    private static StorageResultCache sInstance;
+
+    private final PersistedMapFile<Snapshot> mFile;
+    private ArrayMap<String, Snapshot> mSnapshots = new ArrayMap<>();
+    private boolean mLoaded;
+
+    public static synchronized StorageResultCache getInstance(Context context) {
+        if (sInstance == null) {
+            final Context appContext = context.getApplicationContext();
+            sInstance = new StorageResultCache(new File(appContext.getCacheDir(), FILE_NAME));
+            ThreadUtils.postOnBackgroundThread(sInstance::preload);
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    StorageResultCache(File file) {
+        mFile = new PersistedMapFile<>(TAG, file, FILE_VERSION, MAX_VOLUMES,
+                new SnapshotCodec());
+    }
+
+    private synchronized void preload() {
+        ensureLoadedLocked();
+    }
+
+    /** Returns the last snapshot of the volume, or null. */
+    @WorkerThread
+    public synchronized Snapshot get(String volumeUuid) {
+        ensureLoadedLocked();
+        return mSnapshots.get(getKey(volumeUuid));
+    }
+
+    /** Records the storage breakdown of the volume which was just loaded. */
+    @WorkerThread
+    public synchronized void put(String volumeUuid, PrivateStorageInfo storageInfo,
+            SparseArray<StorageAsyncLoader.StorageResult> results) {
+        if (storageInfo == null || results == null) {
+            return;
+        }
+        ensureLoadedLocked();
+        mSnapshots.put(getKey(volumeUuid), new Snapshot(storageInfo, results.clone()));
+        scheduleWriteLocked();
+    }
+
+    /** Drops the trash size of the user from the snapshot of the volume, once it is emptied. */
+    @WorkerThread
+    public synchronized void clearTrashSize(String volumeUuid, int userId) {
+        ensureLoadedLocked();
+        final Snapshot snapshot = mSnapshots.get(getKey(volumeUuid));
+        final StorageAsyncLoader.StorageResult result =
+                snapshot == null ? null : snapshot.results.get(userId);
+        if (result == null || result.trashSize == 0) {
+            return;
+        }
+        // The snapshot may be on screen, so it is replaced rather than changed.
+        final StorageAsyncLoader.StorageResult clearedResult = result.copy();
+        clearedResult.trashSize = 0;
+        final SparseArray<StorageAsyncLoader.StorageResult> results = snapshot.results.clone();
+        results.put(userId, clearedResult);
+        mSnapshots.put(getKey(volumeUuid), new Snapshot(snapshot.storageInfo, results));
+        scheduleWriteLocked();
+    }
+
+    private static String getKey(String volumeUuid) {
+        return Objects.toString(volumeUuid, "");
+    }
+
+    private void ensureLoadedLocked() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+        mSnapshots = mFile.read();
+    }
+
+    private void scheduleWriteLocked() {
+        mFile.scheduleWrite(this::copySnapshots);
+    }
+
+    private synchronized ArrayMap<String, Snapshot> copySnapshots() {
+        return new ArrayMap<>(mSnapshots);
+    }
+
+    private static StorageAsyncLoader.StorageResult readResult(DataInputStream in)
+            throws IOException {
+        final StorageAsyncLoader.StorageResult result = new StorageAsyncLoader.StorageResult();
+        result.gamesSize = in.readLong();
+        result.allAppsExceptGamesSize = in.readLong();
+        result.audioSize = in.readLong();
+        result.imagesSize = in.readLong();
+        result.videosSize = in.readLong();
+        result.documentsAndOtherSize = in.readLong();
+        result.trashSize = in.readLong();
+        result.cacheSize = in.readLong();
+        result.duplicateCodeSize = in.readLong();
+        if (in.readBoolean()) {
+            result.externalStats = new StorageStatsSource.ExternalStorageStats(
+                    in.readLong(), in.readLong(), in.readLong(), in.readLong(), in.readLong());
+        }
+        return result;
+    }
+
+    private static void writeResult(DataOutputStream out, StorageAsyncLoader.StorageResult result)
+            throws IOException {
+        out.writeLong(result.gamesSize);
+        out.writeLong(result.allAppsExceptGamesSize);
+        out.writeLong(result.audioSize);
+        out.writeLong(result.imagesSize);
+        out.writeLong(result.videosSize);
+        out.writeLong(result.documentsAndOtherSize);
+        out.writeLong(result.trashSize);
+        out.writeLong(result.cacheSize);
+        out.writeLong(result.duplicateCodeSize);
+        final StorageStatsSource.ExternalStorageStats externalStats = result.externalStats;
+        out.writeBoolean(externalStats != null);
+        if (externalStats != null) {
+            out.writeLong(externalStats.totalBytes);
+            out.writeLong(externalStats.audioBytes);
+            out.writeLong(externalStats.videoBytes);
+            out.writeLong(externalStats.imageBytes);
+            out.writeLong(externalStats.appBytes);
+        }
+    }
+
+    private static class SnapshotCodec implements PersistedMapFile.Codec<Snapshot> {
+        @Override
+        public Snapshot read(DataInputStream in) throws IOException {
+            final PrivateStorageInfo storageInfo =
+                    new PrivateStorageInfo(in.readLong(), in.readLong());
+            final int userCount = PersistedMapFile.readCount(in, MAX_USERS);
+            final SparseArray<StorageAsyncLoader.StorageResult> results =
+                    new SparseArray<>(userCount);
+            for (int i = 0; i < userCount; i++) {
+                results.put(in.readInt(), readResult(in));
+            }
+            return new Snapshot(storageInfo, results);
+        }
+
+        @Override
+        public void write(DataOutputStream out, Snapshot snapshot) throws IOException {
+            out.writeLong(snapshot.storageInfo.freeBytes);
+            out.writeLong(snapshot.storageInfo.totalBytes);
+            out.writeInt(snapshot.results.size());
+            for (int i = 0; i < snapshot.results.size(); i++) {
+                out.writeInt(snapshot.results.keyAt(i));
+                writeResult(out, snapshot.results.valueAt(i));
+            }
+        }
+    }
+
+    /** The last storage breakdown of a volume. */
+    public static class Snapshot {
+        public final PrivateStorageInfo storageInfo;
+        public final SparseArray<StorageAsyncLoader.StorageResult> results;
+
+        Snapshot(PrivateStorageInfo storageInfo,
+                SparseArray<StorageAsyncLoader.StorageResult> results) {
+            this.storageInfo = storageInfo;
+            this.results = results;
+        }
+    }
+}
@@ -58,6 +58,8 @@ import com.android.settingslib.utils.StringUtil;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Supplier;
 
 /**
  * Controller that update the battery header view
@@ -66,14 +68,16 @@ public class BatteryAppListPreferenceController extends AbstractPreferenceContro
         implements PreferenceControllerMixin, LifecycleObserver, OnPause, OnDestroy {
     @VisibleForTesting
     static final boolean USE_FAKE_DATA = false;
-    private static final int MAX_ITEMS_TO_LIST = USE_FAKE_DATA ? 30 : 20;
+    @VisibleForTesting
+    static final int MAX_ITEMS_TO_LIST = USE_FAKE_DATA ? 30 : 20;
     private static final int MIN_AVERAGE_POWER_THRESHOLD_MILLI_AMP = 10;
     private static final String MEDIASERVER_PACKAGE_NAME = "mediaserver";
 
     private final String mPreferenceKey;
     @VisibleForTesting
     PreferenceGroup mAppListGroup;
-    private BatteryUsageStats mBatteryUsageStats;
+    @VisibleForTesting
+    BatteryUsageStats mBatteryUsageStats;
     private ArrayMap<String, Preference> mPreferenceCache;
     @VisibleForTesting
     BatteryUtils mBatteryUtils;
@@ -216,7 +220,8 @@ public class BatteryAppListPreferenceController extends AbstractPreferenceContro
         if (sConfig.shouldShowBatteryAttributionList(mContext)) {
             final int dischargePercentage = getDischargePercentage(batteryUsageStats);
             final List<BatteryEntry> usageList =
-                getCoalescedUsageList(showAllApps, /*loadDataInBackground=*/ true);
+                getCoalescedUsageList(showAllApps, /*loadDataInBackground=*/ true,
+                        MAX_ITEMS_TO_LIST + 2);
             final double totalPower = batteryUsageStats.getConsumedPower();
             final int numSippers = usageList.size();
             for (int i = 0; i < numSippers; i++) {
@@ -248,6 +253,7 @@ public class BatteryAppListPreferenceController extends AbstractPreferenceContro
                 pref.setPercent(percentOfTotal);
                 pref.shouldShowAnomalyIcon(false);
                 setUsageSummary(pref, entry);
+                entry.markVisible();
                 addedSome = true;
                 mAppListGroup.addPreference(pref);
                 if (mAppListGroup.getPreferenceCount() - getCachedCount()
@@ -275,7 +281,8 @@ public class BatteryAppListPreferenceController extends AbstractPreferenceContro
         }
         final int dischargePercentage = getDischargePercentage(batteryUsageStats);
         final List<BatteryEntry> usageList =
-            getCoalescedUsageList(showAllApps, /*loadDataInBackground=*/ false);
+            getCoalescedUsageList(showAllApps, /*loadDataInBackground=*/ false,
+                    Integer.MAX_VALUE);
         final double totalPower = batteryUsageStats.getConsumedPower();
         for (int i = 0; i < usageList.size(); i++) {
             final BatteryEntry entry = usageList.get(i);
@@ -299,13 +306,15 @@ public class BatteryAppListPreferenceController extends AbstractPreferenceContro
      * exists for all users of the same app. We detect this case and merge the power use
      * for dex2oat to the device OWNER's use of the app.
      *
+     * <p>Only the {@code maxEntries} entries using the most power are kept, and the
+     * {@link BatteryEntry} objects are only created for them.
+     *
      * @return A sorted list of apps using power.
      */
-    private List<BatteryEntry> getCoalescedUsageList(
-            boolean showAllApps, boolean loadDataInBackground) {
-        final SparseArray<BatteryEntry> batteryEntryList = new SparseArray<>();
-
-        final ArrayList<BatteryEntry> results = new ArrayList<>();
+    @VisibleForTesting
+    List<BatteryEntry> getCoalescedUsageList(
+            boolean showAllApps, boolean loadDataInBackground, int maxEntries) {
+        final SparseArray<UidUsage> uidUsageList = new SparseArray<>();
         final List<UidBatteryConsumer> uidBatteryConsumers =
                 mBatteryUsageStats.getUidBatteryConsumers();
 
@@ -328,18 +337,17 @@ public class BatteryAppListPreferenceController extends AbstractPreferenceContro
                 continue;
             }
 
-            final int index = batteryEntryList.indexOfKey(uid);
-            if (index < 0) {
+            final UidUsage uidUsage = uidUsageList.get(uid);
+            if (uidUsage == null) {
                 // New entry.
-                batteryEntryList.put(uid, new BatteryEntry(mContext, mHandler, mUserManager,
-                        consumer, isHidden, uid, packages, null, loadDataInBackground));
+                uidUsageList.put(uid, new UidUsage(uid, consumer, isHidden, packages));
             } else {
-                // Combine BatterySippers if we already have one with this UID.
-                final BatteryEntry existingSipper = batteryEntryList.valueAt(index);
-                existingSipper.add(consumer);
+                // Combine consumers if we already have one with this UID.
+                uidUsage.add(consumer);
             }
         }
 
+        final TopUsageSelector selector = new TopUsageSelector(maxEntries);
         final BatteryConsumer deviceConsumer = mBatteryUsageStats.getAggregateBatteryConsumer(
                 BatteryUsageStats.AGGREGATE_BATTERY_CONSUMER_SCOPE_DEVICE);
         final BatteryConsumer appsConsumer = mBatteryUsageStats.getAggregateBatteryConsumer(
@@ -352,10 +360,13 @@ public class BatteryAppListPreferenceController extends AbstractPreferenceContro
                 continue;
             }
 
-            results.add(new BatteryEntry(mContext, componentId,
-                    deviceConsumer.getConsumedPower(componentId),
-                    appsConsumer.getConsumedPower(componentId),
-                    deviceConsumer.getUsageDurationMillis(componentId)));
+            final int powerComponentId = componentId;
+            final double devicePowerMah = deviceConsumer.getConsumedPower(componentId);
+            final double appsPowerMah = appsConsumer.getConsumedPower(componentId);
+            selector.offer(getComponentConsumedPower(componentId, devicePowerMah, appsPowerMah),
+                    () -> new BatteryEntry(mContext, powerComponentId, devicePowerMah,
+                            appsPowerMah,
+                            deviceConsumer.getUsageDurationMillis(powerComponentId)));
         }
 
         for (int componentId = BatteryConsumer.FIRST_CUSTOM_POWER_COMPONENT_ID;
@@ -366,10 +377,15 @@ public class BatteryAppListPreferenceController extends AbstractPreferenceContro
                 continue;
             }
 
-            results.add(new BatteryEntry(mContext, componentId,
-                    deviceConsumer.getCustomPowerComponentName(componentId),
-                    deviceConsumer.getConsumedPowerForCustomComponent(componentId),
-                    appsConsumer.getConsumedPowerForCustomComponent(componentId)));
+            final int powerComponentId = componentId;
+            final double devicePowerMah =
+                    deviceConsumer.getConsumedPowerForCustomComponent(componentId);
+            final double appsPowerMah =
+                    appsConsumer.getConsumedPowerForCustomComponent(componentId);
+            selector.offer(getComponentConsumedPower(componentId, devicePowerMah, appsPowerMah),
+                    () -> new BatteryEntry(mContext, powerComponentId,
+                            deviceConsumer.getCustomPowerComponentName(powerComponentId),
+                            devicePowerMah, appsPowerMah));
         }
 
         if (showAllApps) {
@@ -377,21 +393,30 @@ public class BatteryAppListPreferenceController extends AbstractPreferenceContro
                     mBatteryUsageStats.getUserBatteryConsumers();
             for (int i = 0, size = userBatteryConsumers.size(); i < size; i++) {
                 final UserBatteryConsumer consumer = userBatteryConsumers.get(i);
-                results.add(new BatteryEntry(mContext, mHandler, mUserManager,
-                        consumer, /* isHidden */ true, Process.INVALID_UID, null, null,
-                        loadDataInBackground));
+                selector.offer(consumer.getConsumedPower(),
+                        () -> new BatteryEntry(mContext, mHandler, mUserManager,
+                                consumer, /* isHidden */ true, Process.INVALID_UID, null, null,
+                                loadDataInBackground));
             }
         }
 
-        final int numUidSippers = batteryEntryList.size();
-
-        for (int i = 0; i < numUidSippers; i++) {
-            results.add(batteryEntryList.valueAt(i));
+        for (int i = 0, size = uidUsageList.size(); i < size; i++) {
+            final UidUsage uidUsage = uidUsageList.valueAt(i);
+            selector.offer(uidUsage.mConsumedPower,
+                    () -> uidUsage.createBatteryEntry(loadDataInBackground));
         }
 
-        // The sort order must have changed, so re-sort based on total power use.
-        results.sort(BatteryEntry.COMPARATOR);
-        return results;
+        // Creates the entries in display order, so their names and icons are loaded in the
+        // same order.
+        return selector.createSortedEntries();
+    }
+
+    private static double getComponentConsumedPower(
+            int componentId, double devicePowerMah, double appsPowerMah) {
+        // Keeps in sync with the consumed power of the BatteryEntry of a power component.
+        return componentId == BatteryConsumer.POWER_COMPONENT_SCREEN
+                ? devicePowerMah
+                : devicePowerMah - appsPowerMah;
     }
 
     private int getRealUid(UidBatteryConsumer consumer) {
@@ -549,4 +574,91 @@ public class BatteryAppListPreferenceController extends AbstractPreferenceContro
             mAppListGroup.addPreference(notAvailable);
         }
     }
+
+    /** The coalesced usage of a uid, before its {@link BatteryEntry} is created. */
+    private final class UidUsage {
+        final int mUid;
+        final boolean mIsHidden;
+        final String[] mPackages;
+        final List<UidBatteryConsumer> mConsumers = new ArrayList<>(1);
+        double mConsumedPower;
+
+        UidUsage(int uid, UidBatteryConsumer consumer, boolean isHidden, String[] packages) {
+            mUid = uid;
+            mIsHidden = isHidden;
+            mPackages = packages;
+            add(consumer);
+        }
+
+        void add(UidBatteryConsumer consumer) {
+            mConsumers.add(consumer);
+            mConsumedPower += consumer.getConsumedPower();
+        }
+
+        BatteryEntry createBatteryEntry(boolean loadDataInBackground) {
+            final BatteryEntry entry = new BatteryEntry(mContext, mHandler, mUserManager,
+                    mConsumers.get(0), mIsHidden, mUid, mPackages, null, loadDataInBackground);
+            for (int i = 1, size = mConsumers.size(); i < size; i++) {
+                entry.add(mConsumers.get(i));
+            }
+            return entry;
+        }
+    }
+
+    /**
+     * Keeps the offered usages which use the most power in a bounded heap. Usages with the same
+     * power keep their offered order, the same as a stable sort of all of them.
+     */
+    private static final class TopUsageSelector {
+        // Ranks the usage using more power first, then the one offered first.
+        private static final Comparator<Candidate> RANK = (a, b) -> {
+            final int result = Double.compare(b.mConsumedPower, a.mConsumedPower);
+            return result != 0 ? result : Integer.compare(a.mOrder, b.mOrder);
+        };
+
+        private final int mMaxEntries;
+        // The least used usage is at the head, so it is dropped first.
+        private final PriorityQueue<Candidate> mCandidates = new PriorityQueue<>(RANK.reversed());
+        private int mOfferedCount;
+
+        TopUsageSelector(int maxEntries) {
+            mMaxEntries = maxEntries;
+        }
+
+        void offer(double consumedPower, Supplier<BatteryEntry> entryFactory) {
+            if (mMaxEntries <= 0) {
+                return;
+            }
+            final Candidate candidate =
+                    new Candidate(consumedPower, mOfferedCount++, entryFactory);
+            if (mCandidates.size() < mMaxEntries) {
+                mCandidates.add(candidate);
+            } else if (RANK.compare(candidate, mCandidates.peek()) < 0) {
+                mCandidates.poll();
+                mCandidates.add(candidate);
+            }
+        }
+
+        List<BatteryEntry> createSortedEntries() {
+            final List<Candidate> candidates = new ArrayList<>(mCandidates);
+            candidates.sort(RANK);
+            final List<BatteryEntry> entries = new ArrayList<>(candidates.size());
+            for (Candidate candidate : candidates) {
+                entries.add(candidate.mEntryFactory.get());
+            }
+            return entries;
+        }
+
+        private static final class Candidate {
+            final double mConsumedPower;
+            final int mOrder;
+            final Supplier<BatteryEntry> mEntryFactory;
+
+            Candidate(double consumedPower, int order, Supplier<BatteryEntry> entryFactory) {
+                mConsumedPower = consumedPower;
+                mOrder = order;
+                mEntryFactory = entryFactory;
+            }
+        }
+    }
 }
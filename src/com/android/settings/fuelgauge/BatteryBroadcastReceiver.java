@@ -109,6 +109,9 @@ public class BatteryBroadcastReceiver extends BroadcastReceiver {
     }
 
     private void updateBatteryStatus(Intent intent, boolean forceUpdate) {
+        if (intent != null && Intent.ACTION_BATTERY_CHANGED.equals(intent.getAction())) {
+            BatteryInfoCache.onBatteryChanged(intent);
+        }
         if (intent != null && mBatteryListener != null) {
             if (Intent.ACTION_BATTERY_CHANGED.equals(intent.getAction())) {
                 final String batteryLevel = Utils.getBatteryPercentage(intent);
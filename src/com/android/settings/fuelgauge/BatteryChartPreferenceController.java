@@ -620,16 +620,17 @@ public class BatteryChartPreferenceController extends AbstractPreferenceControll
     public static List<BatteryDiffEntry> getBatteryLast24HrUsageData(Context context) {
         final long start = System.currentTimeMillis();
         final Map<Long, Map<String, BatteryHistEntry>> batteryHistoryMap =
-            FeatureFactory.getFactory(context)
-                .getPowerUsageFeatureProvider(context)
-                .getBatteryHistory(context);
+            ConvertUtils.restoreUnchangedEntries(
+                FeatureFactory.getFactory(context)
+                    .getPowerUsageFeatureProvider(context)
+                    .getBatteryHistory(context));
         if (batteryHistoryMap == null || batteryHistoryMap.isEmpty()) {
             return null;
         }
         Log.d(TAG, String.format("getBatteryLast24HrData() size=%d time=&d/ms",
             batteryHistoryMap.size(), (System.currentTimeMillis() - start)));
         final Map<Integer, List<BatteryDiffEntry>> batteryIndexedMap =
-            ConvertUtils.getIndexedUsageMap(
+            BatteryUsageIntervalCache.getIndexedUsageMap(
                 context,
                 /*timeSlotSize=*/ CHART_LEVEL_ARRAY_SIZE - 1,
                 getBatteryHistoryKeys(batteryHistoryMap),
@@ -670,7 +671,7 @@ public class BatteryChartPreferenceController extends AbstractPreferenceControll
             }
             final long startTime = System.currentTimeMillis();
             final Map<Integer, List<BatteryDiffEntry>> indexedUsageMap =
-                ConvertUtils.getIndexedUsageMap(
+                BatteryUsageIntervalCache.getIndexedUsageMap(
                     mPrefContext, /*timeSlotSize=*/ CHART_LEVEL_ARRAY_SIZE - 1,
                     mBatteryHistoryKeysCache, mBatteryHistoryMap,
                     /*purgeLowPercentageAndFakeData=*/ true);
@@ -109,6 +109,16 @@ public class BatteryChartView extends AppCompatImageView implements View.OnClick
     @VisibleForTesting
     Paint mTrapezoidCurvePaint = null;
     private TrapezoidSlot[] mTrapezoidSlots;
+    // Geometry precomputed out of draw(), only updated when the size, the indent, the trapezoid
+    // count or the levels change. The paths are reused across frames.
+    private boolean mGeometryInvalid = true;
+    private float[] mDividerXs;
+    private final float[] mTimestampXs = new float[DEFAULT_TIMESTAMP_COUNT];
+    private float mTrapezoidBottom;
+    private final Path mTrapezoidPath = new Path();
+    private final Path mTrapezoidCurvePath = new Path();
+    // Whether the text bounds need to be measured again.
+    private boolean mTextBoundsInvalid = true;
     // Records the location to calculate selected index.
     private float mTouchUpEventX = Float.MIN_VALUE;
     private BatteryChartView.OnSelectListener mOnSelectListener;
@@ -137,6 +147,8 @@ public class BatteryChartView extends AppCompatImageView implements View.OnClick
         for (int index = 0; index < trapezoidCount; index++) {
             mTrapezoidSlots[index] = new TrapezoidSlot();
         }
+        mDividerXs = new float[trapezoidCount + 1];
+        mGeometryInvalid = true;
         invalidate();
     }
 
@@ -149,6 +161,7 @@ public class BatteryChartView extends AppCompatImageView implements View.OnClick
         }
         // We should provide trapezoid count + 1 data to draw all trapezoids.
         mLevels = levels.length == mTrapezoidCount + 1 ? levels : null;
+        mGeometryInvalid = true;
         setClickable(false);
         invalidate();
         if (mLevels == null) {
@@ -189,6 +202,7 @@ public class BatteryChartView extends AppCompatImageView implements View.OnClick
         } else {
             mTextPaint = null;
         }
+        mTextBoundsInvalid = true;
         setVisibility(View.VISIBLE);
         requestLayout();
     }
@@ -211,13 +225,20 @@ public class BatteryChartView extends AppCompatImageView implements View.OnClick
                     latestTimestamp - (TIMESTAMP_GAPS_COUNT - index) * timeSlotOffset,
                     is24HourFormat);
         }
+        mTextBoundsInvalid = true;
         requestLayout();
     }
 
     @Override
     public void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
         super.onMeasure(widthMeasureSpec, heightMeasureSpec);
-        // Measures text bounds and updates indent configuration.
+        // Measures text bounds and updates indent configuration, the measurements are reused
+        // until the texts or the text paint change.
+        if (!mTextBoundsInvalid) {
+            return;
+        }
+        mTextBoundsInvalid = false;
+        mGeometryInvalid = true;
         if (mTextPaint != null) {
             for (int index = 0; index < mPercentages.length; index++) {
                 mTextPaint.getTextBounds(
@@ -244,9 +265,18 @@ public class BatteryChartView extends AppCompatImageView implements View.OnClick
         }
     }
 
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        mGeometryInvalid = true;
+    }
+
     @Override
     public void draw(Canvas canvas) {
         super.draw(canvas);
+        if (mGeometryInvalid) {
+            updateGeometry();
+        }
         drawHorizontalDividers(canvas);
         drawVerticalDividers(canvas);
         drawTrapezoids(canvas);
@@ -435,18 +465,17 @@ public class BatteryChartView extends AppCompatImageView implements View.OnClick
         }
     }
 
-    private void drawVerticalDividers(Canvas canvas) {
+    // Computes the divider, trapezoid and timestamp locations for the current size and levels.
+    private void updateGeometry() {
+        mGeometryInvalid = false;
         final int width = getWidth() - mIndent.right;
         final int dividerCount = mTrapezoidCount + 1;
         final float dividerSpace = dividerCount * mDividerWidth;
         final float unitWidth = (width - dividerSpace) / (float) mTrapezoidCount;
-        final float bottomY = getHeight() - mIndent.bottom;
-        final float startY = bottomY - mDividerHeight;
         final float trapezoidSlotOffset = mTrapezoidHOffset + mDividerWidth * .5f;
-        // Draws each vertical dividers.
         float startX = mDividerWidth * .5f;
         for (int index = 0; index < dividerCount; index++) {
-            canvas.drawLine(startX, startY, startX, bottomY, mDividerPaint);
+            mDividerXs[index] = startX;
             final float nextX = startX + mDividerWidth + unitWidth;
             // Updates the trapezoid slots for drawing.
             if (index < mTrapezoidSlots.length) {
@@ -455,16 +484,41 @@ public class BatteryChartView extends AppCompatImageView implements View.OnClick
             }
             startX = nextX;
         }
+        // Updates the timestamp slot locations.
+        final float baselineX = mDividerWidth * .5f;
+        final float offsetX = mDividerWidth + unitWidth;
+        final int slotBarOffset = (/*total 12 bars*/ 12) / TIMESTAMP_GAPS_COUNT;
+        for (int index = 0; index < DEFAULT_TIMESTAMP_COUNT; index++) {
+            mTimestampXs[index] = baselineX + index * offsetX * slotBarOffset;
+        }
+        // Updates the trapezoid heights from the levels.
+        mTrapezoidBottom =
+            getHeight() - mIndent.bottom - mDividerHeight - mDividerWidth
+                - mTrapezoidVOffset;
+        if (mLevels == null) {
+            return;
+        }
+        final float availableSpace = mTrapezoidBottom - mDividerWidth * .5f - mIndent.top;
+        final float unitHeight = availableSpace / 100f;
+        for (int index = 0; index < mTrapezoidCount; index++) {
+            mTrapezoidSlots[index].mLeftTop =
+                round(mTrapezoidBottom - mLevels[index] * unitHeight);
+            mTrapezoidSlots[index].mRightTop =
+                round(mTrapezoidBottom - mLevels[index + 1] * unitHeight);
+        }
+    }
+
+    private void drawVerticalDividers(Canvas canvas) {
+        final float bottomY = getHeight() - mIndent.bottom;
+        final float startY = bottomY - mDividerHeight;
+        // Draws each vertical dividers.
+        for (int index = 0; index < mDividerXs.length; index++) {
+            final float startX = mDividerXs[index];
+            canvas.drawLine(startX, startY, startX, bottomY, mDividerPaint);
+        }
         // Draws the timestamp slot information.
         if (mTimestamps != null) {
-            final float[] xOffsets = new float[DEFAULT_TIMESTAMP_COUNT];
-            final float baselineX = mDividerWidth * .5f;
-            final float offsetX = mDividerWidth + unitWidth;
-            final int slotBarOffset = (/*total 12 bars*/ 12) / TIMESTAMP_GAPS_COUNT;
-            for (int index = 0; index < DEFAULT_TIMESTAMP_COUNT; index++) {
-                xOffsets[index] = baselineX + index * offsetX * slotBarOffset;
-            }
-            drawTimestamp(canvas, xOffsets);
+            drawTimestamp(canvas, mTimestampXs);
         }
     }
 
@@ -503,20 +557,17 @@ public class BatteryChartView extends AppCompatImageView implements View.OnClick
         if (mLevels == null) {
             return;
         }
-        final float trapezoidBottom =
-            getHeight() - mIndent.bottom - mDividerHeight - mDividerWidth
-                - mTrapezoidVOffset;
-        final float availableSpace = trapezoidBottom - mDividerWidth * .5f - mIndent.top;
-        final float unitHeight = availableSpace / 100f;
+        final float trapezoidBottom = mTrapezoidBottom;
         // Draws all trapezoid shapes into the canvas.
-        final Path trapezoidPath = new Path();
-        Path trapezoidCurvePath = null;
+        final Path trapezoidPath = mTrapezoidPath;
+        final Path trapezoidCurvePath = mTrapezoidCurvePath;
+        boolean hasTrapezoidCurve = false;
         for (int index = 0; index < mTrapezoidCount; index++) {
             // Not draws the trapezoid for corner or not initialization cases.
             if (!isValidToDraw(index)) {
-                if (mTrapezoidCurvePaint != null && trapezoidCurvePath != null) {
+                if (mTrapezoidCurvePaint != null && hasTrapezoidCurve) {
                     canvas.drawPath(trapezoidCurvePath, mTrapezoidCurvePaint);
-                    trapezoidCurvePath = null;
+                    hasTrapezoidCurve = false;
                 }
                 continue;
             }
@@ -530,34 +581,33 @@ public class BatteryChartView extends AppCompatImageView implements View.OnClick
                 mIsSlotsClickabled && mHoveredIndex == index && isValidToDraw(mHoveredIndex);
             mTrapezoidPaint.setColor(isHoverState ? mTrapezoidHoverColor : trapezoidColor);
 
-            final float leftTop = round(trapezoidBottom - mLevels[index] * unitHeight);
-            final float rightTop = round(trapezoidBottom - mLevels[index + 1] * unitHeight);
+            final TrapezoidSlot slot = mTrapezoidSlots[index];
             trapezoidPath.reset();
-            trapezoidPath.moveTo(mTrapezoidSlots[index].mLeft, trapezoidBottom);
-            trapezoidPath.lineTo(mTrapezoidSlots[index].mLeft, leftTop);
-            trapezoidPath.lineTo(mTrapezoidSlots[index].mRight, rightTop);
-            trapezoidPath.lineTo(mTrapezoidSlots[index].mRight, trapezoidBottom);
+            trapezoidPath.moveTo(slot.mLeft, trapezoidBottom);
+            trapezoidPath.lineTo(slot.mLeft, slot.mLeftTop);
+            trapezoidPath.lineTo(slot.mRight, slot.mRightTop);
+            trapezoidPath.lineTo(slot.mRight, trapezoidBottom);
             // A tricky way to make the trapezoid shape drawing the rounded corner.
-            trapezoidPath.lineTo(mTrapezoidSlots[index].mLeft, trapezoidBottom);
-            trapezoidPath.lineTo(mTrapezoidSlots[index].mLeft, leftTop);
+            trapezoidPath.lineTo(slot.mLeft, trapezoidBottom);
+            trapezoidPath.lineTo(slot.mLeft, slot.mLeftTop);
             // Draws the trapezoid shape into canvas.
             canvas.drawPath(trapezoidPath, mTrapezoidPaint);
 
             // Generates path for non-clickable trapezoid curve.
             if (mTrapezoidCurvePaint != null) {
-                if (trapezoidCurvePath == null) {
-                    trapezoidCurvePath= new Path();
-                    trapezoidCurvePath.moveTo(mTrapezoidSlots[index].mLeft, leftTop);
+                if (!hasTrapezoidCurve) {
+                    trapezoidCurvePath.reset();
+                    trapezoidCurvePath.moveTo(slot.mLeft, slot.mLeftTop);
+                    hasTrapezoidCurve = true;
                 } else {
-                    trapezoidCurvePath.lineTo(mTrapezoidSlots[index].mLeft, leftTop);
+                    trapezoidCurvePath.lineTo(slot.mLeft, slot.mLeftTop);
                 }
-                trapezoidCurvePath.lineTo(mTrapezoidSlots[index].mRight, rightTop);
+                trapezoidCurvePath.lineTo(slot.mRight, slot.mRightTop);
             }
         }
         // Draws the trapezoid curve for non-clickable case.
-        if (mTrapezoidCurvePaint != null && trapezoidCurvePath != null) {
+        if (mTrapezoidCurvePaint != null && hasTrapezoidCurve) {
             canvas.drawPath(trapezoidCurvePath, mTrapezoidCurvePaint);
-            trapezoidCurvePath = null;
         }
     }
 
@@ -611,14 +661,17 @@ public class BatteryChartView extends AppCompatImageView implements View.OnClick
         return false;
     }
 
-    // A container class for each trapezoid left and right location.
+    // A container class for each trapezoid location.
     private static final class TrapezoidSlot {
         public float mLeft;
         public float mRight;
+        public float mLeftTop;
+        public float mRightTop;
 
         @Override
         public String toString() {
-            return String.format(Locale.US, "TrapezoidSlot[%f,%f]", mLeft, mRight);
+            return String.format(Locale.US, "TrapezoidSlot[%f,%f,%f,%f]",
+                mLeft, mRight, mLeftTop, mRightTop);
         }
     }
 }
@@ -35,16 +35,22 @@ import android.os.UserHandle;
 import android.os.UserManager;
 import android.util.DebugUtils;
 import android.util.Log;
+import android.util.LruCache;
+import android.util.SparseArray;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
 
 import com.android.settings.R;
 import com.android.settingslib.Utils;
 
 import java.util.ArrayList;
 import java.util.Comparator;
-import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Wraps the power usage data of a BatterySipper with information about package name
@@ -77,63 +83,159 @@ public class BatteryEntry {
     private static final String TAG = "BatteryEntry";
     private static final String PACKAGE_SYSTEM = "android";
 
-    static final HashMap<String, UidToDetail> sUidCache = new HashMap<>();
+    @VisibleForTesting
+    static final int MAX_UID_CACHE_SIZE = 256;
+    static final LruCache<String, UidToDetail> sUidCache = new LruCache<>(MAX_UID_CACHE_SIZE);
 
+    // Entries waiting for startRequestQueue(), also the lock of the loader state.
     static final ArrayList<BatteryEntry> sRequestQueue = new ArrayList<BatteryEntry>();
     static Handler sHandler;
 
     static Locale sCurrentLocale = null;
 
-    static private class NameAndIconLoader extends Thread {
-        private boolean mAbort = false;
+    /**
+     * Loads the names and icons of the queued entries on a shared thread pool. Entries of the
+     * same uid share one lookup, and the lookups of visible entries run first.
+     */
+    private static final class NameAndIconLoader {
+        private static final int THREAD_COUNT = 2;
+        private static final long KEEP_ALIVE_SECONDS = 10;
+
+        private final ThreadPoolExecutor mExecutor = new ThreadPoolExecutor(
+                THREAD_COUNT, THREAD_COUNT, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<>(),
+                runnable -> {
+                    final Thread thread = new Thread(runnable, "BatteryUsage Icon Loader");
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                });
+        // Lookups which are queued or running, by uid. Guarded by sRequestQueue.
+        private final SparseArray<Request> mRequests = new SparseArray<>();
+        private int mGeneration;
+        private long mSequence;
+        private int mDedupedCount;
+
+        NameAndIconLoader() {
+            mExecutor.allowCoreThreadTimeOut(true);
+        }
+
+        /** Starts loading the queued entries. Must hold sRequestQueue. */
+        void start() {
+            for (BatteryEntry entry : sRequestQueue) {
+                final Request request = mRequests.get(entry.mUid);
+                if (request != null) {
+                    // Joins the lookup of the same uid, which is queued or running.
+                    request.mEntries.add(entry);
+                    mDedupedCount++;
+                    if (entry.mVisible && !request.mVisible && mExecutor.remove(request)) {
+                        request.mVisible = true;
+                        mExecutor.execute(request);
+                    }
+                    continue;
+                }
+                final Request newRequest = new Request(entry, mGeneration, mSequence++);
+                mRequests.put(entry.mUid, newRequest);
+                mExecutor.execute(newRequest);
+            }
+            sRequestQueue.clear();
+        }
 
-        public NameAndIconLoader() {
-            super("BatteryUsage Icon Loader");
+        /** Drops all queued lookups, results of running ones are ignored. */
+        void abort() {
+            synchronized (sRequestQueue) {
+                mGeneration++;
+                for (int i = 0; i < mRequests.size(); i++) {
+                    mExecutor.remove(mRequests.valueAt(i));
+                }
+                mRequests.clear();
+            }
         }
 
-        public void abort() {
-            mAbort = true;
+        private void onRequestDone(Request request, NameAndIcon nameAndIcon) {
+            final Handler handler;
+            final List<BatteryEntry> entries;
+            final boolean fullyDrawn;
+            synchronized (sRequestQueue) {
+                if (request.mGeneration != mGeneration) {
+                    return;
+                }
+                mRequests.remove(request.mUid);
+                handler = sHandler;
+                entries = new ArrayList<>(request.mEntries);
+                fullyDrawn = mRequests.size() == 0;
+            }
+            for (BatteryEntry entry : entries) {
+                if (nameAndIcon != null) {
+                    entry.icon = nameAndIcon.icon;
+                    entry.name = nameAndIcon.name;
+                    entry.mDefaultPackageName = nameAndIcon.packageName;
+                    if (handler != null) {
+                        handler.sendMessage(
+                                handler.obtainMessage(MSG_UPDATE_NAME_ICON, entry));
+                    }
+                }
+            }
+            if (fullyDrawn) {
+                Log.d(TAG, String.format("loaded names and icons, uid cache hit=%d miss=%d"
+                        + " deduplicated=%d", sUidCache.hitCount(), sUidCache.missCount(),
+                        mDedupedCount));
+                if (handler != null) {
+                    handler.sendEmptyMessage(MSG_REPORT_FULLY_DRAWN);
+                }
+            }
         }
 
-        @Override
-        public void run() {
-            while (true) {
-                BatteryEntry be;
+        private final class Request implements Runnable, Comparable<Request> {
+            final int mUid;
+            final int mGeneration;
+            final long mSequence;
+            final List<BatteryEntry> mEntries = new ArrayList<>();
+            boolean mVisible;
+
+            Request(BatteryEntry entry, int generation, long sequence) {
+                mUid = entry.mUid;
+                mGeneration = generation;
+                mSequence = sequence;
+                mVisible = entry.mVisible;
+                mEntries.add(entry);
+            }
+
+            @Override
+            public void run() {
+                final BatteryEntry entry;
                 synchronized (sRequestQueue) {
-                    if (sRequestQueue.isEmpty() || mAbort) {
-                        if (sHandler != null) {
-                            sHandler.sendEmptyMessage(MSG_REPORT_FULLY_DRAWN);
-                        }
+                    if (mGeneration != NameAndIconLoader.this.mGeneration) {
                         return;
                     }
-                    be = sRequestQueue.remove(0);
+                    entry = mEntries.get(0);
                 }
-                final NameAndIcon nameAndIcon =
-                    BatteryEntry.loadNameAndIcon(
-                        be.mContext, be.getUid(), sHandler, be,
-                        be.mDefaultPackageName, be.name, be.icon);
-                if (nameAndIcon != null) {
-                    be.icon = nameAndIcon.icon;
-                    be.name = nameAndIcon.name;
-                    be.mDefaultPackageName = nameAndIcon.packageName;
+                // Another lookup may have loaded this uid in the meantime.
+                final UidToDetail utd = sUidCache.get(Integer.toString(mUid));
+                final NameAndIcon nameAndIcon = utd != null
+                        ? new NameAndIcon(utd.name, utd.packageName, utd.icon, /*iconId=*/ 0)
+                        : loadNameAndIcon(entry.mContext, mUid, /*handler=*/ null,
+                                /*batteryEntry=*/ null, entry.mDefaultPackageName, entry.name,
+                                entry.icon);
+                onRequestDone(this, nameAndIcon);
+            }
+
+            @Override
+            public int compareTo(Request other) {
+                if (mVisible != other.mVisible) {
+                    return mVisible ? -1 : 1;
                 }
+                return Long.compare(mSequence, other.mSequence);
             }
         }
     }
 
-    private static NameAndIconLoader mRequestThread;
+    private static final NameAndIconLoader sLoader = new NameAndIconLoader();
 
     public static void startRequestQueue() {
         if (sHandler != null) {
             synchronized (sRequestQueue) {
                 if (!sRequestQueue.isEmpty()) {
-                    if (mRequestThread != null) {
-                        mRequestThread.abort();
-                    }
-                    mRequestThread = new NameAndIconLoader();
-                    mRequestThread.setPriority(Thread.MIN_PRIORITY);
-                    mRequestThread.start();
-                    sRequestQueue.notify();
+                    sLoader.start();
                 }
             }
         }
@@ -141,17 +243,14 @@ public class BatteryEntry {
 
     public static void stopRequestQueue() {
         synchronized (sRequestQueue) {
-            if (mRequestThread != null) {
-                mRequestThread.abort();
-                mRequestThread = null;
-                sRequestQueue.clear();
-                sHandler = null;
-            }
+            sLoader.abort();
+            sRequestQueue.clear();
+            sHandler = null;
         }
     }
 
     public static void clearUidCache() {
-        sUidCache.clear();
+        sUidCache.evictAll();
     }
 
     public static final Comparator<BatteryEntry> COMPARATOR =
@@ -175,6 +274,8 @@ public class BatteryEntry {
     public double percent;
     private String mDefaultPackageName;
     private double mConsumedPower;
+    // Whether the entry is shown, so its name and icon are loaded first.
+    private boolean mVisible;
 
     static class UidToDetail {
         String name;
@@ -315,8 +416,8 @@ public class BatteryEntry {
         }
 
         final String uidString = Integer.toString(uid);
-        if (sUidCache.containsKey(uidString)) {
-            UidToDetail utd = sUidCache.get(uidString);
+        final UidToDetail utd = sUidCache.get(uidString);
+        if (utd != null) {
             mDefaultPackageName = utd.packageName;
             name = utd.name;
             icon = utd.icon;
@@ -339,6 +440,14 @@ public class BatteryEntry {
         }
     }
 
+    /**
+     * Marks the entry as shown, so its name and icon are loaded before the ones of the entries
+     * which are not shown.
+     */
+    public void markVisible() {
+        mVisible = true;
+    }
+
     /**
      * Loads the app label and icon image and stores into the cache.
      */
@@ -45,6 +45,8 @@ public class BatteryHistEntry {
     public static final String KEY_BATTERY_LEVEL = "batteryLevel";
     public static final String KEY_BATTERY_STATUS = "batteryStatus";
     public static final String KEY_BATTERY_HEALTH = "batteryHealth";
+    // Optional, only set in the rows of a snapshot that leaves out the unchanged consumers.
+    public static final String KEY_IS_DELTA_SNAPSHOT = "isDeltaSnapshot";
 
     public final long mUid;
     public final long mUserId;
@@ -70,6 +72,8 @@ public class BatteryHistEntry {
     public final int mBatteryLevel;
     public final int mBatteryStatus;
     public final int mBatteryHealth;
+    // Whether the snapshot of this entry leaves out the consumers whose usage did not change.
+    public final boolean mIsDeltaSnapshot;
 
     private String mKey = null;
     private boolean mIsValidEntry = true;
@@ -93,6 +97,8 @@ public class BatteryHistEntry {
         mBatteryLevel = getInteger(values, KEY_BATTERY_LEVEL);
         mBatteryStatus = getInteger(values, KEY_BATTERY_STATUS);
         mBatteryHealth = getInteger(values, KEY_BATTERY_HEALTH);
+        mIsDeltaSnapshot = values != null && values.containsKey(KEY_IS_DELTA_SNAPSHOT)
+            && values.getAsBoolean(KEY_IS_DELTA_SNAPSHOT);
     }
 
     public BatteryHistEntry(Cursor cursor) {
@@ -114,6 +120,8 @@ public class BatteryHistEntry {
         mBatteryLevel = getInteger(cursor, KEY_BATTERY_LEVEL);
         mBatteryStatus = getInteger(cursor, KEY_BATTERY_STATUS);
         mBatteryHealth = getInteger(cursor, KEY_BATTERY_HEALTH);
+        final int deltaSnapshotIndex = cursor.getColumnIndex(KEY_IS_DELTA_SNAPSHOT);
+        mIsDeltaSnapshot = deltaSnapshotIndex >= 0 && cursor.getInt(deltaSnapshotIndex) == 1;
     }
 
     private BatteryHistEntry(
@@ -143,6 +151,7 @@ public class BatteryHistEntry {
         mBatteryLevel = batteryLevel;
         mBatteryStatus = fromEntry.mBatteryStatus;
         mBatteryHealth = fromEntry.mBatteryHealth;
+        mIsDeltaSnapshot = false;
     }
 
     /** Whether this {@link BatteryHistEntry} is valid or not? */
@@ -290,6 +299,20 @@ public class BatteryHistEntry {
         return false;
     }
 
+    /** Creates new {@link BatteryHistEntry} which carries unchanged usage into a snapshot. */
+    public static BatteryHistEntry carryForward(
+            BatteryHistEntry fromEntry, BatteryHistEntry snapshotEntry) {
+        return new BatteryHistEntry(
+            fromEntry,
+            snapshotEntry.mBootTimestamp,
+            snapshotEntry.mTimestamp,
+            fromEntry.mTotalPower,
+            fromEntry.mConsumePower,
+            fromEntry.mForegroundUsageTimeInMs,
+            fromEntry.mBackgroundUsageTimeInMs,
+            snapshotEntry.mBatteryLevel);
+    }
+
     /** Creates new {@link BatteryHistEntry} from interpolation. */
     public static BatteryHistEntry interpolate(
             long slotTimestamp,
@@ -42,6 +42,7 @@ public class BatteryHistoryLoader
     public Map<Long, Map<String, BatteryHistEntry>> loadInBackground() {
         final PowerUsageFeatureProvider powerUsageFeatureProvider =
             FeatureFactory.getFactory(mContext).getPowerUsageFeatureProvider(mContext);
-        return powerUsageFeatureProvider.getBatteryHistory(mContext);
+        return ConvertUtils.restoreUnchangedEntries(
+            powerUsageFeatureProvider.getBatteryHistory(mContext));
     }
 }
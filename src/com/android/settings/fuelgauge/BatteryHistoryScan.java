@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.android.settings.fuelgauge;
+
+import android.os.BatteryStats.HistoryItem;
+import android.os.BatteryUsageStats;
+
+import androidx.annotation.VisibleForTesting;
+
+import com.android.internal.os.BatteryStatsHistoryIterator;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+
+/**
+ * The battery history of a {@link BatteryUsageStats}, read once into primitive arrays and replayed
+ * to any number of {@link BatteryInfo.BatteryDataParser}s.
+ *
+ * <p>Only the fields used by the parsers are kept for each data point: the battery level, the
+ * states, the states2 and the current time.
+ */
+final class BatteryHistoryScan {
+
+    private static final int INITIAL_CAPACITY = 256;
+    // Marks a data gap in mTimes, data point times are never negative.
+    private static final long DATA_GAP = -1;
+
+    private static final Object sLock = new Object();
+    private static WeakReference<BatteryUsageStats> sLastStats;
+    private static BatteryHistoryScan sLastScan;
+
+    private long mStartWalltime;
+    private long mEndWalltime;
+    private int mSize;
+    // Relative wall time of each data point, or DATA_GAP.
+    private long[] mTimes = new long[INITIAL_CAPACITY];
+    private long[] mCurrentTimes = new long[INITIAL_CAPACITY];
+    private byte[] mBatteryLevels = new byte[INITIAL_CAPACITY];
+    private int[] mStates = new int[INITIAL_CAPACITY];
+    private int[] mStates2 = new int[INITIAL_CAPACITY];
+    // Raw record data which is only needed while scanning.
+    private long[] mRealtimes = new long[INITIAL_CAPACITY];
+    private byte[] mCmds = new byte[INITIAL_CAPACITY];
+
+    /**
+     * Gets the scanned history of {@code batteryUsageStats}. The last scan is shared, so all the
+     * users of the same stats only read its history once.
+     */
+    static BatteryHistoryScan get(BatteryUsageStats batteryUsageStats) {
+        synchronized (sLock) {
+            if (sLastStats != null && sLastStats.get() == batteryUsageStats) {
+                return sLastScan;
+            }
+        }
+        final BatteryHistoryScan scan = new BatteryHistoryScan();
+        scan.scan(batteryUsageStats.iterateBatteryStatsHistory());
+        synchronized (sLock) {
+            sLastStats = new WeakReference<>(batteryUsageStats);
+            sLastScan = scan;
+        }
+        return scan;
+    }
+
+    @VisibleForTesting
+    static void clearCache() {
+        synchronized (sLock) {
+            sLastStats = null;
+            sLastScan = null;
+        }
+    }
+
+    @VisibleForTesting
+    BatteryHistoryScan() {
+    }
+
+    /** Feeds the scanned history to {@code parsers}, in the same way for each of them. */
+    void replay(BatteryInfo.BatteryDataParser... parsers) {
+        for (int j = 0; j < parsers.length; j++) {
+            parsers[j].onParsingStarted(mStartWalltime, mEndWalltime);
+        }
+        final HistoryItem rec = new HistoryItem();
+        rec.cmd = HistoryItem.CMD_UPDATE;
+        for (int i = 0; i < mSize; i++) {
+            if (mTimes[i] == DATA_GAP) {
+                for (int j = 0; j < parsers.length; j++) {
+                    parsers[j].onDataGap();
+                }
+                continue;
+            }
+            rec.currentTime = mCurrentTimes[i];
+            rec.batteryLevel = mBatteryLevels[i];
+            rec.states = mStates[i];
+            rec.states2 = mStates2[i];
+            for (int j = 0; j < parsers.length; j++) {
+                parsers[j].onDataPoint(mTimes[i], rec);
+            }
+        }
+        for (int j = 0; j < parsers.length; j++) {
+            parsers[j].onParsingDone();
+        }
+    }
+
+    @VisibleForTesting
+    void scan(BatteryStatsHistoryIterator iterator) {
+        // Reads all records once, then works out the wall time range from the saved records.
+        final HistoryItem rec = new HistoryItem();
+        int recordCount = 0;
+        while (iterator.next(rec)) {
+            ensureCapacity(recordCount + 1);
+            mRealtimes[recordCount] = rec.time;
+            mCmds[recordCount] = rec.cmd;
+            mCurrentTimes[recordCount] = rec.currentTime;
+            mBatteryLevels[recordCount] = rec.batteryLevel;
+            mStates[recordCount] = rec.states;
+            mStates2[recordCount] = rec.states2;
+            recordCount++;
+        }
+
+        long startWalltime = 0;
+        long historyStart = 0;
+        long historyEnd = 0;
+        long curWalltime = startWalltime;
+        long lastWallTime = 0;
+        long lastRealtime = 0;
+        int lastInteresting = 0;
+        for (int pos = 0; pos < recordCount; pos++) {
+            if (pos == 0) {
+                historyStart = mRealtimes[pos];
+            }
+            final byte cmd = mCmds[pos];
+            if (cmd == HistoryItem.CMD_CURRENT_TIME || cmd == HistoryItem.CMD_RESET) {
+                // If there is a ridiculously large jump in time, then we won't be
+                // able to create a good chart with that data, so just ignore the
+                // times we got before and pretend like our data extends back from
+                // the time we have now.
+                // Also, if we are getting a time change and we are less than 5 minutes
+                // since the start of the history real time, then also use this new
+                // time to compute the base time, since whatever time we had before is
+                // pretty much just noise.
+                if (mCurrentTimes[pos] > (lastWallTime + (180 * 24 * 60 * 60 * 1000L))
+                        || mRealtimes[pos] < (historyStart + (5 * 60 * 1000L))) {
+                    startWalltime = 0;
+                }
+                lastWallTime = mCurrentTimes[pos];
+                lastRealtime = mRealtimes[pos];
+                if (startWalltime == 0) {
+                    startWalltime = lastWallTime - (lastRealtime - historyStart);
+                }
+            }
+            if (cmd == HistoryItem.CMD_UPDATE) {
+                lastInteresting = pos + 1;
+                historyEnd = mRealtimes[pos];
+            }
+        }
+        mStartWalltime = startWalltime;
+        mEndWalltime = lastWallTime + historyEnd - lastRealtime;
+
+        // Turns the records into data points and gaps in place, there are never more of them
+        // than records.
+        mSize = 0;
+        final int recordsToReplay = mEndWalltime > mStartWalltime ? lastInteresting : 0;
+        for (int i = 0; i < recordsToReplay; i++) {
+            final byte cmd = mCmds[i];
+            if (cmd == HistoryItem.CMD_UPDATE) {
+                curWalltime += mRealtimes[i] - lastRealtime;
+                lastRealtime = mRealtimes[i];
+                mTimes[mSize] = Math.max(curWalltime - startWalltime, 0);
+                mCurrentTimes[mSize] = mCurrentTimes[i];
+                mBatteryLevels[mSize] = mBatteryLevels[i];
+                mStates[mSize] = mStates[i];
+                mStates2[mSize] = mStates2[i];
+                mSize++;
+            } else {
+                final long lastWalltime = curWalltime;
+                if (cmd == HistoryItem.CMD_CURRENT_TIME || cmd == HistoryItem.CMD_RESET) {
+                    if (mCurrentTimes[i] >= startWalltime) {
+                        curWalltime = mCurrentTimes[i];
+                    } else {
+                        curWalltime = startWalltime + (mRealtimes[i] - historyStart);
+                    }
+                    lastRealtime = mRealtimes[i];
+                }
+
+                if (cmd != HistoryItem.CMD_OVERFLOW
+                        && (cmd != HistoryItem.CMD_CURRENT_TIME
+                        || Math.abs(lastWalltime - curWalltime) > (60 * 60 * 1000))) {
+                    mTimes[mSize] = DATA_GAP;
+                    mSize++;
+                }
+            }
+        }
+        // The raw record data is not needed anymore.
+        mRealtimes = null;
+        mCmds = null;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= mTimes.length) {
+            return;
+        }
+        final int newCapacity = Math.max(capacity, mTimes.length * 2);
+        mTimes = Arrays.copyOf(mTimes, newCapacity);
+        mCurrentTimes = Arrays.copyOf(mCurrentTimes, newCapacity);
+        mBatteryLevels = Arrays.copyOf(mBatteryLevels, newCapacity);
+        mStates = Arrays.copyOf(mStates, newCapacity);
+        mStates2 = Arrays.copyOf(mStates2, newCapacity);
+        mRealtimes = Arrays.copyOf(mRealtimes, newCapacity);
+        mCmds = Arrays.copyOf(mCmds, newCapacity);
+    }
+}
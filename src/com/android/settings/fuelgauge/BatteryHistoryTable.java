@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.android.settings.fuelgauge;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A columnar view of the battery history snapshots, one primitive array per metric.
+ *
+ * <p>Rows are the snapshots in timestamp order and columns are the battery consumers, each
+ * consumer key being interned into a column index once. A consumer which is missing from a
+ * snapshot has zero values and a {@code null} entry in that row.
+ */
+final class BatteryHistoryTable {
+
+    private final long[] mTimestamps;
+    private final boolean[] mHasSnapshot;
+    private final Map<String, Integer> mColumns;
+    private final int mConsumerCount;
+
+    // Row-major metrics, indexed by row * mConsumerCount + column.
+    private final long[] mForegroundUsageTimeInMs;
+    private final long[] mBackgroundUsageTimeInMs;
+    private final double[] mConsumePower;
+    private final BatteryHistEntry[] mEntries;
+
+    BatteryHistoryTable(
+            long[] timestamps, Map<Long, Map<String, BatteryHistEntry>> batteryHistoryMap) {
+        mTimestamps = timestamps;
+        final int rowCount = timestamps.length;
+        mHasSnapshot = new boolean[rowCount];
+        // Interns all consumer keys first, so the column order follows the key hash order the
+        // same way as a per slot key set does.
+        mColumns = new HashMap<>();
+        for (int row = 0; row < rowCount; row++) {
+            final Map<String, BatteryHistEntry> snapshot =
+                batteryHistoryMap.get(Long.valueOf(timestamps[row]));
+            if (snapshot == null || snapshot.isEmpty()) {
+                continue;
+            }
+            mHasSnapshot[row] = true;
+            for (String key : snapshot.keySet()) {
+                mColumns.put(key, null);
+            }
+        }
+        int column = 0;
+        for (Map.Entry<String, Integer> entry : mColumns.entrySet()) {
+            entry.setValue(Integer.valueOf(column++));
+        }
+        mConsumerCount = column;
+
+        final int cellCount = rowCount * mConsumerCount;
+        mForegroundUsageTimeInMs = new long[cellCount];
+        mBackgroundUsageTimeInMs = new long[cellCount];
+        mConsumePower = new double[cellCount];
+        mEntries = new BatteryHistEntry[cellCount];
+        for (int row = 0; row < rowCount; row++) {
+            if (!mHasSnapshot[row]) {
+                continue;
+            }
+            final Map<String, BatteryHistEntry> snapshot =
+                batteryHistoryMap.get(Long.valueOf(timestamps[row]));
+            final int rowOffset = row * mConsumerCount;
+            for (Map.Entry<String, BatteryHistEntry> entry : snapshot.entrySet()) {
+                final BatteryHistEntry histEntry = entry.getValue();
+                if (histEntry == null) {
+                    continue;
+                }
+                final int cell = rowOffset + mColumns.get(entry.getKey());
+                mForegroundUsageTimeInMs[cell] = histEntry.mForegroundUsageTimeInMs;
+                mBackgroundUsageTimeInMs[cell] = histEntry.mBackgroundUsageTimeInMs;
+                mConsumePower[cell] = histEntry.mConsumePower;
+                mEntries[cell] = histEntry;
+            }
+        }
+    }
+
+    /** Gets the number of snapshots. */
+    int getSnapshotCount() {
+        return mTimestamps.length;
+    }
+
+    /** Gets the number of distinct battery consumers over all snapshots. */
+    int getConsumerCount() {
+        return mConsumerCount;
+    }
+
+    /** Gets the timestamp of the snapshot in {@code row}. */
+    long getTimestamp(int row) {
+        return mTimestamps[row];
+    }
+
+    /** Whether there is any data recorded for the snapshot in {@code row}. */
+    boolean hasSnapshot(int row) {
+        return row >= 0 && row < mHasSnapshot.length && mHasSnapshot[row];
+    }
+
+    /** Gets the column of the consumer {@code key}, or -1 if it is not in any snapshot. */
+    int getColumn(String key) {
+        final Integer column = mColumns.get(key);
+        return column == null ? -1 : column.intValue();
+    }
+
+    long getForegroundUsageTimeInMs(int row, int column) {
+        return mForegroundUsageTimeInMs[row * mConsumerCount + column];
+    }
+
+    long getBackgroundUsageTimeInMs(int row, int column) {
+        return mBackgroundUsageTimeInMs[row * mConsumerCount + column];
+    }
+
+    double getConsumePower(int row, int column) {
+        return mConsumePower[row * mConsumerCount + column];
+    }
+
+    /** Gets the recorded entry, or {@code null} if the consumer is missing in {@code row}. */
+    BatteryHistEntry getEntry(int row, int column) {
+        return mEntries[row * mConsumerCount + column];
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.android.settings.fuelgauge;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * Process-level snapshot of the latest {@link BatteryInfo}, shared by the battery screens.
+ *
+ * <p>A snapshot is reused while the battery level, plug state, status and health are unchanged,
+ * for at most {@link #CACHE_TTL_MS}. Concurrent callers wait for the same computation instead of
+ * querying the battery usage stats and predictions again. {@link BatteryBroadcastReceiver}
+ * pushes the battery broadcasts it receives, so the sticky broadcast is not read again while a
+ * battery screen is listening.
+ */
+public final class BatteryInfoCache {
+    private static final String TAG = "BatteryInfoCache";
+
+    @VisibleForTesting
+    static final long CACHE_TTL_MS = 10_000;
+
+    private static final Object sLock = new Object();
+    // The latest pushed battery broadcast and when it was pushed. Guarded by sLock.
+    private static Intent sBatteryBroadcast;
+    private static long sBatteryBroadcastTime;
+    // Snapshots for long and short strings, by whether they use short strings.
+    private static final Snapshot[] sSnapshots = {new Snapshot(), new Snapshot()};
+
+    private BatteryInfoCache() {}
+
+    /**
+     * Gets the cached {@link BatteryInfo} for the current battery state, or loads it with
+     * {@code loader} from the current battery broadcast.
+     */
+    @WorkerThread
+    static BatteryInfo get(Context context, boolean shortString,
+            Function<Intent, BatteryInfo> loader) {
+        final Snapshot snapshot = sSnapshots[shortString ? 1 : 0];
+        // Only one caller loads the snapshot, the others wait and reuse it.
+        synchronized (snapshot) {
+            final Intent batteryBroadcast = getBatteryBroadcast(context);
+            final String key = getKey(batteryBroadcast);
+            final long now = SystemClock.elapsedRealtime();
+            if (snapshot.mInfo != null && Objects.equals(snapshot.mKey, key)
+                    && now - snapshot.mTime < CACHE_TTL_MS) {
+                Log.d(TAG, "get cached BatteryInfo for " + key);
+                return snapshot.mInfo;
+            }
+            final BatteryInfo info = loader.apply(batteryBroadcast);
+            snapshot.mInfo = info;
+            snapshot.mKey = key;
+            snapshot.mTime = now;
+            return info;
+        }
+    }
+
+    /** Keeps the latest battery broadcast received by {@link BatteryBroadcastReceiver}. */
+    static void onBatteryChanged(Intent batteryBroadcast) {
+        synchronized (sLock) {
+            sBatteryBroadcast = batteryBroadcast;
+            sBatteryBroadcastTime = SystemClock.elapsedRealtime();
+        }
+    }
+
+    @VisibleForTesting
+    public static void clear() {
+        synchronized (sLock) {
+            sBatteryBroadcast = null;
+            sBatteryBroadcastTime = 0;
+        }
+        for (Snapshot snapshot : sSnapshots) {
+            synchronized (snapshot) {
+                snapshot.mInfo = null;
+                snapshot.mKey = null;
+                snapshot.mTime = 0;
+            }
+        }
+    }
+
+    private static Intent getBatteryBroadcast(Context context) {
+        synchronized (sLock) {
+            if (sBatteryBroadcast != null
+                    && SystemClock.elapsedRealtime() - sBatteryBroadcastTime < CACHE_TTL_MS) {
+                return sBatteryBroadcast;
+            }
+        }
+        return context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+    }
+
+    private static String getKey(Intent batteryBroadcast) {
+        if (batteryBroadcast == null) {
+            return null;
+        }
+        return batteryBroadcast.getIntExtra(BatteryManager.EXTRA_LEVEL, -1) + "/"
+                + batteryBroadcast.getIntExtra(BatteryManager.EXTRA_SCALE, -1) + "/"
+                + batteryBroadcast.getIntExtra(BatteryManager.EXTRA_PLUGGED, -1) + "/"
+                + batteryBroadcast.getIntExtra(BatteryManager.EXTRA_STATUS, -1) + "/"
+                + batteryBroadcast.getIntExtra(BatteryManager.EXTRA_HEALTH, -1);
+    }
+
+    private static final class Snapshot {
+        BatteryInfo mInfo;
+        String mKey;
+        long mTime;
+    }
+}
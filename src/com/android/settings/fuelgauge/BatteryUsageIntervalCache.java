@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.android.settings.fuelgauge;
+
+import android.content.Context;
+import android.util.LongSparseArray;
+
+import androidx.annotation.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Caches the usage diff of every consumer between two adjacent battery history snapshots.
+ *
+ * <p>Recorded snapshots never change, so the usage of an interval keyed by its two boundary
+ * timestamps stays valid until it falls out of the last 24 hours. Each two hours time slot is
+ * the sum of its two intervals, so only the newest slot is recomputed when a new snapshot
+ * arrives.
+ */
+final class BatteryUsageIntervalCache {
+
+    // Intervals by their start timestamp, the end timestamp is checked on lookup.
+    private static final LongSparseArray<IntervalUsage> sIntervals = new LongSparseArray<>();
+
+    private BatteryUsageIntervalCache() {}
+
+    /**
+     * Gets indexed battery usage data for each corresponding time slot, the same as
+     * {@link ConvertUtils#getIndexedUsageMap(Context, int, long[], Map, boolean)}.
+     */
+    static Map<Integer, List<BatteryDiffEntry>> getIndexedUsageMap(
+            final Context context,
+            final int timeSlotSize,
+            final long[] batteryHistoryKeys,
+            final Map<Long, Map<String, BatteryHistEntry>> batteryHistoryMap,
+            final boolean purgeLowPercentageAndFakeData) {
+        if (batteryHistoryMap == null || batteryHistoryMap.isEmpty()) {
+            return new HashMap<>();
+        }
+        // Each time slot covers two intervals since we want to aggregate every two hours data
+        // into a single time slot.
+        final int timestampStride = 2;
+        final IntervalUsage[] intervals = getIntervals(
+            batteryHistoryKeys, timeSlotSize * timestampStride, batteryHistoryMap);
+        final List<List<BatteryDiffEntry>> slotUsageList = new ArrayList<>(timeSlotSize);
+        for (int index = 0; index < timeSlotSize; index++) {
+            slotUsageList.add(getSlotUsage(
+                context,
+                intervals[index * timestampStride],
+                intervals[index * timestampStride + 1]));
+        }
+        return ConvertUtils.getIndexedUsageMap(
+            context, slotUsageList, purgeLowPercentageAndFakeData);
+    }
+
+    /** Drops all cached intervals. */
+    @VisibleForTesting
+    static void clear() {
+        synchronized (sIntervals) {
+            sIntervals.clear();
+        }
+    }
+
+    @VisibleForTesting
+    static int getCachedIntervalCount() {
+        synchronized (sIntervals) {
+            return sIntervals.size();
+        }
+    }
+
+    /**
+     * Gets the first {@code intervalCount} intervals of {@code batteryHistoryKeys}, computing the
+     * missing ones and dropping cached ones which are not used anymore.
+     */
+    private static IntervalUsage[] getIntervals(
+            final long[] batteryHistoryKeys,
+            final int intervalCount,
+            final Map<Long, Map<String, BatteryHistEntry>> batteryHistoryMap) {
+        final IntervalUsage[] intervals = new IntervalUsage[intervalCount];
+        synchronized (sIntervals) {
+            for (int index = 0; index < intervalCount; index++) {
+                final long startTimestamp = batteryHistoryKeys[index];
+                final long endTimestamp = batteryHistoryKeys[index + 1];
+                final IntervalUsage cached = sIntervals.get(startTimestamp);
+                intervals[index] = cached != null && cached.mEndTimestamp == endTimestamp
+                    ? cached
+                    : new IntervalUsage(
+                        endTimestamp,
+                        batteryHistoryMap.get(Long.valueOf(startTimestamp)),
+                        batteryHistoryMap.get(Long.valueOf(endTimestamp)));
+            }
+            sIntervals.clear();
+            // The newest snapshot may still be refreshed, so its interval is always recomputed.
+            for (int index = 0; index < intervalCount - 1; index++) {
+                sIntervals.put(batteryHistoryKeys[index], intervals[index]);
+            }
+        }
+        return intervals;
+    }
+
+    private static List<BatteryDiffEntry> getSlotUsage(
+            final Context context, final IntervalUsage first, final IntervalUsage second) {
+        final List<BatteryDiffEntry> batteryDiffEntryList = new ArrayList<>();
+        // We should not get the empty snapshot since we have at least one fake data to record
+        // the battery level and status in each time slot, the empty snapshot is used to
+        // represent there is no enough data to apply interpolation arithmetic.
+        if (!first.mValid || !second.mValid) {
+            return batteryDiffEntryList;
+        }
+        double totalConsumePower = 0.0;
+        for (int index = 0; index < first.mKeys.length; index++) {
+            final Integer secondIndex = second.mIndexes.get(first.mKeys[index]);
+            final BatteryDiffEntry diffEntry = secondIndex == null
+                ? ConvertUtils.createSlotDiffEntry(
+                    context,
+                    first.mForegroundUsageTimeInMs[index],
+                    first.mBackgroundUsageTimeInMs[index],
+                    first.mConsumePower[index],
+                    first.mEntries[index])
+                : ConvertUtils.createSlotDiffEntry(
+                    context,
+                    first.mForegroundUsageTimeInMs[index]
+                        + second.mForegroundUsageTimeInMs[secondIndex],
+                    first.mBackgroundUsageTimeInMs[index]
+                        + second.mBackgroundUsageTimeInMs[secondIndex],
+                    first.mConsumePower[index] + second.mConsumePower[secondIndex],
+                    first.mEntries[index] != null
+                        ? first.mEntries[index] : second.mEntries[secondIndex]);
+            if (diffEntry != null) {
+                totalConsumePower += diffEntry.mConsumePower;
+                batteryDiffEntryList.add(diffEntry);
+            }
+        }
+        for (int index = 0; index < second.mKeys.length; index++) {
+            // Consumers in both intervals are already added above.
+            if (first.mIndexes.containsKey(second.mKeys[index])) {
+                continue;
+            }
+            final BatteryDiffEntry diffEntry = ConvertUtils.createSlotDiffEntry(
+                context,
+                second.mForegroundUsageTimeInMs[index],
+                second.mBackgroundUsageTimeInMs[index],
+                second.mConsumePower[index],
+                second.mEntries[index]);
+            if (diffEntry != null) {
+                totalConsumePower += diffEntry.mConsumePower;
+                batteryDiffEntryList.add(diffEntry);
+            }
+        }
+        // Sets total consume power data into all BatteryDiffEntry in the same slot.
+        for (BatteryDiffEntry diffEntry : batteryDiffEntryList) {
+            diffEntry.setTotalConsumePower(totalConsumePower);
+        }
+        return batteryDiffEntryList;
+    }
+
+    /** The usage diff of every consumer between two adjacent snapshots. */
+    private static final class IntervalUsage {
+        final long mEndTimestamp;
+        // Whether both snapshots have data to calculate the usage diff.
+        final boolean mValid;
+        final String[] mKeys;
+        final Map<String, Integer> mIndexes;
+        final long[] mForegroundUsageTimeInMs;
+        final long[] mBackgroundUsageTimeInMs;
+        final double[] mConsumePower;
+        // The first recorded entry of each consumer in the interval.
+        final BatteryHistEntry[] mEntries;
+
+        IntervalUsage(
+                long endTimestamp,
+                Map<String, BatteryHistEntry> startSnapshot,
+                Map<String, BatteryHistEntry> endSnapshot) {
+            mEndTimestamp = endTimestamp;
+            mValid = startSnapshot != null && !startSnapshot.isEmpty()
+                && endSnapshot != null && !endSnapshot.isEmpty();
+            if (!mValid) {
+                mKeys = new String[0];
+                mIndexes = new HashMap<>();
+                mForegroundUsageTimeInMs = new long[0];
+                mBackgroundUsageTimeInMs = new long[0];
+                mConsumePower = new double[0];
+                mEntries = new BatteryHistEntry[0];
+                return;
+            }
+            mIndexes = new HashMap<>(startSnapshot.size() + endSnapshot.size());
+            for (String key : startSnapshot.keySet()) {
+                mIndexes.put(key, Integer.valueOf(mIndexes.size()));
+            }
+            for (String key : endSnapshot.keySet()) {
+                if (!mIndexes.containsKey(key)) {
+                    mIndexes.put(key, Integer.valueOf(mIndexes.size()));
+                }
+            }
+            final int size = mIndexes.size();
+            mKeys = new String[size];
+            mForegroundUsageTimeInMs = new long[size];
+            mBackgroundUsageTimeInMs = new long[size];
+            mConsumePower = new double[size];
+            mEntries = new BatteryHistEntry[size];
+            for (Map.Entry<String, Integer> entry : mIndexes.entrySet()) {
+                final int index = entry.getValue();
+                final BatteryHistEntry start = startSnapshot.get(entry.getKey());
+                final BatteryHistEntry end = endSnapshot.get(entry.getKey());
+                mKeys[index] = entry.getKey();
+                mEntries[index] = start != null ? start : end;
+                if (end == null) {
+                    continue;
+                }
+                mForegroundUsageTimeInMs[index] = getDiffValue(
+                    start == null ? 0 : start.mForegroundUsageTimeInMs,
+                    end.mForegroundUsageTimeInMs);
+                mBackgroundUsageTimeInMs[index] = getDiffValue(
+                    start == null ? 0 : start.mBackgroundUsageTimeInMs,
+                    end.mBackgroundUsageTimeInMs);
+                mConsumePower[index] = getDiffValue(
+                    start == null ? 0 : start.mConsumePower,
+                    end.mConsumePower);
+            }
+        }
+
+        private static long getDiffValue(long v1, long v2) {
+            return v2 > v1 ? v2 - v1 : 0;
+        }
+
+        private static double getDiffValue(double v1, double v2) {
+            return v2 > v1 ? v2 - v1 : 0;
+        }
+    }
+}
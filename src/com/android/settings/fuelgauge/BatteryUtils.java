@@ -18,7 +18,6 @@ package com.android.settings.fuelgauge;
 import android.app.AppOpsManager;
 import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
@@ -43,6 +42,7 @@ import androidx.annotation.WorkerThread;
 import com.android.internal.util.ArrayUtils;
 import com.android.settings.fuelgauge.batterytip.AnomalyDatabaseHelper;
 import com.android.settings.fuelgauge.batterytip.AnomalyInfo;
+import com.android.settings.fuelgauge.batterytip.AppInfo;
 import com.android.settings.fuelgauge.batterytip.BatteryDatabaseManager;
 import com.android.settings.fuelgauge.batterytip.StatsManagerConfig;
 import com.android.settings.overlay.FeatureFactory;
@@ -328,13 +328,7 @@ public class BatteryUtils {
 
     public void setForceAppStandby(int uid, String packageName,
             int mode) {
-        final boolean isPreOApp = isPreOApp(packageName);
-        if (isPreOApp) {
-            // Control whether app could run in the background if it is pre O app
-            mAppOpsManager.setMode(AppOpsManager.OP_RUN_IN_BACKGROUND, uid, packageName, mode);
-        }
-        // Control whether app could run jobs in the background
-        mAppOpsManager.setMode(AppOpsManager.OP_RUN_ANY_IN_BACKGROUND, uid, packageName, mode);
+        setForceAppStandbyMode(uid, packageName, mode);
 
         ThreadUtils.postOnBackgroundThread(() -> {
             final BatteryDatabaseManager batteryDatabaseManager = BatteryDatabaseManager
@@ -349,6 +343,45 @@ public class BatteryUtils {
         });
     }
 
+    /**
+     * Sets force app standby {@code mode} for a batch of apps in one pass, then records the
+     * restriction actions of all the apps in one database transaction.
+     */
+    public void setForceAppStandby(List<AppInfo> appInfos, int mode) {
+        if (appInfos.isEmpty()) {
+            return;
+        }
+        final long startTime = System.currentTimeMillis();
+        for (int i = 0, size = appInfos.size(); i < size; i++) {
+            final AppInfo appInfo = appInfos.get(i);
+            setForceAppStandbyMode(appInfo.uid, appInfo.packageName, mode);
+        }
+
+        ThreadUtils.postOnBackgroundThread(() -> {
+            final BatteryDatabaseManager batteryDatabaseManager = BatteryDatabaseManager
+                    .getInstance(mContext);
+            if (mode == AppOpsManager.MODE_IGNORED) {
+                batteryDatabaseManager.insertActions(AnomalyDatabaseHelper.ActionType.RESTRICTION,
+                        appInfos, System.currentTimeMillis());
+            } else if (mode == AppOpsManager.MODE_ALLOWED) {
+                batteryDatabaseManager.deleteActions(AnomalyDatabaseHelper.ActionType.RESTRICTION,
+                        appInfos);
+            }
+            Log.d(TAG, String.format("setForceAppStandby() size=%d mode=%d in %d/ms",
+                    appInfos.size(), mode, (System.currentTimeMillis() - startTime)));
+        });
+    }
+
+    private void setForceAppStandbyMode(int uid, String packageName, int mode) {
+        final boolean isPreOApp = isPreOApp(packageName);
+        if (isPreOApp) {
+            // Control whether app could run in the background if it is pre O app
+            mAppOpsManager.setMode(AppOpsManager.OP_RUN_IN_BACKGROUND, uid, packageName, mode);
+        }
+        // Control whether app could run jobs in the background
+        mAppOpsManager.setMode(AppOpsManager.OP_RUN_ANY_IN_BACKGROUND, uid, packageName, mode);
+    }
+
     public boolean isForceAppStandbyEnabled(int uid, String packageName) {
         return mAppOpsManager.checkOpNoThrow(AppOpsManager.OP_RUN_ANY_IN_BACKGROUND, uid,
                 packageName) == AppOpsManager.MODE_IGNORED;
@@ -366,6 +399,11 @@ public class BatteryUtils {
 
     @WorkerThread
     public BatteryInfo getBatteryInfo(final String tag) {
+        return BatteryInfoCache.get(mContext, /* shortString */ false,
+                batteryBroadcast -> loadBatteryInfo(tag, batteryBroadcast));
+    }
+
+    private BatteryInfo loadBatteryInfo(final String tag, final Intent batteryBroadcast) {
         final BatteryStatsManager systemService = mContext.getSystemService(
                 BatteryStatsManager.class);
         BatteryUsageStats batteryUsageStats;
@@ -382,10 +420,6 @@ public class BatteryUtils {
 
         final long startTime = System.currentTimeMillis();
 
-        // Stuff we always need to get BatteryInfo
-        final Intent batteryBroadcast = mContext.registerReceiver(null,
-                new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
-
         final long elapsedRealtimeUs = PowerUtil.convertMsToUs(
                 SystemClock.elapsedRealtime());
 
@@ -31,8 +31,8 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
@@ -44,9 +44,6 @@ import java.util.TimeZone;
 public final class ConvertUtils {
     private static final boolean DEBUG = false;
     private static final String TAG = "ConvertUtils";
-    private static final Map<String, BatteryHistEntry> EMPTY_BATTERY_MAP = new HashMap<>();
-    private static final BatteryHistEntry EMPTY_BATTERY_HIST_ENTRY =
-        new BatteryHistEntry(new ContentValues());
     // Maximum total time value for each slot cumulative data at most 2 hours.
     private static final float TOTAL_TIME_THRESHOLD = DateUtils.HOUR_IN_MILLIS * 2;
 
@@ -122,6 +119,121 @@ public final class ConvertUtils {
         return values;
     }
 
+    /**
+     * Converts {@link BatteryEntry} list into a snapshot which only keeps the consumers whose
+     * usage changed since {@code lastSnapshot}, the unchanged consumers are restored by
+     * {@link #restoreUnchangedEntries(Map)} when the history is read. The rows of such a
+     * snapshot are marked with {@link BatteryHistEntry#KEY_IS_DELTA_SNAPSHOT}.
+     *
+     * <p>The full snapshot is kept if there is no last snapshot or the device rebooted since
+     * then. A fake entry is kept if no consumer changed, to record the battery level and status.
+     */
+    public static List<ContentValues> convertChangedEntries(
+            List<BatteryEntry> entries,
+            BatteryUsageStats batteryUsageStats,
+            int batteryLevel,
+            int batteryStatus,
+            int batteryHealth,
+            long bootTimestamp,
+            long timestamp,
+            Map<String, BatteryHistEntry> lastSnapshot) {
+        final List<ContentValues> valuesList = new ArrayList<>();
+        final boolean keepAllEntries = lastSnapshot == null || lastSnapshot.isEmpty()
+            || isRebooted(lastSnapshot, bootTimestamp);
+        int unchangedCount = 0;
+        if (entries != null) {
+            for (BatteryEntry entry : entries) {
+                final ContentValues values = convert(
+                    entry, batteryUsageStats, batteryLevel, batteryStatus, batteryHealth,
+                    bootTimestamp, timestamp);
+                if (!keepAllEntries && isUsageUnchanged(values, lastSnapshot)) {
+                    unchangedCount++;
+                    continue;
+                }
+                valuesList.add(values);
+            }
+        }
+        if (valuesList.isEmpty()) {
+            valuesList.add(convert(
+                /*entry=*/ null, /*batteryUsageStats=*/ null, batteryLevel, batteryStatus,
+                batteryHealth, bootTimestamp, timestamp));
+        }
+        if (!keepAllEntries) {
+            for (ContentValues values : valuesList) {
+                values.put(BatteryHistEntry.KEY_IS_DELTA_SNAPSHOT, Boolean.TRUE);
+            }
+        }
+        if (DEBUG) {
+            Log.d(TAG, String.format("convertChangedEntries() changed=%d unchanged=%d",
+                valuesList.size(), unchangedCount));
+        }
+        return valuesList;
+    }
+
+    /**
+     * Restores the consumers left out by {@link #convertChangedEntries} into each delta snapshot
+     * of {@code batteryHistoryMap}, from the previous snapshot in the same boot. Full snapshots
+     * are left unchanged.
+     */
+    public static Map<Long, Map<String, BatteryHistEntry>> restoreUnchangedEntries(
+            Map<Long, Map<String, BatteryHistEntry>> batteryHistoryMap) {
+        if (batteryHistoryMap == null || batteryHistoryMap.size() < 2) {
+            return batteryHistoryMap;
+        }
+        final List<Long> timestamps = new ArrayList<>(batteryHistoryMap.keySet());
+        Collections.sort(timestamps);
+        int restoredCount = 0;
+        Map<String, BatteryHistEntry> lastSnapshot = batteryHistoryMap.get(timestamps.get(0));
+        for (int index = 1; index < timestamps.size(); index++) {
+            final Map<String, BatteryHistEntry> snapshot =
+                batteryHistoryMap.get(timestamps.get(index));
+            final BatteryHistEntry snapshotEntry = getFirstEntry(snapshot);
+            if (snapshotEntry != null && snapshotEntry.mIsDeltaSnapshot && lastSnapshot != null
+                    && !isRebooted(lastSnapshot, snapshotEntry.mBootTimestamp)) {
+                for (Map.Entry<String, BatteryHistEntry> entry : lastSnapshot.entrySet()) {
+                    final String key = entry.getKey();
+                    if (key != null && entry.getValue().getKey() != null
+                            && !snapshot.containsKey(key)) {
+                        snapshot.put(key,
+                            BatteryHistEntry.carryForward(entry.getValue(), snapshotEntry));
+                        restoredCount++;
+                    }
+                }
+            }
+            lastSnapshot = snapshot;
+        }
+        if (DEBUG) {
+            Log.d(TAG, "restoreUnchangedEntries() restored=" + restoredCount);
+        }
+        return batteryHistoryMap;
+    }
+
+    private static boolean isUsageUnchanged(
+            ContentValues values, Map<String, BatteryHistEntry> lastSnapshot) {
+        final BatteryHistEntry entry = new BatteryHistEntry(values);
+        final String key = entry.getKey();
+        final BatteryHistEntry lastEntry = key == null ? null : lastSnapshot.get(key);
+        return lastEntry != null
+            && lastEntry.mConsumePower == entry.mConsumePower
+            && lastEntry.mForegroundUsageTimeInMs == entry.mForegroundUsageTimeInMs
+            && lastEntry.mBackgroundUsageTimeInMs == entry.mBackgroundUsageTimeInMs
+            && lastEntry.mIsHidden == entry.mIsHidden;
+    }
+
+    // Usage of each consumer is accumulated from boot, so it is not comparable across reboots.
+    private static boolean isRebooted(
+            Map<String, BatteryHistEntry> lastSnapshot, long bootTimestamp) {
+        final BatteryHistEntry lastEntry = getFirstEntry(lastSnapshot);
+        return lastEntry == null || bootTimestamp < lastEntry.mBootTimestamp;
+    }
+
+    private static BatteryHistEntry getFirstEntry(Map<String, BatteryHistEntry> snapshot) {
+        if (snapshot == null || snapshot.isEmpty()) {
+            return null;
+        }
+        return snapshot.values().iterator().next();
+    }
+
     /** Converts UTC timestamp to human readable local time string. */
     public static String utcToLocalTime(Context context, long timestamp) {
         final Locale locale = getLocale(context);
@@ -151,134 +263,192 @@ public final class ConvertUtils {
         if (batteryHistoryMap == null || batteryHistoryMap.isEmpty()) {
             return new HashMap<>();
         }
+        return getIndexedUsageMap(
+            context, timeSlotSize,
+            new BatteryHistoryTable(batteryHistoryKeys, batteryHistoryMap),
+            purgeLowPercentageAndFakeData);
+    }
+
+    /** Gets indexed battery usage data for each corresponding time slot. */
+    static Map<Integer, List<BatteryDiffEntry>> getIndexedUsageMap(
+            final Context context,
+            final int timeSlotSize,
+            final BatteryHistoryTable table,
+            final boolean purgeLowPercentageAndFakeData) {
         final Map<Integer, List<BatteryDiffEntry>> resultMap = new HashMap<>();
-        // Each time slot usage diff data =
-        //     Math.abs(timestamp[i+2] data - timestamp[i+1] data) +
-        //     Math.abs(timestamp[i+1] data - timestamp[i] data);
-        // since we want to aggregate every two hours data into a single time slot.
-        final int timestampStride = 2;
+        // Sums up each consumer usage for the last 24 hours while going through all slots.
+        final int consumerCount = table.getConsumerCount();
+        final long[] foregroundUsageTimeSums = new long[consumerCount];
+        final long[] backgroundUsageTimeSums = new long[consumerCount];
+        final double[] consumePowerSums = new double[consumerCount];
+        final BatteryHistEntry[] selectedEntries = new BatteryHistEntry[consumerCount];
         for (int index = 0; index < timeSlotSize; index++) {
-            final Long currentTimestamp =
-                Long.valueOf(batteryHistoryKeys[index * timestampStride]);
-            final Long nextTimestamp =
-                Long.valueOf(batteryHistoryKeys[index * timestampStride + 1]);
-            final Long nextTwoTimestamp =
-                Long.valueOf(batteryHistoryKeys[index * timestampStride + 2]);
-            // Fetches BatteryHistEntry data from corresponding time slot.
-            final Map<String, BatteryHistEntry> currentBatteryHistMap =
-                batteryHistoryMap.getOrDefault(currentTimestamp, EMPTY_BATTERY_MAP);
-            final Map<String, BatteryHistEntry> nextBatteryHistMap =
-                batteryHistoryMap.getOrDefault(nextTimestamp, EMPTY_BATTERY_MAP);
-            final Map<String, BatteryHistEntry> nextTwoBatteryHistMap =
-                batteryHistoryMap.getOrDefault(nextTwoTimestamp, EMPTY_BATTERY_MAP);
-            // We should not get the empty list since we have at least one fake data to record
-            // the battery level and status in each time slot, the empty list is used to
-            // represent there is no enough data to apply interpolation arithmetic.
-            if (currentBatteryHistMap.isEmpty()
-                    || nextBatteryHistMap.isEmpty()
-                    || nextTwoBatteryHistMap.isEmpty()) {
-                resultMap.put(Integer.valueOf(index), new ArrayList<BatteryDiffEntry>());
-                continue;
-            }
-
-            // Collects all keys in these three time slot records as all populations.
-            final Set<String> allBatteryHistEntryKeys = new HashSet<>();
-            allBatteryHistEntryKeys.addAll(currentBatteryHistMap.keySet());
-            allBatteryHistEntryKeys.addAll(nextBatteryHistMap.keySet());
-            allBatteryHistEntryKeys.addAll(nextTwoBatteryHistMap.keySet());
-
-            double totalConsumePower = 0.0;
             final List<BatteryDiffEntry> batteryDiffEntryList = new ArrayList<>();
             // Adds a specific time slot BatteryDiffEntry list into result map.
             resultMap.put(Integer.valueOf(index), batteryDiffEntryList);
-
-            // Calculates all packages diff usage data in a specific time slot.
-            for (String key : allBatteryHistEntryKeys) {
-                final BatteryHistEntry currentEntry =
-                    currentBatteryHistMap.getOrDefault(key, EMPTY_BATTERY_HIST_ENTRY);
-                final BatteryHistEntry nextEntry =
-                    nextBatteryHistMap.getOrDefault(key, EMPTY_BATTERY_HIST_ENTRY);
-                final BatteryHistEntry nextTwoEntry =
-                    nextTwoBatteryHistMap.getOrDefault(key, EMPTY_BATTERY_HIST_ENTRY);
-                // Cumulative values is a specific time slot for a specific app.
-                long foregroundUsageTimeInMs =
-                    getDiffValue(
-                        currentEntry.mForegroundUsageTimeInMs,
-                        nextEntry.mForegroundUsageTimeInMs,
-                        nextTwoEntry.mForegroundUsageTimeInMs);
-                long backgroundUsageTimeInMs =
-                    getDiffValue(
-                        currentEntry.mBackgroundUsageTimeInMs,
-                        nextEntry.mBackgroundUsageTimeInMs,
-                        nextTwoEntry.mBackgroundUsageTimeInMs);
-                double consumePower =
-                    getDiffValue(
-                        currentEntry.mConsumePower,
-                        nextEntry.mConsumePower,
-                        nextTwoEntry.mConsumePower);
-                // Excludes entry since we don't have enough data to calculate.
-                if (foregroundUsageTimeInMs == 0
-                        && backgroundUsageTimeInMs == 0
-                        && consumePower == 0) {
-                    continue;
-                }
-                final BatteryHistEntry selectedBatteryEntry =
-                    selectBatteryHistEntry(currentEntry, nextEntry, nextTwoEntry);
-                if (selectedBatteryEntry == null) {
+            double totalConsumePower = 0.0;
+            for (int column = 0; column < consumerCount; column++) {
+                final BatteryDiffEntry diffEntry =
+                    getSlotUsage(context, table, index, column);
+                if (diffEntry == null) {
                     continue;
                 }
-                // Forces refine the cumulative value since it may introduce deviation
-                // error since we will apply the interpolation arithmetic.
-                final float totalUsageTimeInMs =
-                    foregroundUsageTimeInMs + backgroundUsageTimeInMs;
-                if (totalUsageTimeInMs > TOTAL_TIME_THRESHOLD) {
-                    final float ratio = TOTAL_TIME_THRESHOLD / totalUsageTimeInMs;
-                    if (DEBUG) {
-                        Log.w(TAG, String.format("abnormal usage time %d|%d for:\n%s",
-                                Duration.ofMillis(foregroundUsageTimeInMs).getSeconds(),
-                                Duration.ofMillis(backgroundUsageTimeInMs).getSeconds(),
-                                currentEntry));
-                    }
-                    foregroundUsageTimeInMs =
-                        Math.round(foregroundUsageTimeInMs * ratio);
-                    backgroundUsageTimeInMs =
-                        Math.round(backgroundUsageTimeInMs * ratio);
-                    consumePower = consumePower * ratio;
+                totalConsumePower += diffEntry.mConsumePower;
+                batteryDiffEntryList.add(diffEntry);
+                foregroundUsageTimeSums[column] += diffEntry.mForegroundUsageTimeInMs;
+                backgroundUsageTimeSums[column] += diffEntry.mBackgroundUsageTimeInMs;
+                consumePowerSums[column] += diffEntry.mConsumePower;
+                if (selectedEntries[column] == null) {
+                    selectedEntries[column] = diffEntry.mBatteryHistEntry;
                 }
-                totalConsumePower += consumePower;
-                batteryDiffEntryList.add(
-                    new BatteryDiffEntry(
-                        context,
-                        foregroundUsageTimeInMs,
-                        backgroundUsageTimeInMs,
-                        consumePower,
-                        selectedBatteryEntry));
             }
             // Sets total consume power data into all BatteryDiffEntry in the same slot.
             for (BatteryDiffEntry diffEntry : batteryDiffEntryList) {
                 diffEntry.setTotalConsumePower(totalConsumePower);
             }
         }
-        insert24HoursData(BatteryChartView.SELECTED_INDEX_ALL, resultMap);
+        // Inserts the last 24 hours aggregated data.
+        final List<BatteryDiffEntry> resultList = new ArrayList<>();
+        double totalConsumePower = 0.0;
+        for (int column = 0; column < consumerCount; column++) {
+            if (selectedEntries[column] == null) {
+                continue;
+            }
+            totalConsumePower += consumePowerSums[column];
+            resultList.add(
+                new BatteryDiffEntry(
+                    context,
+                    foregroundUsageTimeSums[column],
+                    backgroundUsageTimeSums[column],
+                    consumePowerSums[column],
+                    selectedEntries[column]));
+        }
+        // Sets total 24 hours consume power data into all BatteryDiffEntry.
+        for (BatteryDiffEntry entry : resultList) {
+            entry.setTotalConsumePower(totalConsumePower);
+        }
+        resultMap.put(Integer.valueOf(BatteryChartView.SELECTED_INDEX_ALL), resultList);
         if (purgeLowPercentageAndFakeData) {
             purgeLowPercentageAndFakeData(context, resultMap);
         }
         return resultMap;
     }
 
-    private static void insert24HoursData(
-            final int desiredIndex,
-            final Map<Integer, List<BatteryDiffEntry>> indexedUsageMap) {
-        final Map<String, BatteryDiffEntry> resultMap = new HashMap<>();
+    /**
+     * Gets the usage of the consumer in {@code column} for the time slot {@code slotIndex}, or
+     * {@code null} if there is no usage or not enough data to calculate it.
+     */
+    private static BatteryDiffEntry getSlotUsage(
+            final Context context,
+            final BatteryHistoryTable table,
+            final int slotIndex,
+            final int column) {
+        // Each time slot usage diff data =
+        //     Math.abs(timestamp[i+2] data - timestamp[i+1] data) +
+        //     Math.abs(timestamp[i+1] data - timestamp[i] data);
+        // since we want to aggregate every two hours data into a single time slot.
+        final int timestampStride = 2;
+        final int currentRow = slotIndex * timestampStride;
+        final int nextRow = currentRow + 1;
+        final int nextTwoRow = currentRow + 2;
+        // We should not get the empty snapshot since we have at least one fake data to record
+        // the battery level and status in each time slot, the empty snapshot is used to
+        // represent there is no enough data to apply interpolation arithmetic.
+        if (!table.hasSnapshot(currentRow)
+                || !table.hasSnapshot(nextRow)
+                || !table.hasSnapshot(nextTwoRow)) {
+            return null;
+        }
+        // Cumulative values is a specific time slot for a specific app.
+        return createSlotDiffEntry(
+            context,
+            getDiffValue(
+                table.getForegroundUsageTimeInMs(currentRow, column),
+                table.getForegroundUsageTimeInMs(nextRow, column),
+                table.getForegroundUsageTimeInMs(nextTwoRow, column)),
+            getDiffValue(
+                table.getBackgroundUsageTimeInMs(currentRow, column),
+                table.getBackgroundUsageTimeInMs(nextRow, column),
+                table.getBackgroundUsageTimeInMs(nextTwoRow, column)),
+            getDiffValue(
+                table.getConsumePower(currentRow, column),
+                table.getConsumePower(nextRow, column),
+                table.getConsumePower(nextTwoRow, column)),
+            selectBatteryHistEntry(
+                table.getEntry(currentRow, column),
+                table.getEntry(nextRow, column),
+                table.getEntry(nextTwoRow, column)));
+    }
+
+    /**
+     * Creates the {@link BatteryDiffEntry} of a consumer from its cumulative usage in a time
+     * slot, or returns {@code null} if there is no usage to show.
+     */
+    static BatteryDiffEntry createSlotDiffEntry(
+            final Context context,
+            long foregroundUsageTimeInMs,
+            long backgroundUsageTimeInMs,
+            double consumePower,
+            final BatteryHistEntry selectedBatteryEntry) {
+        // Excludes entry since we don't have enough data to calculate.
+        if (foregroundUsageTimeInMs == 0
+                && backgroundUsageTimeInMs == 0
+                && consumePower == 0) {
+            return null;
+        }
+        if (selectedBatteryEntry == null) {
+            return null;
+        }
+        // Forces refine the cumulative value since it may introduce deviation
+        // error since we will apply the interpolation arithmetic.
+        final float totalUsageTimeInMs =
+            foregroundUsageTimeInMs + backgroundUsageTimeInMs;
+        if (totalUsageTimeInMs > TOTAL_TIME_THRESHOLD) {
+            final float ratio = TOTAL_TIME_THRESHOLD / totalUsageTimeInMs;
+            if (DEBUG) {
+                Log.w(TAG, String.format("abnormal usage time %d|%d for:\n%s",
+                        Duration.ofMillis(foregroundUsageTimeInMs).getSeconds(),
+                        Duration.ofMillis(backgroundUsageTimeInMs).getSeconds(),
+                        selectedBatteryEntry));
+            }
+            foregroundUsageTimeInMs =
+                Math.round(foregroundUsageTimeInMs * ratio);
+            backgroundUsageTimeInMs =
+                Math.round(backgroundUsageTimeInMs * ratio);
+            consumePower = consumePower * ratio;
+        }
+        return new BatteryDiffEntry(
+            context,
+            foregroundUsageTimeInMs,
+            backgroundUsageTimeInMs,
+            consumePower,
+            selectedBatteryEntry);
+    }
+
+    /**
+     * Gets indexed battery usage data from the already computed usage of each time slot, adding
+     * the aggregated usage of the last 24 hours.
+     */
+    static Map<Integer, List<BatteryDiffEntry>> getIndexedUsageMap(
+            final Context context,
+            final List<List<BatteryDiffEntry>> slotUsageList,
+            final boolean purgeLowPercentageAndFakeData) {
+        final Map<Integer, List<BatteryDiffEntry>> resultMap = new HashMap<>();
+        final Map<String, BatteryDiffEntry> aggregatedMap = new HashMap<>();
+        final List<BatteryDiffEntry> resultList = new ArrayList<>();
         double totalConsumePower = 0.0;
-        // Loops for all BatteryDiffEntry and aggregate them together.
-        for (List<BatteryDiffEntry> entryList : indexedUsageMap.values()) {
+        for (int index = 0; index < slotUsageList.size(); index++) {
+            final List<BatteryDiffEntry> entryList = slotUsageList.get(index);
+            resultMap.put(Integer.valueOf(index), entryList);
+            // Loops for all BatteryDiffEntry and aggregate them together.
             for (BatteryDiffEntry entry : entryList) {
                 final String key = entry.mBatteryHistEntry.getKey();
-                final BatteryDiffEntry oldBatteryDiffEntry = resultMap.get(key);
+                final BatteryDiffEntry oldBatteryDiffEntry = aggregatedMap.get(key);
                 // Creates new BatteryDiffEntry if we don't have it.
                 if (oldBatteryDiffEntry == null) {
-                    resultMap.put(key, entry.clone());
+                    final BatteryDiffEntry newBatteryDiffEntry = entry.clone();
+                    aggregatedMap.put(key, newBatteryDiffEntry);
+                    resultList.add(newBatteryDiffEntry);
                 } else {
                     // Sums up some fields data into the existing one.
                     oldBatteryDiffEntry.mForegroundUsageTimeInMs +=
@@ -290,12 +460,15 @@ public final class ConvertUtils {
                 totalConsumePower += entry.mConsumePower;
             }
         }
-        final List<BatteryDiffEntry> resultList = new ArrayList<>(resultMap.values());
         // Sets total 24 hours consume power data into all BatteryDiffEntry.
         for (BatteryDiffEntry entry : resultList) {
             entry.setTotalConsumePower(totalConsumePower);
         }
-        indexedUsageMap.put(Integer.valueOf(desiredIndex), resultList);
+        resultMap.put(Integer.valueOf(BatteryChartView.SELECTED_INDEX_ALL), resultList);
+        if (purgeLowPercentageAndFakeData) {
+            purgeLowPercentageAndFakeData(context, resultMap);
+        }
+        return resultMap;
     }
 
     // Removes low percentage data and fake usage data, which will be zero value.
@@ -336,13 +509,12 @@ public final class ConvertUtils {
             BatteryHistEntry entry1,
             BatteryHistEntry entry2,
             BatteryHistEntry entry3) {
-        if (entry1 != null && entry1 != EMPTY_BATTERY_HIST_ENTRY) {
+        if (entry1 != null) {
             return entry1;
-        } else if (entry2 != null && entry2 != EMPTY_BATTERY_HIST_ENTRY) {
+        } else if (entry2 != null) {
             return entry2;
         } else {
-            return entry3 != null && entry3 != EMPTY_BATTERY_HIST_ENTRY
-                ? entry3 : null;
+            return entry3;
         }
     }
 
@@ -120,7 +120,13 @@ public class PowerUsageSummary extends PowerUsageBase implements
 
                 @Override
                 public Loader<List<BatteryTip>> onCreateLoader(int id, Bundle args) {
-                    return new BatteryTipLoader(getContext(), mBatteryUsageStats);
+                    return new BatteryTipLoader(getContext(), mBatteryUsageStats,
+                            batteryTips -> {
+                                mBatteryTipPreferenceController.updateBatteryTips(batteryTips);
+                                mBatteryHeaderPreferenceController.updateHeaderByBatteryTips(
+                                        mBatteryTipPreferenceController.getCurrentBatteryTip(),
+                                        mBatteryInfo);
+                            });
                 }
 
                 @Override
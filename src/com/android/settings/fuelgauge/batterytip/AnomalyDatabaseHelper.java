@@ -145,6 +145,8 @@ public class AnomalyDatabaseHelper extends SQLiteOpenHelper {
 
     private AnomalyDatabaseHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        // Lets the anomaly queries run while the anomaly detection job is writing.
+        setWriteAheadLoggingEnabled(true);
     }
 
     @Override
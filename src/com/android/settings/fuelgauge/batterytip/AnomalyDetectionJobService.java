@@ -35,7 +35,10 @@ import android.os.Bundle;
 import android.os.StatsDimensionsValue;
 import android.os.UserManager;
 import android.provider.Settings;
+import android.util.ArrayMap;
 import android.util.Log;
+import android.util.SparseArray;
+import android.util.SparseBooleanArray;
 
 import androidx.annotation.GuardedBy;
 import androidx.annotation.VisibleForTesting;
@@ -103,13 +106,21 @@ public class AnomalyDetectionJobService extends JobService {
             final MetricsFeatureProvider metricsFeatureProvider = FeatureFactory
                     .getFactory(this).getMetricsFeatureProvider();
 
-            for (JobWorkItem item = dequeueWork(params); item != null; item = dequeueWork(params)) {
-                saveAnomalyToDatabase(context, userManager,
+            // Drains all pending work, so a burst of anomalies is saved in one transaction.
+            for (List<JobWorkItem> items = dequeueAllWork(params); !items.isEmpty();
+                    items = dequeueAllWork(params)) {
+                final List<Bundle> bundles = new ArrayList<>(items.size());
+                for (JobWorkItem item : items) {
+                    bundles.add(item.getIntent().getExtras());
+                }
+                saveAnomaliesToDatabase(context, userManager,
                         batteryDatabaseManager, batteryUtils, policy, powerAllowlistBackend,
                         contentResolver, powerUsageFeatureProvider, metricsFeatureProvider,
-                        item.getIntent().getExtras());
+                        bundles);
 
-                completeWork(params, item);
+                for (JobWorkItem item : items) {
+                    completeWork(params, item);
+                }
             }
         });
 
@@ -124,62 +135,116 @@ public class AnomalyDetectionJobService extends JobService {
         return true; // Need to reschedule
     }
 
+    /**
+     * Saves the anomalies of {@code bundles} to database in one transaction. Anomalies with the
+     * same uid and type are saved once with the latest timestamp, and the package of each uid is
+     * only resolved once. The metrics are still logged once per parsed bundle.
+     */
     @VisibleForTesting
-    void saveAnomalyToDatabase(Context context, UserManager userManager,
+    void saveAnomaliesToDatabase(Context context, UserManager userManager,
             BatteryDatabaseManager databaseManager, BatteryUtils batteryUtils,
             BatteryTipPolicy policy, PowerAllowlistBackend powerAllowlistBackend,
             ContentResolver contentResolver, PowerUsageFeatureProvider powerUsageFeatureProvider,
-            MetricsFeatureProvider metricsFeatureProvider, Bundle bundle) {
-        // The Example of intentDimsValue is: 35:{1:{1:{1:10013|}|}|}
-        final StatsDimensionsValue intentDimsValue =
-                bundle.getParcelable(StatsManager.EXTRA_STATS_DIMENSIONS_VALUE);
-        final long timeMs = bundle.getLong(AnomalyDetectionReceiver.KEY_ANOMALY_TIMESTAMP,
-                System.currentTimeMillis());
-        final ArrayList<String> cookies = bundle.getStringArrayList(
-                StatsManager.EXTRA_STATS_BROADCAST_SUBSCRIBER_COOKIES);
-        final AnomalyInfo anomalyInfo = new AnomalyInfo(
-                !ArrayUtils.isEmpty(cookies) ? cookies.get(0) : "");
-        Log.i(TAG, "Extra stats value: " + intentDimsValue.toString());
-
-        try {
-            final int uid = extractUidFromStatsDimensionsValue(intentDimsValue);
-            final boolean autoFeatureOn = powerUsageFeatureProvider.isSmartBatterySupported()
-                    ? Settings.Global.getInt(contentResolver,
-                    Settings.Global.ADAPTIVE_BATTERY_MANAGEMENT_ENABLED, ON) == ON
-                    : Settings.Global.getInt(contentResolver,
-                            Settings.Global.APP_AUTO_RESTRICTION_ENABLED, ON) == ON;
-            final String packageName = batteryUtils.getPackageName(uid);
-            final long versionCode = batteryUtils.getAppLongVersionCode(packageName);
-            final String versionedPackage = packageName + "/" + versionCode;
-            if (batteryUtils.shouldHideAnomaly(powerAllowlistBackend, uid, anomalyInfo)) {
-                metricsFeatureProvider.action(SettingsEnums.PAGE_UNKNOWN,
-                        SettingsEnums.ACTION_ANOMALY_IGNORED,
-                        SettingsEnums.PAGE_UNKNOWN,
-                        versionedPackage,
-                        anomalyInfo.anomalyType);
-            } else {
-                if (autoFeatureOn && anomalyInfo.autoRestriction) {
-                    // Auto restrict this app
-                    batteryUtils.setForceAppStandby(uid, packageName,
-                            AppOpsManager.MODE_IGNORED);
-                    databaseManager.insertAnomaly(uid, packageName, anomalyInfo.anomalyType,
-                            AnomalyDatabaseHelper.State.AUTO_HANDLED,
-                            timeMs);
+            MetricsFeatureProvider metricsFeatureProvider, List<Bundle> bundles) {
+        final ArrayMap<String, PendingAnomaly> pendingAnomalies = new ArrayMap<>();
+        for (Bundle bundle : bundles) {
+            // The Example of intentDimsValue is: 35:{1:{1:{1:10013|}|}|}
+            final StatsDimensionsValue intentDimsValue =
+                    bundle.getParcelable(StatsManager.EXTRA_STATS_DIMENSIONS_VALUE);
+            final long timeMs = bundle.getLong(AnomalyDetectionReceiver.KEY_ANOMALY_TIMESTAMP,
+                    System.currentTimeMillis());
+            final ArrayList<String> cookies = bundle.getStringArrayList(
+                    StatsManager.EXTRA_STATS_BROADCAST_SUBSCRIBER_COOKIES);
+            final AnomalyInfo anomalyInfo = new AnomalyInfo(
+                    !ArrayUtils.isEmpty(cookies) ? cookies.get(0) : "");
+
+            try {
+                Log.i(TAG, "Extra stats value: " + intentDimsValue.toString());
+                final int uid = extractUidFromStatsDimensionsValue(intentDimsValue);
+                final String key = uid + "/" + anomalyInfo.anomalyType + "/"
+                        + anomalyInfo.autoRestriction;
+                final PendingAnomaly pendingAnomaly = pendingAnomalies.get(key);
+                if (pendingAnomaly == null) {
+                    pendingAnomalies.put(key, new PendingAnomaly(uid, anomalyInfo, timeMs));
+                } else {
+                    pendingAnomaly.update(anomalyInfo, timeMs);
+                }
+            } catch (NullPointerException | IndexOutOfBoundsException e) {
+                Log.e(TAG, "Parse stats dimensions value error.", e);
+            }
+        }
+        if (pendingAnomalies.isEmpty()) {
+            return;
+        }
+
+        final boolean autoFeatureOn = powerUsageFeatureProvider.isSmartBatterySupported()
+                ? Settings.Global.getInt(contentResolver,
+                Settings.Global.ADAPTIVE_BATTERY_MANAGEMENT_ENABLED, ON) == ON
+                : Settings.Global.getInt(contentResolver,
+                        Settings.Global.APP_AUTO_RESTRICTION_ENABLED, ON) == ON;
+        final SparseArray<String> packageNames = new SparseArray<>();
+        final SparseArray<String> versionedPackages = new SparseArray<>();
+        final SparseBooleanArray restrictedUids = new SparseBooleanArray();
+        final List<AppInfo> restrictedApps = new ArrayList<>();
+        final List<BatteryDatabaseManager.AnomalyRecord> records = new ArrayList<>();
+        for (int i = 0, size = pendingAnomalies.size(); i < size; i++) {
+            try {
+                final PendingAnomaly pendingAnomaly = pendingAnomalies.valueAt(i);
+                final int uid = pendingAnomaly.uid;
+                final AnomalyInfo anomalyInfo = pendingAnomaly.anomalyInfo;
+                if (packageNames.indexOfKey(uid) < 0) {
+                    final String packageName = batteryUtils.getPackageName(uid);
+                    packageNames.put(uid, packageName);
+                    versionedPackages.put(uid,
+                            packageName + "/" + batteryUtils.getAppLongVersionCode(packageName));
+                }
+                final String packageName = packageNames.get(uid);
+                final String versionedPackage = versionedPackages.get(uid);
+
+                if (batteryUtils.shouldHideAnomaly(powerAllowlistBackend, uid, anomalyInfo)) {
+                    for (int j = 0; j < pendingAnomaly.count; j++) {
+                        metricsFeatureProvider.action(SettingsEnums.PAGE_UNKNOWN,
+                                SettingsEnums.ACTION_ANOMALY_IGNORED,
+                                SettingsEnums.PAGE_UNKNOWN,
+                                versionedPackage,
+                                anomalyInfo.anomalyType);
+                    }
+                } else if (packageName == null) {
+                    Log.w(TAG, "No package found for anomaly uid: " + uid);
                 } else {
-                    databaseManager.insertAnomaly(uid, packageName, anomalyInfo.anomalyType,
-                            AnomalyDatabaseHelper.State.NEW,
-                            timeMs);
+                    int state = AnomalyDatabaseHelper.State.NEW;
+                    if (autoFeatureOn && anomalyInfo.autoRestriction) {
+                        // Auto restrict this app
+                        if (!restrictedUids.get(uid)) {
+                            restrictedApps.add(new AppInfo.Builder()
+                                    .setUid(uid)
+                                    .setPackageName(packageName)
+                                    .build());
+                            restrictedUids.put(uid, true);
+                        }
+                        state = AnomalyDatabaseHelper.State.AUTO_HANDLED;
+                    }
+                    records.add(new BatteryDatabaseManager.AnomalyRecord(uid, packageName,
+                            anomalyInfo.anomalyType, state, pendingAnomaly.timeMs));
+                    for (int j = 0; j < pendingAnomaly.count; j++) {
+                        metricsFeatureProvider.action(SettingsEnums.PAGE_UNKNOWN,
+                                SettingsEnums.ACTION_ANOMALY_TRIGGERED,
+                                SettingsEnums.PAGE_UNKNOWN,
+                                versionedPackage,
+                                anomalyInfo.anomalyType);
+                    }
                 }
-                metricsFeatureProvider.action(SettingsEnums.PAGE_UNKNOWN,
-                        SettingsEnums.ACTION_ANOMALY_TRIGGERED,
-                        SettingsEnums.PAGE_UNKNOWN,
-                        versionedPackage,
-                        anomalyInfo.anomalyType);
+            } catch (NullPointerException | IndexOutOfBoundsException e) {
+                Log.e(TAG, "Save anomaly error.", e);
             }
+        }
 
-        } catch (NullPointerException | IndexOutOfBoundsException e) {
-            Log.e(TAG, "Parse stats dimensions value error.", e);
+        batteryUtils.setForceAppStandby(restrictedApps, AppOpsManager.MODE_IGNORED);
+        if (!records.isEmpty()) {
+            databaseManager.insertAnomalies(records);
         }
+        Log.d(TAG, String.format("saved %d anomalies from %d work items", records.size(),
+                bundles.size()));
     }
 
     /**
@@ -224,6 +289,16 @@ public class AnomalyDetectionJobService extends JobService {
         }
     }
 
+    /** Dequeues all pending work, returns an empty list when there is none. */
+    private List<JobWorkItem> dequeueAllWork(JobParameters parameters) {
+        final List<JobWorkItem> items = new ArrayList<>();
+        for (JobWorkItem item = dequeueWork(parameters); item != null;
+                item = dequeueWork(parameters)) {
+            items.add(item);
+        }
+        return items;
+    }
+
     @VisibleForTesting
     void completeWork(JobParameters parameters, JobWorkItem item) {
         synchronized (mLock) {
@@ -234,4 +309,28 @@ public class AnomalyDetectionJobService extends JobService {
             parameters.completeWork(item);
         }
     }
+
+    /** An anomaly which is waiting to be saved. */
+    private static final class PendingAnomaly {
+        final int uid;
+        AnomalyInfo anomalyInfo;
+        long timeMs;
+        // The number of bundles reporting this anomaly, each of them is logged.
+        int count = 1;
+
+        PendingAnomaly(int uid, AnomalyInfo anomalyInfo, long timeMs) {
+            this.uid = uid;
+            this.anomalyInfo = anomalyInfo;
+            this.timeMs = timeMs;
+        }
+
+        /** Adds another report of this anomaly, keeping the latest one. */
+        void update(AnomalyInfo anomalyInfo, long timeMs) {
+            count++;
+            if (this.timeMs < timeMs) {
+                this.anomalyInfo = anomalyInfo;
+                this.timeMs = timeMs;
+            }
+        }
+    }
 }
@@ -16,7 +16,6 @@
 
 package com.android.settings.fuelgauge.batterytip;
 
-import static android.database.sqlite.SQLiteDatabase.CONFLICT_IGNORE;
 import static android.database.sqlite.SQLiteDatabase.CONFLICT_REPLACE;
 
 import static com.android.settings.fuelgauge.batterytip.AnomalyDatabaseHelper.AnomalyColumns.ANOMALY_STATE;
@@ -31,8 +30,10 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
-import android.text.TextUtils;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
 import android.util.ArrayMap;
+import android.util.Log;
 import android.util.SparseLongArray;
 
 import androidx.annotation.VisibleForTesting;
@@ -40,21 +41,35 @@ import androidx.annotation.VisibleForTesting;
 import com.android.settings.fuelgauge.batterytip.AnomalyDatabaseHelper.ActionColumns;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
 /**
  * Database manager for battery data. Now it only contains anomaly data stored in {@link AppInfo}.
  *
- * This manager may be accessed by multi-threads. All the database related methods are synchronized
- * so each operation won't be interfered by other threads.
+ * This manager may be accessed by multi-threads. The database uses write-ahead logging, so queries
+ * run concurrently with each other and with writes. Writes are serialized by a lock which also
+ * guards the compiled statements.
  */
 public class BatteryDatabaseManager {
+    private static final String TAG = "BatteryDatabaseManager";
+
+    private static final String INSERT_ANOMALY_SQL = "INSERT OR IGNORE INTO " + TABLE_ANOMALY
+            + " (" + UID + "," + PACKAGE_NAME + "," + ANOMALY_TYPE + "," + ANOMALY_STATE + ","
+            + TIME_STAMP_MS + ") VALUES (?,?,?,?,?)";
+    private static final String UPDATE_ANOMALY_STATE_SQL = "UPDATE " + TABLE_ANOMALY
+            + " SET " + ANOMALY_STATE + " = ? WHERE " + PACKAGE_NAME + " = ?";
+
     private static BatteryDatabaseManager sSingleton;
 
     private AnomalyDatabaseHelper mDatabaseHelper;
 
+    private final Object mWriteLock = new Object();
+    // Statements compiled against mStatementDatabase. Guarded by mWriteLock.
+    private SQLiteDatabase mStatementDatabase;
+    private SQLiteStatement mInsertAnomalyStatement;
+    private SQLiteStatement mUpdateAnomalyStateStatement;
+
     private BatteryDatabaseManager(Context context) {
         mDatabaseHelper = AnomalyDatabaseHelper.getInstance(context);
     }
@@ -81,24 +96,51 @@ public class BatteryDatabaseManager {
      * @param timestampMs  the time when it is happened
      * @return {@code true} if insert operation succeed
      */
-    public synchronized boolean insertAnomaly(int uid, String packageName, int type,
+    public boolean insertAnomaly(int uid, String packageName, int type,
             int anomalyState,
             long timestampMs) {
-        final SQLiteDatabase db = mDatabaseHelper.getWritableDatabase();
-        ContentValues values = new ContentValues();
-        values.put(UID, uid);
-        values.put(PACKAGE_NAME, packageName);
-        values.put(ANOMALY_TYPE, type);
-        values.put(ANOMALY_STATE, anomalyState);
-        values.put(TIME_STAMP_MS, timestampMs);
+        synchronized (mWriteLock) {
+            prepareStatements(mDatabaseHelper.getWritableDatabase());
+            return executeInsertAnomaly(
+                    uid, packageName, type, anomalyState, timestampMs) != -1;
+        }
+    }
 
-        return db.insertWithOnConflict(TABLE_ANOMALY, null, values, CONFLICT_IGNORE) != -1;
+    /**
+     * Insert a burst of anomaly logs to database in one transaction.
+     *
+     * @param records the anomalies to insert
+     * @return the number of inserted anomalies, the ones already in database are ignored
+     */
+    public int insertAnomalies(List<AnomalyRecord> records) {
+        if (records.isEmpty()) {
+            return 0;
+        }
+        int insertedCount = 0;
+        synchronized (mWriteLock) {
+            final SQLiteDatabase db = mDatabaseHelper.getWritableDatabase();
+            prepareStatements(db);
+            db.beginTransaction();
+            try {
+                for (AnomalyRecord record : records) {
+                    if (executeInsertAnomaly(record.uid, record.packageName, record.type,
+                            record.state, record.timestampMs) != -1) {
+                        insertedCount++;
+                    }
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+        return insertedCount;
     }
 
     /**
      * Query all the anomalies that happened after {@code timestampMsAfter} and with {@code state}.
      */
-    public synchronized List<AppInfo> queryAllAnomalies(long timestampMsAfter, int state) {
+    public List<AppInfo> queryAllAnomalies(long timestampMsAfter, int state) {
+        final long startTime = SystemClock.elapsedRealtime();
         final List<AppInfo> appInfos = new ArrayList<>();
         final SQLiteDatabase db = mDatabaseHelper.getReadableDatabase();
         final String[] projection = {PACKAGE_NAME, ANOMALY_TYPE, UID};
@@ -128,13 +170,17 @@ public class BatteryDatabaseManager {
             appInfos.add(mAppInfoBuilders.get(uid).build());
         }
 
+        Log.d(TAG, String.format("queryAllAnomalies() size=%d in %d/ms", appInfos.size(),
+                (SystemClock.elapsedRealtime() - startTime)));
         return appInfos;
     }
 
-    public synchronized void deleteAllAnomaliesBeforeTimeStamp(long timestampMs) {
-        final SQLiteDatabase db = mDatabaseHelper.getWritableDatabase();
-        db.delete(TABLE_ANOMALY, TIME_STAMP_MS + " < ?",
-                new String[]{String.valueOf(timestampMs)});
+    public void deleteAllAnomaliesBeforeTimeStamp(long timestampMs) {
+        synchronized (mWriteLock) {
+            final SQLiteDatabase db = mDatabaseHelper.getWritableDatabase();
+            db.delete(TABLE_ANOMALY, TIME_STAMP_MS + " < ?",
+                    new String[]{String.valueOf(timestampMs)});
+        }
     }
 
     /**
@@ -143,19 +189,26 @@ public class BatteryDatabaseManager {
      * @param appInfos represents the anomalies
      * @param state    which state to update to
      */
-    public synchronized void updateAnomalies(List<AppInfo> appInfos, int state) {
-        if (!appInfos.isEmpty()) {
-            final int size = appInfos.size();
-            final String[] whereArgs = new String[size];
-            for (int i = 0; i < size; i++) {
-                whereArgs[i] = appInfos.get(i).packageName;
-            }
-
+    public void updateAnomalies(List<AppInfo> appInfos, int state) {
+        if (appInfos.isEmpty()) {
+            return;
+        }
+        synchronized (mWriteLock) {
             final SQLiteDatabase db = mDatabaseHelper.getWritableDatabase();
-            final ContentValues values = new ContentValues();
-            values.put(ANOMALY_STATE, state);
-            db.update(TABLE_ANOMALY, values, PACKAGE_NAME + " IN (" + TextUtils.join(",",
-                    Collections.nCopies(appInfos.size(), "?")) + ")", whereArgs);
+            prepareStatements(db);
+            // Reuses one compiled statement for all apps in one transaction, which also avoids
+            // the bind argument limit of a single IN clause.
+            db.beginTransaction();
+            try {
+                for (AppInfo appInfo : appInfos) {
+                    mUpdateAnomalyStateStatement.bindLong(1, state);
+                    bindStringOrNull(mUpdateAnomalyStateStatement, 2, appInfo.packageName);
+                    mUpdateAnomalyStateStatement.executeUpdateDelete();
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
         }
     }
 
@@ -165,8 +218,9 @@ public class BatteryDatabaseManager {
      * @param type of action been performed
      * @return {@link SparseLongArray} where key is uid and value is timestamp
      */
-    public synchronized SparseLongArray queryActionTime(
+    public SparseLongArray queryActionTime(
             @AnomalyDatabaseHelper.ActionType int type) {
+        final long startTime = SystemClock.elapsedRealtime();
         final SparseLongArray timeStamps = new SparseLongArray();
         final SQLiteDatabase db = mDatabaseHelper.getReadableDatabase();
         final String[] projection = {ActionColumns.UID, ActionColumns.TIME_STAMP_MS};
@@ -185,36 +239,164 @@ public class BatteryDatabaseManager {
             }
         }
 
+        Log.d(TAG, String.format("queryActionTime() size=%d in %d/ms", timeStamps.size(),
+                (SystemClock.elapsedRealtime() - startTime)));
         return timeStamps;
     }
 
     /**
      * Insert an action, or update it if already existed
      */
-    public synchronized boolean insertAction(@AnomalyDatabaseHelper.ActionType int type,
+    public boolean insertAction(@AnomalyDatabaseHelper.ActionType int type,
             int uid, String packageName, long timestampMs) {
-        final SQLiteDatabase db = mDatabaseHelper.getWritableDatabase();
         final ContentValues values = new ContentValues();
         values.put(ActionColumns.UID, uid);
         values.put(ActionColumns.PACKAGE_NAME, packageName);
         values.put(ActionColumns.ACTION_TYPE, type);
         values.put(ActionColumns.TIME_STAMP_MS, timestampMs);
 
-        return db.insertWithOnConflict(TABLE_ACTION, null, values, CONFLICT_REPLACE) != -1;
+        synchronized (mWriteLock) {
+            final SQLiteDatabase db = mDatabaseHelper.getWritableDatabase();
+            return db.insertWithOnConflict(TABLE_ACTION, null, values, CONFLICT_REPLACE) != -1;
+        }
+    }
+
+    /**
+     * Insert actions for a batch of apps in one transaction, or update them if already existed
+     *
+     * @return the number of inserted or updated actions
+     */
+    public int insertActions(@AnomalyDatabaseHelper.ActionType int type,
+            List<AppInfo> appInfos, long timestampMs) {
+        if (appInfos.isEmpty()) {
+            return 0;
+        }
+        final ContentValues values = new ContentValues();
+        int insertedCount = 0;
+        synchronized (mWriteLock) {
+            final SQLiteDatabase db = mDatabaseHelper.getWritableDatabase();
+            db.beginTransaction();
+            try {
+                for (AppInfo appInfo : appInfos) {
+                    values.put(ActionColumns.UID, appInfo.uid);
+                    values.put(ActionColumns.PACKAGE_NAME, appInfo.packageName);
+                    values.put(ActionColumns.ACTION_TYPE, type);
+                    values.put(ActionColumns.TIME_STAMP_MS, timestampMs);
+                    if (db.insertWithOnConflict(
+                            TABLE_ACTION, null, values, CONFLICT_REPLACE) != -1) {
+                        insertedCount++;
+                    }
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+        return insertedCount;
     }
 
     /**
      * Remove an action
      */
-    public synchronized boolean deleteAction(@AnomalyDatabaseHelper.ActionType int type,
+    public boolean deleteAction(@AnomalyDatabaseHelper.ActionType int type,
             int uid, String packageName) {
-        SQLiteDatabase db = mDatabaseHelper.getWritableDatabase();
         final String where =
                 ActionColumns.ACTION_TYPE + " = ? AND " + ActionColumns.UID + " = ? AND "
                         + ActionColumns.PACKAGE_NAME + " = ? ";
         final String[] whereArgs = new String[]{String.valueOf(type), String.valueOf(uid),
                 String.valueOf(packageName)};
 
-        return db.delete(TABLE_ACTION, where, whereArgs) != 0;
+        synchronized (mWriteLock) {
+            SQLiteDatabase db = mDatabaseHelper.getWritableDatabase();
+            return db.delete(TABLE_ACTION, where, whereArgs) != 0;
+        }
+    }
+
+    /**
+     * Remove actions for a batch of apps in one transaction
+     *
+     * @return the number of removed actions
+     */
+    public int deleteActions(@AnomalyDatabaseHelper.ActionType int type,
+            List<AppInfo> appInfos) {
+        if (appInfos.isEmpty()) {
+            return 0;
+        }
+        final String where =
+                ActionColumns.ACTION_TYPE + " = ? AND " + ActionColumns.UID + " = ? AND "
+                        + ActionColumns.PACKAGE_NAME + " = ? ";
+        final String[] whereArgs = new String[3];
+        int deletedCount = 0;
+        synchronized (mWriteLock) {
+            final SQLiteDatabase db = mDatabaseHelper.getWritableDatabase();
+            db.beginTransaction();
+            try {
+                for (AppInfo appInfo : appInfos) {
+                    whereArgs[0] = String.valueOf(type);
+                    whereArgs[1] = String.valueOf(appInfo.uid);
+                    whereArgs[2] = String.valueOf(appInfo.packageName);
+                    deletedCount += db.delete(TABLE_ACTION, where, whereArgs);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+        return deletedCount;
+    }
+
+    /** Compiles the statements again if the database is reopened. Must hold mWriteLock. */
+    private void prepareStatements(SQLiteDatabase db) {
+        if (mStatementDatabase == db) {
+            return;
+        }
+        if (mInsertAnomalyStatement != null) {
+            mInsertAnomalyStatement.close();
+            mUpdateAnomalyStateStatement.close();
+        }
+        mInsertAnomalyStatement = db.compileStatement(INSERT_ANOMALY_SQL);
+        mUpdateAnomalyStateStatement = db.compileStatement(UPDATE_ANOMALY_STATE_SQL);
+        mStatementDatabase = db;
+    }
+
+    /** Must hold mWriteLock, after {@link #prepareStatements(SQLiteDatabase)}. */
+    private long executeInsertAnomaly(int uid, String packageName, int type, int anomalyState,
+            long timestampMs) {
+        final SQLiteStatement statement = mInsertAnomalyStatement;
+        statement.bindLong(1, uid);
+        bindStringOrNull(statement, 2, packageName);
+        statement.bindLong(3, type);
+        statement.bindLong(4, anomalyState);
+        statement.bindLong(5, timestampMs);
+        return statement.executeInsert();
+    }
+
+    private static void bindStringOrNull(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
+    /**
+     * An anomaly log to insert by {@link #insertAnomalies(List)}.
+     */
+    public static final class AnomalyRecord {
+        public final int uid;
+        public final String packageName;
+        public final int type;
+        @AnomalyDatabaseHelper.State
+        public final int state;
+        public final long timestampMs;
+
+        public AnomalyRecord(int uid, String packageName, int type,
+                @AnomalyDatabaseHelper.State int state, long timestampMs) {
+            this.uid = uid;
+            this.packageName = packageName;
+            this.type = type;
+            this.state = state;
+            this.timestampMs = timestampMs;
+        }
     }
 }
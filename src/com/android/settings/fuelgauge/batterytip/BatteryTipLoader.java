@@ -18,6 +18,7 @@ package com.android.settings.fuelgauge.batterytip;
 
 import android.content.Context;
 import android.os.BatteryUsageStats;
+import android.util.Log;
 
 import androidx.annotation.VisibleForTesting;
 
@@ -33,27 +34,60 @@ import com.android.settings.fuelgauge.batterytip.tips.LowBatteryTip;
 import com.android.settings.fuelgauge.batterytip.tips.SummaryTip;
 import com.android.settingslib.fuelgauge.EstimateKt;
 import com.android.settingslib.utils.AsyncLoaderCompat;
+import com.android.settingslib.utils.ThreadUtils;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 /**
  * Loader to compute and return a battery tip list. It will always return a full length list even
  * though some tips may have state {@code BaseBatteryTip.StateType.INVISIBLE}.
+ *
+ * <p>The detectors share the same inputs and run concurrently. When an
+ * {@link OnBatteryTipsDetectedListener} is set, the tips are also delivered as soon as the tip to
+ * show is known, before the slower detectors finish.
  */
 public class BatteryTipLoader extends AsyncLoaderCompat<List<BatteryTip>> {
     private static final String TAG = "BatteryTipLoader";
 
     private static final boolean USE_FAKE_DATA = false;
 
+    private static final int DETECTOR_THREAD_COUNT = 5;
+    private static final long KEEP_ALIVE_SECONDS = 10;
+    // The detectors get their own pool, since the loader itself may run on the shared background
+    // pool and waiting there for tasks queued behind it could starve or deadlock it.
+    private static final ThreadPoolExecutor sDetectorExecutor = createDetectorExecutor();
+
+    /** Listener of the tips detected before all detectors finish. */
+    public interface OnBatteryTipsDetectedListener {
+        /**
+         * Called on the main thread with the tips detected so far. The first visible tip in
+         * the list is the one to show.
+         */
+        void onBatteryTipsDetected(List<BatteryTip> batteryTips);
+    }
+
     private BatteryUsageStats mBatteryUsageStats;
+    private final OnBatteryTipsDetectedListener mListener;
     @VisibleForTesting
     BatteryUtils mBatteryUtils;
 
     public BatteryTipLoader(Context context, BatteryUsageStats batteryUsageStats) {
+        this(context, batteryUsageStats, null /* listener */);
+    }
+
+    public BatteryTipLoader(Context context, BatteryUsageStats batteryUsageStats,
+            OnBatteryTipsDetectedListener listener) {
         super(context);
         mBatteryUsageStats = batteryUsageStats;
+        mListener = listener;
         mBatteryUtils = BatteryUtils.getInstance(context);
     }
 
@@ -62,17 +96,125 @@ public class BatteryTipLoader extends AsyncLoaderCompat<List<BatteryTip>> {
         if (USE_FAKE_DATA) {
             return getFakeData();
         }
-        final List<BatteryTip> tips = new ArrayList<>();
         final BatteryTipPolicy policy = new BatteryTipPolicy(getContext());
         final BatteryInfo batteryInfo = mBatteryUtils.getBatteryInfo(TAG);
         final Context context = getContext();
 
-        tips.add(new LowBatteryDetector(context, policy, batteryInfo).detect());
-        tips.add(new HighUsageDetector(context, policy, mBatteryUsageStats, batteryInfo).detect());
-        tips.add(new SmartBatteryDetector(
+        // Detectors are listed in the order of their tips, see BatteryTip#TIP_ORDER.
+        final List<Supplier<BatteryTip>> detectors = new ArrayList<>();
+        detectors.add(() -> new EarlyWarningDetector(policy, context).detect());
+        detectors.add(() -> new LowBatteryDetector(context, policy, batteryInfo).detect());
+        detectors.add(() -> new BatteryDefenderDetector(batteryInfo).detect());
+        detectors.add(() -> new HighUsageDetector(
+                context, policy, mBatteryUsageStats, batteryInfo).detect());
+        detectors.add(() -> new SmartBatteryDetector(
                 context, policy, batteryInfo, context.getContentResolver()).detect());
-        tips.add(new EarlyWarningDetector(policy, context).detect());
-        tips.add(new BatteryDefenderDetector(batteryInfo).detect());
+        return detect(detectors);
+    }
+
+    /**
+     * Runs {@code detectors} concurrently and returns their sorted tips. If interrupted, returns
+     * the tips detected so far.
+     */
+    @VisibleForTesting
+    List<BatteryTip> detect(List<Supplier<BatteryTip>> detectors) {
+        final int size = detectors.size();
+        final BatteryTip[] results = new BatteryTip[size];
+        final BlockingQueue<DetectorResult> finished = new LinkedBlockingQueue<>();
+        final List<Future<?>> futures = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            final int index = i;
+            futures.add(sDetectorExecutor.submit(() -> {
+                final long startTime = System.currentTimeMillis();
+                try {
+                    final BatteryTip tip = detectors.get(index).get();
+                    BatteryUtils.logRuntime(
+                            TAG, "detect " + tip.getClass().getSimpleName(), startTime);
+                    finished.add(new DetectorResult(index, tip, null));
+                } catch (Throwable e) {
+                    // Anything thrown must reach the loader thread, or it would wait forever.
+                    finished.add(new DetectorResult(index, null, e));
+                }
+            }));
+        }
+
+        // The number of leading detectors which are finished.
+        int finishedPrefix = 0;
+        boolean delivered = false;
+        for (int count = 0; count < size; count++) {
+            final DetectorResult result;
+            try {
+                result = finished.take();
+            } catch (InterruptedException e) {
+                Log.w(TAG, "interrupted while waiting for detectors", e);
+                cancelAll(futures);
+                Thread.currentThread().interrupt();
+                return collectTips(results);
+            }
+            if (result.mError != null) {
+                cancelAll(futures);
+                if (result.mError instanceof Error) {
+                    throw (Error) result.mError;
+                }
+                if (result.mError instanceof RuntimeException) {
+                    throw (RuntimeException) result.mError;
+                }
+                throw new IllegalStateException(result.mError);
+            }
+            results[result.mIndex] = result.mTip;
+            while (finishedPrefix < size && results[finishedPrefix] != null) {
+                finishedPrefix++;
+            }
+            // Delivers early once a visible tip is found and no detector before it is running,
+            // since that tip is the one to show whatever the other detectors return.
+            if (!delivered && mListener != null && count < size - 1
+                    && hasVisibleTip(results, finishedPrefix)) {
+                delivered = true;
+                deliverEarly(collectTips(results));
+            }
+        }
+        return collectTips(results);
+    }
+
+    private void deliverEarly(List<BatteryTip> tips) {
+        ThreadUtils.postOnMainThread(() -> {
+            if (isStarted()) {
+                mListener.onBatteryTipsDetected(tips);
+            }
+        });
+    }
+
+    private static void cancelAll(List<Future<?>> futures) {
+        for (Future<?> future : futures) {
+            future.cancel(true /* mayInterruptIfRunning */);
+        }
+    }
+
+    private static ThreadPoolExecutor createDetectorExecutor() {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                DETECTOR_THREAD_COUNT, DETECTOR_THREAD_COUNT, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                runnable -> new Thread(runnable, "Battery Tip Detector"));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static boolean hasVisibleTip(BatteryTip[] results, int prefix) {
+        for (int i = 0; i < prefix; i++) {
+            if (results[i].isVisible()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<BatteryTip> collectTips(BatteryTip[] results) {
+        final List<BatteryTip> tips = new ArrayList<>(results.length);
+        for (BatteryTip tip : results) {
+            if (tip != null) {
+                tips.add(tip);
+            }
+        }
         Collections.sort(tips);
         return tips;
     }
@@ -90,4 +232,15 @@ public class BatteryTipLoader extends AsyncLoaderCompat<List<BatteryTip>> {
         return tips;
     }
 
+    private static class DetectorResult {
+        final int mIndex;
+        final BatteryTip mTip;
+        final Throwable mError;
+
+        DetectorResult(int index, BatteryTip tip, Throwable error) {
+            mIndex = index;
+            mTip = tip;
+            mError = error;
+        }
+    }
 }
@@ -33,6 +33,8 @@ import com.android.settings.overlay.FeatureFactory;
 import com.android.settings.widget.CardPreference;
 import com.android.settingslib.core.instrumentation.MetricsFeatureProvider;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -99,16 +101,23 @@ public class BatteryTipPreferenceController extends BasePreferenceController {
             return;
         }
         if (mBatteryTips == null) {
-            mBatteryTips = batteryTips;
+            mBatteryTips = new ArrayList<>(batteryTips);
         } else {
-            // mBatteryTips and batteryTips always have the same length and same sequence.
-            for (int i = 0, size = batteryTips.size(); i < size; i++) {
-                mBatteryTips.get(i).updateState(batteryTips.get(i));
+            // Tips are matched by type, since tips delivered before all detectors finish
+            // only contain some of them.
+            for (BatteryTip batteryTip : batteryTips) {
+                final BatteryTip oldBatteryTip = findBatteryTip(batteryTip.getType());
+                if (oldBatteryTip == null) {
+                    mBatteryTips.add(batteryTip);
+                } else {
+                    oldBatteryTip.updateState(batteryTip);
+                }
             }
+            Collections.sort(mBatteryTips);
         }
 
         mCardPreference.setVisible(false);
-        for (int i = 0, size = batteryTips.size(); i < size; i++) {
+        for (int i = 0, size = mBatteryTips.size(); i < size; i++) {
             final BatteryTip batteryTip = mBatteryTips.get(i);
             batteryTip.validateCheck(mContext);
             if (batteryTip.getState() != BatteryTip.StateType.INVISIBLE) {
@@ -122,6 +131,15 @@ public class BatteryTipPreferenceController extends BasePreferenceController {
         }
     }
 
+    private BatteryTip findBatteryTip(int type) {
+        for (int i = 0, size = mBatteryTips.size(); i < size; i++) {
+            if (mBatteryTips.get(i).getType() == type) {
+                return mBatteryTips.get(i);
+            }
+        }
+        return null;
+    }
+
     @Override
     public boolean handlePreferenceTreeClick(Preference preference) {
         final BatteryTip batteryTip = mBatteryTipMap.get(preference.getKey());
@@ -55,12 +55,11 @@ public class RestrictAppAction extends BatteryTipAction {
     public void handlePositiveAction(int metricsKey) {
         final List<AppInfo> appInfos = mRestrictAppTip.getRestrictAppList();
 
+        // Force app standby for all apps at once, then apps can't run in the background
+        mBatteryUtils.setForceAppStandby(appInfos, AppOpsManager.MODE_IGNORED);
         for (int i = 0, size = appInfos.size(); i < size; i++) {
             final AppInfo appInfo = appInfos.get(i);
             final String packageName = appInfo.packageName;
-            // Force app standby, then app can't run in the background
-            mBatteryUtils.setForceAppStandby(appInfo.uid, packageName,
-                    AppOpsManager.MODE_IGNORED);
             if (CollectionUtils.isEmpty(appInfo.anomalyTypes)) {
                 // Only log context if there is no anomaly type
                 mMetricsFeatureProvider.action(SettingsEnums.PAGE_UNKNOWN,
@@ -71,6 +71,9 @@ public class AppBubbleListPreferenceController extends AppConversationListPrefer
         super.onResume(appRow, channel, group, conversationDrawable, conversationInfo, admin,
                 preferenceFilter);
         // In case something changed in the foreground (e.g. via bubble button on notification)
+        if (appRow != null) {
+            ConversationCache.getInstance(mContext).invalidatePackage(appRow.pkg, appRow.uid);
+        }
         loadConversationsAndPopulate();
     }
 
@@ -0,0 +1,283 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.notification;
+
+import android.app.NotificationManager;
+import android.app.role.RoleManager;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.os.SystemClock;
+import android.os.UserHandle;
+import android.util.ArrayMap;
+import android.util.ArraySet;
+import android.util.SparseArray;
+
+import androidx.annotation.VisibleForTesting;
+
+import com.android.settingslib.Utils;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link NotificationBackend} that memoizes the per app state used by app lists, so that a list
+ * of every app costs a handful of binder calls rather than several per app.
+ *
+ * <p>Entries are keyed by uid and shared by all instances. A uid is dropped when its package
+ * changes, and when Settings changes its notification settings through any
+ * {@link NotificationBackend}. Every entry is dropped when the notification policy changes.
+ * Changes made elsewhere (e.g. from the notification shade) have no callback, so entries also
+ * expire after {@link #MAX_AGE_MILLIS}.
+ */
+public class CachingNotificationBackend extends NotificationBackend {
+
+    @VisibleForTesting
+    static final long MAX_AGE_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private static final SparseArray<AppState> sAppStates = new SparseArray<>();
+    private static Context sListeningContext;
+
+    private static final BroadcastReceiver sPackageReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            final int uid = intent.getIntExtra(Intent.EXTRA_UID, -1);
+            if (uid < 0) {
+                invalidateAll();
+            } else {
+                invalidate(uid);
+            }
+        }
+    };
+
+    private static final BroadcastReceiver sPolicyReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            invalidateAll();
+        }
+    };
+
+    private final Context mContext;
+
+    public CachingNotificationBackend(Context context) {
+        mContext = context;
+    }
+
+    /** Drops the cached state of {@code uid}. */
+    public static void invalidate(int uid) {
+        synchronized (sAppStates) {
+            sAppStates.remove(uid);
+        }
+    }
+
+    /** Drops the cached state of every app. */
+    public static void invalidateAll() {
+        synchronized (sAppStates) {
+            sAppStates.clear();
+        }
+    }
+
+    /**
+     * Works out which of {@code apps} are system apps with one package query and one role query
+     * per user, instead of a package and a role query per app.
+     */
+    @Override
+    public void prefetchAppStates(Context context, List<ApplicationInfo> apps) {
+        final PackageManager pm = context.getPackageManager();
+        final RoleManager rm = context.getSystemService(RoleManager.class);
+        final String[] nonBlockablePkgs = context.getResources().getStringArray(
+                com.android.internal.R.array.config_nonBlockableNotificationPackages);
+        final SparseArray<UserPackages> userPackages = new SparseArray<>();
+        for (ApplicationInfo app : apps) {
+            synchronized (sAppStates) {
+                final AppState state =
+                        getFreshState(app.uid, app.packageName, false /* create */);
+                if (state != null && state.mSystemApp != null) {
+                    continue;
+                }
+            }
+            final int userId = UserHandle.getUserId(app.uid);
+            UserPackages packages = userPackages.get(userId);
+            if (packages == null) {
+                packages = new UserPackages(pm, rm, userId);
+                userPackages.put(userId, packages);
+            }
+            final PackageInfo info = packages.getPackageInfo(app.packageName);
+            if (info == null) {
+                continue;
+            }
+            final AppRow row = new AppRow();
+            row.systemApp = Utils.isSystemPackage(context.getResources(), pm, info)
+                    || packages.mDialerAndEmergencyHolders.contains(app.packageName);
+            markAppRowWithBlockables(nonBlockablePkgs, row, app.packageName);
+            synchronized (sAppStates) {
+                getFreshState(app.uid, app.packageName, true /* create */).mSystemApp =
+                        row.systemApp;
+            }
+        }
+    }
+
+    @Override
+    public boolean isSystemApp(Context context, ApplicationInfo app) {
+        synchronized (sAppStates) {
+            final AppState state = getFreshState(app.uid, app.packageName, false /* create */);
+            if (state != null && state.mSystemApp != null) {
+                return state.mSystemApp;
+            }
+        }
+        final boolean systemApp = super.isSystemApp(context, app);
+        synchronized (sAppStates) {
+            getFreshState(app.uid, app.packageName, true /* create */).mSystemApp = systemApp;
+        }
+        return systemApp;
+    }
+
+    @Override
+    public boolean getNotificationsBanned(String pkg, int uid) {
+        synchronized (sAppStates) {
+            final AppState state = getFreshState(uid, pkg, false /* create */);
+            if (state != null && state.mBanned != null) {
+                return state.mBanned;
+            }
+        }
+        final boolean banned = super.getNotificationsBanned(pkg, uid);
+        synchronized (sAppStates) {
+            getFreshState(uid, pkg, true /* create */).mBanned = banned;
+        }
+        return banned;
+    }
+
+    @Override
+    public int getChannelCount(String pkg, int uid) {
+        synchronized (sAppStates) {
+            final AppState state = getFreshState(uid, pkg, false /* create */);
+            if (state != null && state.mChannelCount != null) {
+                return state.mChannelCount;
+            }
+        }
+        final int count = super.getChannelCount(pkg, uid);
+        synchronized (sAppStates) {
+            getFreshState(uid, pkg, true /* create */).mChannelCount = count;
+        }
+        return count;
+    }
+
+    @Override
+    public int getBlockedChannelCount(String pkg, int uid) {
+        synchronized (sAppStates) {
+            final AppState state = getFreshState(uid, pkg, false /* create */);
+            if (state != null && state.mBlockedChannelCount != null) {
+                return state.mBlockedChannelCount;
+            }
+        }
+        final int count = super.getBlockedChannelCount(pkg, uid);
+        synchronized (sAppStates) {
+            getFreshState(uid, pkg, true /* create */).mBlockedChannelCount = count;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the state of {@code uid} if it is recent and for {@code pkg}. Otherwise returns
+     * null, or a new empty state if {@code create} is set.
+     */
+    private AppState getFreshState(int uid, String pkg, boolean create) {
+        // Whichever call comes first, the listeners are registered before anything is cached.
+        startListening(mContext);
+        synchronized (sAppStates) {
+            final AppState state = sAppStates.get(uid);
+            if (state != null && pkg.equals(state.mPkg)
+                    && SystemClock.elapsedRealtime() - state.mTime <= MAX_AGE_MILLIS) {
+                return state;
+            }
+            if (!create) {
+                return null;
+            }
+            final AppState newState = new AppState(pkg);
+            sAppStates.put(uid, newState);
+            return newState;
+        }
+    }
+
+    private static void startListening(Context context) {
+        final Context appContext = context.getApplicationContext();
+        synchronized (sAppStates) {
+            if (appContext == null || sListeningContext == appContext) {
+                return;
+            }
+            sListeningContext = appContext;
+            sAppStates.clear();
+        }
+        final IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addDataScheme("package");
+        appContext.registerReceiverForAllUsers(sPackageReceiver, filter, null, null);
+        appContext.registerReceiver(sPolicyReceiver,
+                new IntentFilter(NotificationManager.ACTION_NOTIFICATION_POLICY_CHANGED));
+    }
+
+    private static class AppState {
+        final String mPkg;
+        final long mTime = SystemClock.elapsedRealtime();
+        Boolean mBanned;
+        Boolean mSystemApp;
+        Integer mChannelCount;
+        Integer mBlockedChannelCount;
+
+        AppState(String pkg) {
+            mPkg = pkg;
+        }
+    }
+
+    /** Packages and dialer/emergency role holders of one user, each loaded once. */
+    private static class UserPackages {
+        private final PackageManager mPm;
+        private final int mUserId;
+        private final ArraySet<String> mDialerAndEmergencyHolders = new ArraySet<>();
+        private ArrayMap<String, PackageInfo> mPackages;
+
+        UserPackages(PackageManager pm, RoleManager rm, int userId) {
+            mPm = pm;
+            mUserId = userId;
+            if (rm != null) {
+                final UserHandle user = UserHandle.of(userId);
+                mDialerAndEmergencyHolders.addAll(
+                        rm.getRoleHoldersAsUser(RoleManager.ROLE_DIALER, user));
+                mDialerAndEmergencyHolders.addAll(
+                        rm.getRoleHoldersAsUser(RoleManager.ROLE_EMERGENCY, user));
+            }
+        }
+
+        PackageInfo getPackageInfo(String pkg) {
+            if (mPackages == null) {
+                final List<PackageInfo> infos = mPm.getInstalledPackagesAsUser(
+                        PackageManager.GET_SIGNATURES, mUserId);
+                mPackages = new ArrayMap<>(infos.size());
+                for (PackageInfo info : infos) {
+                    mPackages.put(info.packageName, info);
+                }
+            }
+            return mPackages.get(pkg);
+        }
+    }
+}
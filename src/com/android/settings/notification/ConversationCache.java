@@ -0,0 +1,393 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.notification;
+
+import android.app.NotificationChannel;
+import android.app.people.ConversationChannel;
+import android.app.people.IPeopleManager;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.ParceledListSlice;
+import android.net.Uri;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.service.notification.ConversationChannelWrapper;
+import android.text.TextUtils;
+import android.util.ArrayMap;
+import android.util.ArraySet;
+
+import androidx.annotation.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-process cache of the conversation lists shown by the conversation and bubble settings
+ * pages, shared by their preference controllers.
+ *
+ * <p>Channel updates made through {@link NotificationBackend} are applied to the cached lists
+ * with a copy of the updated channel, and a changed or removed package only has its own
+ * conversations re-queried. Changes
+ * made outside Settings (e.g. a new conversation being posted) have no callback, so lists are
+ * re-queried once they are older than {@link #MAX_AGE_MILLIS}.
+ */
+public class ConversationCache {
+
+    @VisibleForTesting
+    static final long MAX_AGE_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private static ConversationCache sInstance;
+
+    private final Context mContext;
+    // All non-demoted conversations, or null if they need to be queried again.
+    private List<ConversationChannelWrapper> mConversations;
+    private long mConversationsTime;
+    // Packages whose entries in mConversations are out of date.
+    private final ArraySet<PackageUid> mDirtyPackages = new ArraySet<>();
+    private final ArrayMap<PackageUid, List<ConversationChannelWrapper>> mPackageConversations =
+            new ArrayMap<>();
+    private final ArrayMap<PackageUid, Long> mPackageConversationsTime = new ArrayMap<>();
+    private List<ConversationChannel> mRecentConversations;
+    private long mRecentConversationsTime;
+    // Bumped whenever a cached list changes, so callers can skip rebuilding unchanged lists.
+    private int mGeneration;
+
+    private final BroadcastReceiver mPackageReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            final Uri data = intent.getData();
+            if (data != null) {
+                onPackageChanged(data.getSchemeSpecificPart(),
+                        intent.getIntExtra(Intent.EXTRA_UID, -1));
+            }
+        }
+    };
+
+    public static synchronized ConversationCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ConversationCache(context.getApplicationContext());
+            sInstance.startListening();
+        }
+        return sInstance;
+    }
+
+    /** Applies a channel update made through {@link NotificationBackend}, if a cache exists. */
+    static void notifyChannelUpdated(String pkg, int uid, NotificationChannel channel) {
+        final ConversationCache cache;
+        synchronized (ConversationCache.class) {
+            cache = sInstance;
+        }
+        if (cache != null) {
+            cache.onChannelUpdated(pkg, uid, channel);
+        }
+    }
+
+    /** Drops the conversations of a package changed through {@link NotificationBackend}. */
+    static void notifyPackageChanged(String pkg, int uid) {
+        final ConversationCache cache;
+        synchronized (ConversationCache.class) {
+            cache = sInstance;
+        }
+        if (cache != null) {
+            cache.onPackageChanged(pkg, uid);
+        }
+    }
+
+    @VisibleForTesting
+    ConversationCache(Context context) {
+        mContext = context;
+    }
+
+    private void startListening() {
+        final IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addDataScheme("package");
+        mContext.registerReceiverForAllUsers(mPackageReceiver, filter, null, null);
+    }
+
+    /** Returns the generation of the cached lists; it changes whenever any of them changes. */
+    public synchronized int getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Returns the conversations of all apps, like
+     * {@link NotificationBackend#getConversations(boolean)}. The returned list is a copy.
+     */
+    public List<ConversationChannelWrapper> getConversations(NotificationBackend backend,
+            boolean onlyImportant) {
+        final ArraySet<PackageUid> dirty;
+        synchronized (this) {
+            if (mConversations == null || isExpired(mConversationsTime)) {
+                dirty = null;
+            } else if (mDirtyPackages.isEmpty()) {
+                return filter(mConversations, onlyImportant);
+            } else {
+                dirty = new ArraySet<>(mDirtyPackages);
+            }
+        }
+        if (dirty == null) {
+            final List<ConversationChannelWrapper> conversations =
+                    getList(backend.getConversations(false));
+            synchronized (this) {
+                mConversations = conversations;
+                mConversationsTime = SystemClock.elapsedRealtime();
+                mDirtyPackages.clear();
+                mGeneration++;
+                return filter(mConversations, onlyImportant);
+            }
+        }
+        // Only re-query the packages that changed and splice them into the full list.
+        final ArrayMap<PackageUid, List<ConversationChannelWrapper>> updates = new ArrayMap<>();
+        for (PackageUid pu : dirty) {
+            updates.put(pu, pu.mUid < 0 ? new ArrayList<>()
+                    : getList(backend.getConversations(pu.mPkg, pu.mUid)));
+        }
+        synchronized (this) {
+            if (mConversations != null) {
+                final List<ConversationChannelWrapper> conversations = new ArrayList<>();
+                for (ConversationChannelWrapper conversation : mConversations) {
+                    if (!isDirty(updates, conversation.getPkg(), conversation.getUid())) {
+                        conversations.add(conversation);
+                    }
+                }
+                for (List<ConversationChannelWrapper> update : updates.values()) {
+                    for (ConversationChannelWrapper conversation : update) {
+                        if (!conversation.getNotificationChannel().isDemoted()) {
+                            conversations.add(conversation);
+                        }
+                    }
+                }
+                mConversations = conversations;
+                mDirtyPackages.removeAll(updates.keySet());
+                mGeneration++;
+            }
+            return mConversations == null ? new ArrayList<>()
+                    : filter(mConversations, onlyImportant);
+        }
+    }
+
+    /**
+     * Returns the conversations of one app, like
+     * {@link NotificationBackend#getConversations(String, int)}. The returned list is a copy.
+     */
+    public List<ConversationChannelWrapper> getConversations(NotificationBackend backend,
+            String pkg, int uid) {
+        final PackageUid key = new PackageUid(pkg, uid);
+        synchronized (this) {
+            final List<ConversationChannelWrapper> cached = mPackageConversations.get(key);
+            if (cached != null && !isExpired(mPackageConversationsTime.get(key))) {
+                return new ArrayList<>(cached);
+            }
+        }
+        final List<ConversationChannelWrapper> conversations =
+                getList(backend.getConversations(pkg, uid));
+        synchronized (this) {
+            mPackageConversations.put(key, conversations);
+            mPackageConversationsTime.put(key, SystemClock.elapsedRealtime());
+            mGeneration++;
+            return new ArrayList<>(conversations);
+        }
+    }
+
+    /** Returns the recent conversations reported by {@code ps}. The returned list is a copy. */
+    public List<ConversationChannel> getRecentConversations(IPeopleManager ps)
+            throws RemoteException {
+        synchronized (this) {
+            if (mRecentConversations != null && !isExpired(mRecentConversationsTime)) {
+                return new ArrayList<>(mRecentConversations);
+            }
+        }
+        final List<ConversationChannel> conversations = getList(ps.getRecentConversations());
+        synchronized (this) {
+            mRecentConversations = conversations;
+            mRecentConversationsTime = SystemClock.elapsedRealtime();
+            mGeneration++;
+            return new ArrayList<>(conversations);
+        }
+    }
+
+    /** Drops the recent conversations, e.g. after they were cleared. */
+    public synchronized void invalidateRecentConversations() {
+        mRecentConversations = null;
+        mGeneration++;
+    }
+
+    /** Forces the next query of an app's conversations to go to the backend. */
+    public synchronized void invalidatePackage(String pkg, int uid) {
+        mPackageConversations.remove(new PackageUid(pkg, uid));
+    }
+
+    /** Drops everything. */
+    public synchronized void invalidate() {
+        mConversations = null;
+        mDirtyPackages.clear();
+        mPackageConversations.clear();
+        mPackageConversationsTime.clear();
+        mRecentConversations = null;
+        mGeneration++;
+    }
+
+    @VisibleForTesting
+    synchronized void onChannelUpdated(String pkg, int uid, NotificationChannel channel) {
+        if (channel == null || TextUtils.isEmpty(channel.getConversationId())) {
+            // A parent channel can change what its conversations inherit; re-query them.
+            onPackageChanged(pkg, uid);
+            return;
+        }
+        if (mConversations != null) {
+            final int size = mConversations.size();
+            for (int i = size - 1; i >= 0; i--) {
+                final ConversationChannelWrapper conversation = mConversations.get(i);
+                if (matches(conversation, pkg, uid, channel)) {
+                    if (channel.isDemoted()) {
+                        mConversations.remove(i);
+                    } else {
+                        mConversations.set(i, withChannel(conversation, channel));
+                    }
+                }
+            }
+            if (!channel.isDemoted() && !contains(mConversations, pkg, uid, channel)) {
+                // A promoted conversation; its wrapper has to come from the backend.
+                mDirtyPackages.add(new PackageUid(pkg, uid));
+            }
+        }
+        final List<ConversationChannelWrapper> packageConversations =
+                mPackageConversations.get(new PackageUid(pkg, uid));
+        if (packageConversations != null) {
+            for (int i = 0, size = packageConversations.size(); i < size; i++) {
+                final ConversationChannelWrapper conversation = packageConversations.get(i);
+                if (matches(conversation, pkg, uid, channel)) {
+                    packageConversations.set(i, withChannel(conversation, channel));
+                }
+            }
+        }
+        // Recent conversations are immutable, drop them rather than patching.
+        mRecentConversations = null;
+        mGeneration++;
+    }
+
+    @VisibleForTesting
+    synchronized void onPackageChanged(String pkg, int uid) {
+        if (mConversations != null) {
+            mDirtyPackages.add(new PackageUid(pkg, uid));
+        }
+        for (int i = mPackageConversations.size() - 1; i >= 0; i--) {
+            if (TextUtils.equals(mPackageConversations.keyAt(i).mPkg, pkg)) {
+                mPackageConversationsTime.remove(mPackageConversations.keyAt(i));
+                mPackageConversations.removeAt(i);
+            }
+        }
+        mRecentConversations = null;
+        mGeneration++;
+    }
+
+    private static boolean isExpired(Long time) {
+        return time == null || SystemClock.elapsedRealtime() - time > MAX_AGE_MILLIS;
+    }
+
+    private static boolean isDirty(ArrayMap<PackageUid, ?> updates, String pkg, int uid) {
+        for (int i = 0; i < updates.size(); i++) {
+            final PackageUid pu = updates.keyAt(i);
+            // A removal broadcast without a uid drops the package for every user.
+            if (TextUtils.equals(pu.mPkg, pkg) && (pu.mUid < 0 || pu.mUid == uid)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean matches(ConversationChannelWrapper conversation, String pkg, int uid,
+            NotificationChannel channel) {
+        return conversation.getUid() == uid && TextUtils.equals(conversation.getPkg(), pkg)
+                && TextUtils.equals(conversation.getNotificationChannel().getId(),
+                        channel.getId());
+    }
+
+    /**
+     * Returns a new wrapper of {@code conversation} with a copy of {@code channel}. Wrappers
+     * already handed out are left untouched, and later changes to the caller's channel don't leak
+     * into the cache.
+     */
+    private static ConversationChannelWrapper withChannel(
+            ConversationChannelWrapper conversation, NotificationChannel channel) {
+        final ConversationChannelWrapper updated = new ConversationChannelWrapper();
+        updated.setNotificationChannel(channel.copy());
+        updated.setGroupLabel(conversation.getGroupLabel());
+        updated.setParentChannelLabel(conversation.getParentChannelLabel());
+        updated.setShortcutInfo(conversation.getShortcutInfo());
+        updated.setPkg(conversation.getPkg());
+        updated.setUid(conversation.getUid());
+        return updated;
+    }
+
+    private static boolean contains(List<ConversationChannelWrapper> conversations, String pkg,
+            int uid, NotificationChannel channel) {
+        for (ConversationChannelWrapper conversation : conversations) {
+            if (matches(conversation, pkg, uid, channel)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<ConversationChannelWrapper> filter(
+            List<ConversationChannelWrapper> conversations, boolean onlyImportant) {
+        final List<ConversationChannelWrapper> result = new ArrayList<>(conversations.size());
+        for (ConversationChannelWrapper conversation : conversations) {
+            if (!onlyImportant
+                    || conversation.getNotificationChannel().isImportantConversation()) {
+                result.add(conversation);
+            }
+        }
+        return result;
+    }
+
+    private static <T> List<T> getList(ParceledListSlice<T> slice) {
+        return slice == null ? new ArrayList<>() : new ArrayList<>(slice.getList());
+    }
+
+    private static final class PackageUid {
+        private final String mPkg;
+        private final int mUid;
+
+        PackageUid(String pkg, int uid) {
+            mPkg = pkg;
+            mUid = uid;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof PackageUid)) {
+                return false;
+            }
+            final PackageUid other = (PackageUid) o;
+            return mUid == other.mUid && TextUtils.equals(mPkg, other.mPkg);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mPkg, mUid);
+        }
+    }
+}
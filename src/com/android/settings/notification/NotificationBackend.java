@@ -170,6 +170,13 @@ public class NotificationBackend {
         return sb.toString();
     }
 
+    /**
+     * Lets an implementation load the state of many apps at once before they are queried one by
+     * one, e.g. by {@link #isSystemApp}. Does nothing by default.
+     */
+    public void prefetchAppStates(Context context, List<ApplicationInfo> apps) {
+    }
+
     public boolean isSystemApp(Context context, ApplicationInfo app) {
         try {
             PackageInfo info = context.getPackageManager().getPackageInfo(
@@ -203,6 +210,8 @@ public class NotificationBackend {
                 updateChannel(pkg, uid, defaultChannel);
             }
             sINM.setNotificationsEnabledForPackage(pkg, uid, enabled);
+            CachingNotificationBackend.invalidate(uid);
+            ConversationCache.notifyPackageChanged(pkg, uid);
             return true;
         } catch (Exception e) {
             Log.w(TAG, "Error calling NoMan", e);
@@ -355,6 +364,8 @@ public class NotificationBackend {
     public void updateChannel(String pkg, int uid, NotificationChannel channel) {
         try {
             sINM.updateNotificationChannelForPackage(pkg, uid, channel);
+            CachingNotificationBackend.invalidate(uid);
+            ConversationCache.notifyChannelUpdated(pkg, uid, channel);
         } catch (Exception e) {
             Log.w(TAG, "Error calling NoMan", e);
         }
@@ -363,6 +374,8 @@ public class NotificationBackend {
     public void updateChannelGroup(String pkg, int uid, NotificationChannelGroup group) {
         try {
             sINM.updateNotificationChannelGroupForPackage(pkg, uid, group);
+            CachingNotificationBackend.invalidate(uid);
+            ConversationCache.notifyPackageChanged(pkg, uid);
         } catch (Exception e) {
             Log.w(TAG, "Error calling NoMan", e);
         }
@@ -596,6 +609,7 @@ public class NotificationBackend {
             NotificationChannel parent, String conversationId) {
         try {
             sINM.createConversationNotificationChannelForPackage(pkg, uid, parent, conversationId);
+            ConversationCache.notifyPackageChanged(pkg, uid);
         } catch (Exception e) {
             Log.w(TAG, "Error calling NoMan", e);
         }
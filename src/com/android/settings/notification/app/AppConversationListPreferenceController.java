@@ -19,7 +19,6 @@ package com.android.settings.notification.app;
 import android.app.NotificationChannel;
 import android.app.settings.SettingsEnums;
 import android.content.Context;
-import android.content.pm.ParceledListSlice;
 import android.content.pm.ShortcutInfo;
 import android.os.AsyncTask;
 import android.os.Bundle;
@@ -32,6 +31,7 @@ import androidx.preference.PreferenceCategory;
 import com.android.settings.R;
 import com.android.settings.applications.AppInfoBase;
 import com.android.settings.core.SubSettingLauncher;
+import com.android.settings.notification.ConversationCache;
 import com.android.settings.notification.NotificationBackend;
 import com.android.settingslib.widget.AppPreference;
 
@@ -94,11 +94,8 @@ public class AppConversationListPreferenceController extends NotificationPrefere
         new AsyncTask<Void, Void, Void>() {
             @Override
             protected Void doInBackground(Void... unused) {
-                ParceledListSlice<ConversationChannelWrapper> list =
-                        mBackend.getConversations(mAppRow.pkg, mAppRow.uid);
-                if (list != null) {
-                    mConversations = filterAndSortConversations(list.getList());
-                }
+                mConversations = filterAndSortConversations(ConversationCache.getInstance(mContext)
+                        .getConversations(mBackend, mAppRow.pkg, mAppRow.uid));
                 return null;
             }
 
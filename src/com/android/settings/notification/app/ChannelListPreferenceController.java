@@ -28,9 +28,11 @@ import android.os.AsyncTask;
 import android.os.Bundle;
 import android.provider.Settings;
 import android.text.TextUtils;
+import android.util.ArrayMap;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 import androidx.preference.Preference;
 import androidx.preference.PreferenceCategory;
 import androidx.preference.PreferenceGroup;
@@ -43,6 +45,7 @@ import com.android.settings.core.SubSettingLauncher;
 import com.android.settings.notification.NotificationBackend;
 import com.android.settings.widget.PrimarySwitchPreference;
 import com.android.settingslib.RestrictedSwitchPreference;
+import com.android.settingslib.utils.ThreadUtils;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -54,8 +57,16 @@ public class ChannelListPreferenceController extends NotificationPreferenceContr
     private static final String KEY_GENERAL_CATEGORY = "categories";
     private static final String KEY_ZERO_CATEGORIES = "zeroCategories";
     public static final String ARG_FROM_SETTINGS = "fromSettings";
+    // Channel rows added per main thread message when a group is first populated.
+    @VisibleForTesting
+    static final int CHANNEL_PAGE_SIZE = 30;
 
     private List<NotificationChannelGroup> mChannelGroupList;
+    // "Sent" summaries by channel id, formatted alongside the channel load.
+    private ArrayMap<String, CharSequence> mChannelSummaries = new ArrayMap<>();
+    private Drawable.ConstantState mAlertingIcon;
+    // Bumped on every full list update so pages of an older list are dropped.
+    private int mListGeneration;
     private PreferenceCategory mPreference;
 
     public ChannelListPreferenceController(Context context, NotificationBackend backend) {
@@ -93,19 +104,28 @@ public class ChannelListPreferenceController extends NotificationPreferenceContr
     public void updateState(Preference preference) {
         mPreference = (PreferenceCategory) preference;
         // Load channel settings
-        new AsyncTask<Void, Void, Void>() {
+        new AsyncTask<Void, Void, ArrayMap<String, CharSequence>>() {
             @Override
-            protected Void doInBackground(Void... unused) {
+            protected ArrayMap<String, CharSequence> doInBackground(Void... unused) {
                 mChannelGroupList = mBackend.getGroups(mAppRow.pkg, mAppRow.uid).getList();
                 Collections.sort(mChannelGroupList, CHANNEL_GROUP_COMPARATOR);
-                return null;
+                // Format the summaries here so the UI thread only binds rows.
+                final ArrayMap<String, CharSequence> summaries = new ArrayMap<>();
+                for (NotificationChannelGroup group : mChannelGroupList) {
+                    for (NotificationChannel channel : group.getChannels()) {
+                        summaries.put(channel.getId(), NotificationBackend.getSentSummary(
+                                mContext, mAppRow.sentByChannel.get(channel.getId()), false));
+                    }
+                }
+                return summaries;
             }
 
             @Override
-            protected void onPostExecute(Void unused) {
+            protected void onPostExecute(ArrayMap<String, CharSequence> summaries) {
                 if (mContext == null) {
                     return;
                 }
+                mChannelSummaries = summaries;
                 updateFullList(mPreference, mChannelGroupList);
             }
         }.execute();
@@ -118,6 +138,7 @@ public class ChannelListPreferenceController extends NotificationPreferenceContr
      */
     void updateFullList(@NonNull PreferenceCategory groupPrefsList,
                 @NonNull List<NotificationChannelGroup> channelGroups) {
+        mListGeneration++;
         if (channelGroups.isEmpty()) {
             if (groupPrefsList.getPreferenceCount() == 1
                     && KEY_ZERO_CATEGORIES.equals(groupPrefsList.getPreference(0).getKey())) {
@@ -251,11 +272,19 @@ public class ChannelListPreferenceController extends NotificationPreferenceContr
         final List<NotificationChannel> channels =
                 group.isBlocked() ? Collections.emptyList() : group.getChannels();
         Collections.sort(channels, CHANNEL_COMPARATOR);
-        for (NotificationChannel channel : channels) {
+        final int numChannels = channels.size();
+        for (int i = 0; i < numChannels; i++) {
+            final NotificationChannel channel = channels.get(i);
             if (!TextUtils.isEmpty(channel.getConversationId()) && !channel.isDemoted()) {
                 // conversations get their own section
                 continue;
             }
+            if (initiallyEmpty && finalOrderedPrefs.size() >= CHANNEL_PAGE_SIZE) {
+                // Show the first page right away and append the rest in later messages, so a
+                // group with hundreds of channels doesn't block the first frame.
+                postChannelPage(groupPrefGroup, group, channels, i, mListGeneration);
+                break;
+            }
             // Get or create the row, and populate its current state.
             PrimarySwitchPreference channelPref = findOrCreateChannelPrefForKey(groupPrefGroup,
                     channel.getId(), /* expectedIndex */ finalOrderedPrefs.size());
@@ -279,6 +308,37 @@ public class ChannelListPreferenceController extends NotificationPreferenceContr
         }
     }
 
+    /**
+     * Appends the next page of channel rows of a newly populated group, starting at
+     * {@code start}, unless the list has been reloaded or the group blocked since.
+     */
+    private void postChannelPage(@NonNull PreferenceGroup groupPrefGroup,
+            @NonNull NotificationChannelGroup group, @NonNull List<NotificationChannel> channels,
+            int start, int generation) {
+        ThreadUtils.postOnMainThread(() -> {
+            if (generation != mListGeneration || group.isBlocked()) {
+                return;
+            }
+            final int numChannels = channels.size();
+            int added = 0;
+            for (int i = start; i < numChannels; i++) {
+                final NotificationChannel channel = channels.get(i);
+                if (!TextUtils.isEmpty(channel.getConversationId()) && !channel.isDemoted()) {
+                    continue;
+                }
+                if (added >= CHANNEL_PAGE_SIZE) {
+                    postChannelPage(groupPrefGroup, group, channels, i, generation);
+                    return;
+                }
+                PrimarySwitchPreference channelPref = findOrCreateChannelPrefForKey(
+                        groupPrefGroup, channel.getId(),
+                        /* expectedIndex */ groupPrefGroup.getPreferenceCount());
+                updateSingleChannelPrefs(channelPref, channel, false);
+                added++;
+            }
+        });
+    }
+
     /** Add or find and update the toggle for disabling the entire notification channel group. */
     private Preference addOrUpdateGroupToggle(@NonNull final PreferenceGroup parent,
             @NonNull final NotificationChannelGroup group) {
@@ -326,8 +386,12 @@ public class ChannelListPreferenceController extends NotificationPreferenceContr
         }
         channelPref.setIconSize(PrimarySwitchPreference.ICON_SIZE_SMALL);
         channelPref.setTitle(channel.getName());
-        channelPref.setSummary(NotificationBackend.getSentSummary(
-                mContext, mAppRow.sentByChannel.get(channel.getId()), false));
+        CharSequence summary = mChannelSummaries.get(channel.getId());
+        if (summary == null) {
+            summary = NotificationBackend.getSentSummary(
+                    mContext, mAppRow.sentByChannel.get(channel.getId()), false);
+        }
+        channelPref.setSummary(summary);
         channelPref.setChecked(channel.getImportance() != IMPORTANCE_NONE);
         Bundle channelArgs = new Bundle();
         channelArgs.putInt(AppInfoBase.ARG_PACKAGE_UID, mAppRow.uid);
@@ -361,8 +425,13 @@ public class ChannelListPreferenceController extends NotificationPreferenceContr
     }
 
     private Drawable getAlertingIcon() {
+        // Every alerting row shows the same tinted icon, so only inflate it once.
+        if (mAlertingIcon != null) {
+            return mAlertingIcon.newDrawable(mContext.getResources());
+        }
         Drawable icon = mContext.getDrawable(R.drawable.ic_notifications_alert);
         icon.setTintList(Utils.getColorAccent(mContext));
+        mAlertingIcon = icon.getConstantState();
         return icon;
     }
 
@@ -44,6 +44,8 @@ public abstract class ConversationListPreferenceController extends AbstractPrefe
     private static final String KEY = "all_conversations";
 
     protected final NotificationBackend mBackend;
+    // Generation of the ConversationCache the list was last built from.
+    protected int mPopulatedGeneration = -1;
 
     public ConversationListPreferenceController(Context context,
             NotificationBackend backend) {
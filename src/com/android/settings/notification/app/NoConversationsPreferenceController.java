@@ -27,6 +27,7 @@ import android.view.View;
 import androidx.preference.Preference;
 
 import com.android.settings.R;
+import com.android.settings.notification.ConversationCache;
 import com.android.settings.notification.NotificationBackend;
 import com.android.settingslib.widget.LayoutPreference;
 
@@ -71,9 +72,10 @@ public class NoConversationsPreferenceController extends ConversationListPrefere
         new AsyncTask<Void, Void, Void>() {
             @Override
             protected Void doInBackground(Void... unused) {
-                mConversationCount = mBackend.getConversations(false).getList().size();
+                final ConversationCache cache = ConversationCache.getInstance(mContext);
+                mConversationCount = cache.getConversations(mBackend, false).size();
                 try {
-                    mConversationCount += mPs.getRecentConversations().getList().size();
+                    mConversationCount += cache.getRecentConversations(mPs).size();
                 } catch (RemoteException e) {
                     Log.w(TAG, "Error calling PS", e);
                 }
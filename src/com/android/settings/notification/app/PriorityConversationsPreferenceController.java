@@ -24,6 +24,7 @@ import androidx.preference.Preference;
 import androidx.preference.PreferenceCategory;
 
 import com.android.settings.R;
+import com.android.settings.notification.ConversationCache;
 import com.android.settings.notification.NotificationBackend;
 
 import java.util.Collections;
@@ -68,7 +69,14 @@ public class PriorityConversationsPreferenceController extends
     public void updateState(Preference preference) {
         PreferenceCategory pref = (PreferenceCategory) preference;
         // Load conversations
-        mConversations = mBackend.getConversations(true).getList();
+        final ConversationCache cache = ConversationCache.getInstance(mContext);
+        mConversations = cache.getConversations(mBackend, true);
+        final int generation = cache.getGeneration();
+        if (generation == mPopulatedGeneration) {
+            // Nothing changed since the list was built on a previous resume.
+            return;
+        }
+        mPopulatedGeneration = generation;
         Collections.sort(mConversations, mConversationComparator);
 
         populateList(mConversations, pref);
@@ -38,6 +38,7 @@ import androidx.preference.PreferenceGroup;
 import com.android.settings.R;
 import com.android.settings.applications.AppInfoBase;
 import com.android.settings.core.SubSettingLauncher;
+import com.android.settings.notification.ConversationCache;
 import com.android.settings.notification.NotificationBackend;
 import com.android.settingslib.core.AbstractPreferenceController;
 import com.android.settingslib.widget.LayoutPreference;
@@ -54,6 +55,8 @@ public class RecentConversationsPreferenceController extends AbstractPreferenceC
     private List<ConversationChannel> mConversations;
     private final IPeopleManager mPs;
     private final NotificationBackend mBackend;
+    // Generation of the ConversationCache the list was last built from.
+    private int mPopulatedGeneration = -1;
 
     public RecentConversationsPreferenceController(Context context, NotificationBackend backend,
             IPeopleManager ps) {
@@ -80,6 +83,7 @@ public class RecentConversationsPreferenceController extends AbstractPreferenceC
         button.setOnClickListener(v -> {
             try {
                 mPs.removeAllRecentConversations();
+                ConversationCache.getInstance(mContext).invalidateRecentConversations();
                 // Removing recents is asynchronous, so we can't immediately reload the list from
                 // the backend. Instead, proactively remove all of items that were marked as
                 // clearable, so long as we didn't get an error
@@ -104,11 +108,18 @@ public class RecentConversationsPreferenceController extends AbstractPreferenceC
     public void updateState(Preference preference) {
         PreferenceCategory pref = (PreferenceCategory) preference;
         // Load conversations
+        final ConversationCache cache = ConversationCache.getInstance(mContext);
         try {
-            mConversations = mPs.getRecentConversations().getList();
+            mConversations = cache.getRecentConversations(mPs);
         } catch (RemoteException e) {
             Slog.w(TAG, "Could get recents", e);
         }
+        final int generation = cache.getGeneration();
+        if (generation == mPopulatedGeneration) {
+            // Nothing changed since the list was built on a previous resume.
+            return;
+        }
+        mPopulatedGeneration = generation;
         Collections.sort(mConversations, mConversationComparator);
 
         populateList(mConversations, pref);
@@ -167,6 +178,7 @@ public class RecentConversationsPreferenceController extends AbstractPreferenceC
             pref.setOnClearClickListener(() -> {
                 try {
                     mPs.removeRecentConversation(pkg, UserHandle.getUserId(uid), conversationId);
+                    ConversationCache.getInstance(mContext).invalidateRecentConversations();
                     pref.getClearView().announceForAccessibility(
                             mContext.getString(R.string.recent_convo_removed));
                     parent.removePreference(pref);
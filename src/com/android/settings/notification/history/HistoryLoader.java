@@ -19,11 +19,13 @@ package com.android.settings.notification.history;
 import android.app.NotificationHistory;
 import android.app.NotificationHistory.HistoricalNotification;
 import android.content.Context;
-import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
+import android.graphics.drawable.Drawable;
 import android.os.UserHandle;
 import android.util.Slog;
 
+import androidx.annotation.VisibleForTesting;
+
 import com.android.settings.notification.NotificationBackend;
 import com.android.settingslib.utils.ThreadUtils;
 
@@ -32,9 +34,22 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 public class HistoryLoader {
     private static final String TAG = "HistoryLoader";
+
+    // Small enough to resolve and lay out within a frame, large enough to fill the first screen.
+    @VisibleForTesting
+    static final int FIRST_PAGE_SIZE = 6;
+    @VisibleForTesting
+    static final int PAGE_SIZE = 20;
+
+    private static final int APP_INFO_FLAGS = PackageManager.MATCH_UNINSTALLED_PACKAGES
+            | PackageManager.MATCH_DISABLED_COMPONENTS
+            | PackageManager.MATCH_DIRECT_BOOT_UNAWARE
+            | PackageManager.MATCH_DIRECT_BOOT_AWARE;
+
     private final Context mContext;
     private final NotificationBackend mBackend;
     private final PackageManager mPm;
@@ -45,55 +60,105 @@ public class HistoryLoader {
         mPm = pm;
     }
 
+    /**
+     * Loads the notification history grouped by package, most recent package first. The first
+     * {@link #FIRST_PAGE_SIZE} packages are delivered through
+     * {@link OnHistoryLoaderListener#onHistoryLoaded}, the rest follow in pages of
+     * {@link #PAGE_SIZE} through {@link OnHistoryLoaderListener#onMoreHistoryLoaded}. Icons are
+     * not resolved here, use {@link #loadIcon} when a package is shown.
+     */
     public void load(OnHistoryLoaderListener listener) {
         ThreadUtils.postOnBackgroundThread(() -> {
             try {
-                Map<String, NotificationHistoryPackage> historicalNotifications = new HashMap<>();
-                NotificationHistory history =
+                final List<NotificationHistoryPackage> packages = groupByPackage(
                         mBackend.getNotificationHistory(mContext.getPackageName(),
-                                mContext.getAttributionTag());
-                while (history.hasNextNotification()) {
-                    HistoricalNotification hn = history.getNextNotification();
-
-                    String key = hn.getPackage() + "|" + hn.getUid();
-                    NotificationHistoryPackage hnsForPackage = historicalNotifications.getOrDefault(
-                            key,
-                            new NotificationHistoryPackage(hn.getPackage(), hn.getUid()));
-                    hnsForPackage.notifications.add(hn);
-                    historicalNotifications.put(key, hnsForPackage);
-                }
-                List<NotificationHistoryPackage> packages =
-                        new ArrayList<>(historicalNotifications.values());
-                Collections.sort(packages,
-                        (o1, o2) -> -1 * Long.compare(o1.getMostRecent(), o2.getMostRecent()));
-                for (NotificationHistoryPackage nhp : packages) {
-                    ApplicationInfo info;
-                    try {
-                        info = mPm.getApplicationInfoAsUser(
-                                nhp.pkgName,
-                                PackageManager.MATCH_UNINSTALLED_PACKAGES
-                                        | PackageManager.MATCH_DISABLED_COMPONENTS
-                                        | PackageManager.MATCH_DIRECT_BOOT_UNAWARE
-                                        | PackageManager.MATCH_DIRECT_BOOT_AWARE,
-                                UserHandle.getUserId(nhp.uid));
-                        if (info != null) {
-                            nhp.label = String.valueOf(mPm.getApplicationLabel(info));
-                            nhp.icon = mPm.getUserBadgedIcon(mPm.getApplicationIcon(info),
-                                    UserHandle.of(UserHandle.getUserId(nhp.uid)));
-                        }
-                    } catch (PackageManager.NameNotFoundException e) {
-                        // app is gone, just show package name and generic icon
-                        nhp.icon = mPm.getDefaultActivityIcon();
+                                mContext.getAttributionTag()));
+                int start = 0;
+                do {
+                    final int end = Math.min(packages.size(),
+                            start + (start == 0 ? FIRST_PAGE_SIZE : PAGE_SIZE));
+                    final List<NotificationHistoryPackage> page =
+                            new ArrayList<>(packages.subList(start, end));
+                    for (NotificationHistoryPackage nhp : page) {
+                        loadLabel(nhp);
+                    }
+                    if (start == 0) {
+                        ThreadUtils.postOnMainThread(() -> listener.onHistoryLoaded(page));
+                    } else {
+                        ThreadUtils.postOnMainThread(() -> listener.onMoreHistoryLoaded(page));
                     }
-                }
-                ThreadUtils.postOnMainThread(() -> listener.onHistoryLoaded(packages));
+                    start = end;
+                } while (start < packages.size());
             } catch (Exception e) {
                 Slog.e(TAG, "Error loading history", e);
             }
         });
     }
 
+    /**
+     * Resolves the badged icon of {@code nhp} in the background, caches it on the package and
+     * delivers it on the main thread.
+     */
+    public void loadIcon(NotificationHistoryPackage nhp, Consumer<Drawable> callback) {
+        if (nhp.icon != null) {
+            callback.accept(nhp.icon);
+            return;
+        }
+        ThreadUtils.postOnBackgroundThread(() -> {
+            final Drawable icon;
+            if (nhp.appInfo != null) {
+                icon = mPm.getUserBadgedIcon(mPm.getApplicationIcon(nhp.appInfo),
+                        UserHandle.of(UserHandle.getUserId(nhp.uid)));
+            } else {
+                // app is gone, just show package name and generic icon
+                icon = mPm.getDefaultActivityIcon();
+            }
+            ThreadUtils.postOnMainThread(() -> {
+                nhp.icon = icon;
+                callback.accept(icon);
+            });
+        });
+    }
+
+    @VisibleForTesting
+    static List<NotificationHistoryPackage> groupByPackage(NotificationHistory history) {
+        Map<String, NotificationHistoryPackage> historicalNotifications = new HashMap<>();
+        while (history.hasNextNotification()) {
+            HistoricalNotification hn = history.getNextNotification();
+
+            String key = hn.getPackage() + "|" + hn.getUid();
+            NotificationHistoryPackage hnsForPackage = historicalNotifications.get(key);
+            if (hnsForPackage == null) {
+                hnsForPackage = new NotificationHistoryPackage(hn.getPackage(), hn.getUid());
+                historicalNotifications.put(key, hnsForPackage);
+            }
+            hnsForPackage.notifications.add(hn);
+        }
+        List<NotificationHistoryPackage> packages =
+                new ArrayList<>(historicalNotifications.values());
+        Collections.sort(packages,
+                (o1, o2) -> -1 * Long.compare(o1.getMostRecent(), o2.getMostRecent()));
+        return packages;
+    }
+
+    private void loadLabel(NotificationHistoryPackage nhp) {
+        try {
+            nhp.appInfo = mPm.getApplicationInfoAsUser(nhp.pkgName, APP_INFO_FLAGS,
+                    UserHandle.getUserId(nhp.uid));
+            if (nhp.appInfo != null) {
+                nhp.label = String.valueOf(mPm.getApplicationLabel(nhp.appInfo));
+            }
+        } catch (PackageManager.NameNotFoundException e) {
+            // app is gone, the package name is shown instead
+        }
+    }
+
     interface OnHistoryLoaderListener {
+        /** Called once with the most recent packages, possibly an empty list. */
         void onHistoryLoaded(List<NotificationHistoryPackage> notificationsByPackage);
+
+        /** Called for each further page of packages, in order, after the first one. */
+        default void onMoreHistoryLoaded(List<NotificationHistoryPackage> notificationsByPackage) {
+        }
     }
 }
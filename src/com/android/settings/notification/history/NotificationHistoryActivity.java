@@ -66,6 +66,7 @@ import com.android.settingslib.widget.OnMainSwitchChangeListener;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
@@ -83,6 +84,8 @@ public class NotificationHistoryActivity extends CollapsingToolbarBaseActivity {
     private MainSwitchBar mSwitchBar;
 
     private HistoryLoader mHistoryLoader;
+    // Incremented whenever the package views are cleared, so pages of older loads are dropped.
+    private int mHistoryGeneration;
     private INotificationManager mNm;
     private UserManager mUm;
     private PackageManager mPm;
@@ -149,76 +152,103 @@ public class NotificationHistoryActivity extends CollapsingToolbarBaseActivity {
         }
     }
 
-    private HistoryLoader.OnHistoryLoaderListener mOnHistoryLoaderListener = notifications -> {
-        findViewById(R.id.today_list).setVisibility(
-                notifications.isEmpty() ? View.GONE : View.VISIBLE);
-        mCountdownLatch.countDown();
-        View recyclerView = mTodayView.findViewById(R.id.apps);
-        recyclerView.setClipToOutline(true);
-        mTodayView.setOutlineProvider(mOutlineProvider);
-        mSnoozeView.setOutlineProvider(mOutlineProvider);
+    private HistoryLoader.OnHistoryLoaderListener createHistoryLoaderListener(int generation) {
+        return new HistoryLoader.OnHistoryLoaderListener() {
+            @Override
+            public void onHistoryLoaded(List<NotificationHistoryPackage> notifications) {
+                if (generation != mHistoryGeneration) {
+                    return;
+                }
+                findViewById(R.id.today_list).setVisibility(
+                        notifications.isEmpty() ? View.GONE : View.VISIBLE);
+                mCountdownLatch.countDown();
+                View recyclerView = mTodayView.findViewById(R.id.apps);
+                recyclerView.setClipToOutline(true);
+                mTodayView.setOutlineProvider(mOutlineProvider);
+                mSnoozeView.setOutlineProvider(mOutlineProvider);
+                addPackageViews(notifications);
+            }
+
+            @Override
+            public void onMoreHistoryLoaded(List<NotificationHistoryPackage> notifications) {
+                if (generation != mHistoryGeneration) {
+                    return;
+                }
+                addPackageViews(notifications);
+            }
+        };
+    }
+
+    private void clearPackageViews() {
+        mHistoryGeneration++;
+        mTodayView.removeAllViews();
+    }
+
+    private void addPackageViews(List<NotificationHistoryPackage> notifications) {
         // for each package, new header and recycler view
         for (int i = 0, notificationsSize = notifications.size(); i < notificationsSize; i++) {
-            NotificationHistoryPackage nhp = notifications.get(i);
-            View viewForPackage = LayoutInflater.from(this)
-                    .inflate(R.layout.notification_history_app_layout, null);
-
-            final View container = viewForPackage.findViewById(R.id.notification_list_wrapper);
-            container.setVisibility(View.GONE);
-            View header = viewForPackage.findViewById(R.id.app_header);
-            NotificationExpandButton expand = viewForPackage.findViewById(
-                    com.android.internal.R.id.expand_button);
-            int textColor = obtainThemeColor(android.R.attr.textColorPrimary);
-            int backgroundColor = obtainThemeColor(android.R.attr.colorBackgroundFloating);
-            expand.setDefaultPillColor(backgroundColor);
-            expand.setDefaultTextColor(textColor);
-            expand.setExpanded(false);
+            addPackageView(notifications.get(i), mTodayView.getChildCount());
+        }
+    }
+
+    private void addPackageView(NotificationHistoryPackage nhp, int position) {
+        View viewForPackage = LayoutInflater.from(this)
+                .inflate(R.layout.notification_history_app_layout, null);
+
+        final View container = viewForPackage.findViewById(R.id.notification_list_wrapper);
+        container.setVisibility(View.GONE);
+        View header = viewForPackage.findViewById(R.id.app_header);
+        NotificationExpandButton expand = viewForPackage.findViewById(
+                com.android.internal.R.id.expand_button);
+        int textColor = obtainThemeColor(android.R.attr.textColorPrimary);
+        int backgroundColor = obtainThemeColor(android.R.attr.colorBackgroundFloating);
+        expand.setDefaultPillColor(backgroundColor);
+        expand.setDefaultTextColor(textColor);
+        expand.setExpanded(false);
+        header.setStateDescription(container.getVisibility() == View.VISIBLE
+                ? getString(R.string.condition_expand_hide)
+                : getString(R.string.condition_expand_show));
+        header.setOnClickListener(v -> {
+            container.setVisibility(container.getVisibility() == View.VISIBLE
+                    ? View.GONE : View.VISIBLE);
+            expand.setExpanded(container.getVisibility() == View.VISIBLE);
             header.setStateDescription(container.getVisibility() == View.VISIBLE
                     ? getString(R.string.condition_expand_hide)
                     : getString(R.string.condition_expand_show));
-            int finalI = i;
-            header.setOnClickListener(v -> {
-                container.setVisibility(container.getVisibility() == View.VISIBLE
-                        ? View.GONE : View.VISIBLE);
-                expand.setExpanded(container.getVisibility() == View.VISIBLE);
-                header.setStateDescription(container.getVisibility() == View.VISIBLE
-                        ? getString(R.string.condition_expand_hide)
-                        : getString(R.string.condition_expand_show));
-                header.sendAccessibilityEvent(TYPE_VIEW_ACCESSIBILITY_FOCUSED);
-                mUiEventLogger.logWithPosition((container.getVisibility() == View.VISIBLE)
-                                ? NotificationHistoryEvent.NOTIFICATION_HISTORY_PACKAGE_HISTORY_OPEN
-                              : NotificationHistoryEvent.NOTIFICATION_HISTORY_PACKAGE_HISTORY_CLOSE,
-                        nhp.uid, nhp.pkgName, finalI);
-            });
+            header.sendAccessibilityEvent(TYPE_VIEW_ACCESSIBILITY_FOCUSED);
+            mUiEventLogger.logWithPosition((container.getVisibility() == View.VISIBLE)
+                            ? NotificationHistoryEvent.NOTIFICATION_HISTORY_PACKAGE_HISTORY_OPEN
+                          : NotificationHistoryEvent.NOTIFICATION_HISTORY_PACKAGE_HISTORY_CLOSE,
+                    nhp.uid, nhp.pkgName, position);
+        });
 
-            TextView label = viewForPackage.findViewById(R.id.label);
-            label.setText(nhp.label != null ? nhp.label : nhp.pkgName);
-            label.setContentDescription(mUm.getBadgedLabelForUser(label.getText(),
-                    UserHandle.getUserHandleForUid(nhp.uid)));
-            ImageView icon = viewForPackage.findViewById(R.id.icon);
-            icon.setImageDrawable(nhp.icon);
-
-            TextView count = viewForPackage.findViewById(R.id.count);
-            count.setText(getResources().getQuantityString(R.plurals.notification_history_count,
-                    nhp.notifications.size(), nhp.notifications.size()));
-
-            final NotificationHistoryRecyclerView rv =
-                    viewForPackage.findViewById(R.id.notification_list);
-            rv.setAdapter(new NotificationHistoryAdapter(mNm, rv,
-                    newCount -> {
-                        count.setText(getResources().getQuantityString(
-                                R.plurals.notification_history_count,
-                                newCount, newCount));
-                        if (newCount == 0) {
-                            viewForPackage.setVisibility(View.GONE);
-                        }
-                    }, mUiEventLogger));
-            ((NotificationHistoryAdapter) rv.getAdapter()).onRebuildComplete(
-                    new ArrayList<>(nhp.notifications));
-
-            mTodayView.addView(viewForPackage);
-        }
-    };
+        TextView label = viewForPackage.findViewById(R.id.label);
+        label.setText(nhp.label != null ? nhp.label : nhp.pkgName);
+        label.setContentDescription(mUm.getBadgedLabelForUser(label.getText(),
+                UserHandle.getUserHandleForUid(nhp.uid)));
+        ImageView icon = viewForPackage.findViewById(R.id.icon);
+        mHistoryLoader.loadIcon(nhp, icon::setImageDrawable);
+
+        TextView count = viewForPackage.findViewById(R.id.count);
+        count.setText(getResources().getQuantityString(R.plurals.notification_history_count,
+                nhp.notifications.size(), nhp.notifications.size()));
+
+        final NotificationHistoryRecyclerView rv =
+                viewForPackage.findViewById(R.id.notification_list);
+        rv.setAdapter(new NotificationHistoryAdapter(mNm, rv,
+                newCount -> {
+                    count.setText(getResources().getQuantityString(
+                            R.plurals.notification_history_count,
+                            newCount, newCount));
+                    if (newCount == 0) {
+                        viewForPackage.setVisibility(View.GONE);
+                    }
+                }, mUiEventLogger));
+        ((NotificationHistoryAdapter) rv.getAdapter()).onRebuildComplete(
+                new ArrayList<>(nhp.notifications));
+
+        mTodayView.addView(viewForPackage);
+    }
 
     private void configureNotificationList(View recyclerView) {
         recyclerView.setClipToOutline(true);
@@ -257,9 +287,9 @@ public class NotificationHistoryActivity extends CollapsingToolbarBaseActivity {
         // wait for history loading and recent/snooze loading
         mCountdownLatch = new CountDownLatch(2);
 
-        mTodayView.removeAllViews();
+        clearPackageViews();
         mHistoryLoader = new HistoryLoader(this, new NotificationBackend(), mPm);
-        mHistoryLoader.load(mOnHistoryLoaderListener);
+        mHistoryLoader.load(createHistoryLoaderListener(mHistoryGeneration));
 
         mNm = INotificationManager.Stub.asInterface(
                 ServiceManager.getService(Context.NOTIFICATION_SERVICE));
@@ -341,7 +371,7 @@ public class NotificationHistoryActivity extends CollapsingToolbarBaseActivity {
         } else {
             mHistoryOn.setVisibility(View.GONE);
             mHistoryOff.setVisibility(View.VISIBLE);
-            mTodayView.removeAllViews();
+            clearPackageViews();
         }
         mHistoryEmpty.setVisibility(View.GONE);
     }
@@ -371,7 +401,7 @@ public class NotificationHistoryActivity extends CollapsingToolbarBaseActivity {
                     mHistoryOff.setVisibility(View.VISIBLE);
                     mHistoryEmpty.setVisibility(View.GONE);
                 }
-                mTodayView.removeAllViews();
+                clearPackageViews();
             };
 
     private final NotificationListenerService mListener = new NotificationListenerService() {
@@ -17,6 +17,7 @@
 package com.android.settings.notification.history;
 
 import android.app.NotificationHistory;
+import android.content.pm.ApplicationInfo;
 import android.graphics.drawable.Drawable;
 
 import java.util.ArrayList;
@@ -32,6 +33,8 @@ public class NotificationHistoryPackage {
     TreeSet<NotificationHistory.HistoricalNotification> notifications;
     CharSequence label;
     Drawable icon;
+    // Resolved with the label so the icon can be loaded later without another lookup.
+    ApplicationInfo appInfo;
 
     public NotificationHistoryPackage(String pkgName, int uid) {
         this.pkgName = pkgName;
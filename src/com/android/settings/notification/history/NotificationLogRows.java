@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.notification.history;
+
+import android.util.ArrayMap;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.function.Function;
+
+/**
+ * The rows of the notification log, newest first, with the latest row of each notification key.
+ * Once {@code maxSize} rows are kept, adding a row drops the oldest one. Not thread safe.
+ */
+final class NotificationLogRows<T> {
+    private final int mMaxSize;
+    private final Function<T, String> mKeyFunction;
+    private final ArrayDeque<T> mRows;
+    private final ArrayMap<String, T> mLatestRows = new ArrayMap<>();
+
+    NotificationLogRows(int maxSize, Function<T, String> keyFunction) {
+        mMaxSize = maxSize;
+        mKeyFunction = keyFunction;
+        mRows = new ArrayDeque<>(maxSize);
+    }
+
+    /** Adds {@code row} as the newest row, and returns the dropped oldest row, or null. */
+    T add(T row) {
+        T dropped = null;
+        if (mRows.size() >= mMaxSize) {
+            dropped = mRows.pollLast();
+            final String droppedKey = mKeyFunction.apply(dropped);
+            if (mLatestRows.get(droppedKey) == dropped) {
+                mLatestRows.remove(droppedKey);
+            }
+        }
+        mRows.addFirst(row);
+        mLatestRows.put(mKeyFunction.apply(row), row);
+        return dropped;
+    }
+
+    /** Returns the newest row of the notification {@code key}, or null. */
+    T getLatest(String key) {
+        return mLatestRows.get(key);
+    }
+
+    /** Returns all rows, newest first. */
+    Collection<T> getRows() {
+        return Collections.unmodifiableCollection(mRows);
+    }
+
+    int size() {
+        return mRows.size();
+    }
+
+    void clear() {
+        mRows.clear();
+        mLatestRows.clear();
+    }
+}
@@ -63,11 +63,13 @@ import androidx.recyclerview.widget.RecyclerView;
 import com.android.settings.R;
 import com.android.settings.SettingsPreferenceFragment;
 import com.android.settings.Utils;
+import com.android.settingslib.utils.ThreadUtils;
 
 import java.util.ArrayList;
 import java.util.Comparator;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class NotificationStation extends SettingsPreferenceFragment {
     private static final String TAG = NotificationStation.class.getSimpleName();
@@ -113,10 +115,21 @@ public class NotificationStation extends SettingsPreferenceFragment {
         }
     }
 
+    // Upper bound on the rows kept in the log, so an app flooding notifications can't grow it
+    // without limit. The oldest rows are dropped first.
+    private static final int MAX_NOTIFICATION_INFOS = 200;
+    private static final int HISTORICAL_NOTIFICATION_COUNT = 50;
+
     private PackageManager mPm;
     private INotificationManager mNoMan;
     private RankingMap mRanking;
-    private LinkedList<HistoricalNotificationInfo> mNotificationInfos;
+    // Rows newest first, with the latest row of each key that updates and removals apply to.
+    // Mutated on the main thread only.
+    private NotificationLogRows<HistoricalNotificationPreference> mNotificationPrefs;
+    // Descending, so newer rows sort above older ones.
+    private int mNextOrder;
+    // Builds the rows and their summaries in order, off the main thread.
+    private ExecutorService mExecutor;
 
     private final NotificationListenerService mListener = new NotificationListenerService() {
         @Override
@@ -124,10 +137,15 @@ public class NotificationStation extends SettingsPreferenceFragment {
             logd("onNotificationPosted: %s, with update for %d", sbn.getNotification(),
                     ranking == null ? 0 : ranking.getOrderedKeys().length);
             mRanking = ranking;
-            if (sbn.getNotification().isGroupSummary()) {
+            final Context context = getContext();
+            if (context == null || sbn.getNotification().isGroupSummary()) {
                 return;
             }
-            addOrUpdateNotification(sbn);
+            runInBackground(() -> {
+                final HistoricalNotificationInfo newInfo =
+                        createFromSbn(context, sbn, true, ranking);
+                ThreadUtils.postOnMainThread(() -> addOrUpdateNotification(newInfo));
+            });
         }
 
         @Override
@@ -138,7 +156,10 @@ public class NotificationStation extends SettingsPreferenceFragment {
             if (sbn.getNotification().isGroupSummary()) {
                 return;
             }
-            markNotificationAsDismissed(sbn);
+            // Keep the removal ordered after any pending post of the same notification.
+            final String key = sbn.getKey();
+            runInBackground(() -> ThreadUtils.postOnMainThread(
+                    () -> markNotificationAsDismissed(key)));
         }
 
         @Override
@@ -146,7 +167,7 @@ public class NotificationStation extends SettingsPreferenceFragment {
             logd("onNotificationRankingUpdate with update for %d",
                     ranking == null ? 0 : ranking.getOrderedKeys().length);
             mRanking = ranking;
-            updateNotificationsFromRanking();
+            updateNotificationsFromRanking(ranking);
         }
 
         @Override
@@ -154,7 +175,16 @@ public class NotificationStation extends SettingsPreferenceFragment {
             mRanking = getCurrentRanking();
             logd("onListenerConnected with update for %d",
                     mRanking == null ? 0 : mRanking.getOrderedKeys().length);
-            populateNotifications();
+            final RankingMap currentRanking = mRanking;
+            final Context context = getContext();
+            if (context == null) {
+                return;
+            }
+            runInBackground(() -> {
+                final List<HistoricalNotificationInfo> infos =
+                        loadNotifications(context, currentRanking);
+                ThreadUtils.postOnMainThread(() -> populateNotifications(infos));
+            });
         }
     };
 
@@ -171,15 +201,24 @@ public class NotificationStation extends SettingsPreferenceFragment {
         mPm = mContext.getPackageManager();
         mNoMan = INotificationManager.Stub.asInterface(
                 ServiceManager.getService(Context.NOTIFICATION_SERVICE));
-        mNotificationInfos = new LinkedList<>();
+        mNotificationPrefs = new NotificationLogRows<>(MAX_NOTIFICATION_INFOS,
+                pref -> pref.mInfo.key);
+        mExecutor = Executors.newSingleThreadExecutor();
     }
 
     @Override
     public void onDetach() {
         logd("onDetach()");
+        mExecutor.shutdownNow();
         super.onDetach();
     }
 
+    private void runInBackground(Runnable runnable) {
+        if (!mExecutor.isShutdown()) {
+            mExecutor.execute(runnable);
+        }
+    }
+
     @Override
     public void onPause() {
         try {
@@ -219,33 +258,35 @@ public class NotificationStation extends SettingsPreferenceFragment {
     /**
      * Adds all current and historical notifications when the NLS connects.
      */
-    private void populateNotifications() {
-        loadNotifications();
-        final int N = mNotificationInfos.size();
+    private void populateNotifications(List<HistoricalNotificationInfo> infos) {
+        if (!isAdded()) {
+            return;
+        }
+        final int N = Math.min(infos.size(), MAX_NOTIFICATION_INFOS);
         logd("adding %d infos", N);
         if (getPreferenceScreen() == null) {
             setPreferenceScreen(getPreferenceManager().createPreferenceScreen(getContext()));
         }
         getPreferenceScreen().removeAll();
-        for (int i = 0; i < N; i++) {
-            getPreferenceScreen().addPreference(new HistoricalNotificationPreference(
-                    getPrefContext(), mNotificationInfos.get(i), i));
+        mNotificationPrefs.clear();
+        mNextOrder = 0;
+        // Oldest first, so the newest row of each key ends up as its latest row.
+        for (int i = N - 1; i >= 0; i--) {
+            addNotification(infos.get(i));
         }
     }
 
     /**
      * Finds and dims the given notification in the preferences list.
      */
-    private void markNotificationAsDismissed(StatusBarNotification sbn) {
-        final int N = mNotificationInfos.size();
-        for (int i = 0; i < N; i++) {
-            final HistoricalNotificationInfo info = mNotificationInfos.get(i);
-            if (TextUtils.equals(info.key, sbn.getKey())) {
-                info.active = false;
-                ((HistoricalNotificationPreference) getPreferenceScreen().findPreference(
-                        sbn.getKey())).updatePreference(info);
-               break;
-            }
+    private void markNotificationAsDismissed(String key) {
+        if (!isAdded()) {
+            return;
+        }
+        final HistoricalNotificationPreference pref = mNotificationPrefs.getLatest(key);
+        if (pref != null) {
+            pref.mInfo.active = false;
+            pref.updatePreference(pref.mInfo);
         }
     }
 
@@ -253,45 +294,72 @@ public class NotificationStation extends SettingsPreferenceFragment {
      * Either updates a notification with its latest information or (if it's something the user
      * would consider a new notification) adds a new entry at the start of the list.
      */
-    private void addOrUpdateNotification(StatusBarNotification sbn) {
-        HistoricalNotificationInfo newInfo = createFromSbn(sbn, true);
-        boolean needsAdd = true;
-        final int N = mNotificationInfos.size();
-        for (int i = 0; i < N; i++) {
-            final HistoricalNotificationInfo info = mNotificationInfos.get(i);
-            if (TextUtils.equals(info.key, sbn.getKey()) && info.active
-                    && !newInfo.alerted && !newInfo.visuallyInterruptive) {
-                info.updateFrom(newInfo);
-
-                ((HistoricalNotificationPreference) getPreferenceScreen().findPreference(
-                        sbn.getKey())).updatePreference(info);
-                needsAdd = false;
-                break;
-            }
+    private void addOrUpdateNotification(HistoricalNotificationInfo newInfo) {
+        if (!isAdded() || getPreferenceScreen() == null) {
+            return;
         }
-        if (needsAdd) {
-            mNotificationInfos.addFirst(newInfo);
-            getPreferenceScreen().addPreference(new HistoricalNotificationPreference(
-                    getPrefContext(), mNotificationInfos.peekFirst(),
-                    -1 * mNotificationInfos.size()));
+        final HistoricalNotificationPreference pref = mNotificationPrefs.getLatest(newInfo.key);
+        if (pref != null && pref.mInfo.active && !newInfo.alerted
+                && !newInfo.visuallyInterruptive) {
+            pref.mInfo.updateFrom(newInfo);
+            pref.updatePreference(pref.mInfo);
+        } else {
+            addNotification(newInfo);
         }
     }
 
     /**
-     * Updates all notifications in the list based on new information in the ranking.
+     * Adds a row at the top of the log, dropping the oldest one once the log is full.
      */
-    private void updateNotificationsFromRanking() {
-        Ranking rank = new Ranking();
-        for (int i = 0; i < getPreferenceScreen().getPreferenceCount(); i++) {
-            final HistoricalNotificationPreference p =
-                    (HistoricalNotificationPreference) getPreferenceScreen().getPreference(i);
-            final HistoricalNotificationInfo info = mNotificationInfos.get(i);
-            mRanking.getRanking(p.getKey(), rank);
+    private void addNotification(HistoricalNotificationInfo info) {
+        final HistoricalNotificationPreference pref = new HistoricalNotificationPreference(
+                getPrefContext(), info, --mNextOrder);
+        final HistoricalNotificationPreference oldest = mNotificationPrefs.add(pref);
+        if (oldest != null) {
+            getPreferenceScreen().removePreference(oldest);
+        }
+        getPreferenceScreen().addPreference(pref);
+    }
 
-            updateFromRanking(info);
-            ((HistoricalNotificationPreference) getPreferenceScreen().findPreference(
-                    info.key)).updatePreference(info);
+    /**
+     * Updates all notifications in the list based on new information in the ranking. The ranking
+     * summaries are built in the background and applied in one pass on the main thread.
+     */
+    private void updateNotificationsFromRanking(RankingMap ranking) {
+        final Context context = getContext();
+        if (context == null) {
+            return;
         }
+        final List<HistoricalNotificationPreference> prefs =
+                new ArrayList<>(mNotificationPrefs.getRows());
+        final List<HistoricalNotificationInfo> updates = new ArrayList<>(prefs.size());
+        for (HistoricalNotificationPreference pref : prefs) {
+            final HistoricalNotificationInfo update = new HistoricalNotificationInfo();
+            update.key = pref.mInfo.key;
+            update.active = pref.mInfo.active;
+            updates.add(update);
+        }
+        runInBackground(() -> {
+            for (HistoricalNotificationInfo update : updates) {
+                updateFromRanking(context, update, ranking);
+            }
+            ThreadUtils.postOnMainThread(() -> {
+                if (!isAdded()) {
+                    return;
+                }
+                // Rows dropped from the log since are updated too, they are just not shown.
+                for (int i = 0, size = prefs.size(); i < size; i++) {
+                    final HistoricalNotificationPreference pref = prefs.get(i);
+                    final HistoricalNotificationInfo update = updates.get(i);
+                    final HistoricalNotificationInfo info = pref.mInfo;
+                    info.alerted = update.alerted;
+                    info.visuallyInterruptive = update.visuallyInterruptive;
+                    info.channel = update.channel;
+                    info.rankingExtra = update.rankingExtra;
+                    pref.updatePreference(info);
+                }
+            });
+        });
     }
 
     private static void logd(String msg, Object... args) {
@@ -342,9 +410,10 @@ public class NotificationStation extends SettingsPreferenceFragment {
         return text == null ? "" : String.valueOf(text);
     }
 
-    private Drawable loadIcon(HistoricalNotificationInfo info, StatusBarNotification sbn) {
+    private static Drawable loadIcon(Context context, HistoricalNotificationInfo info,
+            StatusBarNotification sbn) {
         Drawable draw = sbn.getNotification().getSmallIcon().loadDrawableAsUser(
-                sbn.getPackageContext(mContext), info.user);
+                sbn.getPackageContext(context), info.user);
         if (draw == null) {
             return null;
         }
@@ -370,15 +439,15 @@ public class NotificationStation extends SettingsPreferenceFragment {
      * Reads all current and past notifications (up to the system limit, since the device was
      * booted), stores the data we need to present them, and sorts them chronologically for display.
      */
-    private void loadNotifications() {
+    private List<HistoricalNotificationInfo> loadNotifications(Context context,
+            RankingMap ranking) {
+        List<HistoricalNotificationInfo> list = new ArrayList<>();
         try {
             StatusBarNotification[] active = mNoMan.getActiveNotificationsWithAttribution(
-                    mContext.getPackageName(), mContext.getAttributionTag());
+                    context.getPackageName(), context.getAttributionTag());
             StatusBarNotification[] dismissed = mNoMan.getHistoricalNotificationsWithAttribution(
-                    mContext.getPackageName(), mContext.getAttributionTag(), 50, false);
-
-            List<HistoricalNotificationInfo> list
-                    = new ArrayList<>(active.length + dismissed.length);
+                    context.getPackageName(), context.getAttributionTag(),
+                    HISTORICAL_NOTIFICATION_COUNT, false);
 
             for (StatusBarNotification[] resultSet
                     : new StatusBarNotification[][] { active, dismissed }) {
@@ -386,7 +455,8 @@ public class NotificationStation extends SettingsPreferenceFragment {
                     if (sbn.getNotification().isGroupSummary()) {
                         continue;
                     }
-                    final HistoricalNotificationInfo info = createFromSbn(sbn, resultSet == active);
+                    final HistoricalNotificationInfo info =
+                            createFromSbn(context, sbn, resultSet == active, ranking);
                     logd("   [%d] %s: %s", info.timestamp, info.pkg, info.title);
                     list.add(info);
                 }
@@ -395,67 +465,73 @@ public class NotificationStation extends SettingsPreferenceFragment {
             // notifications are given to us in the same order as the shade; sorted by inferred
             // priority. Resort chronologically for our display.
             list.sort(mNotificationSorter);
-            mNotificationInfos = new LinkedList<>(list);
-
         } catch (RemoteException e) {
             Log.e(TAG, "Cannot load Notifications: ", e);
         }
+        return list;
     }
 
-    private HistoricalNotificationInfo createFromSbn(StatusBarNotification sbn, boolean active) {
+    /**
+     * Builds the row of {@code sbn}. This runs in the background, possibly after the fragment is
+     * detached, so all resources come from {@code context} rather than the fragment.
+     */
+    private HistoricalNotificationInfo createFromSbn(Context context, StatusBarNotification sbn,
+            boolean active, RankingMap ranking) {
         final Notification n = sbn.getNotification();
         final HistoricalNotificationInfo info = new HistoricalNotificationInfo();
         info.pkg = sbn.getPackageName();
         info.user = sbn.getUserId() == UserHandle.USER_ALL
                 ? UserHandle.USER_SYSTEM : sbn.getUserId();
         info.badged = info.user != ActivityManager.getCurrentUser();
-        info.icon = loadIcon(info, sbn);
+        info.icon = loadIcon(context, info, sbn);
         if (info.icon == null) {
             info.icon = loadPackageIconDrawable(info.pkg, info.user);
         }
         info.pkgname = loadPackageName(info.pkg);
         info.title = getTitleString(n);
-        info.text = getTextString(sbn.getPackageContext(mContext), n);
+        info.text = getTextString(sbn.getPackageContext(context), n);
         info.timestamp = sbn.getPostTime();
         info.priority = n.priority;
         info.key = sbn.getKey();
         info.channelId = sbn.getNotification().getChannelId();
 
         info.active = active;
-        info.notificationExtra = generateExtraText(sbn, info);
+        info.notificationExtra = generateExtraText(context, sbn, info);
 
-        updateFromRanking(info);
+        updateFromRanking(context, info, ranking);
 
         return info;
     }
 
-    private void updateFromRanking(HistoricalNotificationInfo info) {
+    private static void updateFromRanking(Context context, HistoricalNotificationInfo info,
+            RankingMap ranking) {
         Ranking rank = new Ranking();
-        if (mRanking == null) {
+        if (ranking == null) {
             return;
         }
-        mRanking.getRanking(info.key, rank);
+        ranking.getRanking(info.key, rank);
         info.alerted = rank.getLastAudiblyAlertedMillis() > 0;
         info.visuallyInterruptive = rank.isTextChanged();
         info.channel = rank.getChannel();
-        info.rankingExtra = generateRankingExtraText(info);
+        info.rankingExtra = generateRankingExtraText(context, info, ranking);
     }
 
     /**
      * Generates a string of debug information for this notification based on the RankingMap
      */
-    private CharSequence generateRankingExtraText(HistoricalNotificationInfo info) {
+    private static CharSequence generateRankingExtraText(Context context,
+            HistoricalNotificationInfo info, RankingMap ranking) {
         final SpannableStringBuilder sb = new SpannableStringBuilder();
-        final String delim = getString(R.string.notification_log_details_delimiter);
+        final String delim = context.getString(R.string.notification_log_details_delimiter);
 
         Ranking rank = new Ranking();
-        if (mRanking != null && mRanking.getRanking(info.key, rank)) {
+        if (ranking != null && ranking.getRanking(info.key, rank)) {
             if (info.active && info.alerted) {
                 sb.append("\n")
-                        .append(bold(getString(R.string.notification_log_details_alerted)));
+                        .append(bold(context.getString(R.string.notification_log_details_alerted)));
             }
             sb.append("\n")
-                    .append(bold(getString(R.string.notification_log_channel)))
+                    .append(bold(context.getString(R.string.notification_log_channel)))
                     .append(delim)
                     .append(info.channel.toString());
             sb.append("\n")
@@ -472,31 +548,31 @@ public class NotificationStation extends SettingsPreferenceFragment {
                     .append(rank.isBubble() ? "true" : "false");
             if (info.active) {
                 sb.append("\n")
-                        .append(bold(getString(
+                        .append(bold(context.getString(
                                 R.string.notification_log_details_importance)))
                         .append(delim)
                         .append(Ranking.importanceToString(rank.getImportance()));
                 if (rank.getImportanceExplanation() != null) {
                     sb.append("\n")
-                            .append(bold(getString(
+                            .append(bold(context.getString(
                                     R.string.notification_log_details_explanation)))
                             .append(delim)
                             .append(rank.getImportanceExplanation());
                 }
                 sb.append("\n")
-                        .append(bold(getString(
+                        .append(bold(context.getString(
                                 R.string.notification_log_details_badge)))
                         .append(delim)
                         .append(Boolean.toString(rank.canShowBadge()));
             }
         } else {
-            if (mRanking == null) {
+            if (ranking == null) {
                 sb.append("\n")
-                        .append(bold(getString(
+                        .append(bold(context.getString(
                                 R.string.notification_log_details_ranking_null)));
             } else {
                 sb.append("\n")
-                        .append(bold(getString(
+                        .append(bold(context.getString(
                                 R.string.notification_log_details_ranking_none)));
             }
         }
@@ -507,20 +583,20 @@ public class NotificationStation extends SettingsPreferenceFragment {
     /**
      * Generates a string of debug information for this notification
      */
-    private CharSequence generateExtraText(StatusBarNotification sbn,
-                                           HistoricalNotificationInfo info) {
+    private static CharSequence generateExtraText(Context context, StatusBarNotification sbn,
+            HistoricalNotificationInfo info) {
         final Notification n = sbn.getNotification();
         final SpannableStringBuilder sb = new SpannableStringBuilder();
-        final String delim = getString(R.string.notification_log_details_delimiter);
-        sb.append(bold(getString(R.string.notification_log_details_package)))
+        final String delim = context.getString(R.string.notification_log_details_delimiter);
+        sb.append(bold(context.getString(R.string.notification_log_details_package)))
                 .append(delim)
                 .append(info.pkg)
                 .append("\n")
-                .append(bold(getString(R.string.notification_log_details_key)))
+                .append(bold(context.getString(R.string.notification_log_details_key)))
                 .append(delim)
                 .append(sbn.getKey());
         sb.append("\n")
-                .append(bold(getString(R.string.notification_log_details_icon)))
+                .append(bold(context.getString(R.string.notification_log_details_icon)))
                 .append(delim)
                 .append(String.valueOf(n.getSmallIcon()));
         sb.append("\n")
@@ -535,17 +611,17 @@ public class NotificationStation extends SettingsPreferenceFragment {
         }
         if (sbn.isGroup()) {
             sb.append("\n")
-                    .append(bold(getString(R.string.notification_log_details_group)))
+                    .append(bold(context.getString(R.string.notification_log_details_group)))
                     .append(delim)
                     .append(String.valueOf(sbn.getGroupKey()));
             if (n.isGroupSummary()) {
                 sb.append(bold(
-                        getString(R.string.notification_log_details_group_summary)));
+                        context.getString(R.string.notification_log_details_group_summary)));
             }
         }
         if (n.publicVersion != null) {
             sb.append("\n")
-                    .append(bold(getString(
+                    .append(bold(context.getString(
                             R.string.notification_log_details_public_version)))
                     .append(delim)
                     .append(getTitleString(n.publicVersion));
@@ -553,45 +629,45 @@ public class NotificationStation extends SettingsPreferenceFragment {
 
         if (n.contentIntent != null) {
             sb.append("\n")
-                    .append(bold(getString(
+                    .append(bold(context.getString(
                             R.string.notification_log_details_content_intent)))
                     .append(delim)
                     .append(formatPendingIntent(n.contentIntent));
         }
         if (n.deleteIntent != null) {
             sb.append("\n")
-                    .append(bold(getString(
+                    .append(bold(context.getString(
                             R.string.notification_log_details_delete_intent)))
                     .append(delim)
                     .append(formatPendingIntent(n.deleteIntent));
         }
         if (n.fullScreenIntent != null) {
             sb.append("\n")
-                    .append(bold(getString(
+                    .append(bold(context.getString(
                             R.string.notification_log_details_full_screen_intent)))
                     .append(delim)
                     .append(formatPendingIntent(n.fullScreenIntent));
         }
         if (n.actions != null && n.actions.length > 0) {
             sb.append("\n")
-                    .append(bold(getString(R.string.notification_log_details_actions)));
+                    .append(bold(context.getString(R.string.notification_log_details_actions)));
             for (int ai=0; ai<n.actions.length; ai++) {
                 final Notification.Action action = n.actions[ai];
                 sb.append("\n  ").append(String.valueOf(ai)).append(' ')
-                        .append(bold(getString(
+                        .append(bold(context.getString(
                                 R.string.notification_log_details_title)))
                         .append(delim)
                         .append(action.title);
                 if (action.actionIntent != null) {
                     sb.append("\n    ")
-                            .append(bold(getString(
+                            .append(bold(context.getString(
                                     R.string.notification_log_details_content_intent)))
                             .append(delim)
                             .append(formatPendingIntent(action.actionIntent));
                 }
                 if (action.getRemoteInputs() != null) {
                     sb.append("\n    ")
-                            .append(bold(getString(
+                            .append(bold(context.getString(
                                     R.string.notification_log_details_remoteinput)))
                             .append(delim)
                             .append(String.valueOf(action.getRemoteInputs().length));
@@ -600,7 +676,7 @@ public class NotificationStation extends SettingsPreferenceFragment {
         }
         if (n.contentView != null) {
             sb.append("\n")
-                    .append(bold(getString(
+                    .append(bold(context.getString(
                             R.string.notification_log_details_content_view)))
                     .append(delim)
                     .append(n.contentView.toString());
@@ -621,7 +697,7 @@ public class NotificationStation extends SettingsPreferenceFragment {
         if (DUMP_EXTRAS) {
             if (n.extras != null && n.extras.size() > 0) {
                 sb.append("\n")
-                        .append(bold(getString(
+                        .append(bold(context.getString(
                                 R.string.notification_log_details_extras)));
                 for (String extraKey : n.extras.keySet()) {
                     String val = String.valueOf(n.extras.get(extraKey));
@@ -634,11 +710,11 @@ public class NotificationStation extends SettingsPreferenceFragment {
             final Parcel p = Parcel.obtain();
             n.writeToParcel(p, 0);
             sb.append("\n")
-                    .append(bold(getString(R.string.notification_log_details_parcel)))
+                    .append(bold(context.getString(R.string.notification_log_details_parcel)))
                     .append(delim)
                     .append(String.valueOf(p.dataPosition()))
                     .append(' ')
-                    .append(bold(getString(R.string.notification_log_details_ashmem)))
+                    .append(bold(context.getString(R.string.notification_log_details_ashmem)))
                     .append(delim)
                     .append(String.valueOf(p.getBlobAshmemSize()))
                     .append("\n");
@@ -24,6 +24,7 @@ import android.content.Context;
 import androidx.fragment.app.Fragment;
 
 import com.android.settings.R;
+import com.android.settings.notification.CachingNotificationBackend;
 import com.android.settings.notification.NotificationBackend;
 import com.android.settings.search.BaseSearchIndexProvider;
 import com.android.settingslib.core.AbstractPreferenceController;
@@ -47,7 +48,7 @@ public class ZenModeBypassingAppsSettings extends ZenModeSettingsBase implements
         } else {
             app = null;
         }
-        return buildPreferenceControllers(context, app, this, new NotificationBackend());
+        return buildPreferenceControllers(context, app, this, new CachingNotificationBackend(context));
     }
 
     private static List<AbstractPreferenceController> buildPreferenceControllers(Context context,
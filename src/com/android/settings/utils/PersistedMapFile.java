@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.utils;
+
+import android.util.ArrayMap;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import androidx.annotation.WorkerThread;
+
+import com.android.settingslib.utils.ThreadUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.function.Supplier;
+
+/**
+ * A map from string keys to values, persisted in an {@link AtomicFile} for caches that survive
+ * process restarts.
+ *
+ * <p>Writes run in the background. Writes requested while one is pending are coalesced, and two
+ * writes never overlap, so the file always holds one complete copy of the map. A file which can't
+ * be read back is deleted.
+ */
+public class PersistedMapFile<V> {
+
+    /** Reads and writes the values of a {@link PersistedMapFile}. */
+    public interface Codec<V> {
+        /** Reads one value, throws {@link IOException} if the data is not valid. */
+        V read(DataInputStream in) throws IOException;
+
+        /** Writes one value. */
+        void write(DataOutputStream out, V value) throws IOException;
+    }
+
+    private final String mTag;
+    private final AtomicFile mFile;
+    private final int mVersion;
+    private final int mMaxEntries;
+    private final Codec<V> mCodec;
+    // Held from taking the copy of the map until the file is written.
+    private final Object mWriteLock = new Object();
+    private boolean mWritePending;
+
+    public PersistedMapFile(String tag, File file, int version, int maxEntries,
+            Codec<V> codec) {
+        mTag = tag;
+        mFile = new AtomicFile(file);
+        mVersion = version;
+        mMaxEntries = maxEntries;
+        mCodec = codec;
+    }
+
+    /**
+     * Reads the map from the file. Returns an empty map if there is no file, or it has another
+     * version or can't be read, in which case it is deleted.
+     */
+    @WorkerThread
+    public ArrayMap<String, V> read() {
+        final ArrayMap<String, V> map = new ArrayMap<>();
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(mFile.openRead()))) {
+            if (in.readInt() != mVersion) {
+                return map;
+            }
+            final int count = readCount(in, mMaxEntries);
+            map.ensureCapacity(count);
+            for (int i = 0; i < count; i++) {
+                final String key = in.readUTF();
+                map.put(key, mCodec.read(in));
+            }
+        } catch (FileNotFoundException e) {
+            // Nothing persisted yet.
+        } catch (IOException | RuntimeException e) {
+            Log.w(mTag, "Dropping unreadable " + mFile.getBaseFile(), e);
+            map.clear();
+            mFile.delete();
+        }
+        return map;
+    }
+
+    /**
+     * Writes the map in the background. {@code snapshot} is called right before the write, on the
+     * writing thread, and must return a copy of the map.
+     */
+    public void scheduleWrite(Supplier<ArrayMap<String, V>> snapshot) {
+        synchronized (this) {
+            if (mWritePending) {
+                return;
+            }
+            mWritePending = true;
+        }
+        ThreadUtils.postOnBackgroundThread(() -> write(snapshot));
+    }
+
+    private void write(Supplier<ArrayMap<String, V>> snapshot) {
+        synchronized (mWriteLock) {
+            synchronized (this) {
+                mWritePending = false;
+            }
+            // Taken under the write lock, so the last write always has the latest map.
+            final ArrayMap<String, V> map = snapshot.get();
+            FileOutputStream fos = null;
+            try {
+                fos = mFile.startWrite();
+                final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+                out.writeInt(mVersion);
+                out.writeInt(map.size());
+                for (int i = 0; i < map.size(); i++) {
+                    out.writeUTF(map.keyAt(i));
+                    mCodec.write(out, map.valueAt(i));
+                }
+                out.flush();
+                mFile.finishWrite(fos);
+            } catch (IOException e) {
+                Log.w(mTag, "Failed to write " + mFile.getBaseFile(), e);
+                mFile.failWrite(fos);
+            }
+        }
+    }
+
+    /** Reads a count of items, throws {@link IOException} if it is not in [0, max]. */
+    public static int readCount(DataInputStream in, int max) throws IOException {
+        final int count = in.readInt();
+        if (count < 0 || count > max) {
+            throw new IOException("Invalid count " + count);
+        }
+        return count;
+    }
+}
@@ -53,7 +53,12 @@ public class UsageGraph extends View {
     private final Drawable mTintedDivider;
     private final int mDividerSize;
 
-    private final Path mPath = new Path();
+    // Paths for drawing, rebuilt from the local paths only when they change, so drawing a frame
+    // does not allocate.
+    private final Path mLinePath = new Path();
+    private final Path mFillPath = new Path();
+    private final Path mProjectedLinePath = new Path();
+    private boolean mDrawPathsInvalid = true;
 
     // Paths in coordinates they are passed in.
     private final SparseIntArray mPaths = new SparseIntArray();
@@ -111,6 +116,7 @@ public class UsageGraph extends View {
         mLocalPaths.clear();
         mProjectedPaths.clear();
         mLocalProjectedPaths.clear();
+        mDrawPathsInvalid = true;
     }
 
     void setMax(int maxX, int maxY) {
@@ -180,6 +186,7 @@ public class UsageGraph extends View {
             return;
         }
         localPaths.clear();
+        mDrawPathsInvalid = true;
         // Store the local coordinates of the most recent point.
         int lx = 0;
         int ly = PATH_DELIM;
@@ -241,7 +248,6 @@ public class UsageGraph extends View {
 
     @Override
     protected void onDraw(Canvas canvas) {
-        final long startTime = System.currentTimeMillis();
         // Draw lines across the top, middle, and bottom.
         if (mMiddleDividerLoc != 0) {
             drawDivider(0, canvas, mTopDividerTint);
@@ -261,57 +267,60 @@ public class UsageGraph extends View {
             // Flip the canvas along the y-axis of the center of itself before drawing paths.
             canvas.scale(-1, 1, canvas.getWidth() * 0.5f, 0);
         }
-        drawLinePath(canvas, mLocalProjectedPaths, mDottedPaint);
-        drawFilledPath(canvas, mLocalPaths, mFillPaint);
-        drawLinePath(canvas, mLocalPaths, mLinePaint);
+        if (mDrawPathsInvalid) {
+            updateLinePath(mLocalProjectedPaths, mProjectedLinePath);
+            updateFilledPath(mLocalPaths, mFillPath);
+            updateLinePath(mLocalPaths, mLinePath);
+            mDrawPathsInvalid = false;
+        }
+        canvas.drawPath(mProjectedLinePath, mDottedPaint);
+        canvas.drawPath(mFillPath, mFillPaint);
+        canvas.drawPath(mLinePath, mLinePaint);
         canvas.restore();
-        BatteryUtils.logRuntime(LOG_TAG, "onDraw", startTime);
     }
 
-    private void drawLinePath(Canvas canvas, SparseIntArray localPaths, Paint paint) {
+    private void updateLinePath(SparseIntArray localPaths, Path path) {
+        path.reset();
         if (localPaths.size() == 0) {
             return;
         }
-        mPath.reset();
-        mPath.moveTo(localPaths.keyAt(0), localPaths.valueAt(0));
+        path.moveTo(localPaths.keyAt(0), localPaths.valueAt(0));
         for (int i = 1; i < localPaths.size(); i++) {
             int x = localPaths.keyAt(i);
             int y = localPaths.valueAt(i);
             if (y == PATH_DELIM) {
                 if (++i < localPaths.size()) {
-                    mPath.moveTo(localPaths.keyAt(i), localPaths.valueAt(i));
+                    path.moveTo(localPaths.keyAt(i), localPaths.valueAt(i));
                 }
             } else {
-                mPath.lineTo(x, y);
+                path.lineTo(x, y);
             }
         }
-        canvas.drawPath(mPath, paint);
     }
 
     @VisibleForTesting
-    void drawFilledPath(Canvas canvas, SparseIntArray localPaths, Paint paint) {
+    void updateFilledPath(SparseIntArray localPaths, Path path) {
+        path.reset();
         if (localPaths.size() == 0) {
             return;
         }
-        mPath.reset();
         float lastStartX = localPaths.keyAt(0);
-        mPath.moveTo(localPaths.keyAt(0), localPaths.valueAt(0));
+        path.moveTo(localPaths.keyAt(0), localPaths.valueAt(0));
         for (int i = 1; i < localPaths.size(); i++) {
             int x = localPaths.keyAt(i);
             int y = localPaths.valueAt(i);
             if (y == PATH_DELIM) {
-                mPath.lineTo(localPaths.keyAt(i - 1), getHeight());
-                mPath.lineTo(lastStartX, getHeight());
-                mPath.close();
+                path.lineTo(localPaths.keyAt(i - 1), getHeight());
+                path.lineTo(lastStartX, getHeight());
+                path.close();
                 if (++i < localPaths.size()) {
                     lastStartX = localPaths.keyAt(i);
-                    mPath.moveTo(localPaths.keyAt(i), localPaths.valueAt(i));
+                    path.moveTo(localPaths.keyAt(i), localPaths.valueAt(i));
                 }
             } else {
-                mPath.lineTo(x, y);
+                path.lineTo(x, y);
             }
         }
-        canvas.drawPath(mPath, paint);
     }
 
     private void drawDivider(int y, Canvas canvas, int tintColor) {
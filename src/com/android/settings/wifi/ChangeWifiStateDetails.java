@@ -28,6 +28,7 @@ import androidx.preference.SwitchPreference;
 
 import com.android.settings.R;
 import com.android.settings.applications.AppInfoWithHeader;
+import com.android.settings.applications.AppOpsPermissionSnapshot;
 import com.android.settings.applications.AppStateAppOpsBridge.PermissionState;
 import com.android.settings.overlay.FeatureFactory;
 import com.android.settings.wifi.AppStateChangeWifiStateBridge.WifiSettingsState;
@@ -90,6 +91,7 @@ public class ChangeWifiStateDetails extends AppInfoWithHeader
         mAppOpsManager.setMode(AppOpsManager.OP_CHANGE_WIFI_STATE,
                 mPackageInfo.applicationInfo.uid, mPackageName, newState
                         ? AppOpsManager.MODE_ALLOWED : AppOpsManager.MODE_IGNORED);
+        AppOpsPermissionSnapshot.getInstance(getContext()).invalidate();
     }
 
     protected void logSpecialPermissionChange(boolean newState, String packageName) {
@@ -392,4 +392,32 @@ public class ChannelListPreferenceControllerTest {
         }
     }
 
+    @Test
+    public void testUpdateFullList_manyChannels_addedInPages() {
+        final int numChannels = ChannelListPreferenceController.CHANNEL_PAGE_SIZE * 2 + 5;
+        List<NotificationChannelGroup> inGroups = new ArrayList<>();
+        NotificationChannelGroup inGroup = new NotificationChannelGroup(null, null);
+        for (int i = 0; i < numChannels; i++) {
+            inGroup.addChannel(new NotificationChannel(String.format("ch%03d", i),
+                    String.format("Channel %03d", i), IMPORTANCE_DEFAULT));
+        }
+        inGroups.add(inGroup);
+        Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+
+        instrumentation.runOnMainSync(() -> {
+            mController.updateFullList(mGroupList, inGroups);
+            PreferenceGroup group = (PreferenceGroup) mGroupList.getPreference(0);
+            assertEquals(ChannelListPreferenceController.CHANNEL_PAGE_SIZE,
+                    group.getPreferenceCount());
+        });
+        instrumentation.waitForIdleSync();
+
+        instrumentation.runOnMainSync(() -> {
+            PreferenceGroup group = (PreferenceGroup) mGroupList.getPreference(0);
+            assertEquals(numChannels, group.getPreferenceCount());
+            for (int i = 0; i < numChannels; i++) {
+                assertEquals(String.format("ch%03d", i), group.getPreference(i).getKey());
+            }
+        });
+    }
 }
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import static com.android.settings.testutils.ApplicationTestUtils.buildInfo;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.ApplicationInfo;
+import android.util.ArrayMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowApplication;
+import org.robolectric.util.ReflectionHelpers;
+
+@RunWith(RobolectricTestRunner.class)
+public class AppCountCacheTest {
+
+    private static final String KEY = "installed_apps_-1";
+    private static final String PACKAGE_NAME = "com.test.app";
+    private static final int UID = 10123;
+
+    private Context mContext;
+    private AppCountCache mCache;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mContext.getSharedPreferences(AppCountCache.PREFS_NAME, Context.MODE_PRIVATE).edit()
+                .clear().commit();
+        mCache = new AppCountCache(mContext);
+    }
+
+    @After
+    public void tearDown() {
+        ReflectionHelpers.setStaticField(AppCountCache.class, "sInstance", null);
+    }
+
+    @Test
+    public void getCount_neverComputed_returnsNull() {
+        assertThat(mCache.getCount(KEY)).isNull();
+        assertThat(mCache.isValid(KEY)).isFalse();
+    }
+
+    @Test
+    public void putCount_sameGeneration_isValid() {
+        mCache.putCount(KEY, 12, new ArrayMap<>(), mCache.getGeneration());
+
+        assertThat(mCache.getCount(KEY)).isEqualTo(12);
+        assertThat(mCache.isValid(KEY)).isTrue();
+    }
+
+    @Test
+    public void invalidate_keepsLastCountButMarksStale() {
+        mCache.putCount(KEY, 12, new ArrayMap<>(), mCache.getGeneration());
+
+        mCache.invalidate();
+
+        assertThat(mCache.getCount(KEY)).isEqualTo(12);
+        assertThat(mCache.isValid(KEY)).isFalse();
+    }
+
+    @Test
+    public void getCount_newInstance_readsPersistedCount() {
+        mCache.putCount(KEY, 3, new ArrayMap<>(), mCache.getGeneration());
+
+        final AppCountCache reloaded = new AppCountCache(mContext);
+
+        assertThat(reloaded.getCount(KEY)).isEqualTo(3);
+        assertThat(reloaded.isValid(KEY)).isFalse();
+    }
+
+    @Test
+    public void getIncluded_otherUidChanged_returnsLastDecision() {
+        final ApplicationInfo app = buildInfo(UID, PACKAGE_NAME, 0 /* flags */, 0);
+        mCache.putCount(KEY, 1, createIncluded(app, true), mCache.getGeneration());
+
+        mCache.invalidateUid(UID + 1);
+
+        assertThat(mCache.isValid(KEY)).isFalse();
+        assertThat(mCache.getIncluded(KEY, app)).isTrue();
+    }
+
+    @Test
+    public void getIncluded_uidChanged_returnsNull() {
+        final ApplicationInfo app = buildInfo(UID, PACKAGE_NAME, 0 /* flags */, 0);
+        mCache.putCount(KEY, 1, createIncluded(app, true), mCache.getGeneration());
+
+        mCache.invalidateUid(UID);
+
+        assertThat(mCache.getIncluded(KEY, app)).isNull();
+    }
+
+    @Test
+    public void getIncluded_uidChangedWhileCounting_returnsNull() {
+        final ApplicationInfo app = buildInfo(UID, PACKAGE_NAME, 0 /* flags */, 0);
+        final int generation = mCache.getGeneration();
+        mCache.invalidateUid(UID);
+
+        mCache.putCount(KEY, 1, createIncluded(app, true), generation);
+
+        assertThat(mCache.isValid(KEY)).isFalse();
+        assertThat(mCache.getIncluded(KEY, app)).isNull();
+    }
+
+    @Test
+    public void getInstance_differentContexts_returnsSameInstance() {
+        final AppCountCache cache = AppCountCache.getInstance(mContext);
+
+        assertThat(AppCountCache.getInstance(mContext.getApplicationContext()))
+                .isSameInstanceAs(cache);
+    }
+
+    @Test
+    public void managedProfileRemoved_invalidatesEveryDecision() {
+        final AppCountCache cache = AppCountCache.getInstance(mContext);
+        final ApplicationInfo app = buildInfo(UID, PACKAGE_NAME, 0 /* flags */, 0);
+        cache.putCount(KEY, 1, createIncluded(app, true), cache.getGeneration());
+
+        final Intent intent = new Intent(Intent.ACTION_MANAGED_PROFILE_REMOVED);
+        for (BroadcastReceiver receiver
+                : ShadowApplication.getInstance().getReceiversForIntent(intent)) {
+            receiver.onReceive(mContext, intent);
+        }
+
+        assertThat(cache.isValid(KEY)).isFalse();
+        assertThat(cache.getIncluded(KEY, app)).isNull();
+    }
+
+    private static ArrayMap<String, Boolean> createIncluded(ApplicationInfo app,
+            boolean included) {
+        final ArrayMap<String, Boolean> map = new ArrayMap<>();
+        map.put(AppCountCache.getAppKey(app), included);
+        return map;
+    }
+}
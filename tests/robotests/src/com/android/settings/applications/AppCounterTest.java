@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import static com.android.settings.testutils.ApplicationTestUtils.buildInfo;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.UserInfo;
+import android.os.UserHandle;
+import android.os.UserManager;
+import android.util.ArrayMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowApplication;
+import org.robolectric.util.ReflectionHelpers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class AppCounterTest {
+
+    private static final String KEY = "test_counter";
+    private static final int MAIN_USER_ID = 0;
+
+    @Mock
+    private Context mContext;
+    @Mock
+    private UserManager mUserManager;
+    @Mock
+    private PackageManager mPackageManager;
+
+    private AppCountCache mCache;
+    private ApplicationInfo mApp1;
+    private ApplicationInfo mApp2;
+    private final List<Integer> mReportedCounts = new ArrayList<>();
+    private final List<String> mEvaluatedPackages = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        when(mContext.getSystemService(Context.USER_SERVICE)).thenReturn(mUserManager);
+        when(mUserManager.getProfiles(UserHandle.myUserId())).thenReturn(Collections.singletonList(
+                new UserInfo(MAIN_USER_ID, "main", UserInfo.FLAG_ADMIN)));
+        mApp1 = buildInfo(10001, "app1", 0 /* flags */, 0 /* targetSdkVersion */);
+        mApp2 = buildInfo(10002, "app2", 0 /* flags */, 0 /* targetSdkVersion */);
+        when(mPackageManager.getInstalledApplicationsAsUser(anyInt(), anyInt()))
+                .thenReturn(Arrays.asList(mApp1, mApp2));
+
+        final Context context = RuntimeEnvironment.application;
+        context.getSharedPreferences(AppCountCache.PREFS_NAME, Context.MODE_PRIVATE).edit()
+                .clear().commit();
+        mCache = new AppCountCache(context);
+        ReflectionHelpers.setStaticField(AppCountCache.class, "sInstance", mCache);
+    }
+
+    @After
+    public void tearDown() {
+        ReflectionHelpers.setStaticField(AppCountCache.class, "sInstance", null);
+    }
+
+    @Test
+    public void executeCached_neverCounted_reportsCountOnce() {
+        executeCached();
+
+        assertThat(mReportedCounts).containsExactly(2);
+        assertThat(mCache.isValid(KEY)).isTrue();
+    }
+
+    @Test
+    public void executeCached_validCount_reportsCachedCountWithoutRecount() {
+        mCache.putCount(KEY, 5, new ArrayMap<>(), mCache.getGeneration());
+
+        executeCached();
+
+        assertThat(mReportedCounts).containsExactly(5);
+        verify(mPackageManager, never()).getInstalledApplicationsAsUser(anyInt(), anyInt());
+    }
+
+    @Test
+    public void executeCached_staleCount_reportsCachedThenRecountedCount() {
+        mCache.putCount(KEY, 5, new ArrayMap<>(), mCache.getGeneration());
+        mCache.invalidate();
+
+        executeCached();
+
+        assertThat(mReportedCounts).containsExactly(5, 2).inOrder();
+    }
+
+    @Test
+    public void executeCached_staleCountUnchanged_reportsCountOnce() {
+        mCache.putCount(KEY, 2, new ArrayMap<>(), mCache.getGeneration());
+        mCache.invalidate();
+
+        executeCached();
+
+        assertThat(mReportedCounts).containsExactly(2);
+    }
+
+    @Test
+    public void executeCached_persistedCount_reportsItBeforeRecount() {
+        mCache.putCount(KEY, 5, new ArrayMap<>(), mCache.getGeneration());
+        mCache = new AppCountCache(RuntimeEnvironment.application);
+        ReflectionHelpers.setStaticField(AppCountCache.class, "sInstance", mCache);
+
+        executeCached();
+
+        assertThat(mReportedCounts).containsExactly(5, 2).inOrder();
+    }
+
+    @Test
+    public void executeCached_oneUidChanged_onlyEvaluatesItsApps() {
+        executeCached();
+        mEvaluatedPackages.clear();
+        mReportedCounts.clear();
+
+        mCache.invalidateUid(mApp2.uid);
+        executeCached();
+
+        assertThat(mEvaluatedPackages).containsExactly("app2");
+        assertThat(mReportedCounts).containsExactly(2);
+    }
+
+    private void executeCached() {
+        new TestAppCounter().executeCached();
+        // Wait for the background task to finish.
+        ShadowApplication.runBackgroundTasks();
+    }
+
+    private class TestAppCounter extends AppCounter {
+        TestAppCounter() {
+            super(mContext, mPackageManager);
+        }
+
+        @Override
+        protected String getCacheKey() {
+            return KEY;
+        }
+
+        @Override
+        protected void onCountComplete(int num) {
+            mReportedCounts.add(num);
+        }
+
+        @Override
+        protected boolean includeInCount(ApplicationInfo info) {
+            mEvaluatedPackages.add(info.packageName);
+            return true;
+        }
+    }
+}
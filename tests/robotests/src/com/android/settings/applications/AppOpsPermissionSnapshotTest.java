@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.app.AppOpsManager;
+import android.content.Context;
+import android.content.pm.IPackageManager;
+import android.content.pm.PackageManager;
+import android.os.RemoteException;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Collections;
+
+@RunWith(RobolectricTestRunner.class)
+public class AppOpsPermissionSnapshotTest {
+
+    private static final String PERMISSION = "android.permission.TEST";
+    private static final String PACKAGE_NAME = "com.example.app";
+    private static final int UID = 10123;
+
+    @Mock
+    private Context mContext;
+    @Mock
+    private IPackageManager mIPackageManager;
+    @Mock
+    private PackageManager mPackageManager;
+    @Mock
+    private AppOpsManager mAppOpsManager;
+
+    private AppOpsPermissionSnapshot mSnapshot;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        when(mContext.getSystemService(AppOpsManager.class)).thenReturn(mAppOpsManager);
+        when(mContext.getPackageManager()).thenReturn(mPackageManager);
+        mSnapshot = new AppOpsPermissionSnapshot(mContext, mIPackageManager);
+    }
+
+    @Test
+    public void getAppOpPermissionPackages_queriedTwice_onlyOneBinderCall()
+            throws RemoteException {
+        when(mIPackageManager.getAppOpPermissionPackages(PERMISSION))
+                .thenReturn(new String[] {PACKAGE_NAME});
+
+        mSnapshot.getAppOpPermissionPackages(PERMISSION);
+
+        assertThat(mSnapshot.hasRequestedAppOpPermission(PERMISSION, PACKAGE_NAME)).isTrue();
+        verify(mIPackageManager, times(1)).getAppOpPermissionPackages(PERMISSION);
+    }
+
+    @Test
+    public void getAppOpPermissionPackages_nullResult_returnsEmpty() throws RemoteException {
+        when(mIPackageManager.getAppOpPermissionPackages(PERMISSION)).thenReturn(null);
+
+        assertThat(mSnapshot.getAppOpPermissionPackages(PERMISSION)).isEmpty();
+    }
+
+    @Test
+    public void getPackageOps_findsPackageInBulkLoadedOps() {
+        final int[] ops = {AppOpsManager.OP_REQUEST_INSTALL_PACKAGES};
+        final AppOpsManager.PackageOps packageOps = new AppOpsManager.PackageOps(PACKAGE_NAME,
+                UID, Collections.emptyList());
+        when(mAppOpsManager.getPackagesForOps(any(int[].class)))
+                .thenReturn(Collections.singletonList(packageOps));
+
+        assertThat(mSnapshot.getPackageOps(ops, UID, PACKAGE_NAME)).isSameInstanceAs(packageOps);
+        assertThat(mSnapshot.getPackageOps(ops, UID + 1, PACKAGE_NAME)).isNull();
+        verify(mAppOpsManager, times(1)).getPackagesForOps(any(int[].class));
+    }
+
+    @Test
+    public void checkOpNoThrow_afterInvalidate_queriesAgain() {
+        when(mAppOpsManager.unsafeCheckOpNoThrow(anyString(), anyInt(), anyString()))
+                .thenReturn(AppOpsManager.MODE_ALLOWED, AppOpsManager.MODE_ERRORED);
+
+        assertThat(mSnapshot.checkOpNoThrow(AppOpsManager.OPSTR_REQUEST_INSTALL_PACKAGES, UID,
+                PACKAGE_NAME)).isEqualTo(AppOpsManager.MODE_ALLOWED);
+        assertThat(mSnapshot.checkOpNoThrow(AppOpsManager.OPSTR_REQUEST_INSTALL_PACKAGES, UID,
+                PACKAGE_NAME)).isEqualTo(AppOpsManager.MODE_ALLOWED);
+
+        mSnapshot.invalidate();
+
+        assertThat(mSnapshot.checkOpNoThrow(AppOpsManager.OPSTR_REQUEST_INSTALL_PACKAGES, UID,
+                PACKAGE_NAME)).isEqualTo(AppOpsManager.MODE_ERRORED);
+    }
+}
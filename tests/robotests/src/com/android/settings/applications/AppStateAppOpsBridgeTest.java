@@ -16,14 +16,21 @@
 
 package com.android.settings.applications;
 
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import android.Manifest;
 import android.app.AppOpsManager;
 import android.content.Context;
 import android.content.pm.IPackageManager;
+import android.content.pm.PackageManager;
 import android.os.RemoteException;
 import android.os.UserHandle;
 import android.os.UserManager;
@@ -39,6 +46,9 @@ import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.robolectric.RobolectricTestRunner;
 
+import java.util.Arrays;
+import java.util.Collections;
+
 @RunWith(RobolectricTestRunner.class)
 public final class AppStateAppOpsBridgeTest {
 
@@ -46,12 +56,15 @@ public final class AppStateAppOpsBridgeTest {
     @Mock private UserManager mUserManager;
     @Mock private IPackageManager mPackageManagerService;
     @Mock private AppOpsManager mAppOpsManager;
+    @Mock private PackageManager mPackageManager;
 
     @Before
     public void setUp() {
         MockitoAnnotations.initMocks(this);
         when(mContext.getSystemService(Context.USER_SERVICE)).thenReturn(mUserManager);
         when(mContext.getSystemService(Context.APP_OPS_SERVICE)).thenReturn(mAppOpsManager);
+        when(mContext.getSystemService(AppOpsManager.class)).thenReturn(mAppOpsManager);
+        when(mContext.getPackageManager()).thenReturn(mPackageManager);
     }
 
     @Test
@@ -63,6 +76,54 @@ public final class AppStateAppOpsBridgeTest {
         // should not crash
     }
 
+    @Test
+    public void getPermissionInfo_usesBulkLoadedOps() throws RemoteException {
+        final AppOpsManager.PackageOps packageOps = createPackageOps("pkg1", 10001,
+                AppOpsManager.MODE_ALLOWED);
+        final AppOpsManager.PackageOps otherPackageOps = createPackageOps("pkg2", 10002,
+                AppOpsManager.MODE_ERRORED);
+        when(mAppOpsManager.getPackagesForOps(any(int[].class)))
+                .thenReturn(Arrays.asList(packageOps, otherPackageOps));
+        final TestAppStateAppOpsBridge bridge = new TestAppStateAppOpsBridge();
+
+        final AppStateAppOpsBridge.PermissionState state1 =
+                bridge.getPermissionInfo("pkg1", 10001);
+        final AppStateAppOpsBridge.PermissionState state2 =
+                bridge.getPermissionInfo("pkg2", 10002);
+        bridge.getPermissionInfo("pkg1", 10001);
+
+        Truth.assertThat(state1.appOpMode).isEqualTo(AppOpsManager.MODE_ALLOWED);
+        Truth.assertThat(state2.appOpMode).isEqualTo(AppOpsManager.MODE_ERRORED);
+        verify(mAppOpsManager, times(1)).getPackagesForOps(any(int[].class));
+        verify(mAppOpsManager, never()).getOpsForPackage(anyInt(), anyString(),
+                any(int[].class));
+        verify(mPackageManagerService, times(1)).getPackageInfo(eq("pkg1"), anyLong(),
+                anyInt());
+    }
+
+    @Test
+    public void loadMissingAppOpMode_onlyChecksPackagesWithoutBulkLoadedOps() {
+        final AppOpsManager.PackageOps packageOps = createPackageOps("pkg1", 10001,
+                AppOpsManager.MODE_ALLOWED);
+        when(mAppOpsManager.getPackagesForOps(any(int[].class)))
+                .thenReturn(Collections.singletonList(packageOps));
+        when(mAppOpsManager.unsafeCheckOpNoThrow(anyString(), anyInt(), anyString()))
+                .thenReturn(AppOpsManager.MODE_IGNORED);
+        final TestAppStateAppOpsBridge bridge = new TestAppStateAppOpsBridge();
+        final AppStateAppOpsBridge.PermissionState loaded =
+                bridge.getPermissionInfo("pkg1", 10001);
+        final AppStateAppOpsBridge.PermissionState missing =
+                bridge.getPermissionInfo("pkg2", 10002);
+
+        bridge.loadMissingAppOpMode(loaded, AppOpsManager.OPSTR_SYSTEM_ALERT_WINDOW, 10001);
+        bridge.loadMissingAppOpMode(missing, AppOpsManager.OPSTR_SYSTEM_ALERT_WINDOW, 10002);
+
+        Truth.assertThat(loaded.appOpMode).isEqualTo(AppOpsManager.MODE_ALLOWED);
+        Truth.assertThat(missing.appOpMode).isEqualTo(AppOpsManager.MODE_IGNORED);
+        verify(mAppOpsManager, times(1)).unsafeCheckOpNoThrow(anyString(), anyInt(),
+                anyString());
+    }
+
     @Test
     public void permissionState_modeDefault_IsPermissible() {
         AppStateAppOpsBridge.PermissionState permissionState =
@@ -115,6 +176,13 @@ public final class AppStateAppOpsBridgeTest {
         Truth.assertThat(permissionState.isPermissible()).isFalse();
     }
 
+    private static AppOpsManager.PackageOps createPackageOps(String packageName, int uid,
+            int mode) {
+        return new AppOpsManager.PackageOps(packageName, uid, Collections.singletonList(
+                new AppOpsManager.OpEntry(AppOpsManager.OP_SYSTEM_ALERT_WINDOW, mode,
+                        Collections.emptyMap())));
+    }
+
     private class TestAppStateAppOpsBridge extends AppStateAppOpsBridge {
         private TestAppStateAppOpsBridge() {
             super(mContext, null, null, AppOpsManager.OP_SYSTEM_ALERT_WINDOW,
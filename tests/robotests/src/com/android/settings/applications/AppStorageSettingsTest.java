@@ -118,6 +118,22 @@ public class AppStorageSettingsTest {
         verify(mSettings).handleClearCacheClick();
     }
 
+    @Test
+    public void updateUiWithSize_cachedStats_shouldDisableClearButtons()
+            throws PackageManager.NameNotFoundException {
+        final AppStorageStats stats = mock(AppStorageStats.class);
+        when(stats.getCacheBytes()).thenReturn(5000L);
+        when(stats.getDataBytes()).thenReturn(10000L);
+        mockMainlineModule(mSettings.mPackageName, false /* isMainlineModule */);
+        mSettings.mShowingCachedStats = true;
+
+        mSettings.updateUiWithSize(stats);
+
+        verify(mSizesController).updateUi(nullable(Context.class));
+        verify(mButtonsPref).setButton1Enabled(false);
+        verify(mButtonsPref).setButton2Enabled(false);
+    }
+
     @Test
     public void updateUiWithSize_mainlineModule_shouldDisableClearButtons()
             throws PackageManager.NameNotFoundException {
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import android.content.Context;
+
+import com.android.settings.testutils.shadow.ShadowThreadUtils;
+import com.android.settingslib.applications.StorageStatsSource.AppStorageStats;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(shadows = ShadowThreadUtils.class)
+public class AppStorageStatsCacheTest {
+
+    private static final String PACKAGE_NAME = "com.test.package";
+    private static final int USER_ID = 0;
+
+    private Context mContext;
+    private File mFile;
+    private AppStorageStatsCache mCache;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mFile = new File(mContext.getCacheDir(), "app_storage_stats_test");
+        mFile.delete();
+        mCache = new AppStorageStatsCache(mContext, mFile);
+    }
+
+    @Test
+    public void put_thenGet_returnsSameSizes() {
+        mCache.put(null, PACKAGE_NAME, USER_ID, createStats(1L, 20L, 3L));
+
+        final AppStorageStats stats = mCache.getFresh(null, PACKAGE_NAME, USER_ID);
+        assertThat(stats.getCodeBytes()).isEqualTo(1L);
+        assertThat(stats.getDataBytes()).isEqualTo(20L);
+        assertThat(stats.getCacheBytes()).isEqualTo(3L);
+        assertThat(stats.getTotalBytes()).isEqualTo(21L);
+    }
+
+    @Test
+    public void get_otherUser_returnsNull() {
+        mCache.put(null, PACKAGE_NAME, USER_ID, createStats(1L, 2L, 3L));
+
+        assertThat(mCache.get(null, PACKAGE_NAME, 10)).isNull();
+    }
+
+    @Test
+    public void invalidate_dropsOnlyThatUser() {
+        mCache.put(null, PACKAGE_NAME, USER_ID, createStats(1L, 2L, 3L));
+        mCache.put(null, PACKAGE_NAME, 10, createStats(1L, 2L, 3L));
+
+        mCache.invalidate(PACKAGE_NAME, USER_ID);
+
+        assertThat(mCache.get(null, PACKAGE_NAME, USER_ID)).isNull();
+        assertThat(mCache.get(null, PACKAGE_NAME, 10)).isNotNull();
+    }
+
+    @Test
+    public void invalidatePackage_dropsEveryUser() {
+        mCache.put(null, PACKAGE_NAME, USER_ID, createStats(1L, 2L, 3L));
+        mCache.put("uuid", PACKAGE_NAME, 10, createStats(1L, 2L, 3L));
+
+        mCache.invalidatePackage(PACKAGE_NAME);
+
+        assertThat(mCache.get(null, PACKAGE_NAME, USER_ID)).isNull();
+        assertThat(mCache.get("uuid", PACKAGE_NAME, 10)).isNull();
+    }
+
+    @Test
+    public void getAsync_deliversCachedStats() {
+        mCache.put(null, PACKAGE_NAME, USER_ID, createStats(1L, 20L, 3L));
+        final AppStorageStats[] result = new AppStorageStats[1];
+
+        mCache.getAsync(null, PACKAGE_NAME, USER_ID, stats -> result[0] = stats);
+
+        assertThat(result[0].getDataBytes()).isEqualTo(20L);
+    }
+
+    private static AppStorageStats createStats(long code, long data, long cache) {
+        final AppStorageStats stats = mock(AppStorageStats.class);
+        when(stats.getCodeBytes()).thenReturn(code);
+        when(stats.getDataBytes()).thenReturn(data);
+        when(stats.getCacheBytes()).thenReturn(cache);
+        return stats;
+    }
+}
@@ -354,6 +354,25 @@ public class StorageItemPreferenceControllerTest {
         assertThat(mController.mTrashPreference.getSummary().toString()).isEqualTo("100 kB");
     }
 
+    @Test
+    public void onPartialLoad_showsLoadedCategoriesOnly() {
+        mController.displayPreference(mPreferenceScreen);
+
+        final StorageAsyncLoader.StorageResult result = new StorageAsyncLoader.StorageResult();
+        result.imagesSize = MEGABYTE_IN_BYTES * 350;
+        result.videosSize = GIGABYTE_IN_BYTES * 30;
+        result.loadedCategories = StorageAsyncLoader.CATEGORY_IMAGES;
+
+        final SparseArray<StorageAsyncLoader.StorageResult> results = new SparseArray<>();
+        results.put(0, result);
+        mController.onPartialLoad(results, 0);
+
+        final String calculating = mContext.getString(R.string.memory_calculating_size);
+        assertThat(mController.mImagesPreference.getSummary().toString()).isEqualTo("350 MB");
+        assertThat(mController.mVideosPreference.getSummary().toString()).isEqualTo(calculating);
+        assertThat(mController.mSystemPreference.getSummary().toString()).isEqualTo(calculating);
+    }
+
     @Test
     public void settingUserIdAppliesNewIcons() {
         mController.displayPreference(mPreferenceScreen);
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.deviceinfo.storage;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.Context;
+import android.util.SparseArray;
+
+import com.android.settings.testutils.shadow.ShadowThreadUtils;
+import com.android.settingslib.applications.StorageStatsSource;
+import com.android.settingslib.deviceinfo.PrivateStorageInfo;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(shadows = ShadowThreadUtils.class)
+public class StorageResultCacheTest {
+
+    private static final String VOLUME_UUID = "uuid";
+    private static final int USER_ID = 0;
+    private static final long TOTAL_BYTES = 100_000L;
+
+    private File mFile;
+    private StorageResultCache mCache;
+
+    @Before
+    public void setUp() {
+        final Context context = RuntimeEnvironment.application;
+        mFile = new File(context.getCacheDir(), "storage_results_test");
+        mFile.delete();
+        mCache = new StorageResultCache(mFile);
+    }
+
+    @Test
+    public void put_thenGetFromNewInstance_returnsSameResults() {
+        mCache.put(VOLUME_UUID, new PrivateStorageInfo(400L, TOTAL_BYTES), createResults());
+
+        final StorageResultCache.Snapshot snapshot =
+                new StorageResultCache(mFile).get(VOLUME_UUID);
+
+        assertThat(snapshot.storageInfo.freeBytes).isEqualTo(400L);
+        assertThat(snapshot.storageInfo.totalBytes).isEqualTo(TOTAL_BYTES);
+        final StorageAsyncLoader.StorageResult result = snapshot.results.get(USER_ID);
+        assertThat(result.imagesSize).isEqualTo(10L);
+        assertThat(result.gamesSize).isEqualTo(20L);
+        assertThat(result.duplicateCodeSize).isEqualTo(5L);
+        assertThat(result.externalStats.totalBytes).isEqualTo(9L);
+    }
+
+    @Test
+    public void get_otherVolume_returnsNull() {
+        mCache.put(VOLUME_UUID, new PrivateStorageInfo(400L, TOTAL_BYTES), createResults());
+
+        assertThat(mCache.get(null)).isNull();
+    }
+
+    @Test
+    public void clearTrashSize_persistsClearedTrash() {
+        final SparseArray<StorageAsyncLoader.StorageResult> results = createResults();
+        results.get(USER_ID).trashSize = 30L;
+        mCache.put(VOLUME_UUID, new PrivateStorageInfo(400L, TOTAL_BYTES), results);
+
+        mCache.clearTrashSize(VOLUME_UUID, USER_ID);
+
+        final StorageResultCache.Snapshot snapshot =
+                new StorageResultCache(mFile).get(VOLUME_UUID);
+        assertThat(snapshot.results.get(USER_ID).trashSize).isEqualTo(0L);
+        assertThat(snapshot.results.get(USER_ID).imagesSize).isEqualTo(10L);
+        // The results which were put are not changed, they may still be on screen.
+        assertThat(results.get(USER_ID).trashSize).isEqualTo(30L);
+    }
+
+    @Test
+    public void get_invalidUserCount_dropsFile() throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(mFile))) {
+            out.writeInt(1 /* version */);
+            out.writeInt(1 /* volume count */);
+            out.writeUTF(VOLUME_UUID);
+            out.writeLong(400L);
+            out.writeLong(TOTAL_BYTES);
+            out.writeInt(Integer.MAX_VALUE /* user count */);
+        }
+
+        assertThat(mCache.get(VOLUME_UUID)).isNull();
+        assertThat(mFile.exists()).isFalse();
+    }
+
+    private static SparseArray<StorageAsyncLoader.StorageResult> createResults() {
+        final StorageAsyncLoader.StorageResult result = new StorageAsyncLoader.StorageResult();
+        result.imagesSize = 10L;
+        result.gamesSize = 20L;
+        result.duplicateCodeSize = 5L;
+        result.externalStats = new StorageStatsSource.ExternalStorageStats(9, 2, 3, 4, 0);
+        final SparseArray<StorageAsyncLoader.StorageResult> results = new SparseArray<>();
+        results.put(USER_ID, result);
+        return results;
+    }
+}
@@ -19,13 +19,22 @@ package com.android.settings.fuelgauge;
 import static com.google.common.truth.Truth.assertThat;
 
 import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import android.content.Context;
 import android.content.pm.PackageManager;
+import android.content.pm.PackageManager.NameNotFoundException;
 import android.content.res.Resources;
+import android.os.BatteryUsageStats;
+import android.os.UidBatteryConsumer;
+import android.os.UserHandle;
 import android.os.UserManager;
 import android.text.format.DateUtils;
 
@@ -39,11 +48,16 @@ import com.android.settings.testutils.FakeFeatureFactory;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.Answers;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.RuntimeEnvironment;
 
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
 @RunWith(RobolectricTestRunner.class)
 public class BatteryAppListPreferenceControllerTest {
 
@@ -63,6 +77,8 @@ public class BatteryAppListPreferenceControllerTest {
     private UserManager mUserManager;
     @Mock
     private BatteryEntry mBatteryEntry;
+    @Mock(answer = Answers.RETURNS_DEEP_STUBS)
+    private BatteryUsageStats mBatteryUsageStats;
 
     private Context mContext;
     private PowerGaugePreference mPreference;
@@ -150,4 +166,56 @@ public class BatteryAppListPreferenceControllerTest {
     public void testNeverUseFakeData() {
         assertThat(BatteryAppListPreferenceController.USE_FAKE_DATA).isFalse();
     }
+
+    @Test
+    public void getCoalescedUsageList_manyConsumers_keepsTopEntriesInFullSortOrder()
+            throws NameNotFoundException {
+        final int maxEntries = BatteryAppListPreferenceController.MAX_ITEMS_TO_LIST + 2;
+        final int uidCount = maxEntries + 10;
+        final int firstUid = 10001;
+        final int sharedAppIndex = 4;
+        final List<UidBatteryConsumer> consumers = new ArrayList<>();
+        // The coalesced power of each uid, in the order the old full sort got them.
+        final List<double[]> expected = new ArrayList<>();
+        for (int i = 0; i < uidCount; i++) {
+            final int uid = firstUid + i;
+            // Groups of three uids use the same power, one group straddles the cut.
+            final double power = 100 - (i / 3) * 5;
+            consumers.add(mockUidConsumer(uid, power));
+            when(mPackageManager.getPackagesForUid(uid)).thenReturn(new String[] {"pkg" + uid});
+            expected.add(new double[] {uid, power});
+        }
+        // The shared gid of an app is coalesced into the uid of that app.
+        final int sharedUid = firstUid + sharedAppIndex;
+        consumers.add(mockUidConsumer(
+                UserHandle.getSharedAppGid(UserHandle.getAppId(sharedUid)), 20));
+        expected.get(sharedAppIndex)[1] += 20;
+        when(mBatteryUsageStats.getUidBatteryConsumers()).thenReturn(consumers);
+        when(mPackageManager.getApplicationInfo(anyString(), anyInt()))
+                .thenThrow(new NameNotFoundException());
+        mPreferenceController.mBatteryUsageStats = mBatteryUsageStats;
+
+        final List<BatteryEntry> entries = mPreferenceController.getCoalescedUsageList(
+                false /* showAllApps */, false /* loadDataInBackground */, maxEntries);
+
+        // The old full sort was stable, so ties kept their order.
+        expected.sort(Comparator.comparingDouble(usage -> -usage[1]));
+        assertThat(entries).hasSize(maxEntries);
+        for (int i = 0; i < maxEntries; i++) {
+            assertThat(entries.get(i).getUid()).isEqualTo((int) expected.get(i)[0]);
+            assertThat(entries.get(i).getConsumedPower()).isEqualTo(expected.get(i)[1]);
+        }
+        // Only the kept uids get a BatteryEntry, which reads their foreground time.
+        for (int i = 0; i < uidCount; i++) {
+            verify(consumers.get(i), i < maxEntries ? times(1) : never())
+                    .getTimeInStateMs(UidBatteryConsumer.STATE_FOREGROUND);
+        }
+    }
+
+    private static UidBatteryConsumer mockUidConsumer(int uid, double consumedPower) {
+        final UidBatteryConsumer consumer = mock(UidBatteryConsumer.class);
+        when(consumer.getUid()).thenReturn(uid);
+        when(consumer.getConsumedPower()).thenReturn(consumedPower);
+        return consumer;
+    }
 }
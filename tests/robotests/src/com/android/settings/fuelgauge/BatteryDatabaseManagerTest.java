@@ -151,6 +151,22 @@ public class BatteryDatabaseManagerTest {
         assertThat(newAppInfos).containsExactly(mCombinedAppInfo);
     }
 
+    @Test
+    public void insertAnomalies_ignoreDuplicateRecords() {
+        final List<BatteryDatabaseManager.AnomalyRecord> records = new ArrayList<>();
+        records.add(new BatteryDatabaseManager.AnomalyRecord(UID_NEW, PACKAGE_NAME_NEW, TYPE_NEW,
+                AnomalyDatabaseHelper.State.NEW, NOW));
+        records.add(new BatteryDatabaseManager.AnomalyRecord(UID_NEW, PACKAGE_NAME_NEW, TYPE_NEW,
+                AnomalyDatabaseHelper.State.NEW, NOW));
+        records.add(new BatteryDatabaseManager.AnomalyRecord(UID_OLD, PACKAGE_NAME_OLD, TYPE_OLD,
+                AnomalyDatabaseHelper.State.NEW, NOW));
+
+        assertThat(mBatteryDatabaseManager.insertAnomalies(records)).isEqualTo(2);
+        List<AppInfo> appInfos = mBatteryDatabaseManager.queryAllAnomalies(ONE_DAY_BEFORE,
+                AnomalyDatabaseHelper.State.NEW);
+        assertThat(appInfos).containsExactly(mNewAppInfo, mOldAppInfo);
+    }
+
     @Test
     public void allActionFunctions() {
         final long timestamp = System.currentTimeMillis();
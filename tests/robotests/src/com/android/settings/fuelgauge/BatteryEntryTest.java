@@ -214,12 +214,24 @@ public class BatteryEntryTest {
         BatteryEntry.stopRequestQueue();
 
         Locale.setDefault(new Locale("en_US"));
-        BatteryEntry.sUidCache.put(Integer.toString(APP_UID), null);
-        assertThat(BatteryEntry.sUidCache).isNotEmpty();
+        BatteryEntry.sUidCache.put(Integer.toString(APP_UID), new BatteryEntry.UidToDetail());
+        assertThat(BatteryEntry.sUidCache.size()).isEqualTo(1);
 
         Locale.setDefault(new Locale("zh_TW"));
         createBatteryEntryForApp(null, null, HIGH_DRAIN_PACKAGE);
-        assertThat(BatteryEntry.sUidCache).isEmpty(); // check if cache is clear
+        assertThat(BatteryEntry.sUidCache.size()).isEqualTo(0); // check if cache is clear
+    }
+
+    @Test
+    public void testUidCache_exceedMaxSize_evictsLeastRecentlyUsed() {
+        BatteryEntry.clearUidCache();
+        for (int uid = 0; uid <= BatteryEntry.MAX_UID_CACHE_SIZE; uid++) {
+            BatteryEntry.sUidCache.put(Integer.toString(uid), new BatteryEntry.UidToDetail());
+        }
+
+        assertThat(BatteryEntry.sUidCache.size()).isEqualTo(BatteryEntry.MAX_UID_CACHE_SIZE);
+        assertThat(BatteryEntry.sUidCache.get("0")).isNull();
+        BatteryEntry.clearUidCache();
     }
 
     @Test
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import android.os.BatteryStats;
+import android.os.BatteryUsageStats;
+
+import com.android.internal.os.BatteryStatsHistoryIterator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentMatcher;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class BatteryHistoryScanTest {
+
+    @Mock
+    private BatteryUsageStats mBatteryUsageStats;
+    @Mock
+    private BatteryInfo.BatteryDataParser mParser1;
+    @Mock
+    private BatteryInfo.BatteryDataParser mParser2;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        BatteryHistoryScan.clearCache();
+        doAnswer(invocation -> createIterator(
+                new byte[] {
+                        BatteryStats.HistoryItem.CMD_UPDATE,
+                        BatteryStats.HistoryItem.CMD_UPDATE,
+                        BatteryStats.HistoryItem.CMD_START,
+                        BatteryStats.HistoryItem.CMD_UPDATE},
+                new long[] {1000, 1500, 1700, 2000},
+                new byte[] {99, 98, 0, 97}))
+                .when(mBatteryUsageStats).iterateBatteryStatsHistory();
+    }
+
+    @After
+    public void tearDown() {
+        BatteryHistoryScan.clearCache();
+    }
+
+    @Test
+    public void get_sameStats_readsHistoryOnce() {
+        BatteryHistoryScan.get(mBatteryUsageStats).replay(mParser1);
+        BatteryHistoryScan.get(mBatteryUsageStats).replay(mParser2);
+
+        verify(mBatteryUsageStats, times(1)).iterateBatteryStatsHistory();
+    }
+
+    @Test
+    public void replay_feedsDataPointsAndGapsInOrder() {
+        BatteryHistoryScan.get(mBatteryUsageStats).replay(mParser1, mParser2);
+
+        for (BatteryInfo.BatteryDataParser parser :
+                new BatteryInfo.BatteryDataParser[] {mParser1, mParser2}) {
+            final InOrder inOrder = inOrder(parser);
+            inOrder.verify(parser).onParsingStarted(0, 2000);
+            inOrder.verify(parser).onDataPoint(eq(1000L), any());
+            inOrder.verify(parser).onDataPoint(eq(1500L), any());
+            inOrder.verify(parser).onDataGap();
+            inOrder.verify(parser).onDataPoint(eq(2000L), argThatLevel(97));
+            inOrder.verify(parser).onParsingDone();
+            verify(parser, times(3)).onDataPoint(anyLong(), any());
+        }
+    }
+
+    private static BatteryStats.HistoryItem argThatLevel(int level) {
+        final ArgumentMatcher<BatteryStats.HistoryItem> matcher =
+                record -> record.batteryLevel == level;
+        return argThat(matcher);
+    }
+
+    private static BatteryStatsHistoryIterator createIterator(
+            byte[] cmds, long[] times, byte[] levels) {
+        final BatteryStatsHistoryIterator iterator = mock(BatteryStatsHistoryIterator.class);
+        final int[] count = new int[1];
+        doAnswer(invocation -> {
+            if (count[0] == cmds.length) {
+                return false;
+            }
+            final BatteryStats.HistoryItem record = invocation.getArgument(0);
+            record.cmd = cmds[count[0]];
+            record.time = times[count[0]];
+            record.batteryLevel = levels[count[0]];
+            count[0]++;
+            return true;
+        }).when(iterator).next(any(BatteryStats.HistoryItem.class));
+        return iterator;
+    }
+}
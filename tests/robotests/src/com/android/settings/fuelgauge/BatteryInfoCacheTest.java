@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.BatteryManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+@RunWith(RobolectricTestRunner.class)
+public class BatteryInfoCacheTest {
+
+    private Context mContext;
+    private int mLoadCount;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        BatteryInfoCache.clear();
+    }
+
+    @After
+    public void tearDown() {
+        BatteryInfoCache.clear();
+    }
+
+    @Test
+    public void get_sameBatteryState_loadsOnce() {
+        BatteryInfoCache.onBatteryChanged(createBatteryBroadcast(50, 0));
+
+        final BatteryInfo info = BatteryInfoCache.get(mContext, false, this::load);
+
+        assertThat(BatteryInfoCache.get(mContext, false, this::load)).isSameInstanceAs(info);
+        assertThat(mLoadCount).isEqualTo(1);
+    }
+
+    @Test
+    public void get_batteryLevelChanged_loadsAgain() {
+        BatteryInfoCache.onBatteryChanged(createBatteryBroadcast(50, 0));
+        BatteryInfoCache.get(mContext, false, this::load);
+
+        BatteryInfoCache.onBatteryChanged(createBatteryBroadcast(49, 0));
+        BatteryInfoCache.get(mContext, false, this::load);
+
+        assertThat(mLoadCount).isEqualTo(2);
+    }
+
+    @Test
+    public void get_pluggedStateChanged_loadsAgain() {
+        BatteryInfoCache.onBatteryChanged(createBatteryBroadcast(50, 0));
+        BatteryInfoCache.get(mContext, false, this::load);
+
+        BatteryInfoCache.onBatteryChanged(
+                createBatteryBroadcast(50, BatteryManager.BATTERY_PLUGGED_AC));
+        BatteryInfoCache.get(mContext, false, this::load);
+
+        assertThat(mLoadCount).isEqualTo(2);
+    }
+
+    @Test
+    public void get_differentStringLength_loadsEach() {
+        BatteryInfoCache.onBatteryChanged(createBatteryBroadcast(50, 0));
+
+        final BatteryInfo info = BatteryInfoCache.get(mContext, false, this::load);
+        final BatteryInfo shortInfo = BatteryInfoCache.get(mContext, true, this::load);
+
+        assertThat(shortInfo).isNotSameInstanceAs(info);
+        assertThat(mLoadCount).isEqualTo(2);
+    }
+
+    private BatteryInfo load(Intent batteryBroadcast) {
+        mLoadCount++;
+        final BatteryInfo info = new BatteryInfo();
+        info.batteryLevel = batteryBroadcast.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+        return info;
+    }
+
+    private static Intent createBatteryBroadcast(int level, int plugged) {
+        return new Intent(Intent.ACTION_BATTERY_CHANGED)
+                .putExtra(BatteryManager.EXTRA_LEVEL, level)
+                .putExtra(BatteryManager.EXTRA_SCALE, 100)
+                .putExtra(BatteryManager.EXTRA_PLUGGED, plugged);
+    }
+}
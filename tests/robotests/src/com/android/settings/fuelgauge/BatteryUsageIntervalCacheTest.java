@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.settings.fuelgauge;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.ContentValues;
+import android.content.Context;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+@RunWith(RobolectricTestRunner.class)
+public final class BatteryUsageIntervalCacheTest {
+
+    private static final int TIME_SLOT_SIZE = 2;
+
+    private Context mContext;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        BatteryUsageIntervalCache.clear();
+    }
+
+    @After
+    public void tearDown() {
+        BatteryUsageIntervalCache.clear();
+    }
+
+    @Test
+    public void getIndexedUsageMap_matchesFullComputation() {
+        final long[] batteryHistoryKeys = new long[] {101L, 102L, 103L, 104L, 105L};
+        final Map<Long, Map<String, BatteryHistEntry>> batteryHistoryMap =
+            createBatteryHistoryMap(batteryHistoryKeys);
+
+        final Map<Integer, List<BatteryDiffEntry>> expectedMap =
+            ConvertUtils.getIndexedUsageMap(
+                mContext, TIME_SLOT_SIZE, batteryHistoryKeys, batteryHistoryMap,
+                /*purgeLowPercentageAndFakeData=*/ false);
+        final Map<Integer, List<BatteryDiffEntry>> resultMap =
+            BatteryUsageIntervalCache.getIndexedUsageMap(
+                mContext, TIME_SLOT_SIZE, batteryHistoryKeys, batteryHistoryMap,
+                /*purgeLowPercentageAndFakeData=*/ false);
+
+        assertThat(resultMap.keySet()).isEqualTo(expectedMap.keySet());
+        for (Integer index : expectedMap.keySet()) {
+            assertSameUsage(resultMap.get(index), expectedMap.get(index));
+        }
+    }
+
+    @Test
+    public void getIndexedUsageMap_cachesAllButNewestInterval() {
+        final long[] batteryHistoryKeys = new long[] {101L, 102L, 103L, 104L, 105L};
+        final Map<Long, Map<String, BatteryHistEntry>> batteryHistoryMap =
+            createBatteryHistoryMap(batteryHistoryKeys);
+
+        BatteryUsageIntervalCache.getIndexedUsageMap(
+            mContext, TIME_SLOT_SIZE, batteryHistoryKeys, batteryHistoryMap,
+            /*purgeLowPercentageAndFakeData=*/ false);
+
+        assertThat(BatteryUsageIntervalCache.getCachedIntervalCount())
+            .isEqualTo(TIME_SLOT_SIZE * 2 - 1);
+    }
+
+    @Test
+    public void getIndexedUsageMap_newestSnapshotUpdated_recomputesNewestSlot() {
+        final long[] batteryHistoryKeys = new long[] {101L, 102L, 103L, 104L, 105L};
+        final Map<Long, Map<String, BatteryHistEntry>> batteryHistoryMap =
+            createBatteryHistoryMap(batteryHistoryKeys);
+        BatteryUsageIntervalCache.getIndexedUsageMap(
+            mContext, TIME_SLOT_SIZE, batteryHistoryKeys, batteryHistoryMap,
+            /*purgeLowPercentageAndFakeData=*/ false);
+
+        final BatteryHistEntry entry = createBatteryHistEntry(1L, 100.0, 500L, 600L);
+        batteryHistoryMap.get(105L).put(entry.getKey(), entry);
+        final Map<Integer, List<BatteryDiffEntry>> resultMap =
+            BatteryUsageIntervalCache.getIndexedUsageMap(
+                mContext, TIME_SLOT_SIZE, batteryHistoryKeys, batteryHistoryMap,
+                /*purgeLowPercentageAndFakeData=*/ false);
+
+        final List<BatteryDiffEntry> newestSlot = resultMap.get(Integer.valueOf(1));
+        assertThat(newestSlot).hasSize(2);
+        for (BatteryDiffEntry diffEntry : newestSlot) {
+            if (entry.getKey().equals(diffEntry.mBatteryHistEntry.getKey())) {
+                assertThat(diffEntry.mConsumePower).isEqualTo(80.0);
+                assertThat(diffEntry.mForegroundUsageTimeInMs).isEqualTo(490L);
+            }
+        }
+    }
+
+    private static void assertSameUsage(
+            List<BatteryDiffEntry> result, List<BatteryDiffEntry> expected) {
+        assertThat(result).hasSize(expected.size());
+        final Map<String, BatteryDiffEntry> resultByKey = new HashMap<>();
+        for (BatteryDiffEntry entry : result) {
+            resultByKey.put(entry.mBatteryHistEntry.getKey(), entry);
+        }
+        for (BatteryDiffEntry entry : expected) {
+            final BatteryDiffEntry resultEntry =
+                resultByKey.get(entry.mBatteryHistEntry.getKey());
+            assertThat(resultEntry).isNotNull();
+            assertThat(resultEntry.mForegroundUsageTimeInMs)
+                .isEqualTo(entry.mForegroundUsageTimeInMs);
+            assertThat(resultEntry.mBackgroundUsageTimeInMs)
+                .isEqualTo(entry.mBackgroundUsageTimeInMs);
+            assertThat(resultEntry.mConsumePower).isEqualTo(entry.mConsumePower);
+            assertThat(resultEntry.getPercentOfTotal()).isEqualTo(entry.getPercentOfTotal());
+            assertThat(resultEntry.mBatteryHistEntry).isSameInstanceAs(entry.mBatteryHistEntry);
+        }
+    }
+
+    private static Map<Long, Map<String, BatteryHistEntry>> createBatteryHistoryMap(
+            long[] batteryHistoryKeys) {
+        final Map<Long, Map<String, BatteryHistEntry>> batteryHistoryMap = new HashMap<>();
+        for (int index = 0; index < batteryHistoryKeys.length; index++) {
+            final Map<String, BatteryHistEntry> entryMap = new HashMap<>();
+            // Consumer 1 drains through the whole period, consumer 2 only shows up later.
+            final BatteryHistEntry entry1 =
+                createBatteryHistEntry(1L, 10.0 * index, 5L * index, 3L * index);
+            entryMap.put(entry1.getKey(), entry1);
+            if (index >= 2) {
+                final BatteryHistEntry entry2 =
+                    createBatteryHistEntry(2L, 4.0 * index, 2L * index, 1L * index);
+                entryMap.put(entry2.getKey(), entry2);
+            }
+            batteryHistoryMap.put(Long.valueOf(batteryHistoryKeys[index]), entryMap);
+        }
+        return batteryHistoryMap;
+    }
+
+    private static BatteryHistEntry createBatteryHistEntry(
+            long uid, double consumePower,
+            long foregroundUsageTimeInMs, long backgroundUsageTimeInMs) {
+        final ContentValues values = new ContentValues();
+        values.put(BatteryHistEntry.KEY_UID, Long.valueOf(uid));
+        values.put(BatteryHistEntry.KEY_CONSUMER_TYPE,
+            Integer.valueOf(ConvertUtils.CONSUMER_TYPE_UID_BATTERY));
+        values.put(BatteryHistEntry.KEY_CONSUME_POWER, consumePower);
+        values.put(BatteryHistEntry.KEY_FOREGROUND_USAGE_TIME,
+            Long.valueOf(foregroundUsageTimeInMs));
+        values.put(BatteryHistEntry.KEY_BACKGROUND_USAGE_TIME,
+            Long.valueOf(backgroundUsageTimeInMs));
+        return new BatteryHistEntry(values);
+    }
+}
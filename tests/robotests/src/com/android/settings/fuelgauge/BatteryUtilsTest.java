@@ -54,6 +54,7 @@ import android.os.SystemClock;
 
 import com.android.settings.fuelgauge.batterytip.AnomalyDatabaseHelper;
 import com.android.settings.fuelgauge.batterytip.AnomalyInfo;
+import com.android.settings.fuelgauge.batterytip.AppInfo;
 import com.android.settings.fuelgauge.batterytip.BatteryDatabaseManager;
 import com.android.settings.testutils.FakeFeatureFactory;
 import com.android.settings.testutils.shadow.ShadowThreadUtils;
@@ -71,6 +72,7 @@ import org.robolectric.RobolectricTestRunner;
 import org.robolectric.RuntimeEnvironment;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 @RunWith(RobolectricTestRunner.class)
@@ -141,6 +143,7 @@ public class BatteryUtilsTest {
     @Before
     public void setUp() throws PackageManager.NameNotFoundException {
         MockitoAnnotations.initMocks(this);
+        BatteryInfoCache.clear();
 
         mFeatureFactory = FakeFeatureFactory.setupForTest();
         mProvider = mFeatureFactory.powerUsageFeatureProvider;
@@ -380,6 +383,24 @@ public class BatteryUtilsTest {
                 UID, HIGH_SDK_PACKAGE);
     }
 
+    @Test
+    public void testSetForceAppStandby_restrictApps_recordTimeInOneBatch() {
+        final List<AppInfo> appInfos = Arrays.asList(
+                new AppInfo.Builder().setUid(UID).setPackageName(HIGH_SDK_PACKAGE).build(),
+                new AppInfo.Builder().setUid(UID + 1).setPackageName(LOW_SDK_PACKAGE).build());
+
+        mBatteryUtils.setForceAppStandby(appInfos, AppOpsManager.MODE_IGNORED);
+
+        verify(mAppOpsManager).setMode(AppOpsManager.OP_RUN_ANY_IN_BACKGROUND, UID,
+                HIGH_SDK_PACKAGE, AppOpsManager.MODE_IGNORED);
+        verify(mAppOpsManager).setMode(AppOpsManager.OP_RUN_ANY_IN_BACKGROUND, UID + 1,
+                LOW_SDK_PACKAGE, AppOpsManager.MODE_IGNORED);
+        verify(mBatteryDatabaseManager).insertActions(
+                eq(AnomalyDatabaseHelper.ActionType.RESTRICTION), eq(appInfos), anyLong());
+        verify(mBatteryDatabaseManager, never()).insertAction(anyInt(), anyInt(), any(),
+                anyLong());
+    }
+
     @Test
     public void testIsForceAppStandbyEnabled_enabled_returnTrue() {
         when(mAppOpsManager.checkOpNoThrow(AppOpsManager.OP_RUN_ANY_IN_BACKGROUND, UID,
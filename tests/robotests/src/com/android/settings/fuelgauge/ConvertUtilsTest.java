@@ -65,6 +65,7 @@ public final class ConvertUtilsTest {
         mContext = spy(RuntimeEnvironment.application);
         mFeatureFactory = FakeFeatureFactory.setupForTest();
         mPowerUsageFeatureProvider = mFeatureFactory.powerUsageFeatureProvider;
+        BatteryUsageIntervalCache.clear();
     }
 
     @Test
@@ -151,6 +152,97 @@ public final class ConvertUtilsTest {
             .isEqualTo(ConvertUtils.FAKE_PACKAGE_NAME);
     }
 
+    @Test
+    public void convertChangedEntries_unchangedEntry_leavesOutEntry() {
+        mockAppBatteryEntry(/*uid=*/ 1001, /*consumePower=*/ 1.1);
+        final Map<String, BatteryHistEntry> lastSnapshot = new HashMap<>();
+        final BatteryHistEntry lastEntry = new BatteryHistEntry(convertAppBatteryEntry(101L));
+        lastSnapshot.put(lastEntry.getKey(), lastEntry);
+
+        final List<ContentValues> valuesList = convertChangedEntries(lastSnapshot, 102L);
+
+        assertThat(valuesList).hasSize(1);
+        assertThat(valuesList.get(0).getAsString(BatteryHistEntry.KEY_PACKAGE_NAME))
+            .isEqualTo(ConvertUtils.FAKE_PACKAGE_NAME);
+        assertThat(valuesList.get(0).getAsBoolean(BatteryHistEntry.KEY_IS_DELTA_SNAPSHOT))
+            .isTrue();
+    }
+
+    @Test
+    public void convertChangedEntries_changedEntry_keepsEntry() {
+        mockAppBatteryEntry(/*uid=*/ 1001, /*consumePower=*/ 1.1);
+        final Map<String, BatteryHistEntry> lastSnapshot = new HashMap<>();
+        final BatteryHistEntry lastEntry = new BatteryHistEntry(convertAppBatteryEntry(101L));
+        lastSnapshot.put(lastEntry.getKey(), lastEntry);
+        when(mockBatteryEntry.getConsumedPower()).thenReturn(2.2);
+
+        final List<ContentValues> valuesList = convertChangedEntries(lastSnapshot, 102L);
+
+        assertThat(valuesList).hasSize(1);
+        assertThat(valuesList.get(0).getAsDouble(BatteryHistEntry.KEY_CONSUME_POWER))
+            .isEqualTo(2.2);
+    }
+
+    @Test
+    public void convertChangedEntries_rebooted_keepsAllEntries() {
+        mockAppBatteryEntry(/*uid=*/ 1001, /*consumePower=*/ 1.1);
+        final Map<String, BatteryHistEntry> lastSnapshot = new HashMap<>();
+        final BatteryHistEntry lastEntry = new BatteryHistEntry(convertAppBatteryEntry(101L));
+        lastSnapshot.put(lastEntry.getKey(), lastEntry);
+
+        final List<ContentValues> valuesList = convertChangedEntries(lastSnapshot, 100L);
+
+        assertThat(valuesList).hasSize(1);
+        assertThat(valuesList.get(0).getAsLong(BatteryHistEntry.KEY_UID)).isEqualTo(1001L);
+        assertThat(valuesList.get(0).containsKey(BatteryHistEntry.KEY_IS_DELTA_SNAPSHOT))
+            .isFalse();
+    }
+
+    @Test
+    public void restoreUnchangedEntries_restoresEntriesFromPreviousSnapshot() {
+        final Map<Long, Map<String, BatteryHistEntry>> batteryHistoryMap = new HashMap<>();
+        final BatteryHistEntry entry1 =
+            createBatteryHistEntry("package1", "label1", 5.0, 1L, 10L, 20L);
+        final BatteryHistEntry entry2 =
+            createBatteryHistEntry("package2", "label2", 10.0, 2L, 15L, 25L);
+        batteryHistoryMap.put(Long.valueOf(101L), new HashMap<>(Map.of(
+            entry1.getKey(), entry1, entry2.getKey(), entry2)));
+        final BatteryHistEntry changedEntry2 = createBatteryHistEntry(
+            "package2", "label2", 12.0, 2L, 18L, 25L, /*isDeltaSnapshot=*/ true);
+        batteryHistoryMap.put(Long.valueOf(102L), new HashMap<>(Map.of(
+            changedEntry2.getKey(), changedEntry2)));
+
+        ConvertUtils.restoreUnchangedEntries(batteryHistoryMap);
+
+        final Map<String, BatteryHistEntry> snapshot = batteryHistoryMap.get(Long.valueOf(102L));
+        assertThat(snapshot).hasSize(2);
+        assertThat(snapshot.get(entry2.getKey())).isSameInstanceAs(changedEntry2);
+        final BatteryHistEntry restoredEntry1 = snapshot.get(entry1.getKey());
+        assertThat(restoredEntry1.mConsumePower).isEqualTo(5.0);
+        assertThat(restoredEntry1.mForegroundUsageTimeInMs).isEqualTo(10L);
+        assertThat(restoredEntry1.mBackgroundUsageTimeInMs).isEqualTo(20L);
+    }
+
+    @Test
+    public void restoreUnchangedEntries_fullSnapshot_keepsSnapshotUnchanged() {
+        final Map<Long, Map<String, BatteryHistEntry>> batteryHistoryMap = new HashMap<>();
+        final BatteryHistEntry entry1 =
+            createBatteryHistEntry("package1", "label1", 5.0, 1L, 10L, 20L);
+        final BatteryHistEntry entry2 =
+            createBatteryHistEntry("package2", "label2", 10.0, 2L, 15L, 25L);
+        batteryHistoryMap.put(Long.valueOf(101L), new HashMap<>(Map.of(
+            entry1.getKey(), entry1, entry2.getKey(), entry2)));
+        final BatteryHistEntry laterEntry2 =
+            createBatteryHistEntry("package2", "label2", 12.0, 2L, 18L, 25L);
+        batteryHistoryMap.put(Long.valueOf(102L), new HashMap<>(Map.of(
+            laterEntry2.getKey(), laterEntry2)));
+
+        ConvertUtils.restoreUnchangedEntries(batteryHistoryMap);
+
+        final Map<String, BatteryHistEntry> snapshot = batteryHistoryMap.get(Long.valueOf(102L));
+        assertThat(snapshot).containsExactly(laterEntry2.getKey(), laterEntry2);
+    }
+
     @Test
     public void getIndexedUsageMap_nullOrEmptyHistoryMap_returnEmptyCollection() {
         final int timeSlotSize = 2;
@@ -370,11 +462,56 @@ public final class ConvertUtilsTest {
         assertThat(ConvertUtils.getLocale(mContext)).isEqualTo(Locale.getDefault());
     }
 
+    private void mockAppBatteryEntry(int uid, double consumePower) {
+        when(mockBatteryEntry.getUid()).thenReturn(uid);
+        when(mockBatteryEntry.getDefaultPackageName()).thenReturn("com.android.settings");
+        when(mockBatteryEntry.getConsumedPower()).thenReturn(consumePower);
+        when(mockBatteryEntry.getTimeInForegroundMs()).thenReturn(1234L);
+        when(mockBatteryEntry.getTimeInBackgroundMs()).thenReturn(5689L);
+        when(mockBatteryEntry.getConsumerType())
+            .thenReturn(ConvertUtils.CONSUMER_TYPE_UID_BATTERY);
+    }
+
+    private ContentValues convertAppBatteryEntry(long bootTimestamp) {
+        return ConvertUtils.convert(
+            mockBatteryEntry,
+            mBatteryUsageStats,
+            /*batteryLevel=*/ 12,
+            /*batteryStatus=*/ BatteryManager.BATTERY_STATUS_FULL,
+            /*batteryHealth=*/ BatteryManager.BATTERY_HEALTH_COLD,
+            bootTimestamp,
+            /*timestamp=*/ 10001L);
+    }
+
+    private List<ContentValues> convertChangedEntries(
+            Map<String, BatteryHistEntry> lastSnapshot, long bootTimestamp) {
+        return ConvertUtils.convertChangedEntries(
+            Arrays.asList(mockBatteryEntry),
+            mBatteryUsageStats,
+            /*batteryLevel=*/ 11,
+            /*batteryStatus=*/ BatteryManager.BATTERY_STATUS_FULL,
+            /*batteryHealth=*/ BatteryManager.BATTERY_HEALTH_COLD,
+            bootTimestamp,
+            /*timestamp=*/ 20001L,
+            lastSnapshot);
+    }
+
     private static BatteryHistEntry createBatteryHistEntry(
             String packageName, String appLabel, double consumePower,
             long uid, long foregroundUsageTimeInMs, long backgroundUsageTimeInMs) {
+        return createBatteryHistEntry(packageName, appLabel, consumePower, uid,
+            foregroundUsageTimeInMs, backgroundUsageTimeInMs, /*isDeltaSnapshot=*/ false);
+    }
+
+    private static BatteryHistEntry createBatteryHistEntry(
+            String packageName, String appLabel, double consumePower,
+            long uid, long foregroundUsageTimeInMs, long backgroundUsageTimeInMs,
+            boolean isDeltaSnapshot) {
         // Only insert required fields.
         final ContentValues values = new ContentValues();
+        if (isDeltaSnapshot) {
+            values.put(BatteryHistEntry.KEY_IS_DELTA_SNAPSHOT, Boolean.TRUE);
+        }
         values.put(BatteryHistEntry.KEY_PACKAGE_NAME, packageName);
         values.put(BatteryHistEntry.KEY_APP_LABEL, appLabel);
         values.put(BatteryHistEntry.KEY_UID, Long.valueOf(uid));
@@ -25,15 +25,14 @@ import static com.google.common.truth.Truth.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyBoolean;
 import static org.mockito.ArgumentMatchers.anyInt;
-import static org.mockito.ArgumentMatchers.anyLong;
-import static org.mockito.ArgumentMatchers.anyString;
-import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -72,6 +71,7 @@ import org.robolectric.android.controller.ServiceController;
 import org.robolectric.annotation.Config;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 
@@ -147,14 +147,13 @@ public class AnomalyDetectionJobServiceTest {
         doReturn(UID).when(mAnomalyDetectionJobService).extractUidFromStatsDimensionsValue(any());
         doReturn(true).when(mPowerAllowlistBackend).isAllowlisted(any(String[].class));
 
-        mAnomalyDetectionJobService.saveAnomalyToDatabase(mContext,
+        mAnomalyDetectionJobService.saveAnomaliesToDatabase(mContext,
                 mUserManager, mBatteryDatabaseManager, mBatteryUtils, mPolicy,
                 mPowerAllowlistBackend, mContext.getContentResolver(),
                 mFeatureFactory.powerUsageFeatureProvider,
-                mFeatureFactory.metricsFeatureProvider, mBundle);
+                mFeatureFactory.metricsFeatureProvider, Arrays.asList(mBundle));
 
-        verify(mBatteryDatabaseManager, never()).insertAnomaly(anyInt(), anyString(), anyInt(),
-                anyInt(), anyLong());
+        verify(mBatteryDatabaseManager, never()).insertAnomalies(any());
     }
 
     @Test
@@ -168,14 +167,13 @@ public class AnomalyDetectionJobServiceTest {
                 mAnomalyDetectionJobService).extractUidFromStatsDimensionsValue(any());
         doReturn(true).when(mBatteryUtils).shouldHideAnomaly(any(), anyInt(), any());
 
-        mAnomalyDetectionJobService.saveAnomalyToDatabase(mContext,
+        mAnomalyDetectionJobService.saveAnomaliesToDatabase(mContext,
                 mUserManager, mBatteryDatabaseManager, mBatteryUtils, mPolicy,
                 mPowerAllowlistBackend, mContext.getContentResolver(),
                 mFeatureFactory.powerUsageFeatureProvider,
-                mFeatureFactory.metricsFeatureProvider, mBundle);
+                mFeatureFactory.metricsFeatureProvider, Arrays.asList(mBundle));
 
-        verify(mBatteryDatabaseManager, never()).insertAnomaly(anyInt(), anyString(), anyInt(),
-                anyInt(), anyLong());
+        verify(mBatteryDatabaseManager, never()).insertAnomalies(any());
         verify(mFeatureFactory.metricsFeatureProvider).action(SettingsEnums.PAGE_UNKNOWN,
                 MetricsProto.MetricsEvent.ACTION_ANOMALY_IGNORED,
                 SettingsEnums.PAGE_UNKNOWN,
@@ -188,14 +186,13 @@ public class AnomalyDetectionJobServiceTest {
         doReturn(Process.SYSTEM_UID).when(
                 mAnomalyDetectionJobService).extractUidFromStatsDimensionsValue(any());
 
-        mAnomalyDetectionJobService.saveAnomalyToDatabase(mContext,
+        mAnomalyDetectionJobService.saveAnomaliesToDatabase(mContext,
                 mUserManager, mBatteryDatabaseManager, mBatteryUtils, mPolicy,
                 mPowerAllowlistBackend, mContext.getContentResolver(),
                 mFeatureFactory.powerUsageFeatureProvider, mFeatureFactory.metricsFeatureProvider,
-                mBundle);
+                Arrays.asList(mBundle));
 
-        verify(mBatteryDatabaseManager, never()).insertAnomaly(anyInt(), anyString(), anyInt(),
-                anyInt(), anyLong());
+        verify(mBatteryDatabaseManager, never()).insertAnomalies(any());
     }
 
     @Test
@@ -203,14 +200,13 @@ public class AnomalyDetectionJobServiceTest {
         doReturn(AnomalyDetectionJobService.UID_NULL).when(
                 mAnomalyDetectionJobService).extractUidFromStatsDimensionsValue(any());
 
-        mAnomalyDetectionJobService.saveAnomalyToDatabase(mContext,
+        mAnomalyDetectionJobService.saveAnomaliesToDatabase(mContext,
                 mUserManager, mBatteryDatabaseManager, mBatteryUtils, mPolicy,
                 mPowerAllowlistBackend, mContext.getContentResolver(),
                 mFeatureFactory.powerUsageFeatureProvider, mFeatureFactory.metricsFeatureProvider,
-                mBundle);
+                Arrays.asList(mBundle));
 
-        verify(mBatteryDatabaseManager, never()).insertAnomaly(anyInt(), anyString(), anyInt(),
-                anyInt(), anyLong());
+        verify(mBatteryDatabaseManager, never()).insertAnomalies(any());
     }
 
     @Test
@@ -223,14 +219,15 @@ public class AnomalyDetectionJobServiceTest {
         doReturn(Process.FIRST_APPLICATION_UID).when(
                 mAnomalyDetectionJobService).extractUidFromStatsDimensionsValue(any());
 
-        mAnomalyDetectionJobService.saveAnomalyToDatabase(mContext,
+        mAnomalyDetectionJobService.saveAnomaliesToDatabase(mContext,
                 mUserManager, mBatteryDatabaseManager, mBatteryUtils, mPolicy,
                 mPowerAllowlistBackend, mContext.getContentResolver(),
                 mFeatureFactory.powerUsageFeatureProvider, mFeatureFactory.metricsFeatureProvider,
-                mBundle);
+                Arrays.asList(mBundle));
 
-        verify(mBatteryDatabaseManager).insertAnomaly(anyInt(), anyString(), eq(6),
-                eq(AnomalyDatabaseHelper.State.AUTO_HANDLED), anyLong());
+        verify(mBatteryDatabaseManager).insertAnomalies(argThat(records -> records.size() == 1
+                && records.get(0).type == ANOMALY_TYPE
+                && records.get(0).state == AnomalyDatabaseHelper.State.AUTO_HANDLED));
         verify(mFeatureFactory.metricsFeatureProvider).action(SettingsEnums.PAGE_UNKNOWN,
                 MetricsProto.MetricsEvent.ACTION_ANOMALY_TRIGGERED,
                 SettingsEnums.PAGE_UNKNOWN,
@@ -248,14 +245,15 @@ public class AnomalyDetectionJobServiceTest {
         doReturn(Process.FIRST_APPLICATION_UID).when(
                 mAnomalyDetectionJobService).extractUidFromStatsDimensionsValue(any());
 
-        mAnomalyDetectionJobService.saveAnomalyToDatabase(mContext,
+        mAnomalyDetectionJobService.saveAnomaliesToDatabase(mContext,
                 mUserManager, mBatteryDatabaseManager, mBatteryUtils, mPolicy,
                 mPowerAllowlistBackend, mContext.getContentResolver(),
                 mFeatureFactory.powerUsageFeatureProvider, mFeatureFactory.metricsFeatureProvider,
-                mBundle);
+                Arrays.asList(mBundle));
 
-        verify(mBatteryDatabaseManager).insertAnomaly(anyInt(), anyString(), eq(6),
-                eq(AnomalyDatabaseHelper.State.NEW), anyLong());
+        verify(mBatteryDatabaseManager).insertAnomalies(argThat(records -> records.size() == 1
+                && records.get(0).type == ANOMALY_TYPE
+                && records.get(0).state == AnomalyDatabaseHelper.State.NEW));
         verify(mFeatureFactory.metricsFeatureProvider).action(SettingsEnums.PAGE_UNKNOWN,
                 MetricsProto.MetricsEvent.ACTION_ANOMALY_TRIGGERED,
                 SettingsEnums.PAGE_UNKNOWN,
@@ -263,6 +261,35 @@ public class AnomalyDetectionJobServiceTest {
                 ANOMALY_TYPE);
     }
 
+    @Test
+    public void saveAnomaliesToDatabase_duplicateAnomalies_saveLatestOnce() {
+        final ArrayList<String> cookies = new ArrayList<>();
+        cookies.add(SUBSCRIBER_COOKIES_NOT_AUTO_RESTRICTION);
+        mBundle.putStringArrayList(StatsManager.EXTRA_STATS_BROADCAST_SUBSCRIBER_COOKIES, cookies);
+        mBundle.putLong(AnomalyDetectionReceiver.KEY_ANOMALY_TIMESTAMP, 100L);
+        final Bundle latestBundle = new Bundle(mBundle);
+        latestBundle.putLong(AnomalyDetectionReceiver.KEY_ANOMALY_TIMESTAMP, 200L);
+        doReturn(SYSTEM_PACKAGE).when(mBatteryUtils).getPackageName(anyInt());
+        doReturn(Process.FIRST_APPLICATION_UID).when(
+                mAnomalyDetectionJobService).extractUidFromStatsDimensionsValue(any());
+
+        mAnomalyDetectionJobService.saveAnomaliesToDatabase(mContext,
+                mUserManager, mBatteryDatabaseManager, mBatteryUtils, mPolicy,
+                mPowerAllowlistBackend, mContext.getContentResolver(),
+                mFeatureFactory.powerUsageFeatureProvider, mFeatureFactory.metricsFeatureProvider,
+                Arrays.asList(mBundle, latestBundle, mBundle));
+
+        verify(mBatteryUtils).getPackageName(Process.FIRST_APPLICATION_UID);
+        verify(mBatteryDatabaseManager).insertAnomalies(argThat(records -> records.size() == 1
+                && records.get(0).timestampMs == 200L));
+        verify(mFeatureFactory.metricsFeatureProvider, times(3)).action(
+                SettingsEnums.PAGE_UNKNOWN,
+                MetricsProto.MetricsEvent.ACTION_ANOMALY_TRIGGERED,
+                SettingsEnums.PAGE_UNKNOWN,
+                SYSTEM_PACKAGE + "/" + VERSION_CODE,
+                ANOMALY_TYPE);
+    }
+
     @Test
     public void extractUidFromStatsDimensionsValue_extractCorrectUid() {
         // Build an integer dimensions value.
@@ -32,6 +32,8 @@ import com.android.settings.fuelgauge.BatteryUtils;
 import com.android.settings.fuelgauge.batterytip.tips.AppLabelPredicate;
 import com.android.settings.fuelgauge.batterytip.tips.AppRestrictionPredicate;
 import com.android.settings.fuelgauge.batterytip.tips.BatteryTip;
+import com.android.settings.fuelgauge.batterytip.tips.EarlyWarningTip;
+import com.android.settings.fuelgauge.batterytip.tips.LowBatteryTip;
 
 import org.junit.After;
 import org.junit.Before;
@@ -44,7 +46,11 @@ import org.robolectric.RobolectricTestRunner;
 import org.robolectric.RuntimeEnvironment;
 import org.robolectric.util.ReflectionHelpers;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 @RunWith(RobolectricTestRunner.class)
 public class BatteryTipLoaderTest {
@@ -96,4 +102,66 @@ public class BatteryTipLoaderTest {
             assertThat(batteryTips.get(i).getType()).isEqualTo(TIP_ORDER[i]);
         }
     }
+
+    @Test
+    public void testDetect_slowFirstDetector_returnsTipsInOrder() {
+        final CountDownLatch lowBatteryDetected = new CountDownLatch(1);
+        final List<Supplier<BatteryTip>> detectors = new ArrayList<>();
+        detectors.add(() -> {
+            try {
+                lowBatteryDetected.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return new EarlyWarningTip(BatteryTip.StateType.INVISIBLE, false);
+        });
+        detectors.add(() -> {
+            lowBatteryDetected.countDown();
+            return new LowBatteryTip(BatteryTip.StateType.NEW, false);
+        });
+
+        final List<BatteryTip> batteryTips = mBatteryTipLoader.detect(detectors);
+
+        assertThat(batteryTips).hasSize(2);
+        assertThat(batteryTips.get(0).getType()).isEqualTo(BatteryTip.TipType.BATTERY_SAVER);
+        assertThat(batteryTips.get(1).getType()).isEqualTo(BatteryTip.TipType.LOW_BATTERY);
+    }
+
+    @Test
+    public void testDetect_interrupted_returnsDetectedTips() {
+        final CountDownLatch never = new CountDownLatch(1);
+        final List<Supplier<BatteryTip>> detectors = new ArrayList<>();
+        detectors.add(() -> {
+            try {
+                never.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return new EarlyWarningTip(BatteryTip.StateType.INVISIBLE, false);
+        });
+
+        Thread.currentThread().interrupt();
+        final List<BatteryTip> batteryTips = mBatteryTipLoader.detect(detectors);
+
+        assertThat(Thread.interrupted()).isTrue();
+        assertThat(batteryTips).isEmpty();
+    }
+
+    @Test
+    public void testDetect_detectorThrowsError_rethrowsOnLoaderThread() {
+        final List<Supplier<BatteryTip>> detectors = new ArrayList<>();
+        detectors.add(() -> {
+            throw new AssertionError("detector failed");
+        });
+        detectors.add(() -> new LowBatteryTip(BatteryTip.StateType.NEW, false));
+
+        AssertionError error = null;
+        try {
+            mBatteryTipLoader.detect(detectors);
+        } catch (AssertionError e) {
+            error = e;
+        }
+
+        assertThat(error).hasMessageThat().isEqualTo("detector failed");
+    }
 }
@@ -53,6 +53,7 @@ public class RestrictAppActionTest {
 
     @Mock
     private BatteryUtils mBatteryUtils;
+    private List<AppInfo> mAppInfos;
     private RestrictAppAction mRestrictAppAction;
     private FakeFeatureFactory mFeatureFactory;
 
@@ -60,7 +61,7 @@ public class RestrictAppActionTest {
     public void setUp() {
         MockitoAnnotations.initMocks(this);
 
-        final List<AppInfo> mAppInfos = new ArrayList<>();
+        mAppInfos = new ArrayList<>();
         mAppInfos.add(new AppInfo.Builder()
                 .setUid(UID_1)
                 .setPackageName(PACKAGE_NAME_1)
@@ -87,10 +88,7 @@ public class RestrictAppActionTest {
     public void testHandlePositiveAction() {
         mRestrictAppAction.handlePositiveAction(METRICS_KEY);
 
-        verify(mBatteryUtils)
-                .setForceAppStandby(UID_1, PACKAGE_NAME_1, AppOpsManager.MODE_IGNORED);
-        verify(mBatteryUtils)
-                .setForceAppStandby(UID_2, PACKAGE_NAME_2, AppOpsManager.MODE_IGNORED);
+        verify(mBatteryUtils).setForceAppStandby(mAppInfos, AppOpsManager.MODE_IGNORED);
         verify(mFeatureFactory.metricsFeatureProvider).action(SettingsEnums.PAGE_UNKNOWN,
                 MetricsProto.MetricsEvent.ACTION_TIP_RESTRICT_APP, METRICS_KEY, PACKAGE_NAME_1, 0);
         verify(mFeatureFactory.metricsFeatureProvider).action(SettingsEnums.PAGE_UNKNOWN,
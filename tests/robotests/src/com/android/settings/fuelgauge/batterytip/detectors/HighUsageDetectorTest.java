@@ -33,6 +33,7 @@ import android.os.BatteryUsageStats;
 import android.os.BatteryUsageStatsQuery;
 import android.os.UidBatteryConsumer;
 
+import com.android.settings.fuelgauge.BatteryInfoCache;
 import com.android.settings.fuelgauge.BatteryUtils;
 import com.android.settings.fuelgauge.batterytip.AppInfo;
 import com.android.settings.fuelgauge.batterytip.BatteryTipPolicy;
@@ -84,6 +85,7 @@ public class HighUsageDetectorTest {
     @Before
     public void setUp() {
         MockitoAnnotations.initMocks(this);
+        BatteryInfoCache.clear();
 
         mContext = spy(RuntimeEnvironment.application);
         mPolicy = spy(new BatteryTipPolicy(mContext));
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.notification;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.app.INotificationManager;
+import android.app.NotificationManager;
+import android.content.BroadcastReceiver;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.RemoteException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowApplication;
+
+@RunWith(RobolectricTestRunner.class)
+public class CachingNotificationBackendTest {
+
+    private static final String PKG = "com.example.app";
+    private static final int UID = 10123;
+
+    @Mock
+    private INotificationManager mINM;
+
+    private INotificationManager mOriginalINM;
+    private CachingNotificationBackend mBackend;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        mOriginalINM = NotificationBackend.sINM;
+        NotificationBackend.sINM = mINM;
+        CachingNotificationBackend.invalidateAll();
+        mBackend = new CachingNotificationBackend(RuntimeEnvironment.application);
+    }
+
+    @After
+    public void tearDown() {
+        NotificationBackend.sINM = mOriginalINM;
+        CachingNotificationBackend.invalidateAll();
+    }
+
+    @Test
+    public void getNotificationsBanned_queriedTwice_onlyOneBinderCall() throws RemoteException {
+        when(mINM.areNotificationsEnabledForPackage(PKG, UID)).thenReturn(false);
+
+        assertThat(mBackend.getNotificationsBanned(PKG, UID)).isTrue();
+        assertThat(new CachingNotificationBackend(RuntimeEnvironment.application).getNotificationsBanned(PKG, UID)).isTrue();
+
+        verify(mINM, times(1)).areNotificationsEnabledForPackage(PKG, UID);
+    }
+
+    @Test
+    public void setNotificationsEnabledForPackage_invalidatesUid() throws RemoteException {
+        when(mINM.areNotificationsEnabledForPackage(PKG, UID)).thenReturn(false, true);
+        mBackend.getNotificationsBanned(PKG, UID);
+
+        new NotificationBackend().setNotificationsEnabledForPackage(PKG, UID, true);
+
+        assertThat(mBackend.getNotificationsBanned(PKG, UID)).isFalse();
+        verify(mINM, times(2)).areNotificationsEnabledForPackage(PKG, UID);
+    }
+
+    @Test
+    public void packageChanged_withoutPrefetch_invalidatesUid() throws RemoteException {
+        when(mINM.areNotificationsEnabledForPackage(PKG, UID)).thenReturn(false, true);
+        mBackend.getNotificationsBanned(PKG, UID);
+
+        final Intent intent = new Intent(Intent.ACTION_PACKAGE_CHANGED,
+                Uri.fromParts("package", PKG, null));
+        intent.putExtra(Intent.EXTRA_UID, UID);
+        sendBroadcast(intent);
+
+        assertThat(mBackend.getNotificationsBanned(PKG, UID)).isFalse();
+        verify(mINM, times(2)).areNotificationsEnabledForPackage(PKG, UID);
+    }
+
+    @Test
+    public void notificationPolicyChanged_invalidatesAll() throws RemoteException {
+        when(mINM.getNumNotificationChannelsForPackage(PKG, UID, false)).thenReturn(3, 4);
+        mBackend.getChannelCount(PKG, UID);
+
+        sendBroadcast(new Intent(NotificationManager.ACTION_NOTIFICATION_POLICY_CHANGED));
+
+        assertThat(mBackend.getChannelCount(PKG, UID)).isEqualTo(4);
+        verify(mINM, times(2)).getNumNotificationChannelsForPackage(PKG, UID, false);
+    }
+
+    @Test
+    public void getChannelCount_otherUidInvalidated_staysCached() throws RemoteException {
+        when(mINM.getNumNotificationChannelsForPackage(PKG, UID, false)).thenReturn(3);
+        mBackend.getChannelCount(PKG, UID);
+
+        CachingNotificationBackend.invalidate(UID + 1);
+
+        assertThat(mBackend.getChannelCount(PKG, UID)).isEqualTo(3);
+        verify(mINM, times(1)).getNumNotificationChannelsForPackage(PKG, UID, false);
+    }
+
+    private static void sendBroadcast(Intent intent) {
+        for (BroadcastReceiver receiver :
+                ShadowApplication.getInstance().getReceiversForIntent(intent)) {
+            receiver.onReceive(RuntimeEnvironment.application, intent);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.notification;
+
+import static android.app.NotificationManager.IMPORTANCE_DEFAULT;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.app.NotificationChannel;
+import android.content.pm.ParceledListSlice;
+import android.service.notification.ConversationChannelWrapper;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class ConversationCacheTest {
+
+    @Mock
+    private NotificationBackend mBackend;
+
+    private ConversationCache mCache;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        mCache = new ConversationCache(RuntimeEnvironment.application);
+    }
+
+    @Test
+    public void getConversations_queriedTwice_onlyOneBinderCall() {
+        when(mBackend.getConversations(anyBoolean())).thenReturn(slice(
+                getConvo("a", 1, "c1", false)));
+
+        mCache.getConversations(mBackend, false);
+        mCache.getConversations(mBackend, true);
+
+        verify(mBackend, times(1)).getConversations(anyBoolean());
+    }
+
+    @Test
+    public void getConversations_onlyImportant_filtersCachedList() {
+        when(mBackend.getConversations(false)).thenReturn(slice(
+                getConvo("a", 1, "c1", false), getConvo("a", 1, "c2", true)));
+
+        final List<ConversationChannelWrapper> important = mCache.getConversations(mBackend, true);
+
+        assertThat(important).hasSize(1);
+        assertThat(important.get(0).getNotificationChannel().getId()).isEqualTo("c2");
+    }
+
+    @Test
+    public void onChannelUpdated_demoted_removedWithoutQuery() {
+        final ConversationChannelWrapper convo = getConvo("a", 1, "c1", false);
+        when(mBackend.getConversations(false)).thenReturn(slice(convo));
+        mCache.getConversations(mBackend, false);
+
+        final NotificationChannel demoted = convo.getNotificationChannel().copy();
+        demoted.setDemoted(true);
+        mCache.onChannelUpdated("a", 1, demoted);
+
+        assertThat(mCache.getConversations(mBackend, false)).isEmpty();
+        verify(mBackend, times(1)).getConversations(false);
+        verify(mBackend, never()).getConversations("a", 1);
+    }
+
+    @Test
+    public void onChannelUpdated_replacesWrapperWithCopyOfChannel() {
+        final ConversationChannelWrapper convo = getConvo("a", 1, "c1", false);
+        when(mBackend.getConversations(false)).thenReturn(slice(convo));
+        mCache.getConversations(mBackend, false);
+
+        final NotificationChannel updated = convo.getNotificationChannel().copy();
+        updated.setImportantConversation(true);
+        mCache.onChannelUpdated("a", 1, updated);
+        updated.setImportantConversation(false);
+
+        final List<ConversationChannelWrapper> conversations =
+                mCache.getConversations(mBackend, false);
+        assertThat(conversations).hasSize(1);
+        assertThat(conversations.get(0)).isNotSameInstanceAs(convo);
+        assertThat(conversations.get(0).getNotificationChannel()).isNotSameInstanceAs(updated);
+        assertThat(conversations.get(0).getNotificationChannel().isImportantConversation())
+                .isTrue();
+        assertThat(convo.getNotificationChannel().isImportantConversation()).isFalse();
+    }
+
+    @Test
+    public void onPackageChanged_onlyRequeriesThatPackage() {
+        when(mBackend.getConversations(false)).thenReturn(slice(
+                getConvo("a", 1, "c1", false), getConvo("b", 2, "c2", false)));
+        when(mBackend.getConversations("a", 1)).thenReturn(slice(
+                getConvo("a", 1, "c3", false)));
+        mCache.getConversations(mBackend, false);
+
+        mCache.onPackageChanged("a", 1);
+        final List<ConversationChannelWrapper> conversations =
+                mCache.getConversations(mBackend, false);
+
+        final List<String> ids = new ArrayList<>();
+        for (ConversationChannelWrapper conversation : conversations) {
+            ids.add(conversation.getNotificationChannel().getId());
+        }
+        assertThat(ids).containsExactly("c2", "c3");
+        verify(mBackend, times(1)).getConversations(false);
+    }
+
+    private static ConversationChannelWrapper getConvo(String pkg, int uid, String id,
+            boolean important) {
+        final NotificationChannel channel = new NotificationChannel(id, id, IMPORTANCE_DEFAULT);
+        channel.setConversationId("parent", id);
+        channel.setImportantConversation(important);
+        final ConversationChannelWrapper ccw = new ConversationChannelWrapper();
+        ccw.setNotificationChannel(channel);
+        ccw.setPkg(pkg);
+        ccw.setUid(uid);
+        return ccw;
+    }
+
+    private static ParceledListSlice<ConversationChannelWrapper> slice(
+            ConversationChannelWrapper... conversations) {
+        return new ParceledListSlice<>(Arrays.asList(conversations));
+    }
+}
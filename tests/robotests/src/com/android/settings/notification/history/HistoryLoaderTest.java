@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.notification.history;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.when;
+
+import android.app.NotificationHistory;
+import android.app.NotificationHistory.HistoricalNotification;
+import android.content.Context;
+import android.content.pm.PackageManager;
+
+import com.android.settings.notification.NotificationBackend;
+import com.android.settings.testutils.shadow.ShadowThreadUtils;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(shadows = ShadowThreadUtils.class)
+public class HistoryLoaderTest {
+
+    @Mock
+    private NotificationBackend mBackend;
+    @Mock
+    private PackageManager mPm;
+
+    private HistoryLoader mLoader;
+    private List<NotificationHistoryPackage> mFirstPage;
+    private final List<List<NotificationHistoryPackage>> mMorePages = new ArrayList<>();
+
+    private final HistoryLoader.OnHistoryLoaderListener mListener =
+            new HistoryLoader.OnHistoryLoaderListener() {
+                @Override
+                public void onHistoryLoaded(List<NotificationHistoryPackage> packages) {
+                    mFirstPage = packages;
+                }
+
+                @Override
+                public void onMoreHistoryLoaded(List<NotificationHistoryPackage> packages) {
+                    mMorePages.add(packages);
+                }
+            };
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        final Context context = RuntimeEnvironment.application;
+        when(mPm.getApplicationInfoAsUser(anyString(), anyInt(), anyInt()))
+                .thenThrow(new PackageManager.NameNotFoundException());
+        mLoader = new HistoryLoader(context, mBackend, mPm);
+    }
+
+    @Test
+    public void groupByPackage_groupsByPackageAndUid_mostRecentFirst() {
+        final NotificationHistory history = new NotificationHistory();
+        history.addNotificationToWrite(createNotification("a", 1, 100));
+        history.addNotificationToWrite(createNotification("b", 1, 300));
+        history.addNotificationToWrite(createNotification("a", 1, 200));
+        history.addNotificationToWrite(createNotification("a", 2, 50));
+
+        final List<NotificationHistoryPackage> packages = HistoryLoader.groupByPackage(history);
+
+        assertThat(packages).hasSize(3);
+        assertThat(packages.get(0).pkgName).isEqualTo("b");
+        assertThat(packages.get(1).pkgName).isEqualTo("a");
+        assertThat(packages.get(1).uid).isEqualTo(1);
+        assertThat(packages.get(1).notifications).hasSize(2);
+        assertThat(packages.get(1).getMostRecent()).isEqualTo(200);
+        assertThat(packages.get(2).pkgName).isEqualTo("a");
+        assertThat(packages.get(2).uid).isEqualTo(2);
+    }
+
+    @Test
+    public void load_manyPackages_deliversFirstPageThenPages() {
+        final int packageCount = HistoryLoader.FIRST_PAGE_SIZE + HistoryLoader.PAGE_SIZE + 1;
+        when(mBackend.getNotificationHistory(any(), any()))
+                .thenReturn(createHistory(packageCount));
+
+        mLoader.load(mListener);
+
+        assertThat(mFirstPage).hasSize(HistoryLoader.FIRST_PAGE_SIZE);
+        assertThat(mMorePages).hasSize(2);
+        assertThat(mMorePages.get(0)).hasSize(HistoryLoader.PAGE_SIZE);
+        assertThat(mMorePages.get(1)).hasSize(1);
+        // Pages keep the most recent package first order across page boundaries.
+        assertThat(mFirstPage.get(0).pkgName).isEqualTo("pkg" + (packageCount - 1));
+        assertThat(mMorePages.get(1).get(0).pkgName).isEqualTo("pkg0");
+    }
+
+    @Test
+    public void load_fewPackages_onlyDeliversFirstPage() {
+        when(mBackend.getNotificationHistory(any(), any())).thenReturn(createHistory(2));
+
+        mLoader.load(mListener);
+
+        assertThat(mFirstPage).hasSize(2);
+        assertThat(mMorePages).isEmpty();
+    }
+
+    @Test
+    public void load_noHistory_deliversEmptyFirstPage() {
+        when(mBackend.getNotificationHistory(any(), any())).thenReturn(new NotificationHistory());
+
+        mLoader.load(mListener);
+
+        assertThat(mFirstPage).isEmpty();
+        assertThat(mMorePages).isEmpty();
+    }
+
+    private static NotificationHistory createHistory(int packageCount) {
+        final NotificationHistory history = new NotificationHistory();
+        for (int i = 0; i < packageCount; i++) {
+            history.addNotificationToWrite(createNotification("pkg" + i, 1, 1000 + i));
+        }
+        return history;
+    }
+
+    private static HistoricalNotification createNotification(String pkg, int uid, long time) {
+        return new HistoricalNotification.Builder()
+                .setPackage(pkg)
+                .setUid(uid)
+                .setUserId(0)
+                .setChannelId("channel")
+                .setChannelName("channel")
+                .setTitle("title")
+                .setText("text")
+                .setPostedTimeMs(time)
+                .build();
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.notification.history;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class NotificationLogRowsTest {
+
+    private static final int MAX_SIZE = 3;
+
+    private NotificationLogRows<String[]> mRows;
+
+    @Before
+    public void setUp() {
+        // Each row is {key, payload}.
+        mRows = new NotificationLogRows<>(MAX_SIZE, row -> row[0]);
+    }
+
+    @Test
+    public void add_keepsRowsNewestFirst() {
+        final String[] row1 = {"a", "1"};
+        final String[] row2 = {"b", "2"};
+
+        assertThat(mRows.add(row1)).isNull();
+        assertThat(mRows.add(row2)).isNull();
+
+        assertThat(mRows.getRows()).containsExactly(row2, row1).inOrder();
+    }
+
+    @Test
+    public void getLatest_sameKeyAddedTwice_returnsNewestRow() {
+        final String[] older = {"a", "1"};
+        final String[] newer = {"a", "2"};
+
+        mRows.add(older);
+        mRows.add(newer);
+
+        assertThat(mRows.getLatest("a")).isSameInstanceAs(newer);
+        assertThat(mRows.getRows()).containsExactly(newer, older).inOrder();
+    }
+
+    @Test
+    public void add_full_dropsOldestRow() {
+        final String[] oldest = {"a", "1"};
+        mRows.add(oldest);
+        mRows.add(new String[] {"b", "2"});
+        mRows.add(new String[] {"c", "3"});
+
+        final String[] dropped = mRows.add(new String[] {"d", "4"});
+
+        assertThat(dropped).isSameInstanceAs(oldest);
+        assertThat(mRows.size()).isEqualTo(MAX_SIZE);
+        assertThat(mRows.getLatest("a")).isNull();
+        assertThat(mRows.getLatest("d")).isNotNull();
+    }
+
+    @Test
+    public void add_fullAndDroppedRowIsNotLatest_keepsLatestRowOfKey() {
+        mRows.add(new String[] {"a", "1"});
+        final String[] latest = {"a", "2"};
+        mRows.add(latest);
+        mRows.add(new String[] {"b", "3"});
+
+        mRows.add(new String[] {"c", "4"});
+
+        assertThat(mRows.getLatest("a")).isSameInstanceAs(latest);
+    }
+
+    @Test
+    public void clear_removesAllRows() {
+        mRows.add(new String[] {"a", "1"});
+
+        mRows.clear();
+
+        assertThat(mRows.size()).isEqualTo(0);
+        assertThat(mRows.getLatest("a")).isNull();
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.utils;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.util.ArrayMap;
+
+import com.android.settings.testutils.shadow.ShadowThreadUtils;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(shadows = ShadowThreadUtils.class)
+public class PersistedMapFileTest {
+
+    private static final int VERSION = 1;
+    private static final int MAX_ENTRIES = 10;
+
+    private static final PersistedMapFile.Codec<Long> LONG_CODEC =
+            new PersistedMapFile.Codec<Long>() {
+                @Override
+                public Long read(DataInputStream in) throws IOException {
+                    return in.readLong();
+                }
+
+                @Override
+                public void write(DataOutputStream out, Long value) throws IOException {
+                    out.writeLong(value);
+                }
+            };
+
+    private File mFile;
+    private PersistedMapFile<Long> mMapFile;
+
+    @Before
+    public void setUp() {
+        mFile = new File(RuntimeEnvironment.application.getCacheDir(), "persisted_map_test");
+        mFile.delete();
+        mMapFile = new PersistedMapFile<>("PersistedMapFileTest", mFile, VERSION, MAX_ENTRIES,
+                LONG_CODEC);
+    }
+
+    @Test
+    public void read_noFile_returnsEmptyMap() {
+        assertThat(mMapFile.read()).isEmpty();
+    }
+
+    @Test
+    public void scheduleWrite_thenRead_returnsSameMap() {
+        final ArrayMap<String, Long> map = new ArrayMap<>();
+        map.put("a", 1L);
+        map.put("b", 2L);
+
+        mMapFile.scheduleWrite(() -> new ArrayMap<>(map));
+
+        assertThat(mMapFile.read()).containsExactly("a", 1L, "b", 2L);
+    }
+
+    @Test
+    public void read_invalidCount_dropsFile() throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(mFile))) {
+            out.writeInt(VERSION);
+            out.writeInt(Integer.MAX_VALUE);
+        }
+
+        assertThat(mMapFile.read()).isEmpty();
+        assertThat(mFile.exists()).isFalse();
+    }
+
+    @Test
+    public void read_truncatedFile_dropsFile() throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(mFile))) {
+            out.writeInt(VERSION);
+            out.writeInt(2);
+            out.writeUTF("a");
+            out.writeLong(1L);
+        }
+
+        assertThat(mMapFile.read()).isEmpty();
+        assertThat(mFile.exists()).isFalse();
+    }
+}
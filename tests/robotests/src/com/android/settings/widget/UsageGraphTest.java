@@ -24,8 +24,7 @@ import static org.mockito.Mockito.when;
 
 import android.content.Context;
 import android.content.res.Resources;
-import android.graphics.Canvas;
-import android.graphics.Paint;
+import android.graphics.Path;
 import android.util.SparseIntArray;
 
 import com.android.settingslib.R;
@@ -181,12 +180,12 @@ public class UsageGraphTest {
     }
 
     @Test
-    public void drawFilledPath_emptyPath_shouldNotCrash() {
-        final Canvas canvas = new Canvas();
+    public void updateFilledPath_emptyPath_shouldNotCrash() {
         final SparseIntArray localPaths = new SparseIntArray();
-        final Paint paint = new Paint();
+        final Path path = new Path();
 
         // Should not crash
-        mGraph.drawFilledPath(canvas, localPaths, paint);
+        mGraph.updateFilledPath(localPaths, path);
+        assertThat(path.isEmpty()).isTrue();
     }
 }
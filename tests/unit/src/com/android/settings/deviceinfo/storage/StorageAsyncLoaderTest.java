@@ -25,17 +25,30 @@ import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import android.content.ContentResolver;
 import android.content.Context;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.PackageManager.NameNotFoundException;
 import android.content.pm.UserInfo;
 import android.content.res.Resources;
+import android.database.Cursor;
+import android.database.MatrixCursor;
 import android.net.TrafficStats;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.CancellationSignal;
 import android.os.UserHandle;
 import android.os.UserManager;
+import android.provider.MediaStore;
+import android.provider.MediaStore.Files.FileColumns;
+import android.provider.MediaStore.MediaColumns;
+import android.test.mock.MockContentProvider;
+import android.test.mock.MockContentResolver;
 import android.util.SparseArray;
 
 import androidx.test.core.app.ApplicationProvider;
@@ -51,7 +64,9 @@ import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 @RunWith(AndroidJUnit4.class)
@@ -62,6 +77,7 @@ public class StorageAsyncLoaderTest {
     private static final String PACKAGE_NAME_1 = "com.blah.test";
     private static final String PACKAGE_NAME_2 = "com.blah.test2";
     private static final String PACKAGE_NAME_3 = "com.blah.test3";
+    private static final int FIRST_APP_UID = 10001;
     private static final long DEFAULT_QUOTA = 64 * TrafficStats.MB_IN_BYTES;
 
     @Mock
@@ -159,6 +175,78 @@ public class StorageAsyncLoaderTest {
         assertThat(result.get(SECONDARY_USER_ID).externalStats.totalBytes).isEqualTo(10L);
     }
 
+    @Test
+    public void testDuplicateCodeSizeIsCountedForLaterUsers() throws Exception {
+        addPackage(PACKAGE_NAME_1, 0, 1, 10, ApplicationInfo.CATEGORY_UNDEFINED);
+        UserInfo info = new UserInfo();
+        info.id = SECONDARY_USER_ID;
+        mUsers.add(info);
+
+        SparseArray<StorageAsyncLoader.StorageResult> result = mLoader.loadInBackground();
+
+        assertThat(result.size()).isEqualTo(2);
+        assertThat(result.get(PRIMARY_USER_ID).duplicateCodeSize).isEqualTo(0L);
+        assertThat(result.get(SECONDARY_USER_ID).duplicateCodeSize).isEqualTo(1L);
+        assertThat(result.get(SECONDARY_USER_ID).loadedCategories)
+                .isEqualTo(StorageAsyncLoader.ALL_CATEGORIES);
+    }
+
+    @Test
+    public void testSharedUidPackageOnlyInLaterUserIsNotDuplicate() throws Exception {
+        ApplicationInfo primaryApp =
+                addPackage(PACKAGE_NAME_1, 0, 1, 10, ApplicationInfo.CATEGORY_UNDEFINED);
+        ApplicationInfo secondaryApp = new ApplicationInfo();
+        secondaryApp.packageName = PACKAGE_NAME_2;
+        secondaryApp.uid = UserHandle.getUid(SECONDARY_USER_ID, primaryApp.uid);
+        StorageStatsSource.AppStorageStats storageStats =
+                mock(StorageStatsSource.AppStorageStats.class);
+        when(storageStats.getCodeBytes()).thenReturn(100L);
+        when(storageStats.getDataBytes()).thenReturn(1000L);
+        when(mSource.getStatsForUid(anyString(), eq(secondaryApp.uid))).thenReturn(storageStats);
+        when(mPackageManager.getInstalledApplicationsAsUser(anyInt(), eq(SECONDARY_USER_ID)))
+                .thenReturn(Arrays.asList(secondaryApp));
+        UserInfo info = new UserInfo();
+        info.id = SECONDARY_USER_ID;
+        mUsers.add(info);
+
+        SparseArray<StorageAsyncLoader.StorageResult> result = mLoader.loadInBackground();
+
+        assertThat(result.get(SECONDARY_USER_ID).duplicateCodeSize).isEqualTo(0L);
+    }
+
+    @Test
+    public void testCacheQuotaIsQueriedOncePerUid() throws Exception {
+        ApplicationInfo app1 =
+                addPackage(PACKAGE_NAME_1, 0, 1, 10, ApplicationInfo.CATEGORY_UNDEFINED);
+        ApplicationInfo app2 =
+                addPackage(PACKAGE_NAME_2, 0, 100, 1000, ApplicationInfo.CATEGORY_UNDEFINED);
+        app2.uid = app1.uid;
+
+        SparseArray<StorageAsyncLoader.StorageResult> result = mLoader.loadInBackground();
+
+        assertThat(result.get(PRIMARY_USER_ID).allAppsExceptGamesSize).isEqualTo(1111L);
+        verify(mSource, times(1)).getCacheQuotaBytes(anyString(), anyInt());
+    }
+
+    @Test
+    public void testOnlyPackagesSharingUidAreQueriedPerPackage() throws Exception {
+        ApplicationInfo app1 =
+                addPackage(PACKAGE_NAME_1, 0, 1, 10, ApplicationInfo.CATEGORY_UNDEFINED);
+        ApplicationInfo app2 =
+                addPackage(PACKAGE_NAME_2, 0, 100, 1000, ApplicationInfo.CATEGORY_UNDEFINED);
+        app2.uid = app1.uid;
+        ApplicationInfo app3 =
+                addPackage(PACKAGE_NAME_3, 0, 10, 100, ApplicationInfo.CATEGORY_UNDEFINED);
+
+        SparseArray<StorageAsyncLoader.StorageResult> result = mLoader.loadInBackground();
+
+        assertThat(result.get(PRIMARY_USER_ID).allAppsExceptGamesSize).isEqualTo(1221L);
+        verify(mSource).getStatsForUid(anyString(), eq(app3.uid));
+        verify(mSource, times(1)).getStatsForUid(anyString(), anyInt());
+        verify(mSource, times(2)).getStatsForPackage(anyString(), anyString(),
+                any(UserHandle.class));
+    }
+
     @Test
     public void testUpdatedSystemAppCodeSizeIsCounted() throws Exception {
         ApplicationInfo systemApp =
@@ -179,6 +267,7 @@ public class StorageAsyncLoaderTest {
         mInfo.add(info);
         when(mSource.getStatsForPackage(anyString(), anyString(), any(UserHandle.class)))
                 .thenThrow(new NameNotFoundException());
+        when(mSource.getStatsForUid(anyString(), anyInt())).thenThrow(new IOException());
 
         SparseArray<StorageAsyncLoader.StorageResult> result = mLoader.loadInBackground();
 
@@ -208,6 +297,51 @@ public class StorageAsyncLoaderTest {
         assertThat(result.get(PRIMARY_USER_ID).allAppsExceptGamesSize).isEqualTo(33L);
     }
 
+    @Test
+    public void testFilesAreAttributedToCategories() throws Exception {
+        final MatrixCursor cursor = new MatrixCursor(new String[] {
+                FileColumns.MEDIA_TYPE, MediaColumns.IS_TRASHED, "sum(" + MediaColumns.SIZE + ")"});
+        cursor.addRow(new Object[] {FileColumns.MEDIA_TYPE_IMAGE, 0, 10L});
+        cursor.addRow(new Object[] {FileColumns.MEDIA_TYPE_VIDEO, 0, 20L});
+        cursor.addRow(new Object[] {FileColumns.MEDIA_TYPE_AUDIO, 0, 40L});
+        cursor.addRow(new Object[] {FileColumns.MEDIA_TYPE_NONE, 0, 80L});
+        cursor.addRow(new Object[] {FileColumns.MEDIA_TYPE_PLAYLIST, 0, 160L});
+        cursor.addRow(new Object[] {FileColumns.MEDIA_TYPE_IMAGE, 1, 320L});
+        cursor.addRow(new Object[] {FileColumns.MEDIA_TYPE_NONE, 1, 640L});
+        final Bundle[] queryArgs = new Bundle[1];
+        final String[][] projection = new String[1][];
+        final MockContentResolver resolver = new MockContentResolver();
+        resolver.addProvider(MediaStore.AUTHORITY, new MockContentProvider() {
+            @Override
+            public Cursor query(Uri uri, String[] queryProjection, Bundle args,
+                    CancellationSignal cancellationSignal) {
+                projection[0] = queryProjection;
+                queryArgs[0] = args;
+                return cursor;
+            }
+        });
+        final Context userContext = mock(Context.class);
+        when(userContext.getContentResolver()).thenReturn(resolver);
+        doReturn(userContext).when(mContext)
+                .createPackageContextAsUser(anyString(), anyInt(), any(UserHandle.class));
+
+        SparseArray<StorageAsyncLoader.StorageResult> result = mLoader.loadInBackground();
+
+        final StorageAsyncLoader.StorageResult userResult = result.get(PRIMARY_USER_ID);
+        assertThat(userResult.imagesSize).isEqualTo(10L);
+        assertThat(userResult.videosSize).isEqualTo(20L);
+        assertThat(userResult.audioSize).isEqualTo(40L);
+        assertThat(userResult.documentsAndOtherSize).isEqualTo(240L);
+        assertThat(userResult.trashSize).isEqualTo(960L);
+        // MediaProvider only accepts plain columns in the projection and group by clause.
+        assertThat(projection[0]).asList().containsExactly(FileColumns.MEDIA_TYPE,
+                MediaColumns.IS_TRASHED, "sum(" + MediaColumns.SIZE + ")").inOrder();
+        assertThat(queryArgs[0].getString(ContentResolver.QUERY_ARG_SQL_GROUP_BY))
+                .isEqualTo(FileColumns.MEDIA_TYPE + ", " + MediaColumns.IS_TRASHED);
+        assertThat(queryArgs[0].getString(ContentResolver.QUERY_ARG_SQL_SELECTION))
+                .isEqualTo(StorageAsyncLoader.FILES_SELECTION);
+    }
+
     private ApplicationInfo addPackage(String packageName, long cacheSize, long codeSize,
             long dataSize, int category) throws Exception {
         StorageStatsSource.AppStorageStats storageStats =
@@ -221,6 +355,8 @@ public class StorageAsyncLoaderTest {
         ApplicationInfo info = new ApplicationInfo();
         info.packageName = packageName;
         info.category = category;
+        info.uid = FIRST_APP_UID + mInfo.size();
+        when(mSource.getStatsForUid(anyString(), eq(info.uid))).thenReturn(storageStats);
         mInfo.add(info);
         return info;
     }